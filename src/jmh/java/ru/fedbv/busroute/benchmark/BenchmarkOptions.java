@@ -0,0 +1,101 @@
+package ru.fedbv.busroute.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command line options of benchmark tools in form {@code --name=value}.
+ */
+public class BenchmarkOptions {
+    /**
+     * Option values by name
+     */
+    private final Map<String, String> values = new HashMap<>();
+
+    /**
+     * Parse command line options.
+     *
+     * @param args
+     *        command line arguments
+     *
+     * @throws IllegalArgumentException if argument is not an option
+     */
+    public BenchmarkOptions(String[] args) {
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Option --name=value expected: " + arg);
+            }
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+    }
+
+    /**
+     * Gets the string option value.
+     *
+     * @param name
+     *        option name
+     *
+     * @param defaultValue
+     *        value of absent option
+     *
+     * @return option value
+     */
+    public String getString(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    /**
+     * Gets the integer option value.
+     *
+     * @param name
+     *        option name
+     *
+     * @param defaultValue
+     *        value of absent option
+     *
+     * @return option value
+     */
+    public int getInt(String name, int defaultValue) {
+        String value = values.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Gets the floating point option value.
+     *
+     * @param name
+     *        option name
+     *
+     * @param defaultValue
+     *        value of absent option
+     *
+     * @return option value
+     */
+    public double getDouble(String name, double defaultValue) {
+        String value = values.get(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    /**
+     * Check if option is specified.
+     *
+     * @param name
+     *        option name
+     *
+     * @return {@code true} if option is specified
+     */
+    public boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    /**
+     * Gets the names of specified options.
+     *
+     * @return option names
+     */
+    public Set<String> getNames() {
+        return values.keySet();
+    }
+}
@@ -0,0 +1,124 @@
+package ru.fedbv.busroute.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.apache.log4j.PropertyConfigurator;
+
+import ru.fedbv.busroute.model.AbstractDataProvider;
+import ru.fedbv.busroute.model.BitmapDataProvider;
+import ru.fedbv.busroute.model.CompactMemoryDataProvider;
+import ru.fedbv.busroute.model.DataSourceFactory;
+import ru.fedbv.busroute.model.DatabaseDataProvider;
+import ru.fedbv.busroute.model.IndexedMemoryDataProvider;
+import ru.fedbv.busroute.model.LoadResult;
+import ru.fedbv.busroute.model.MappedDataProvider;
+import ru.fedbv.busroute.model.MemoryDataProvider;
+
+/**
+ * Common benchmark setup: logging, working directory and data providers created like {@link ru.fedbv.busroute.Starter} does.
+ */
+public class BenchmarkSupport {
+    /**
+     * Configure logging to print only warnings and errors, so load progress messages do not flood benchmark output.
+     */
+    public static void configureLogging() {
+        Properties prop = new Properties();
+        prop.setProperty("log4j.rootLogger", "WARN, stdout");
+        prop.setProperty("log4j.appender.stdout", "org.apache.log4j.ConsoleAppender");
+        prop.setProperty("log4j.appender.stdout.layout", "org.apache.log4j.PatternLayout");
+        prop.setProperty("log4j.appender.stdout.layout.ConversionPattern", "%d %-5p %c{1} - %m%n");
+        PropertyConfigurator.configure(prop);
+    }
+
+    /**
+     * Create temporary working directory, which is also application home directory {@code BUS_ROUTE_HOME} holding Derby database.
+     *
+     * @return working directory
+     *
+     * @throws IOException if directory can not be created
+     */
+    public static Path createWorkDirectory() throws IOException {
+        Path workDirectory = Files.createTempDirectory("bus-route-benchmark");
+        System.setProperty("BUS_ROUTE_HOME", workDirectory.toString());
+        return workDirectory;
+    }
+
+    /**
+     * Delete working directory with all files.
+     *
+     * @param workDirectory
+     *        working directory
+     *
+     * @throws IOException if directory can not be read
+     */
+    public static void deleteWorkDirectory(Path workDirectory) throws IOException {
+        if (workDirectory == null) return;
+        try (Stream<Path> paths = Files.walk(workDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Create data provider of data provider mode and load source file into it.
+     * Database mode uses embedded Derby database in application home directory.
+     *
+     * @param dataProviderMode
+     *        data provider mode: memory, index, compact, bitmap, mapped or database
+     *
+     * @param sourceFilePath
+     *        source data file path
+     *
+     * @return loaded data provider
+     */
+    public static AbstractDataProvider createDataProvider(String dataProviderMode, String sourceFilePath) {
+        AbstractDataProvider dataProvider = createEmptyDataProvider(dataProviderMode);
+        dataProvider.setSourceFilePath(sourceFilePath);
+        dataProvider.setSnapshotEnabled(false);
+
+        LoadResult loadResult;
+        if (dataProvider instanceof DatabaseDataProvider) {
+            DatabaseDataProvider databaseDataProvider = (DatabaseDataProvider) dataProvider;
+            databaseDataProvider.setDatabaseType(DatabaseDataProvider.DERBY);
+            databaseDataProvider.setDataSource(DataSourceFactory.createDerbyDataSource());
+            loadResult = databaseDataProvider.createDatabase();
+        } else {
+            loadResult = dataProvider.init();
+        }
+        if (loadResult.getError_count() > 0) {
+            throw new IllegalStateException("Benchmark data loaded with errors: " + loadResult.getError_count());
+        }
+        return dataProvider;
+    }
+
+    /**
+     * Create data provider of data provider mode without loading data.
+     *
+     * @param dataProviderMode
+     *        data provider mode: memory, index, compact, bitmap, mapped or database
+     *
+     * @return data provider
+     */
+    public static AbstractDataProvider createEmptyDataProvider(String dataProviderMode) {
+        switch (dataProviderMode) {
+            case "memory":
+                return new MemoryDataProvider();
+            case "index":
+                return new IndexedMemoryDataProvider();
+            case "compact":
+                return new CompactMemoryDataProvider();
+            case "bitmap":
+                return new BitmapDataProvider();
+            case "mapped":
+                return new MappedDataProvider();
+            case "database":
+                return new DatabaseDataProvider();
+            default:
+                throw new IllegalArgumentException("Unknown data provider mode: " + dataProviderMode);
+        }
+    }
+}
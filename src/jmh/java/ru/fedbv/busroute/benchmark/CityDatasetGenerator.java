@@ -0,0 +1,116 @@
+package ru.fedbv.busroute.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Synthetic city source file generator.
+ * Routes have random length and stops drawn from {@link StopPopularity}, so few hub stops are shared by many routes.
+ * Routes are written as they are generated, so memory does not depend on the number of routes.
+ * <p>
+ * Usage: {@code CityDatasetGenerator --output=routes.txt --routes=1000000 [--stops=N] [--min-stops=10] [--max-stops=40] [--skew=1.0] [--seed=1]}
+ */
+public class CityDatasetGenerator {
+    /**
+     * Maximum default number of stops
+     */
+    private static final int MAX_DEFAULT_STOPS = 1000000;
+
+    /**
+     * Number of routes between progress messages
+     */
+    private static final int PROGRESS_INTERVAL = 1000000;
+
+    /**
+     * Generator entry point.
+     *
+     * @param args
+     *        generator options
+     *
+     * @throws IOException if source file can not be written
+     */
+    public static void main(String[] args) throws IOException {
+        BenchmarkOptions options = new BenchmarkOptions(args);
+        if (!options.has("output") || !options.has("routes")) {
+            System.err.println("Usage: CityDatasetGenerator --output=routes.txt --routes=1000000 [--stops=N] [--min-stops=10] [--max-stops=40] [--skew=1.0] [--seed=1]");
+            System.exit(1);
+        }
+        int routeCount = options.getInt("routes", 0);
+        long startTime = System.nanoTime();
+        generate(Paths.get(options.getString("output", null)), routeCount,
+                options.getInt("stops", getDefaultStopCount(routeCount)),
+                options.getInt("min-stops", 10), options.getInt("max-stops", 40),
+                options.getDouble("skew", 1.0), options.getInt("seed", 1));
+        System.out.println("Generated " + routeCount + " routes in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+    }
+
+    /**
+     * Gets the default number of stops: five stops per route, at least 100 and at most {@link CityDatasetGenerator#MAX_DEFAULT_STOPS}.
+     *
+     * @param routeCount
+     *        number of routes
+     *
+     * @return number of stops
+     */
+    public static int getDefaultStopCount(int routeCount) {
+        return (int) Math.min(Math.max(routeCount * 5L, 100), MAX_DEFAULT_STOPS);
+    }
+
+    /**
+     * Generate source file: estimated lines count, then one line per route with route id and stop ids.
+     *
+     * @param path
+     *        source file path
+     *
+     * @param routeCount
+     *        number of routes
+     *
+     * @param stopCount
+     *        number of distinct stops
+     *
+     * @param minStops
+     *        minimum number of stops of route, at least 2
+     *
+     * @param maxStops
+     *        maximum number of stops of route, at most half of stop count
+     *
+     * @param skew
+     *        Zipf exponent of stop popularity
+     *
+     * @param seed
+     *        random generator seed
+     *
+     * @throws IOException if source file can not be written
+     */
+    public static void generate(Path path, int routeCount, int stopCount, int minStops, int maxStops, double skew, long seed) throws IOException {
+        if (minStops < 2 || maxStops < minStops || maxStops > stopCount / 2) {
+            throw new IllegalArgumentException("Route length should be from 2 to half of stop count: " + minStops + ".." + maxStops);
+        }
+        Random random = new Random(seed);
+        StopPopularity popularity = new StopPopularity(stopCount, skew);
+        int[] stopIds = new int[maxStops];
+        StringBuilder line = new StringBuilder(maxStops * 8 + 12);
+        try (BufferedWriter writer = new BufferedWriter(Files.newBufferedWriter(path, StandardCharsets.US_ASCII), 1 << 20)) {
+            writer.write(routeCount + "\n");
+            for (int routeId = 1; routeId <= routeCount; routeId++) {
+                int routeStops = minStops + random.nextInt(maxStops - minStops + 1);
+                popularity.sampleDistinct(random, stopIds, routeStops);
+                line.setLength(0);
+                line.append(routeId);
+                for (int i = 0; i < routeStops; i++) {
+                    line.append(' ').append(stopIds[i]);
+                }
+                line.append('\n');
+                writer.append(line);
+                if (routeId % PROGRESS_INTERVAL == 0) {
+                    System.out.println("Routes generated: " + routeId);
+                }
+            }
+        }
+    }
+}
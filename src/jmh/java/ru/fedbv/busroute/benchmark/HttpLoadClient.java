@@ -0,0 +1,222 @@
+package ru.fedbv.busroute.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal HTTP/1.1 client of load driver keeping one keep-alive connection.
+ * Requests are prepared as bytes and response bodies are skipped, so client adds little overhead to measured latency.
+ * Client is not thread safe, every load driver thread uses its own client.
+ */
+public class HttpLoadClient implements AutoCloseable {
+    /**
+     * Server host
+     */
+    private final String host;
+
+    /**
+     * Server port
+     */
+    private final int port;
+
+    /**
+     * Connection socket, {@code null} if not connected
+     */
+    private Socket socket;
+
+    /**
+     * Connection input
+     */
+    private InputStream in;
+
+    /**
+     * Connection output
+     */
+    private OutputStream out;
+
+    /**
+     * Connection must be closed after current response
+     */
+    private boolean closeAfterResponse;
+
+    /**
+     * Constructs new HTTP load client
+     *
+     * @param host
+     *        server host
+     *
+     * @param port
+     *        server port
+     */
+    public HttpLoadClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Prepare GET request bytes.
+     *
+     * @param host
+     *        server host
+     *
+     * @param pathAndQuery
+     *        request path with query string
+     *
+     * @return request bytes
+     */
+    public static byte[] createGetRequest(String host, String pathAndQuery) {
+        return ("GET " + pathAndQuery + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Send request and read response, connecting if connection is not open.
+     * Connection is closed if request fails or server closes it.
+     *
+     * @param request
+     *        request bytes
+     *
+     * @return response status
+     *
+     * @throws IOException if request fails
+     */
+    public int send(byte[] request) throws IOException {
+        try {
+            if (socket == null) {
+                connect();
+            }
+            out.write(request);
+            out.flush();
+            int status = readResponse();
+            if (closeAfterResponse) {
+                close();
+            }
+            return status;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Close connection.
+     */
+    @Override
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+
+            }
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+
+    /**
+     * Open connection.
+     *
+     * @throws IOException if connection can not be open
+     */
+    private void connect() throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port));
+        in = new BufferedInputStream(socket.getInputStream(), 8192);
+        out = socket.getOutputStream();
+    }
+
+    /**
+     * Read response status line and headers, then skip body.
+     *
+     * @return response status
+     *
+     * @throws IOException if response can not be read
+     */
+    private int readResponse() throws IOException {
+        String statusLine = readLine();
+        if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) {
+            throw new IOException("Invalid response status line: " + statusLine);
+        }
+        int status = Integer.parseInt(statusLine.substring(9, 12));
+
+        long contentLength = -1;
+        boolean chunked = false;
+        closeAfterResponse = statusLine.startsWith("HTTP/1.0");
+        String header;
+        while (!(header = readLine()).isEmpty()) {
+            int separator = header.indexOf(':');
+            if (separator < 0) continue;
+            String name = header.substring(0, separator).trim();
+            String value = header.substring(separator + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                contentLength = Long.parseLong(value);
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                chunked = value.equalsIgnoreCase("chunked");
+            } else if (name.equalsIgnoreCase("Connection")) {
+                closeAfterResponse = value.equalsIgnoreCase("close");
+            }
+        }
+
+        if (chunked) {
+            long chunkSize;
+            while ((chunkSize = Long.parseLong(readLine().split(";")[0].trim(), 16)) > 0) {
+                skip(chunkSize);
+                readLine();
+            }
+            while (!readLine().isEmpty()) {
+                // skip trailers
+            }
+        } else if (contentLength >= 0) {
+            skip(contentLength);
+        } else {
+            while (in.read() >= 0) {
+                // body ends with connection
+            }
+            closeAfterResponse = true;
+        }
+        return status;
+    }
+
+    /**
+     * Read header line without line end.
+     *
+     * @return line
+     *
+     * @throws IOException if line can not be read
+     */
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) throw new IOException("Connection closed by server");
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Skip bytes of response body.
+     *
+     * @param count
+     *        number of bytes
+     *
+     * @throws IOException if bytes can not be read
+     */
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new IOException("Connection closed by server");
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ru.fedbv.busroute.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.fedbv.busroute.model.AbstractDataProvider;
+import ru.fedbv.busroute.model.LoadResult;
+
+/**
+ * Source data loading benchmark: full load of source file into every data provider, measured as time of one load.
+ * Snapshot is disabled, so every load parses source file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LoadBenchmark {
+    /**
+     * Data provider mode of file load
+     */
+    @Param({"memory", "index", "compact", "bitmap", "database"})
+    public String provider;
+
+    /**
+     * Number of bus routes
+     */
+    @Param({"10000"})
+    public int routes;
+
+    /**
+     * Number of distinct stops
+     */
+    @Param({"5000"})
+    public int stops;
+
+    /**
+     * Number of stops of every route
+     */
+    @Param({"20"})
+    public int stopsPerRoute;
+
+    /**
+     * Zipf exponent of stop popularity
+     */
+    @Param({"0", "1.0"})
+    public double skew;
+
+    /**
+     * Working directory with source file and database
+     */
+    private Path workDirectory;
+
+    /**
+     * Data provider loading source file
+     */
+    private AbstractDataProvider loadingDataProvider;
+
+    /**
+     * Generate source file and create data provider.
+     *
+     * @throws IOException if source file can not be written
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkSupport.configureLogging();
+        workDirectory = BenchmarkSupport.createWorkDirectory();
+        RouteDataset dataset = new RouteDataset(routes, stops, stopsPerRoute, skew);
+        Path sourcePath = workDirectory.resolve("routes.txt");
+        dataset.write(sourcePath);
+        loadingDataProvider = BenchmarkSupport.createDataProvider(provider, sourcePath.toString());
+    }
+
+    /**
+     * Delete working directory.
+     *
+     * @throws IOException if directory can not be read
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteWorkDirectory(workDirectory);
+    }
+
+    /**
+     * Load whole source file into data provider and publish it.
+     *
+     * @return load results statistics
+     */
+    @Benchmark
+    public LoadResult loadFile() {
+        return loadingDataProvider.init();
+    }
+}
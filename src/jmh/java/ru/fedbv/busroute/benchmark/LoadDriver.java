@@ -0,0 +1,513 @@
+package ru.fedbv.busroute.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import ru.fedbv.busroute.Starter;
+import ru.fedbv.busroute.metrics.LatencyHistogram;
+
+/**
+ * HTTP load driver of bus route service.
+ * Starts {@link Starter} on local port with generated or specified source file, sends /api/direct requests of stop pairs
+ * drawn from {@link StopPopularity}, optionally reloads data on {@code /api/reload-data?wait=true} during the run,
+ * and reports throughput and latency percentiles. Reloads wait for data load, so reload latency is the full load time.
+ * <p>
+ * Closed loop ({@code --loop=closed}): every connection sends the next request as soon as the previous response is read.
+ * Slow responses delay requests which would be sent in the meantime (coordinated omission),
+ * so corrected latency complements every slow response with latencies of omitted requests,
+ * sent at expected interval ({@code --expected-interval-us}, mean latency by default).
+ * <p>
+ * Open loop ({@code --loop=open}): requests are scheduled at constant total rate ({@code --rate} per second).
+ * Corrected latency is measured from scheduled send time, so it includes waiting for a busy connection.
+ * <p>
+ * Usage: {@code LoadDriver [--routes=100000] [--source=routes.txt] [--mode=index] [--loop=closed] [--connections=16] [--rate=10000]
+ * [--warmup=5] [--duration=30] [--reload-interval=0] [--query-skew=1.0] [--port=18088] [--json=result.json] [--app.<property>=value]}.
+ * Options {@code --app.<property>} are written to application configuration, for example {@code --app.cache.enabled=true}.
+ */
+public class LoadDriver {
+    /**
+     * Server host
+     */
+    private static final String HOST = "127.0.0.1";
+
+    /**
+     * Number of prepared lookup requests
+     */
+    private static final int REQUEST_COUNT = 1 << 16;
+
+    /**
+     * Driver options
+     */
+    private final BenchmarkOptions options;
+
+    /**
+     * Server port
+     */
+    private final int port;
+
+    /**
+     * Prepared lookup requests
+     */
+    private byte[][] requests;
+
+    /**
+     * Raw latency of measured requests
+     */
+    private LatencyHistogram latency;
+
+    /**
+     * Latency measured from scheduled send time of open loop
+     */
+    private LatencyHistogram scheduledLatency;
+
+    /**
+     * Number of failed requests
+     */
+    private final AtomicLong errorCount = new AtomicLong();
+
+    /**
+     * Latency of data reloads
+     */
+    private final LatencyHistogram reloadLatency = new LatencyHistogram("reload", "", "");
+
+    /**
+     * Number of data reloads rejected with status 409
+     */
+    private final AtomicLong reloadConflicts = new AtomicLong();
+
+    /**
+     * Number of failed data reloads
+     */
+    private final AtomicLong reloadErrors = new AtomicLong();
+
+    /**
+     * Constructs new load driver
+     *
+     * @param options
+     *        driver options
+     */
+    public LoadDriver(BenchmarkOptions options) {
+        this.options = options;
+        this.port = options.getInt("port", 18088);
+    }
+
+    /**
+     * Load driver entry point.
+     *
+     * @param args
+     *        driver options
+     *
+     * @throws Exception if server can not be started or results can not be written
+     */
+    public static void main(String[] args) throws Exception {
+        new LoadDriver(new BenchmarkOptions(args)).run();
+        System.exit(0);
+    }
+
+    /**
+     * Start server, run warmup and measured phases and report results.
+     *
+     * @throws Exception if server can not be started or results can not be written
+     */
+    public void run() throws Exception {
+        int stopCount = startServer();
+        prepareRequests(stopCount);
+
+        String loop = options.getString("loop", "closed");
+        if (!loop.equals("closed") && !loop.equals("open")) {
+            throw new IllegalArgumentException("Unknown loop: " + loop);
+        }
+        int connections = options.getInt("connections", 16);
+        long warmupNanos = options.getInt("warmup", 5) * 1000000000L;
+        long durationNanos = options.getInt("duration", 30) * 1000000000L;
+
+        System.out.println("Warmup " + warmupNanos / 1000000000L + " s");
+        runPhase(loop, connections, warmupNanos, false);
+
+        System.out.println("Measuring " + durationNanos / 1000000000L + " s, " + loop + " loop, " + connections + " connections");
+        errorCount.set(0);
+        long startTime = System.nanoTime();
+        runPhase(loop, connections, durationNanos, true);
+        long elapsedNanos = System.nanoTime() - startTime;
+
+        LatencyHistogram correctedLatency;
+        if (loop.equals("open")) {
+            correctedLatency = scheduledLatency;
+        } else {
+            long expectedIntervalNanos = options.has("expected-interval-us")
+                    ? (long) (options.getDouble("expected-interval-us", 0) * 1000)
+                    : latency.getCount() == 0 ? 0 : latency.getSum() / latency.getCount();
+            correctedLatency = latency.copyCorrectedForCoordinatedOmission(expectedIntervalNanos);
+        }
+        report(loop, connections, elapsedNanos, correctedLatency);
+    }
+
+    /**
+     * Write application configuration, generate source file if it is not specified, start {@link Starter}
+     * on background thread and wait until it accepts connections.
+     *
+     * @return number of stops of source file, used to draw requested stops
+     *
+     * @throws Exception if server can not be started
+     */
+    private int startServer() throws Exception {
+        Path home = options.has("home") ? Paths.get(options.getString("home", null)) : Files.createTempDirectory("bus-route-load");
+        Files.createDirectories(home.resolve("config"));
+
+        int stopCount;
+        Path sourcePath;
+        if (options.has("source")) {
+            sourcePath = Paths.get(options.getString("source", null)).toAbsolutePath();
+            stopCount = options.getInt("stops", CityDatasetGenerator.getDefaultStopCount(countRoutes(sourcePath)));
+        } else {
+            int routeCount = options.getInt("routes", 100000);
+            stopCount = options.getInt("stops", CityDatasetGenerator.getDefaultStopCount(routeCount));
+            sourcePath = home.resolve("routes.txt").toAbsolutePath();
+            System.out.println("Generating " + routeCount + " routes: " + sourcePath);
+            CityDatasetGenerator.generate(sourcePath, routeCount, stopCount,
+                    options.getInt("min-stops", 10), options.getInt("max-stops", 40), options.getDouble("skew", 1.0), 1);
+        }
+
+        Properties config = new Properties();
+        config.setProperty("port", String.valueOf(port));
+        config.setProperty("source-file", home.toAbsolutePath().relativize(sourcePath).toString());
+        config.setProperty("data-provider-mode", options.getString("mode", "index"));
+        config.setProperty("snapshot.enabled", "false");
+        for (String name : getAppOptionNames()) {
+            config.setProperty(name.substring("app.".length()), options.getString(name, null));
+        }
+        try (OutputStream out = Files.newOutputStream(home.resolve("config/config.properties"))) {
+            config.store(out, "Load driver configuration");
+        }
+        Properties logging = new Properties();
+        logging.setProperty("log4j.rootLogger", "WARN, stdout");
+        logging.setProperty("log4j.appender.stdout", "org.apache.log4j.ConsoleAppender");
+        logging.setProperty("log4j.appender.stdout.layout", "org.apache.log4j.PatternLayout");
+        logging.setProperty("log4j.appender.stdout.layout.ConversionPattern", "%d %-5p %c{1} - %m%n");
+        try (OutputStream out = Files.newOutputStream(home.resolve("config/log4j.properties"))) {
+            logging.store(out, "Load driver logging");
+        }
+
+        System.out.println("Starting server on port " + port + ", home: " + home);
+        long startTime = System.nanoTime();
+        Thread starterThread = new Thread(() -> Starter.main(new String[] {home.toString()}), "starter");
+        starterThread.setDaemon(true);
+        starterThread.start();
+
+        long deadline = startTime + options.getInt("startup-timeout", 600) * 1000000000L;
+        while (!isAccepting()) {
+            if (!starterThread.isAlive() || System.nanoTime() > deadline) {
+                throw new IllegalStateException("Server is not started on port " + port);
+            }
+            Thread.sleep(100);
+        }
+        System.out.println("Server started in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+        return stopCount;
+    }
+
+    /**
+     * Prepare lookup requests of stop pairs drawn from stop popularity with query skew.
+     * Stop ids of source file are expected to be numbered by popularity like {@link CityDatasetGenerator} does.
+     *
+     * @param stopCount
+     *        number of stops
+     */
+    private void prepareRequests(int stopCount) {
+        StopPopularity popularity = new StopPopularity(stopCount, options.getDouble("query-skew", options.getDouble("skew", 1.0)));
+        Random random = new Random(2);
+        int[] pair = new int[2];
+        requests = new byte[REQUEST_COUNT][];
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            popularity.sampleDistinct(random, pair, 2);
+            requests[i] = HttpLoadClient.createGetRequest(HOST, "/api/direct?dep_sid=" + pair[0] + "&arr_sid=" + pair[1]);
+        }
+    }
+
+    /**
+     * Run load phase.
+     *
+     * @param loop
+     *        closed or open loop
+     *
+     * @param connections
+     *        number of connections, each used by its own thread
+     *
+     * @param durationNanos
+     *        phase duration
+     *
+     * @param measured
+     *        phase results are reported and data is reloaded during phase
+     *
+     * @throws InterruptedException if driver thread is interrupted
+     */
+    private void runPhase(String loop, int connections, long durationNanos, boolean measured) throws InterruptedException {
+        latency = new LatencyHistogram("latency", "", "");
+        scheduledLatency = new LatencyHistogram("scheduled_latency", "", "");
+        long phaseStart = System.nanoTime();
+        long phaseEnd = phaseStart + durationNanos;
+        long intervalNanos = (long) (1e9 / options.getDouble("rate", 10000));
+        AtomicLong nextSlot = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            int firstRequest = i * (REQUEST_COUNT / connections);
+            Runnable worker = loop.equals("open")
+                    ? () -> runOpenLoop(firstRequest, phaseStart, phaseEnd, intervalNanos, nextSlot)
+                    : () -> runClosedLoop(firstRequest, phaseEnd);
+            threads.add(new Thread(worker, "load-" + i));
+        }
+        int reloadInterval = options.getInt("reload-interval", 0);
+        if (measured && reloadInterval > 0) {
+            Thread reloader = new Thread(() -> runReloads(reloadInterval * 1000000000L, phaseEnd), "reload");
+            reloader.setDaemon(true);
+            reloader.start();
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Send requests back to back until phase end.
+     *
+     * @param firstRequest
+     *        index of the first prepared request
+     *
+     * @param phaseEnd
+     *        phase end time
+     */
+    private void runClosedLoop(int firstRequest, long phaseEnd) {
+        try (HttpLoadClient client = new HttpLoadClient(HOST, port)) {
+            int requestIndex = firstRequest;
+            long sendTime;
+            while ((sendTime = System.nanoTime()) < phaseEnd) {
+                send(client, requests[requestIndex]);
+                latency.recordSince(sendTime);
+                requestIndex = (requestIndex + 1) & (REQUEST_COUNT - 1);
+            }
+        }
+    }
+
+    /**
+     * Send requests at scheduled times until phase end. Threads take schedule slots in order,
+     * so if all connections are busy, requests are sent late and wait time is included in scheduled latency.
+     *
+     * @param firstRequest
+     *        index of the first prepared request
+     *
+     * @param phaseStart
+     *        phase start time
+     *
+     * @param phaseEnd
+     *        phase end time
+     *
+     * @param intervalNanos
+     *        interval between scheduled requests
+     *
+     * @param nextSlot
+     *        next schedule slot shared by threads
+     */
+    private void runOpenLoop(int firstRequest, long phaseStart, long phaseEnd, long intervalNanos, AtomicLong nextSlot) {
+        try (HttpLoadClient client = new HttpLoadClient(HOST, port)) {
+            int requestIndex = firstRequest;
+            while (true) {
+                long scheduledTime = phaseStart + nextSlot.getAndIncrement() * intervalNanos;
+                if (scheduledTime >= phaseEnd) break;
+                long waitNanos;
+                while ((waitNanos = scheduledTime - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+                long sendTime = System.nanoTime();
+                send(client, requests[requestIndex]);
+                long endTime = System.nanoTime();
+                latency.record(endTime - sendTime);
+                scheduledLatency.record(endTime - scheduledTime);
+                requestIndex = (requestIndex + 1) & (REQUEST_COUNT - 1);
+            }
+        }
+    }
+
+    /**
+     * Request data reload at interval until phase end.
+     * Reload is requested with {@code wait=true}, so response is sent when data is loaded even if reload jobs are enabled.
+     * Rejected reloads (status 409) and failed reloads are counted, not measured.
+     *
+     * @param intervalNanos
+     *        interval between reloads
+     *
+     * @param phaseEnd
+     *        phase end time
+     */
+    private void runReloads(long intervalNanos, long phaseEnd) {
+        byte[] request = HttpLoadClient.createGetRequest(HOST, "/api/reload-data?wait=true");
+        try (HttpLoadClient client = new HttpLoadClient(HOST, port)) {
+            long nextReload = System.nanoTime() + intervalNanos;
+            while (nextReload < phaseEnd) {
+                long waitNanos;
+                while ((waitNanos = nextReload - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+                long sendTime = System.nanoTime();
+                try {
+                    int status = client.send(request);
+                    if (status == 200) {
+                        reloadLatency.recordSince(sendTime);
+                    } else if (status == 409) {
+                        reloadConflicts.incrementAndGet();
+                    } else {
+                        reloadErrors.incrementAndGet();
+                        System.err.println("Reload failed with status " + status);
+                    }
+                } catch (IOException e) {
+                    reloadErrors.incrementAndGet();
+                    System.err.println("Reload failed: " + e.getMessage());
+                }
+                nextReload += intervalNanos;
+            }
+        }
+    }
+
+    /**
+     * Send lookup request, counting failed requests.
+     *
+     * @param client
+     *        HTTP client of thread
+     *
+     * @param request
+     *        request bytes
+     */
+    private void send(HttpLoadClient client, byte[] request) {
+        try {
+            if (client.send(request) != 200) {
+                errorCount.incrementAndGet();
+            }
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Print results and write them as JSON if {@code --json} option is specified.
+     *
+     * @param loop
+     *        closed or open loop
+     *
+     * @param connections
+     *        number of connections
+     *
+     * @param elapsedNanos
+     *        duration of measured phase
+     *
+     * @param correctedLatency
+     *        latency corrected for coordinated omission
+     *
+     * @throws IOException if results can not be written
+     */
+    private void report(String loop, int connections, long elapsedNanos, LatencyHistogram correctedLatency) throws IOException {
+        double throughput = latency.getCount() * 1e9 / elapsedNanos;
+        System.out.println(String.format(Locale.ROOT, "Requests: %d, errors: %d, throughput: %.1f req/s",
+                latency.getCount(), errorCount.get(), throughput));
+        System.out.println("Latency, ms:           " + formatPercentiles(latency));
+        System.out.println("Corrected latency, ms: " + formatPercentiles(correctedLatency));
+        if (reloadLatency.getCount() > 0 || reloadConflicts.get() > 0 || reloadErrors.get() > 0) {
+            System.out.println("Reloads: " + reloadLatency.getCount() + ", conflicts: " + reloadConflicts.get() + ", errors: " + reloadErrors.get()
+                    + ", reload latency, ms: " + formatPercentiles(reloadLatency));
+        }
+
+        if (!options.has("json")) return;
+        try (Writer out = Files.newBufferedWriter(Paths.get(options.getString("json", null)), StandardCharsets.UTF_8)) {
+            out.write(String.format(Locale.ROOT, "{\"loop\": \"%s\", \"connections\": %d, \"mode\": \"%s\", \"duration_s\": %.3f, "
+                    + "\"requests\": %d, \"errors\": %d, \"throughput_rps\": %.1f, ",
+                    loop, connections, options.getString("mode", "index"), elapsedNanos / 1e9, latency.getCount(), errorCount.get(), throughput));
+            if (loop.equals("open")) {
+                out.write(String.format(Locale.ROOT, "\"target_rps\": %.1f, ", options.getDouble("rate", 10000)));
+            }
+            out.write("\"latency\": ");
+            latency.writeJson(out);
+            out.write(", \"corrected_latency\": ");
+            correctedLatency.writeJson(out);
+            out.write(", \"reloads\": " + reloadLatency.getCount() + ", \"reload_conflicts\": " + reloadConflicts.get()
+                    + ", \"reload_errors\": " + reloadErrors.get() + ", \"reload_latency\": ");
+            reloadLatency.writeJson(out);
+            out.write("}\n");
+        }
+        System.out.println("Results written: " + options.getString("json", null));
+    }
+
+    /**
+     * Format latency percentiles in milliseconds.
+     *
+     * @param histogram
+     *        latency histogram
+     *
+     * @return percentiles
+     */
+    private static String formatPercentiles(LatencyHistogram histogram) {
+        return String.format(Locale.ROOT, "p50 %.3f, p99 %.3f, p99.9 %.3f, max %.3f",
+                histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6,
+                histogram.getPercentile(99.9) / 1e6, histogram.getMax() / 1e6);
+    }
+
+    /**
+     * Check if server accepts connections.
+     *
+     * @return {@code true} if connection is accepted
+     */
+    private boolean isAccepting() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(HOST, port), 1000);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the names of options passed to application configuration.
+     *
+     * @return option names with {@code app.} prefix
+     */
+    private List<String> getAppOptionNames() {
+        List<String> names = new ArrayList<>();
+        for (String name : options.getNames()) {
+            if (name.startsWith("app.")) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Read the number of routes from the first line of source file.
+     *
+     * @param sourcePath
+     *        source file path
+     *
+     * @return number of routes
+     *
+     * @throws IOException if source file can not be read
+     */
+    private static int countRoutes(Path sourcePath) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(sourcePath, StandardCharsets.US_ASCII)) {
+            return Integer.parseInt(reader.readLine().trim());
+        }
+    }
+}
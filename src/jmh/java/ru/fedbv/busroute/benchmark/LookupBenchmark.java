@@ -0,0 +1,190 @@
+package ru.fedbv.busroute.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.fedbv.busroute.model.BusRoute;
+import ru.fedbv.busroute.model.DataProvider;
+
+/**
+ * Stop pair lookup benchmark of every data provider.
+ * Hit lookups query two stops of the same route, miss lookups query two stops without common route,
+ * which is the worst case for scanning providers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LookupBenchmark {
+    /**
+     * Data provider mode
+     */
+    @Param({"memory", "index", "compact", "bitmap", "mapped", "database"})
+    public String provider;
+
+    /**
+     * Number of bus routes
+     */
+    @Param({"1000", "10000"})
+    public int routes;
+
+    /**
+     * Number of distinct stops
+     */
+    @Param({"5000"})
+    public int stops;
+
+    /**
+     * Number of stops of every route
+     */
+    @Param({"20"})
+    public int stopsPerRoute;
+
+    /**
+     * Zipf exponent of stop popularity
+     */
+    @Param({"0", "1.0"})
+    public double skew;
+
+    /**
+     * Working directory with source file and database
+     */
+    private Path workDirectory;
+
+    /**
+     * Benchmarked data provider
+     */
+    private DataProvider dataProvider;
+
+    /**
+     * Stop pairs with common route
+     */
+    private int[] hitPairs;
+
+    /**
+     * Stop pairs without common route
+     */
+    private int[] missPairs;
+
+    /**
+     * Position of the next looked up pair of benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        /**
+         * Index of the next pair
+         */
+        private int index;
+
+        /**
+         * Gets the array position of the next pair and moves to the following pair.
+         *
+         * @return position of departure stop id
+         */
+        int next() {
+            int position = index * 2;
+            index = (index + 1) & (RouteDataset.PAIR_COUNT - 1);
+            return position;
+        }
+    }
+
+    /**
+     * Generate dataset and load it into data provider.
+     *
+     * @throws IOException if source file can not be written
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkSupport.configureLogging();
+        workDirectory = BenchmarkSupport.createWorkDirectory();
+        RouteDataset dataset = new RouteDataset(routes, stops, stopsPerRoute, skew);
+        Path sourcePath = workDirectory.resolve("routes.txt");
+        dataset.write(sourcePath);
+        dataProvider = BenchmarkSupport.createDataProvider(provider, sourcePath.toString());
+        hitPairs = dataset.getHitPairs();
+        missPairs = dataset.getMissPairs();
+    }
+
+    /**
+     * Delete working directory.
+     *
+     * @throws IOException if directory can not be read
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteWorkDirectory(workDirectory);
+    }
+
+    /**
+     * Find bus route of stops with common route.
+     *
+     * @param cursor
+     *        pair position of benchmark thread
+     *
+     * @return found bus route
+     */
+    @Benchmark
+    public BusRoute findHit(Cursor cursor) {
+        int position = cursor.next();
+        return dataProvider.findByTwoStopIds(hitPairs[position], hitPairs[position + 1]);
+    }
+
+    /**
+     * Find bus route of stops without common route.
+     *
+     * @param cursor
+     *        pair position of benchmark thread
+     *
+     * @return {@code null}
+     */
+    @Benchmark
+    public BusRoute findMiss(Cursor cursor) {
+        int position = cursor.next();
+        return dataProvider.findByTwoStopIds(missPairs[position], missPairs[position + 1]);
+    }
+
+    /**
+     * Find bus route id of stops with common route without creating bus route object.
+     *
+     * @param cursor
+     *        pair position of benchmark thread
+     *
+     * @return found bus route id
+     */
+    @Benchmark
+    public int findRouteIdHit(Cursor cursor) {
+        int position = cursor.next();
+        return dataProvider.findRouteIdByTwoStopIds(hitPairs[position], hitPairs[position + 1]);
+    }
+
+    /**
+     * Find bus route id of stops without common route without creating bus route object.
+     *
+     * @param cursor
+     *        pair position of benchmark thread
+     *
+     * @return {@link DataProvider#NO_ROUTE}
+     */
+    @Benchmark
+    public int findRouteIdMiss(Cursor cursor) {
+        int position = cursor.next();
+        return dataProvider.findRouteIdByTwoStopIds(missPairs[position], missPairs[position + 1]);
+    }
+}
@@ -0,0 +1,150 @@
+package ru.fedbv.busroute.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.fedbv.busroute.model.AbstractDataProvider;
+import ru.fedbv.busroute.model.BusRoute;
+import ru.fedbv.busroute.model.LoadResult;
+import ru.fedbv.busroute.model.ParallelFileLoader;
+
+/**
+ * Source data parsing benchmark: parsing of whole source data by {@link ParallelFileLoader} chunk parser,
+ * measured as time of one parse. Data is read from memory and parsed routes are not stored,
+ * so it measures parsing and merging of chunks only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParseBenchmark {
+    /**
+     * Number of bus routes
+     */
+    @Param({"10000"})
+    public int routes;
+
+    /**
+     * Number of distinct stops
+     */
+    @Param({"5000"})
+    public int stops;
+
+    /**
+     * Number of stops of every route
+     */
+    @Param({"20"})
+    public int stopsPerRoute;
+
+    /**
+     * Zipf exponent of stop popularity
+     */
+    @Param({"0", "1.0"})
+    public double skew;
+
+    /**
+     * Number of parser threads
+     */
+    @Param({"1", "4"})
+    public int threads;
+
+    /**
+     * Source data bytes with estimated lines count
+     */
+    private byte[] source;
+
+    /**
+     * Data provider parsing lines without storing routes
+     */
+    private ParsingDataProvider parsingDataProvider;
+
+    /**
+     * Data provider which receives parsed bus routes without storing them.
+     */
+    static class ParsingDataProvider extends AbstractDataProvider {
+        /**
+         * Checksum of parsed values, so parsing is not eliminated as dead code
+         */
+        private long checksum;
+
+        @Override
+        protected boolean addBusRoute(int routeId, int[] stopIds, int stopCount) {
+            checksum += routeId + stopCount + stopIds[stopCount - 1];
+            return true;
+        }
+
+        @Override
+        public boolean addBusRoute(BusRoute busRoute) {
+            return true;
+        }
+
+        @Override
+        public LoadResult init() {
+            return new LoadResult();
+        }
+
+        @Override
+        public void createDataStore(int capacity) {
+        }
+
+        @Override
+        public BusRoute findByTwoStopIds(Integer stopId1, Integer stopId2) {
+            return null;
+        }
+
+        @Override
+        public int findRouteIdByTwoStopIds(int stopId1, int stopId2) {
+            return NO_ROUTE;
+        }
+
+        @Override
+        public int[] findAllRouteIdsByTwoStopIds(int stopId1, int stopId2, int limit) {
+            return NO_ROUTES;
+        }
+    }
+
+    /**
+     * Generate source data.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.configureLogging();
+        RouteDataset dataset = new RouteDataset(routes, stops, stopsPerRoute, skew);
+        StringBuilder data = new StringBuilder().append(routes).append('\n');
+        for (int i = 0; i < routes; i++) {
+            data.append(dataset.formatRoute(i)).append('\n');
+        }
+        source = data.toString().getBytes(StandardCharsets.US_ASCII);
+        parsingDataProvider = new ParsingDataProvider();
+    }
+
+    /**
+     * Parse whole source data.
+     *
+     * @return checksum of parsed values
+     *
+     * @throws IOException if source data can not be read
+     */
+    @Benchmark
+    public long parseSource() throws IOException {
+        new ParallelFileLoader(parsingDataProvider, threads).load(new ByteArrayInputStream(source));
+        return parsingDataProvider.checksum;
+    }
+}
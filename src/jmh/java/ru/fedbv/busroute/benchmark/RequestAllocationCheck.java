@@ -0,0 +1,275 @@
+package ru.fedbv.busroute.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import ru.fedbv.busroute.metrics.MetricsRegistry;
+import ru.fedbv.busroute.model.CachingDataProvider;
+import ru.fedbv.busroute.model.DataProvider;
+import ru.fedbv.busroute.model.MeteredDataProvider;
+import ru.fedbv.busroute.service.BusRouteServlet;
+
+/**
+ * Allocation check of GET /api/direct requests without route ids.
+ * {@link BusRouteServlet} is called directly with reusable request and response objects for stop pairs with
+ * and without common route, data providers are decorated like {@link ru.fedbv.busroute.Starter} does with metrics
+ * and with or without cache. Cache is smaller than the number of requested pairs, so cache misses, evictions and
+ * rejections are checked as well. After warm-up, bytes allocated by the request thread are measured with
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}, the check fails if any configuration
+ * allocates on average more than {@link RequestAllocationCheck#MAX_BYTES_PER_REQUEST} per request.
+ * Run by {@code mvn -P benchmark verify} before benchmarks, or:
+ * <pre>
+ * mvn -P benchmark compile exec:java -Dexec.mainClass=ru.fedbv.busroute.benchmark.RequestAllocationCheck [-Dexec.args="requests"]
+ * </pre>
+ * Optional argument is the number of measured requests of every configuration (default 1000000).
+ */
+public class RequestAllocationCheck {
+    /**
+     * Allowed average allocation per request in bytes, covers one-off allocations like counter cells under contention
+     */
+    private static final double MAX_BYTES_PER_REQUEST = 1.0;
+
+    /**
+     * Data provider modes checked
+     */
+    private static final String[] PROVIDERS = {"index", "compact", "bitmap"};
+
+    /**
+     * Number of warm-up requests of every configuration
+     */
+    private static final int WARMUP_REQUESTS = 500000;
+
+    /**
+     * Number of cached stop pairs, less than the number of requested pairs
+     */
+    private static final int CACHE_SIZE = 1024;
+
+    /**
+     * Query string of the current request
+     */
+    private String queryString;
+
+    /**
+     * {@code true} if the last response reported direct bus route
+     */
+    private boolean lastDirect;
+
+    /**
+     * Number of response bytes written
+     */
+    private long responseBytes;
+
+    /**
+     * Request returning the current query string. Methods not used by GET request processing are not supported.
+     */
+    private final HttpServletRequest request = new HttpServletRequestWrapper(unsupported(HttpServletRequest.class)) {
+        @Override
+        public String getMethod() {
+            return "GET";
+        }
+
+        @Override
+        public String getQueryString() {
+            return queryString;
+        }
+
+        @Override
+        public String getParameter(String name) {
+            return null;
+        }
+    };
+
+    /**
+     * Response output stream recording the last response. Responses end with {@code true}\n or {@code false}\n.
+     */
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+        @Override
+        public void write(int b) {
+            responseBytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            responseBytes += len;
+            lastDirect = len >= 4 && b[off + len - 4] == 'u';
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    };
+
+    /**
+     * Response writing into recording output stream. Methods not used by GET request processing are not supported.
+     */
+    private final HttpServletResponse response = new HttpServletResponseWrapper(unsupported(HttpServletResponse.class)) {
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public void setContentType(String type) {
+        }
+
+        @Override
+        public void setCharacterEncoding(String charset) {
+        }
+
+        @Override
+        public void setContentLength(int len) {
+        }
+
+        @Override
+        public void setStatus(int sc) {
+        }
+    };
+
+    /**
+     * Run allocation check of all configurations.
+     *
+     * @param args
+     *        optional number of measured requests of every configuration
+     *
+     * @throws Exception if data can not be loaded or allocation check fails
+     */
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        BenchmarkSupport.configureLogging();
+        Path workDirectory = BenchmarkSupport.createWorkDirectory();
+        try {
+            RouteDataset dataset = new RouteDataset(10000, 5000, 20, 1.0);
+            Path sourcePath = workDirectory.resolve("routes.txt");
+            dataset.write(sourcePath);
+
+            String[] hitQueries = createQueries(dataset.getHitPairs());
+            String[] missQueries = createQueries(dataset.getMissPairs());
+            RequestAllocationCheck check = new RequestAllocationCheck();
+            int failures = 0;
+            for (String provider : PROVIDERS) {
+                DataProvider dataProvider = new MeteredDataProvider(BenchmarkSupport.createDataProvider(provider, sourcePath.toString()),
+                        new MetricsRegistry());
+                for (boolean cache : new boolean[] {false, true}) {
+                    BusRouteServlet servlet = new BusRouteServlet();
+                    servlet.setDataProvider(cache ? new CachingDataProvider(dataProvider, CACHE_SIZE) : dataProvider);
+                    double bytesPerRequest = check.measure(servlet, hitQueries, missQueries, requests);
+                    boolean failed = bytesPerRequest > MAX_BYTES_PER_REQUEST;
+                    System.out.println(String.format("%-8s cache=%-5s %8.2f bytes/request%s", provider, cache, bytesPerRequest, failed ? "  FAILED" : ""));
+                    if (failed) {
+                        failures++;
+                    }
+                }
+            }
+            if (failures > 0) {
+                throw new IllegalStateException(failures + " configurations allocate more than " + MAX_BYTES_PER_REQUEST + " bytes per request");
+            }
+        } finally {
+            BenchmarkSupport.deleteWorkDirectory(workDirectory);
+        }
+    }
+
+    /**
+     * Warm up servlet and measure bytes allocated by the current thread per request.
+     * Hit and miss requests alternate, their responses are checked.
+     *
+     * @param servlet
+     *        servlet to call
+     *
+     * @param hitQueries
+     *        query strings of stops with common route
+     *
+     * @param missQueries
+     *        query strings of stops without common route
+     *
+     * @param requests
+     *        number of measured requests
+     *
+     * @return average allocated bytes per request
+     *
+     * @throws ServletException, IOException if request fails or response is wrong
+     */
+    private double measure(BusRouteServlet servlet, String[] hitQueries, String[] missQueries, int requests) throws ServletException, IOException {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        call(servlet, hitQueries, missQueries, WARMUP_REQUESTS);
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        call(servlet, hitQueries, missQueries, requests);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        return (double) allocated / requests;
+    }
+
+    /**
+     * Call servlet with alternating hit and miss requests and check responses.
+     *
+     * @param servlet
+     *        servlet to call
+     *
+     * @param hitQueries
+     *        query strings of stops with common route
+     *
+     * @param missQueries
+     *        query strings of stops without common route
+     *
+     * @param requests
+     *        number of requests
+     *
+     * @throws ServletException, IOException if request fails or response is wrong
+     */
+    private void call(BusRouteServlet servlet, String[] hitQueries, String[] missQueries, int requests) throws ServletException, IOException {
+        for (int i = 0; i < requests; i++) {
+            boolean hit = (i & 1) == 0;
+            String[] queries = hit ? hitQueries : missQueries;
+            queryString = queries[(i >>> 1) % queries.length];
+            long bytesBefore = responseBytes;
+            servlet.service(request, response);
+            if (responseBytes == bytesBefore || lastDirect != hit) {
+                throw new IllegalStateException("Unexpected response of request " + queryString);
+            }
+        }
+    }
+
+    /**
+     * Create query strings of stop pairs.
+     *
+     * @param pairs
+     *        departure and arrival stop ids
+     *
+     * @return query strings
+     */
+    private static String[] createQueries(int[] pairs) {
+        String[] queries = new String[pairs.length / 2];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = "dep_sid=" + pairs[i * 2] + "&arr_sid=" + pairs[i * 2 + 1];
+        }
+        return queries;
+    }
+
+    /**
+     * Create object of the interface, which throws {@link UnsupportedOperationException} from every method.
+     *
+     * @param type
+     *        interface class
+     *
+     * @return object of the interface
+     */
+    private static <T> T unsupported(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            throw new UnsupportedOperationException(method.getName());
+        }));
+    }
+}
@@ -0,0 +1,254 @@
+package ru.fedbv.busroute.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generated bus routes dataset for benchmarks.
+ * Stops of every route are drawn from {@link StopPopularity} distribution.
+ * Dataset is generated from fixed seed, so the same parameters always produce the same routes and lookup pairs.
+ */
+public class RouteDataset {
+    /**
+     * Random generator seed
+     */
+    private static final long SEED = 20170101L;
+
+    /**
+     * Number of generated lookup pairs of every kind
+     */
+    public static final int PAIR_COUNT = 4096;
+
+    /**
+     * Number of attempts to find stop pair without common route
+     */
+    private static final int MISS_ATTEMPTS = 100;
+
+    /**
+     * Number of bus routes
+     */
+    private final int routeCount;
+
+    /**
+     * Number of distinct stops
+     */
+    private final int stopCount;
+
+    /**
+     * Number of stops of every route
+     */
+    private final int stopsPerRoute;
+
+    /**
+     * Stop ids of routes, route with id {@code i + 1} is at index {@code i}
+     */
+    private final int[][] routes;
+
+    /**
+     * Sorted route ids of every stop
+     */
+    private final int[][] stopRoutes;
+
+    /**
+     * Stop pairs with common route: departure and arrival stop ids
+     */
+    private final int[] hitPairs = new int[PAIR_COUNT * 2];
+
+    /**
+     * Stop pairs without common route: departure and arrival stop ids
+     */
+    private final int[] missPairs = new int[PAIR_COUNT * 2];
+
+    /**
+     * Generate dataset.
+     *
+     * @param routeCount
+     *        number of bus routes
+     *
+     * @param stopCount
+     *        number of distinct stops
+     *
+     * @param stopsPerRoute
+     *        number of stops of every route, at most half of stops
+     *
+     * @param skew
+     *        Zipf exponent of stop popularity, {@code 0} for uniform popularity
+     */
+    public RouteDataset(int routeCount, int stopCount, int stopsPerRoute, double skew) {
+        if (stopsPerRoute < 2 || stopsPerRoute > stopCount / 2) {
+            throw new IllegalArgumentException("Stops per route should be from 2 to half of stop count: " + stopsPerRoute);
+        }
+        this.routeCount = routeCount;
+        this.stopCount = stopCount;
+        this.stopsPerRoute = stopsPerRoute;
+
+        Random random = new Random(SEED);
+        StopPopularity popularity = new StopPopularity(stopCount, skew);
+        routes = new int[routeCount][];
+        int[] stopRouteCounts = new int[stopCount];
+        for (int i = 0; i < routeCount; i++) {
+            routes[i] = new int[stopsPerRoute];
+            popularity.sampleDistinct(random, routes[i], stopsPerRoute);
+            for (int stopId : routes[i]) {
+                stopRouteCounts[stopId]++;
+            }
+        }
+
+        stopRoutes = new int[stopCount][];
+        for (int stopId = 0; stopId < stopCount; stopId++) {
+            stopRoutes[stopId] = new int[stopRouteCounts[stopId]];
+            stopRouteCounts[stopId] = 0;
+        }
+        for (int i = 0; i < routeCount; i++) {
+            for (int stopId : routes[i]) {
+                stopRoutes[stopId][stopRouteCounts[stopId]++] = i + 1;
+            }
+        }
+
+        generateHitPairs(random);
+        generateMissPairs(random);
+    }
+
+    /**
+     * Write dataset in source file format: estimated lines count, then one line per route with route id and stop ids.
+     *
+     * @param path
+     *        source file path
+     *
+     * @throws IOException if file can not be written
+     */
+    public void write(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.US_ASCII)) {
+            writer.write(Integer.toString(routeCount));
+            writer.newLine();
+            for (int i = 0; i < routeCount; i++) {
+                writer.write(formatRoute(i));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Format source file line of route.
+     *
+     * @param index
+     *        route index
+     *
+     * @return line with route id and stop ids separated by spaces
+     */
+    public String formatRoute(int index) {
+        StringBuilder line = new StringBuilder(stopsPerRoute * 6 + 8);
+        line.append(index + 1);
+        for (int stopId : routes[index]) {
+            line.append(' ').append(stopId);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Check if two stops have a common route.
+     *
+     * @param stopId1
+     *        first stop id
+     *
+     * @param stopId2
+     *        second stop id
+     *
+     * @return {@code true} if some route contains both stops
+     */
+    public boolean hasCommonRoute(int stopId1, int stopId2) {
+        if (stopId1 < 0 || stopId1 >= stopCount || stopId2 < 0 || stopId2 >= stopCount) return false;
+        int[] routes1 = stopRoutes[stopId1];
+        int[] routes2 = stopRoutes[stopId2];
+        int i = 0;
+        int j = 0;
+        while (i < routes1.length && j < routes2.length) {
+            if (routes1[i] == routes2[j]) return true;
+            if (routes1[i] < routes2[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of bus routes.
+     *
+     * @return number of routes
+     */
+    public int getRouteCount() {
+        return routeCount;
+    }
+
+    /**
+     * Gets the number of distinct stops.
+     *
+     * @return number of stops
+     */
+    public int getStopCount() {
+        return stopCount;
+    }
+
+    /**
+     * Gets the stop pairs with common route.
+     *
+     * @return departure and arrival stop ids of {@link RouteDataset#PAIR_COUNT} pairs
+     */
+    public int[] getHitPairs() {
+        return hitPairs;
+    }
+
+    /**
+     * Gets the stop pairs without common route.
+     *
+     * @return departure and arrival stop ids of {@link RouteDataset#PAIR_COUNT} pairs
+     */
+    public int[] getMissPairs() {
+        return missPairs;
+    }
+
+    /**
+     * Generate pairs of two different stops of random route.
+     *
+     * @param random
+     *        random generator
+     */
+    private void generateHitPairs(Random random) {
+        for (int i = 0; i < PAIR_COUNT; i++) {
+            int[] route = routes[random.nextInt(routeCount)];
+            int position1 = random.nextInt(stopsPerRoute);
+            int position2 = (position1 + 1 + random.nextInt(stopsPerRoute - 1)) % stopsPerRoute;
+            hitPairs[i * 2] = route[position1];
+            hitPairs[i * 2 + 1] = route[position2];
+        }
+    }
+
+    /**
+     * Generate pairs of existing stops without common route.
+     * If such pair is not found in dense dataset, arrival stop is a stop id which is not used by any route.
+     *
+     * @param random
+     *        random generator
+     */
+    private void generateMissPairs(Random random) {
+        for (int i = 0; i < PAIR_COUNT; i++) {
+            int stopId1 = random.nextInt(stopCount);
+            int stopId2 = stopCount + i;
+            for (int attempt = 0; attempt < MISS_ATTEMPTS; attempt++) {
+                int candidate = random.nextInt(stopCount);
+                if (candidate != stopId1 && !hasCommonRoute(stopId1, candidate)) {
+                    stopId2 = candidate;
+                    break;
+                }
+            }
+            missPairs[i * 2] = stopId1;
+            missPairs[i * 2 + 1] = stopId2;
+        }
+    }
+}
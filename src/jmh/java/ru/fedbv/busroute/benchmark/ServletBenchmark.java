@@ -0,0 +1,233 @@
+package ru.fedbv.busroute.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.fedbv.busroute.service.BusRouteServlet;
+
+/**
+ * End-to-end benchmark of GET /api/direct requests to {@link BusRouteServlet} on embedded Jetty.
+ * Requests are sent over keep-alive HTTP/1.1 connections of local client, so result includes HTTP parsing and loopback network.
+ * Run with several benchmark threads ({@code -t}) to measure concurrent requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ServletBenchmark {
+    /**
+     * Data provider mode
+     */
+    @Param({"index", "bitmap"})
+    public String provider;
+
+    /**
+     * Number of bus routes
+     */
+    @Param({"10000"})
+    public int routes;
+
+    /**
+     * Number of distinct stops
+     */
+    @Param({"5000"})
+    public int stops;
+
+    /**
+     * Number of stops of every route
+     */
+    @Param({"20"})
+    public int stopsPerRoute;
+
+    /**
+     * Zipf exponent of stop popularity
+     */
+    @Param({"0", "1.0"})
+    public double skew;
+
+    /**
+     * Working directory with source file
+     */
+    private Path workDirectory;
+
+    /**
+     * Embedded Jetty server
+     */
+    private Server server;
+
+    /**
+     * HTTP client
+     */
+    private HttpClient client;
+
+    /**
+     * Requests of stops with common route
+     */
+    private HttpRequest[] hitRequests;
+
+    /**
+     * Requests of stops without common route
+     */
+    private HttpRequest[] missRequests;
+
+    /**
+     * Position of the next request of benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        /**
+         * Index of the next request
+         */
+        private int index;
+
+        /**
+         * Gets the index of the next request and moves to the following request.
+         *
+         * @return request index
+         */
+        int next() {
+            int current = index;
+            index = (index + 1) & (RouteDataset.PAIR_COUNT - 1);
+            return current;
+        }
+    }
+
+    /**
+     * Generate dataset, load it into data provider and start Jetty on free local port.
+     *
+     * @throws Exception if Jetty can not be started
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkSupport.configureLogging();
+        workDirectory = BenchmarkSupport.createWorkDirectory();
+        RouteDataset dataset = new RouteDataset(routes, stops, stopsPerRoute, skew);
+        Path sourcePath = workDirectory.resolve("routes.txt");
+        dataset.write(sourcePath);
+
+        BusRouteServlet busRouteServlet = new BusRouteServlet();
+        busRouteServlet.setDataProvider(BenchmarkSupport.createDataProvider(provider, sourcePath.toString()));
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        context.addServlet(new ServletHolder(busRouteServlet), "/api/direct");
+
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(context);
+        server.start();
+
+        String baseUrl = "http://127.0.0.1:" + connector.getLocalPort() + "/api/direct";
+        hitRequests = createRequests(baseUrl, dataset.getHitPairs());
+        missRequests = createRequests(baseUrl, dataset.getMissPairs());
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    /**
+     * Stop Jetty and delete working directory.
+     *
+     * @throws Exception if Jetty can not be stopped
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+        BenchmarkSupport.deleteWorkDirectory(workDirectory);
+    }
+
+    /**
+     * Request stops with common route.
+     *
+     * @param cursor
+     *        request position of benchmark thread
+     *
+     * @return response body
+     *
+     * @throws Exception if request fails
+     */
+    @Benchmark
+    public byte[] getHit(Cursor cursor) throws Exception {
+        return send(hitRequests[cursor.next()]);
+    }
+
+    /**
+     * Request stops without common route.
+     *
+     * @param cursor
+     *        request position of benchmark thread
+     *
+     * @return response body
+     *
+     * @throws Exception if request fails
+     */
+    @Benchmark
+    public byte[] getMiss(Cursor cursor) throws Exception {
+        return send(missRequests[cursor.next()]);
+    }
+
+    /**
+     * Send request and read response body.
+     *
+     * @param request
+     *        HTTP request
+     *
+     * @return response body
+     *
+     * @throws Exception if request fails or response status is not 200
+     */
+    private byte[] send(HttpRequest request) throws Exception {
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException("Unexpected response status " + response.statusCode() + " of " + request.uri());
+        }
+        return response.body();
+    }
+
+    /**
+     * Create GET requests of stop pairs.
+     *
+     * @param baseUrl
+     *        URL of /api/direct
+     *
+     * @param pairs
+     *        departure and arrival stop ids
+     *
+     * @return requests
+     */
+    private static HttpRequest[] createRequests(String baseUrl, int[] pairs) {
+        HttpRequest[] requests = new HttpRequest[pairs.length / 2];
+        for (int i = 0; i < requests.length; i++) {
+            URI uri = URI.create(baseUrl + "?dep_sid=" + pairs[i * 2] + "&arr_sid=" + pairs[i * 2 + 1]);
+            requests[i] = HttpRequest.newBuilder(uri).GET().build();
+        }
+        return requests;
+    }
+}
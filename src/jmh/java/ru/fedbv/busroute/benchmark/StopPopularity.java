@@ -0,0 +1,105 @@
+package ru.fedbv.busroute.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Zipf distribution of stop popularity.
+ * Stop with id {@code 0} is the most popular, stop with id {@code k} is {@code (k + 1)^skew} times less popular.
+ * With skew {@code 0} all stops are equally popular, with skew about {@code 1} few hub stops are shared by most routes
+ * and asked by most passengers, like central stops of a real city.
+ */
+public class StopPopularity {
+    /**
+     * Cumulative probability of stops, the last value is {@code 1}
+     */
+    private final double[] cumulative;
+
+    /**
+     * Constructs new stop popularity distribution
+     *
+     * @param stopCount
+     *        number of stops
+     *
+     * @param skew
+     *        Zipf exponent, {@code 0} for uniform popularity
+     */
+    public StopPopularity(int stopCount, double skew) {
+        cumulative = new double[stopCount];
+        double sum = 0;
+        for (int i = 0; i < stopCount; i++) {
+            sum += skew == 0 ? 1 : 1 / Math.pow(i + 1, skew);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < stopCount; i++) {
+            cumulative[i] /= sum;
+        }
+    }
+
+    /**
+     * Draw stop id from popularity distribution.
+     *
+     * @param random
+     *        random generator
+     *
+     * @return stop id
+     */
+    public int sample(Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+    }
+
+    /**
+     * Draw distinct stop ids from popularity distribution.
+     * If distribution is too skewed to find distinct stops in reasonable number of draws, remaining stops are drawn uniformly.
+     *
+     * @param random
+     *        random generator
+     *
+     * @param stopIds
+     *        array receiving stop ids
+     *
+     * @param count
+     *        number of stops to draw, at most half of stop count
+     */
+    public void sampleDistinct(Random random, int[] stopIds, int count) {
+        int drawn = 0;
+        int attempts = 0;
+        while (drawn < count) {
+            int stopId = attempts++ < count * 20 ? sample(random) : random.nextInt(cumulative.length);
+            if (!contains(stopIds, drawn, stopId)) {
+                stopIds[drawn++] = stopId;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of stops.
+     *
+     * @return number of stops
+     */
+    public int getStopCount() {
+        return cumulative.length;
+    }
+
+    /**
+     * Check if array part contains value.
+     *
+     * @param values
+     *        array
+     *
+     * @param count
+     *        number of values from position 0
+     *
+     * @param value
+     *        value to find
+     *
+     * @return {@code true} if value is found
+     */
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) return true;
+        }
+        return false;
+    }
+}
@@ -6,21 +6,49 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.log4j.PropertyConfigurator;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ru.fedbv.busroute.metrics.MetricsRegistry;
+import ru.fedbv.busroute.model.AbstractDataProvider;
+import ru.fedbv.busroute.model.BitmapDataProvider;
+import ru.fedbv.busroute.model.CachingDataProvider;
+import ru.fedbv.busroute.model.CompactMemoryDataProvider;
 import ru.fedbv.busroute.model.DataProvider;
 import ru.fedbv.busroute.model.DataSourceFactory;
 import ru.fedbv.busroute.model.DatabaseDataProvider;
+import ru.fedbv.busroute.model.IndexedMemoryDataProvider;
+import ru.fedbv.busroute.model.MappedDataProvider;
 import ru.fedbv.busroute.model.MemoryDataProvider;
+import ru.fedbv.busroute.model.MeteredDataProvider;
 import ru.fedbv.busroute.service.BusRouteServlet;
+import ru.fedbv.busroute.service.CacheStatsServlet;
+import ru.fedbv.busroute.service.MetricsServlet;
 import ru.fedbv.busroute.service.ReloadDataServlet;
+import ru.fedbv.busroute.service.ReloadJobManager;
+import ru.fedbv.busroute.service.ReloadJobServlet;
+import ru.fedbv.busroute.service.RouteServlet;
+import ru.fedbv.busroute.service.SnapshotReplicator;
+import ru.fedbv.busroute.service.SnapshotServlet;
+import ru.fedbv.busroute.service.SourceFileWatcher;
+import ru.fedbv.busroute.service.TransferServlet;
 
 /**
  * Application starter class
@@ -29,6 +57,11 @@ public class Starter {
     public static Logger logger = LoggerFactory.getLogger(Starter.class);
     private String loggingConfigPath;
     
+    /**
+     * Data provider modes keeping data in memory
+     */
+    private static final List<String> MEMORY_MODES = Arrays.asList("memory", "index", "compact", "bitmap", "mapped");
+    
     /**
      * Application entry point.
      * First application argument - folder path as application home value {@code BUS_ROUTE_HOME}
@@ -45,9 +78,14 @@ public class Starter {
      * Get application home directory. 
      * Initialize logger.
      * Load application configuration.
-     * Create Jetty on port 8088 (default) or specified port value from configuration.
+     * Create Jetty on port 8088 (default) or specified port value from configuration with configured threads and connector.
      * Create Jersey servlet listening for /* paths.
      * Create Spring context base on data provider mode configuration (default = memory) and database type (defauld = derby).
+     * Record data provider metrics and publish them on /api/metrics if metrics are enabled.
+     * Wrap data provider into lookup cache if it is enabled.
+     * Process lookups of database data provider asynchronously on lookup executor if it is enabled.
+     * Watch source file and reload data when it changes if watching is enabled.
+     * Serve snapshots of published data in replication leader mode, load snapshots of leader in follower mode.
      * Start Jetty server
      * 
      * @param args
@@ -69,33 +107,118 @@ public class Starter {
         
         String sourceFilePath = System.getProperty("BUS_ROUTE_HOME") + "/" + prop.getProperty("source-file");
         
-        DataProvider dataProvider = null;
-        if (prop.getProperty("data-provider-mode","memory").equals("memory")) {
-            MemoryDataProvider memoryDataProvider = new MemoryDataProvider();
-            memoryDataProvider.setSourceFilePath(sourceFilePath);
-            memoryDataProvider.init();
-            dataProvider = memoryDataProvider;
-        } else {
-            DatabaseDataProvider databaseDataProvider = new DatabaseDataProvider();
-            databaseDataProvider.setSourceFilePath(sourceFilePath);
-            if (prop.getProperty("jdbc.database-type", "derby").equals("oracle")) {
-                databaseDataProvider.setDataSource(DataSourceFactory.createOracleDataSource(prop));
-            } else {
-                databaseDataProvider.setDataSource(DataSourceFactory.createDerbyDataSource());
-                databaseDataProvider.createDatabase();
+        String replicationMode = prop.getProperty("replication.mode", "none");
+        boolean follower = replicationMode.equals("follower");
+        AbstractDataProvider baseDataProvider = createDataProvider(prop, sourceFilePath, !follower);
+        DataProvider dataProvider = baseDataProvider;
+        
+        MetricsRegistry metricsRegistry = MetricsRegistry.getDefault();
+        boolean metricsEnabled = Boolean.valueOf(prop.getProperty("metrics.enabled", "true"));
+        if (metricsEnabled) {
+            DataProvider meteredProvider = dataProvider;
+            metricsRegistry.gauge("bus_route_dataset_version", "", "Version of published data", () -> meteredProvider.getDatasetVersion());
+            dataProvider = new MeteredDataProvider(dataProvider, metricsRegistry);
+            
+            MetricsServlet metricsServlet = new MetricsServlet();
+            metricsServlet.setMetricsRegistry(metricsRegistry);
+            context.addServlet(new ServletHolder(metricsServlet), "/api/metrics");
+        }
+        
+        if (Boolean.valueOf(prop.getProperty("cache.enabled", "false"))) {
+            CachingDataProvider cachingDataProvider = new CachingDataProvider(dataProvider, Integer.valueOf(prop.getProperty("cache.size", "100000")));
+            logger.info("Lookup cache enabled, maximum size: " + cachingDataProvider.getMaximumSize());
+            dataProvider = cachingDataProvider;
+            
+            if (metricsEnabled) {
+                metricsRegistry.gauge("bus_route_cache_size", "", "Number of cached stop pairs", () -> cachingDataProvider.size());
+                metricsRegistry.gauge("bus_route_cache_hits", "", "Number of lookups answered from cache", () -> cachingDataProvider.getHitCount());
+                metricsRegistry.gauge("bus_route_cache_misses", "", "Number of lookups passed to data provider", () -> cachingDataProvider.getMissCount());
+                metricsRegistry.gauge("bus_route_cache_hit_ratio", "", "Ratio of lookups answered from cache", () -> cachingDataProvider.getHitRatio());
+                metricsRegistry.gauge("bus_route_cache_evictions", "", "Number of cache entries evicted for more frequent entries", () -> cachingDataProvider.getEvictionCount());
             }
-            dataProvider = databaseDataProvider;
+            
+            CacheStatsServlet cacheStatsServlet = new CacheStatsServlet();
+            cacheStatsServlet.setCachingDataProvider(cachingDataProvider);
+            context.addServlet(new ServletHolder(cacheStatsServlet), "/api/cache-stats");
         }
 
         BusRouteServlet busRouteServlet = new BusRouteServlet();
         busRouteServlet.setDataProvider(dataProvider);
-        context.addServlet(new ServletHolder(busRouteServlet), "/api/direct");
+        busRouteServlet.setRouteIdsLimit(Integer.valueOf(prop.getProperty("lookup.route-ids-limit", "100")));
+        ServletHolder busRouteServletHolder = new ServletHolder(busRouteServlet);
+        context.addServlet(busRouteServletHolder, "/api/direct");
+        
+        ExecutorService lookupExecutor = null;
+        if (isDatabaseMode(prop) && Boolean.valueOf(prop.getProperty("async.enabled", "true"))) {
+            int lookupThreads = DataSourceFactory.getPoolSize(prop);
+            lookupExecutor = BusRouteServlet.createLookupExecutor(lookupThreads, Integer.valueOf(prop.getProperty("async.queue-size", "1000")));
+            busRouteServletHolder.setAsyncSupported(true);
+            busRouteServlet.setLookupExecutor(lookupExecutor);
+            busRouteServlet.setLookupTimeout(Long.valueOf(prop.getProperty("async.timeout", "5000")));
+            logger.info("Asynchronous lookups enabled, lookup threads: " + lookupThreads);
+            
+            if (metricsEnabled && lookupExecutor instanceof ThreadPoolExecutor) {
+                ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) lookupExecutor;
+                metricsRegistry.gauge("bus_route_async_queue_size", "", "Number of queued asynchronous lookups", () -> threadPoolExecutor.getQueue().size());
+                metricsRegistry.gauge("bus_route_async_active_threads", "", "Number of threads running asynchronous lookups", () -> threadPoolExecutor.getActiveCount());
+            }
+        }
 
         ReloadDataServlet reloadDataServlet = new ReloadDataServlet();
         reloadDataServlet.setDataProvider(dataProvider);
+        
+        SnapshotReplicator snapshotReplicator = null;
+        if (replicationMode.equals("leader")) {
+            SnapshotServlet snapshotServlet = new SnapshotServlet();
+            snapshotServlet.setDataProvider(baseDataProvider);
+            context.addServlet(new ServletHolder(snapshotServlet), SnapshotReplicator.SNAPSHOT_PATH);
+            logger.info("Replication leader, snapshots are served on " + SnapshotReplicator.SNAPSHOT_PATH);
+        } else if (follower) {
+            try {
+                snapshotReplicator = new SnapshotReplicator(baseDataProvider, prop.getProperty("replication.leader-url"),
+                        Long.valueOf(prop.getProperty("replication.interval", "5000")));
+                snapshotReplicator.setTimeout(Integer.valueOf(prop.getProperty("replication.timeout", "30000")));
+                snapshotReplicator.start();
+                reloadDataServlet.setSnapshotReplicator(snapshotReplicator);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Error starting snapshot replication from " + prop.getProperty("replication.leader-url") + ": " + e.getMessage());
+            }
+        }
         context.addServlet(new ServletHolder(reloadDataServlet), "/api/reload-data");
         
-        Server jettyServer = new Server(Integer.valueOf(prop.getProperty("port","8088")));
+        ReloadJobManager reloadJobManager = null;
+        if (Boolean.valueOf(prop.getProperty("reload.async", "true"))) {
+            reloadJobManager = new ReloadJobManager(dataProvider, snapshotReplicator, Integer.valueOf(prop.getProperty("reload.jobs-history", "16")));
+            reloadDataServlet.setReloadJobManager(reloadJobManager);
+            ReloadJobServlet reloadJobServlet = new ReloadJobServlet();
+            reloadJobServlet.setReloadJobManager(reloadJobManager);
+            context.addServlet(new ServletHolder(reloadJobServlet), ReloadJobServlet.JOBS_PATH);
+        }
+
+        baseDataProvider.setReachabilityMaxWork(Long.valueOf(prop.getProperty("transfer.max-build-work", "1000000000")));
+        // Start stop reachability index build, so it is ready for the first transfer lookup
+        baseDataProvider.getStopReachability();
+        TransferServlet transferServlet = new TransferServlet();
+        transferServlet.setDataProvider(baseDataProvider);
+        transferServlet.setTransferStopsLimit(Integer.valueOf(prop.getProperty("transfer.stops-limit", "100")));
+        context.addServlet(new ServletHolder(transferServlet), "/api/transfer");
+        
+        RouteServlet routeServlet = new RouteServlet();
+        routeServlet.setDataProvider(dataProvider);
+        routeServlet.setMaxStopCount(Integer.valueOf(prop.getProperty("routes.max-stop-count", "10000")));
+        context.addServlet(new ServletHolder(routeServlet), "/api/routes");
+        
+        SourceFileWatcher sourceFileWatcher = null;
+        if (Boolean.valueOf(prop.getProperty("reload.watch", "false")) && !follower) {
+            sourceFileWatcher = new SourceFileWatcher(dataProvider, sourceFilePath, Long.valueOf(prop.getProperty("reload.watch-delay", "1000")));
+            try {
+                sourceFileWatcher.start();
+            } catch (IOException e) {
+                logger.error("Error watching source file " + sourceFilePath + ": " + e.getMessage());
+            }
+        }
+        
+        Server jettyServer = createServer(prop);
         jettyServer.setHandler(context);
         
         try {
@@ -104,7 +227,163 @@ public class Starter {
         } catch (Exception e) {    
         } finally {
             jettyServer.destroy();
+            if (lookupExecutor != null) {
+                lookupExecutor.shutdownNow();
+            }
+            if (sourceFileWatcher != null) {
+                sourceFileWatcher.stop();
+            }
+            if (snapshotReplicator != null) {
+                snapshotReplicator.stop();
+            }
+            if (reloadJobManager != null) {
+                reloadJobManager.stop();
+            }
+        }
+    }
+    
+    /**
+     * Create Jetty server from configuration.
+     * Request threads are taken from {@link QueuedThreadPool} (default) or created as virtual threads on JDK supporting them.
+     * HTTP connector listens on configured port with configured acceptors, selectors, idle timeout and accept queue size,
+     * and optionally accepts HTTP/2 cleartext (h2c) connections besides HTTP/1.1.
+     * 
+     * @param prop
+     *        application configuration
+     * 
+     * @return Jetty server
+     */
+    private Server createServer(Properties prop) {
+        ThreadPool threadPool = null;
+        if (prop.getProperty("server.thread-pool", "queued").equals("virtual")) {
+            threadPool = VirtualThreadPool.create();
         }
+        if (threadPool == null) {
+            QueuedThreadPool queuedThreadPool = new QueuedThreadPool(
+                    Integer.valueOf(prop.getProperty("server.max-threads", "200")),
+                    Integer.valueOf(prop.getProperty("server.min-threads", "8")),
+                    Integer.valueOf(prop.getProperty("server.thread-idle-timeout", "60000")));
+            queuedThreadPool.setName("bus-route-http");
+            threadPool = queuedThreadPool;
+        }
+        logger.info("Jetty thread pool: " + threadPool.getClass().getSimpleName());
+        
+        Server server = new Server(threadPool);
+        
+        HttpConfiguration httpConfiguration = new HttpConfiguration();
+        httpConfiguration.setSendServerVersion(false);
+        ConnectionFactory[] connectionFactories;
+        if (Boolean.valueOf(prop.getProperty("server.http2c", "false"))) {
+            HTTP2CServerConnectionFactory http2cConnectionFactory = new HTTP2CServerConnectionFactory(httpConfiguration);
+            http2cConnectionFactory.setMaxConcurrentStreams(Integer.valueOf(prop.getProperty("server.http2-max-concurrent-streams", "128")));
+            connectionFactories = new ConnectionFactory[] {new HttpConnectionFactory(httpConfiguration), http2cConnectionFactory};
+            logger.info("HTTP/2 cleartext enabled");
+        } else {
+            connectionFactories = new ConnectionFactory[] {new HttpConnectionFactory(httpConfiguration)};
+        }
+        
+        ServerConnector connector = new ServerConnector(server, 
+                Integer.valueOf(prop.getProperty("server.acceptors", "-1")), 
+                Integer.valueOf(prop.getProperty("server.selectors", "-1")), 
+                connectionFactories);
+        connector.setPort(Integer.valueOf(prop.getProperty("port", "8088")));
+        connector.setIdleTimeout(Long.valueOf(prop.getProperty("server.idle-timeout", "30000")));
+        connector.setAcceptQueueSize(Integer.valueOf(prop.getProperty("server.accept-queue-size", "0")));
+        server.addConnector(connector);
+        return server;
+    }
+    
+    /**
+     * Create data provider base on data provider mode configuration (default = memory).
+     * Memory based providers load data from source file immediately.
+     * Database provider creates bus stops tables for database type derby (default) or oracle and loads data.
+     * Replication follower does not load source file, data is loaded from snapshot of leader.
+     * 
+     * @param prop
+     *        application configuration
+     * 
+     * @param sourceFilePath
+     *        source data file path
+     * 
+     * @param loadData
+     *        load data from source file
+     * 
+     * @return data provider
+     */
+    private AbstractDataProvider createDataProvider(Properties prop, String sourceFilePath, boolean loadData) {
+        String dataProviderMode = prop.getProperty("data-provider-mode", "memory");
+        logger.info("Data provider mode: " + dataProviderMode);
+        
+        AbstractDataProvider memoryDataProvider = null;
+        if (dataProviderMode.equals("memory")) {
+            memoryDataProvider = new MemoryDataProvider();
+        } else if (dataProviderMode.equals("index")) {
+            memoryDataProvider = new IndexedMemoryDataProvider();
+        } else if (dataProviderMode.equals("compact")) {
+            memoryDataProvider = new CompactMemoryDataProvider();
+        } else if (dataProviderMode.equals("bitmap")) {
+            memoryDataProvider = new BitmapDataProvider();
+        } else if (dataProviderMode.equals("mapped")) {
+            MappedDataProvider mappedDataProvider = new MappedDataProvider();
+            String indexFile = prop.getProperty("mapped.index-file", "");
+            if (!indexFile.isEmpty()) {
+                mappedDataProvider.setIndexFilePath(System.getProperty("BUS_ROUTE_HOME") + "/" + indexFile);
+            }
+            memoryDataProvider = mappedDataProvider;
+        }
+        
+        int loadThreads = Integer.valueOf(prop.getProperty("load-threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        boolean snapshotEnabled = Boolean.valueOf(prop.getProperty("snapshot.enabled", "false"));
+        boolean orderedLookup = Boolean.valueOf(prop.getProperty("lookup.ordered", "false"));
+        boolean incrementalReload = Boolean.valueOf(prop.getProperty("reload.incremental", "false"));
+        
+        if (memoryDataProvider != null) {
+            memoryDataProvider.setSourceFilePath(sourceFilePath);
+            memoryDataProvider.setLoadThreads(loadThreads);
+            memoryDataProvider.setSnapshotEnabled(snapshotEnabled);
+            memoryDataProvider.setOrderedLookup(orderedLookup);
+            memoryDataProvider.setIncrementalReload(incrementalReload);
+            if (loadData) {
+                memoryDataProvider.init();
+            }
+            return memoryDataProvider;
+        }
+        
+        DatabaseDataProvider databaseDataProvider = new DatabaseDataProvider();
+        databaseDataProvider.setSourceFilePath(sourceFilePath);
+        databaseDataProvider.setLoadThreads(loadThreads);
+        databaseDataProvider.setSnapshotEnabled(snapshotEnabled);
+        databaseDataProvider.setOrderedLookup(orderedLookup);
+        databaseDataProvider.setIncrementalReload(incrementalReload);
+        databaseDataProvider.setBatchSize(Integer.valueOf(prop.getProperty("jdbc.batch-size", "1000")));
+        databaseDataProvider.setCommitSize(Integer.valueOf(prop.getProperty("jdbc.commit-size", "100000")));
+        databaseDataProvider.setQueryTimeout(Integer.valueOf(prop.getProperty("jdbc.query-timeout", "0")));
+        if (prop.getProperty("jdbc.database-type", "derby").equals("oracle")) {
+            databaseDataProvider.setDatabaseType(DatabaseDataProvider.ORACLE);
+            databaseDataProvider.setDataSource(DataSourceFactory.createOracleDataSource(prop));
+        } else {
+            databaseDataProvider.setDatabaseType(DatabaseDataProvider.DERBY);
+            databaseDataProvider.setDataSource(DataSourceFactory.createDerbyDataSource(DataSourceFactory.getPoolSize(prop)));
+        }
+        if (loadData) {
+            databaseDataProvider.createDatabase();
+        } else {
+            databaseDataProvider.createSchema();
+        }
+        return databaseDataProvider;
+    }
+    
+    /**
+     * Check if data provider mode is database mode, which is any mode except memory based modes.
+     * 
+     * @param prop
+     *        application configuration
+     * 
+     * @return {@code true} if data is kept in database
+     */
+    private boolean isDatabaseMode(Properties prop) {
+        String dataProviderMode = prop.getProperty("data-provider-mode", "memory");
+        return !MEMORY_MODES.contains(dataProviderMode);
     }
     
     /**
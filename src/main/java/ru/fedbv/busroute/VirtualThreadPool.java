@@ -0,0 +1,121 @@
+package ru.fedbv.busroute;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Jetty thread pool running every task on a new virtual thread.
+ * Virtual threads executor is created by reflection, so application still runs on JDK without virtual threads.
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+    public static Logger logger = LoggerFactory.getLogger(VirtualThreadPool.class);
+
+    /**
+     * Virtual thread per task executor
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Number of running tasks
+     */
+    private final AtomicInteger activeThreads = new AtomicInteger();
+
+    /**
+     * Constructs new virtual thread pool
+     *
+     * @param executor
+     *        virtual thread per task executor
+     */
+    private VirtualThreadPool(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Create virtual thread pool if JDK supports virtual threads.
+     *
+     * @return virtual thread pool or {@code null} if virtual threads are not supported
+     */
+    public static VirtualThreadPool create() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new VirtualThreadPool(executor);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Virtual threads are not supported by JDK " + System.getProperty("java.version"));
+        }
+        return null;
+    }
+
+    /**
+     * Run task on new virtual thread.
+     *
+     * @param task
+     *        task to run
+     */
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(() -> {
+            activeThreads.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                activeThreads.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Wait until executor is terminated.
+     *
+     * @throws InterruptedException if waiting thread is interrupted
+     */
+    @Override
+    public void join() throws InterruptedException {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the number of running tasks.
+     *
+     * @return number of virtual threads
+     */
+    @Override
+    public int getThreads() {
+        return activeThreads.get();
+    }
+
+    /**
+     * Virtual threads are not pooled, so there are no idle threads.
+     *
+     * @return {@code 0}
+     */
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    /**
+     * New virtual thread is created for every task, so pool is never low on threads.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+
+    /**
+     * Stop executor, running tasks are interrupted.
+     */
+    @Override
+    protected void doStop() throws Exception {
+        executor.shutdownNow();
+        super.doStop();
+    }
+}
@@ -0,0 +1,71 @@
+package ru.fedbv.busroute.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter metric. Increments are lock-free and do not allocate objects.
+ */
+public class Counter extends Metric {
+    /**
+     * Counter value
+     */
+    private final LongAdder value = new LongAdder();
+
+    /**
+     * Constructs new counter
+     *
+     * @param name
+     *        metric name
+     *
+     * @param labels
+     *        metric labels, empty string if metric has no labels
+     *
+     * @param help
+     *        metric description
+     */
+    public Counter(String name, String labels, String help) {
+        super(name, labels, help);
+    }
+
+    /**
+     * Increment counter by one.
+     */
+    public void increment() {
+        value.increment();
+    }
+
+    /**
+     * Increment counter by specified amount.
+     *
+     * @param amount
+     *        amount to add
+     */
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    /**
+     * Gets the counter value.
+     *
+     * @return counter value
+     */
+    public long get() {
+        return value.sum();
+    }
+
+    @Override
+    public String getType() {
+        return "counter";
+    }
+
+    @Override
+    public void writePrometheus(Appendable out) throws IOException {
+        writeSample(out, "", null, Long.toString(get()));
+    }
+
+    @Override
+    public void writeJson(Appendable out) throws IOException {
+        out.append(Long.toString(get()));
+    }
+}
@@ -0,0 +1,92 @@
+package ru.fedbv.busroute.metrics;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Gauge metric. Value is set directly or read from supplier when metrics are written.
+ */
+public class Gauge extends Metric {
+    /**
+     * Gauge value supplier, {@code null} if value is set directly
+     */
+    private final DoubleSupplier supplier;
+
+    /**
+     * Gauge value set directly
+     */
+    private volatile double value;
+
+    /**
+     * Constructs new gauge
+     *
+     * @param name
+     *        metric name
+     *
+     * @param labels
+     *        metric labels, empty string if metric has no labels
+     *
+     * @param help
+     *        metric description
+     *
+     * @param supplier
+     *        gauge value supplier, {@code null} if value is set directly
+     */
+    public Gauge(String name, String labels, String help, DoubleSupplier supplier) {
+        super(name, labels, help);
+        this.supplier = supplier;
+    }
+
+    /**
+     * Set gauge value.
+     *
+     * @param value
+     *        new value
+     */
+    public void set(double value) {
+        this.value = value;
+    }
+
+    /**
+     * Gets the gauge value.
+     *
+     * @return gauge value
+     */
+    public double get() {
+        return supplier != null ? supplier.getAsDouble() : value;
+    }
+
+    @Override
+    public String getType() {
+        return "gauge";
+    }
+
+    @Override
+    public void writePrometheus(Appendable out) throws IOException {
+        writeSample(out, "", null, format(get()));
+    }
+
+    @Override
+    public void writeJson(Appendable out) throws IOException {
+        out.append(format(get()));
+    }
+
+    /**
+     * Format value without exponent and trailing zeros.
+     *
+     * @param value
+     *        value to format
+     *
+     * @return formatted value
+     */
+    static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        String formatted = String.format(Locale.ROOT, "%.6f", value);
+        int end = formatted.length();
+        while (formatted.charAt(end - 1) == '0') {
+            end--;
+        }
+        return formatted.substring(0, end);
+    }
+}
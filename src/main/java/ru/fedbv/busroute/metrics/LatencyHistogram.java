@@ -0,0 +1,287 @@
+package ru.fedbv.busroute.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram metric with log-linear buckets of nanoseconds.
+ * Every power of two range is split into {@link LatencyHistogram#SUB_BUCKETS} linear buckets, so recorded value
+ * is kept with relative error below 7% from 1 nanosecond to about 18 minutes.
+ * Recording is lock-free and does not allocate objects.
+ */
+public class LatencyHistogram extends Metric {
+    /**
+     * Number of bits of linear sub-bucket index
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * Number of linear buckets in every power of two range
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Highest power of two of recorded values, larger values are recorded into the last bucket
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    /**
+     * Number of buckets
+     */
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * Bucket bounds in seconds written in Prometheus format
+     */
+    private static final double[] PROMETHEUS_BOUNDS = {
+        0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    /**
+     * Percentiles written in JSON format
+     */
+    private static final double[] JSON_PERCENTILES = {50, 90, 99, 99.9};
+
+    /**
+     * JSON names of written percentiles
+     */
+    private static final String[] JSON_PERCENTILE_NAMES = {"p50_us", "p90_us", "p99_us", "p999_us"};
+
+    /**
+     * Bucket counts
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Number of recorded values
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Sum of recorded values in nanoseconds
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Maximum recorded value in nanoseconds
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Constructs new latency histogram
+     *
+     * @param name
+     *        metric name
+     *
+     * @param labels
+     *        metric labels, empty string if metric has no labels
+     *
+     * @param help
+     *        metric description
+     */
+    public LatencyHistogram(String name, String labels, String help) {
+        super(name, labels, help);
+    }
+
+    /**
+     * Record latency.
+     *
+     * @param nanos
+     *        latency in nanoseconds
+     */
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    /**
+     * Record the same latency several times.
+     *
+     * @param nanos
+     *        latency in nanoseconds
+     *
+     * @param times
+     *        number of recorded values
+     */
+    public void record(long nanos, long times) {
+        if (nanos < 0) nanos = 0;
+        counts.addAndGet(bucketIndex(nanos), times);
+        count.addAndGet(times);
+        sum.addAndGet(nanos * times);
+        long currentMax;
+        while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos)) {
+            // retry until maximum is updated or larger value is recorded by another thread
+        }
+    }
+
+    /**
+     * Record time elapsed since specified start time.
+     *
+     * @param startNanos
+     *        start time from {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return number of values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the sum of recorded values.
+     *
+     * @return sum in nanoseconds
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Gets the maximum recorded value.
+     *
+     * @return maximum in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the value at percentile. Result is the upper bound of the bucket holding percentile.
+     *
+     * @param percentile
+     *        percentile from {@code 0} to {@code 100}
+     *
+     * @return value in nanoseconds, {@code 0} if histogram is empty
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long bucketCount : snapshot) {
+            total += bucketCount;
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(bucketUpperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Create copy of histogram corrected for coordinated omission of closed-loop load.
+     * Client waiting for a slow response does not send requests it would send in the meantime,
+     * so every recorded value larger than expected interval between requests is complemented with values
+     * decreasing by the expected interval, which those omitted requests would have waited.
+     *
+     * @param expectedIntervalNanos
+     *        expected interval between requests of one client in nanoseconds, {@code 0} for copy without correction
+     *
+     * @return corrected histogram
+     */
+    public LatencyHistogram copyCorrectedForCoordinatedOmission(long expectedIntervalNanos) {
+        LatencyHistogram corrected = new LatencyHistogram(getName(), getLabels(), getHelp());
+        long[] snapshot = snapshot();
+        long recordedMax = max.get();
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] == 0) continue;
+            long value = Math.min(bucketUpperBound(i), recordedMax);
+            corrected.record(value, snapshot[i]);
+            if (expectedIntervalNanos <= 0) continue;
+            for (long omitted = value - expectedIntervalNanos; omitted >= expectedIntervalNanos; omitted -= expectedIntervalNanos) {
+                corrected.record(omitted, snapshot[i]);
+            }
+        }
+        return corrected;
+    }
+
+    @Override
+    public String getType() {
+        return "histogram";
+    }
+
+    @Override
+    public void writePrometheus(Appendable out) throws IOException {
+        long[] snapshot = snapshot();
+        long cumulative = 0;
+        int bucket = 0;
+        for (double bound : PROMETHEUS_BOUNDS) {
+            long boundNanos = (long) (bound * 1e9);
+            while (bucket < snapshot.length && bucketUpperBound(bucket) <= boundNanos) {
+                cumulative += snapshot[bucket++];
+            }
+            writeSample(out, "_bucket", "le=\"" + Gauge.format(bound) + "\"", Long.toString(cumulative));
+        }
+        while (bucket < snapshot.length) {
+            cumulative += snapshot[bucket++];
+        }
+        writeSample(out, "_bucket", "le=\"+Inf\"", Long.toString(cumulative));
+        writeSample(out, "_sum", null, Gauge.format(sum.get() / 1e9));
+        writeSample(out, "_count", null, Long.toString(cumulative));
+    }
+
+    @Override
+    public void writeJson(Appendable out) throws IOException {
+        long recorded = count.get();
+        out.append("{\"count\": ").append(Long.toString(recorded));
+        out.append(", \"mean_us\": ").append(Gauge.format(recorded == 0 ? 0 : Math.round(sum.get() / 1e1 / recorded) / 1e2));
+        for (int i = 0; i < JSON_PERCENTILES.length; i++) {
+            out.append(", \"").append(JSON_PERCENTILE_NAMES[i]).append("\": ");
+            out.append(Gauge.format(Math.round(getPercentile(JSON_PERCENTILES[i]) / 1e1) / 1e2));
+        }
+        out.append(", \"max_us\": ").append(Gauge.format(Math.round(max.get() / 1e1) / 1e2)).append('}');
+    }
+
+    /**
+     * Copy bucket counts.
+     *
+     * @return bucket counts
+     */
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets the bucket index of value.
+     *
+     * @param value
+     *        value in nanoseconds
+     *
+     * @return bucket index
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKET_COUNT - 1;
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gets the largest value of bucket.
+     *
+     * @param index
+     *        bucket index
+     *
+     * @return largest bucket value in nanoseconds
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
@@ -0,0 +1,126 @@
+package ru.fedbv.busroute.metrics;
+
+import java.io.IOException;
+
+/**
+ * Abstract metric class.
+ * Metric is identified by name and optional labels in Prometheus format, for example {@code result="hit"}.
+ */
+public abstract class Metric {
+    /**
+     * Metric name property
+     */
+    private final String name;
+
+    /**
+     * Metric labels property, empty string if metric has no labels
+     */
+    private final String labels;
+
+    /**
+     * Metric description property
+     */
+    private final String help;
+
+    /**
+     * Constructs new metric
+     *
+     * @param name
+     *        metric name
+     *
+     * @param labels
+     *        metric labels, empty string if metric has no labels
+     *
+     * @param help
+     *        metric description
+     */
+    protected Metric(String name, String labels, String help) {
+        this.name = name;
+        this.labels = labels == null ? "" : labels;
+        this.help = help;
+    }
+
+    /**
+     * Gets the value of name property {@link Metric.name}.
+     *
+     * @return metric name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the value of labels property {@link Metric.labels}.
+     *
+     * @return metric labels
+     */
+    public String getLabels() {
+        return labels;
+    }
+
+    /**
+     * Gets the value of help property {@link Metric.help}.
+     *
+     * @return metric description
+     */
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * Gets the Prometheus metric type.
+     *
+     * @return metric type
+     */
+    public abstract String getType();
+
+    /**
+     * Write metric samples in Prometheus text format.
+     *
+     * @param out
+     *        output
+     *
+     * @throws IOException if output can not be written
+     */
+    public abstract void writePrometheus(Appendable out) throws IOException;
+
+    /**
+     * Write metric value as JSON value.
+     *
+     * @param out
+     *        output
+     *
+     * @throws IOException if output can not be written
+     */
+    public abstract void writeJson(Appendable out) throws IOException;
+
+    /**
+     * Write sample line in Prometheus text format.
+     *
+     * @param out
+     *        output
+     *
+     * @param suffix
+     *        metric name suffix
+     *
+     * @param extraLabel
+     *        additional label, {@code null} if there is no additional label
+     *
+     * @param value
+     *        sample value
+     *
+     * @throws IOException if output can not be written
+     */
+    protected void writeSample(Appendable out, String suffix, String extraLabel, String value) throws IOException {
+        out.append(name).append(suffix);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                if (!labels.isEmpty()) out.append(',');
+                out.append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+}
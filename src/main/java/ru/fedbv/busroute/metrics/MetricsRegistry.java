@@ -0,0 +1,204 @@
+package ru.fedbv.busroute.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * Registry of application metrics.
+ * Metrics are created once by name and labels and kept by instrumented classes, so recording does not touch the registry.
+ */
+public class MetricsRegistry {
+    /**
+     * Default registry of application metrics
+     */
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    /**
+     * Metrics sorted by name and labels
+     */
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    /**
+     * Gets the default registry of application metrics.
+     *
+     * @return default registry
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get or create counter.
+     *
+     * @param name
+     *        metric name
+     *
+     * @param labels
+     *        metric labels, empty string if metric has no labels
+     *
+     * @param help
+     *        metric description
+     *
+     * @return counter
+     */
+    public Counter counter(String name, String labels, String help) {
+        return register(name, labels, Counter.class, key -> new Counter(name, labels, help));
+    }
+
+    /**
+     * Get or create latency histogram.
+     *
+     * @param name
+     *        metric name
+     *
+     * @param labels
+     *        metric labels, empty string if metric has no labels
+     *
+     * @param help
+     *        metric description
+     *
+     * @return latency histogram
+     */
+    public LatencyHistogram histogram(String name, String labels, String help) {
+        return register(name, labels, LatencyHistogram.class, key -> new LatencyHistogram(name, labels, help));
+    }
+
+    /**
+     * Get or create gauge with directly set value.
+     *
+     * @param name
+     *        metric name
+     *
+     * @param labels
+     *        metric labels, empty string if metric has no labels
+     *
+     * @param help
+     *        metric description
+     *
+     * @return gauge
+     */
+    public Gauge gauge(String name, String labels, String help) {
+        return register(name, labels, Gauge.class, key -> new Gauge(name, labels, help, null));
+    }
+
+    /**
+     * Create gauge reading value from supplier. Existing gauge with the same name and labels is replaced.
+     *
+     * @param name
+     *        metric name
+     *
+     * @param labels
+     *        metric labels, empty string if metric has no labels
+     *
+     * @param help
+     *        metric description
+     *
+     * @param supplier
+     *        gauge value supplier
+     *
+     * @return gauge
+     */
+    public Gauge gauge(String name, String labels, String help, DoubleSupplier supplier) {
+        Gauge gauge = new Gauge(name, labels, help, supplier);
+        metrics.put(key(name, labels), gauge);
+        return gauge;
+    }
+
+    /**
+     * Write all metrics in Prometheus text format.
+     *
+     * @param out
+     *        output
+     *
+     * @throws IOException if output can not be written
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        String lastName = null;
+        for (Metric metric : metrics.values()) {
+            if (!metric.getName().equals(lastName)) {
+                out.append("# HELP ").append(metric.getName()).append(' ').append(metric.getHelp()).append('\n');
+                out.append("# TYPE ").append(metric.getName()).append(' ').append(metric.getType()).append('\n');
+                lastName = metric.getName();
+            }
+            metric.writePrometheus(out);
+        }
+    }
+
+    /**
+     * Write all metrics as JSON object. Metrics with labels are grouped into object by metric name:
+     * <code>{"name": value, "labeled_name": {"label=\"value\"": value}}</code>
+     *
+     * @param out
+     *        output
+     *
+     * @throws IOException if output can not be written
+     */
+    public void writeJson(Appendable out) throws IOException {
+        List<Metric> values = new ArrayList<>(metrics.values());
+        out.append('{');
+        for (int i = 0; i < values.size(); i++) {
+            Metric metric = values.get(i);
+            boolean firstOfName = i == 0 || !values.get(i - 1).getName().equals(metric.getName());
+            boolean lastOfName = i == values.size() - 1 || !values.get(i + 1).getName().equals(metric.getName());
+            boolean grouped = !metric.getLabels().isEmpty();
+            if (firstOfName) {
+                if (i > 0) out.append(", ");
+                out.append('"').append(metric.getName()).append("\": ");
+                if (grouped) out.append('{');
+            } else {
+                out.append(", ");
+            }
+            if (grouped) {
+                out.append('"').append(metric.getLabels().replace("\\", "\\\\").replace("\"", "\\\"")).append("\": ");
+            }
+            metric.writeJson(out);
+            if (lastOfName && grouped) out.append('}');
+        }
+        out.append('}');
+    }
+
+    /**
+     * Get existing metric or register new one.
+     *
+     * @param name
+     *        metric name
+     *
+     * @param labels
+     *        metric labels
+     *
+     * @param type
+     *        metric class
+     *
+     * @param factory
+     *        metric factory
+     *
+     * @return registered metric
+     */
+    private <T extends Metric> T register(String name, String labels, Class<T> type, Function<String, T> factory) {
+        Metric metric = metrics.computeIfAbsent(key(name, labels), key -> factory.apply(key));
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + metric.getType());
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * Gets the registry key of metric.
+     *
+     * @param name
+     *        metric name
+     *
+     * @param labels
+     *        metric labels
+     *
+     * @return registry key
+     */
+    private static String key(String name, String labels) {
+        return labels == null || labels.isEmpty() ? name : name + "{" + labels + "}";
+    }
+}
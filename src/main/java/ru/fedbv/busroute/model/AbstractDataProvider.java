@@ -1,33 +1,118 @@
 package ru.fedbv.busroute.model;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.stream.Stream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ru.fedbv.busroute.metrics.Counter;
+import ru.fedbv.busroute.metrics.LatencyHistogram;
+import ru.fedbv.busroute.metrics.MetricsRegistry;
+
 /**
  * Abstract data provider class
  */
 public abstract class AbstractDataProvider implements DataProvider{
     public static Logger logger = LoggerFactory.getLogger(AbstractDataProvider.class);
     
+    /** 
+     * Duration of source file parsing or adding snapshot routes into data store
+     */
+    private static final LatencyHistogram PARSE_PHASE = MetricsRegistry.getDefault().histogram("bus_route_load_phase_seconds", "phase=\"parse\"", "Duration of data load phases");
+    
+    /** 
+     * Duration of data store completion and publication
+     */
+    private static final LatencyHistogram PUBLISH_PHASE = MetricsRegistry.getDefault().histogram("bus_route_load_phase_seconds", "phase=\"publish\"", "Duration of data load phases");
+    
+    /** 
+     * Duration of snapshot reading
+     */
+    private static final LatencyHistogram SNAPSHOT_READ_PHASE = MetricsRegistry.getDefault().histogram("bus_route_load_phase_seconds", "phase=\"snapshot_read\"", "Duration of data load phases");
+    
+    /** 
+     * Duration of snapshot writing
+     */
+    private static final LatencyHistogram SNAPSHOT_WRITE_PHASE = MetricsRegistry.getDefault().histogram("bus_route_load_phase_seconds", "phase=\"snapshot_write\"", "Duration of data load phases");
+    
+    /** 
+     * Duration of source file parsing and comparison with loaded data on incremental reload
+     */
+    private static final LatencyHistogram DIFF_PHASE = MetricsRegistry.getDefault().histogram("bus_route_load_phase_seconds", "phase=\"diff\"", "Duration of data load phases");
+    
+    /** 
+     * Duration of applying changes to data store and publication on incremental reload
+     */
+    private static final LatencyHistogram APPLY_PHASE = MetricsRegistry.getDefault().histogram("bus_route_load_phase_seconds", "phase=\"apply\"", "Duration of data load phases");
+    
+    /** 
+     * Number of loaded lines of all loads
+     */
+    private static final Counter LOADED_LINES = MetricsRegistry.getDefault().counter("bus_route_load_lines_total", "", "Number of loaded source lines");
+    
+    /** 
+     * Number of error lines of all loads
+     */
+    private static final Counter ERROR_LINES = MetricsRegistry.getDefault().counter("bus_route_load_errors_total", "", "Number of source lines or loads with errors");
+    
+    /** 
+     * Minimum number of stop pairs looked up in parallel
+     */
+    private static final int PARALLEL_LOOKUP_THRESHOLD = 64;
+    
+    /** 
+     * Time in milliseconds bus route change waits for another change or load to release data store
+     */
+    private static final long ROUTE_CHANGE_LOCK_TIMEOUT = 200;
+    
     /** 
      * Source file path property
      */
     private String sourceFilePath = null;
     
     /** 
-     * Processed lines from loaded file
+     * Number of threads parsing source file property
+     */
+    private int loadThreads = Runtime.getRuntime().availableProcessors();
+    
+    /** 
+     * Maximal build work of stop reachability index (sum of squared bus route lengths) property
+     */
+    private long reachabilityMaxWork = 1000000000L;
+    
+    /** 
+     * Binary snapshot is written and used on load property
+     */
+    private boolean snapshotEnabled = false;
+    
+    /** 
+     * Lookups match only bus routes where the first stop comes before the second stop property
+     */
+    private boolean orderedLookup = false;
+    
+    /** 
+     * Reload applies only changes of source file compared with loaded data property
      */
-    private int lineCount = 0;
+    private boolean incrementalReload = false;
     
     /** 
-     * Internal counter for processed lines
+     * Stop fingerprints of loaded bus routes by route id, {@code null} if the next reload should be complete
      */
-    private int tmpLineCount = 0;
+    private IntLongHashMap routeFingerprints = null;
+    
+    /** 
+     * Progress of the current load, {@code null} if progress is not reported
+     */
+    private LoadProgress loadProgress = null;
     
     /** 
      * Number of loaded lines property
@@ -39,6 +124,46 @@ public abstract class AbstractDataProvider implements DataProvider{
      */
     private int errorCount = 0;
     
+    /** 
+     * Version of published data store property, changes every time new data store is published
+     */
+    private volatile long datasetVersion = 0;
+    
+    /** 
+     * Path of source file under load, {@code null} if data is loaded from another source
+     */
+    private Path loadingSourcePath = null;
+    
+    /** 
+     * Snapshot of published data served to replicas, {@code null} if it is not created yet
+     */
+    private volatile RouteSnapshot publishedSnapshot = null;
+    
+    /** 
+     * Stop reachability index of the last built dataset version, {@code null} if it is not built yet
+     */
+    private volatile StopReachability publishedReachability = null;
+    
+    /** 
+     * Dataset version, which stop reachability index can not be built for
+     */
+    private volatile long unreachableVersion = 0;
+    
+    /** 
+     * {@code true} if stop reachability index was requested, so it is built on every dataset version change
+     */
+    private volatile boolean reachabilityRequested = false;
+    
+    /** 
+     * {@code true} if stop reachability index build is started and not finished
+     */
+    private final AtomicBoolean reachabilityBuilding = new AtomicBoolean();
+    
+    /** 
+     * Lock which allows only one load at a time
+     */
+    private final ReentrantLock loadLock = new ReentrantLock();
+    
     /**
      * Add bus route object into storage.
      * 
@@ -49,6 +174,470 @@ public abstract class AbstractDataProvider implements DataProvider{
      */
     public abstract boolean addBusRoute(BusRoute busRoute);
 
+    /**
+     * Add parsed bus route into storage.
+     * Stop ids array is a reusable buffer, so implementation should copy values it keeps.
+     * Default implementation creates {@link BusRoute} object and adds it with {@link AbstractDataProvider#addBusRoute(BusRoute)}.
+     * 
+     * @param routeId
+     *        bus route id
+     * 
+     * @param stopIds
+     *        array holding bus route stop ids from position 0
+     * 
+     * @param stopCount
+     *        number of bus route stop ids
+     *        
+     * @return if bus route was added successfully, returns {@code true} otherwise {@code false}
+     */
+    protected boolean addBusRoute(int routeId, int[] stopIds, int stopCount) {
+        BusRoute busRoute = new BusRoute(stopCount);
+        busRoute.setId(routeId);
+        for (int i = 0; i < stopCount; i++) {
+            busRoute.getStopIds().add(stopIds[i]);
+        }
+        return addBusRoute(busRoute);
+    }
+
+    /**
+     * Add all bus routes of complete storage, e.g. of binary snapshot, into data store created by
+     * {@link DataProvider#createDataStore(int)}. Storage has no deleted bus routes and no {@link DataProvider#NO_ROUTE} ids.
+     * Default implementation adds every bus route with {@link AbstractDataProvider#addBusRoute(int, int[], int)},
+     * in-memory providers override it to load storage arrays in bulk.
+     * 
+     * @param routes
+     *        bus routes storage
+     *        
+     * @return number of added bus routes
+     */
+    protected int addBusRoutes(RouteStorage routes) {
+        int addedCount = 0;
+        int[] stopIds = new int[64];
+        for (int routeIndex = 0; routeIndex < routes.size(); routeIndex++) {
+            int stopCount = routes.getStopCount(routeIndex);
+            if (stopCount > stopIds.length) {
+                stopIds = new int[stopCount];
+            }
+            System.arraycopy(routes.getStopIds(), routes.getOffset(routeIndex), stopIds, 0, stopCount);
+            if (addBusRoute(routes.getRouteId(routeIndex), stopIds, stopCount)) {
+                addedCount++;
+            }
+        }
+        return addedCount;
+    }
+
+    /**
+     * Find ids of bus routes for a batch of stop pairs.
+     * Large batches are looked up in parallel on common fork join pool, lookups of in-memory data stores do not block.
+     * 
+     * @param stopIds1
+     *        first stop ids of pairs
+     * 
+     * @param stopIds2
+     *        second stop ids of pairs
+     * 
+     * @param routeIds
+     *        array receiving bus route ids
+     * 
+     * @param count
+     *        number of pairs
+     */
+    @Override
+    public void findRouteIdsByTwoStopIds(int[] stopIds1, int[] stopIds2, int[] routeIds, int count) {
+        if (count < PARALLEL_LOOKUP_THRESHOLD) {
+            for (int i = 0; i < count; i++) {
+                routeIds[i] = findRouteIdByTwoStopIds(stopIds1[i], stopIds2[i]);
+            }
+            return;
+        }
+        IntStream.range(0, count).parallel().forEach(i -> routeIds[i] = findRouteIdByTwoStopIds(stopIds1[i], stopIds2[i]));
+    }
+
+    /**
+     * Complete data store after all lines of source file are processed and publish it to readers.
+     * Data store created by {@link DataProvider#createDataStore(int)} should not be visible to readers until this call,
+     * so lookups keep using the previous data store during load.
+     * Default implementation does nothing.
+     */
+    protected void completeDataStore() {
+    }
+
+    /**
+     * Open and publish data store persisted by previous load of the same source file, e.g. by another process,
+     * instead of parsing the file. Numbers of loaded and error lines should be set into load results statistics.
+     * Default implementation does not persist data store and returns {@code false}.
+     * 
+     * @param sourcePath
+     *        source data file path
+     * 
+     * @param loadResult
+     *        load results statistics
+     * 
+     * @return {@code true} if data store is opened and published
+     */
+    protected boolean openDataStore(Path sourcePath, LoadResult loadResult) {
+        return false;
+    }
+
+    /**
+     * Apply changes of incremental reload or runtime bus route changes to published data store and publish updated data store to readers.
+     * Lookups should see either previous or updated data store, never a partially updated one.
+     * If changes can not be applied, published data store should stay unchanged, then the file is loaded completely.
+     * Default implementation does not support incremental reload and returns {@code false}.
+     * 
+     * @param changes
+     *        added, updated and deleted bus routes
+     * 
+     * @return {@code true} if changes are applied
+     */
+    protected boolean applyRouteChanges(RouteChanges changes) {
+        return false;
+    }
+
+    /**
+     * Gets the bus routes of published data store for snapshot replication.
+     * Default implementation returns {@code null}, so data can not be replicated from the provider.
+     * 
+     * @return published bus routes storage or {@code null}
+     */
+    protected RouteStorage getPublishedRoutes() {
+        return null;
+    }
+
+    /**
+     * Create snapshot of published data with its dataset version for replicas.
+     * Snapshot is created once per dataset version. If a load is in progress, snapshot of the previous version is returned.
+     * Until data is published, e.g. when the first load failed, there is no snapshot, so replicas keep their data.
+     * 
+     * @return snapshot of published data or {@code null} if the provider does not support replication or has no snapshot yet
+     */
+    public RouteSnapshot createSnapshot() {
+        if (datasetVersion == 0) return null;
+        if (!loadLock.tryLock()) {
+            return publishedSnapshot;
+        }
+        try {
+            RouteSnapshot snapshot = publishedSnapshot;
+            if (snapshot != null && snapshot.getDatasetVersion() == datasetVersion) return snapshot;
+            
+            RouteStorage routes = getPublishedRoutes();
+            if (routes == null) return null;
+            
+            long startTime = System.currentTimeMillis();
+            snapshot = new RouteSnapshot(datasetVersion, errorCount, routes.hasDeleted() ? routes.withoutDeleted() : routes);
+            publishedSnapshot = snapshot;
+            logger.info("Snapshot of dataset version " + snapshot.getDatasetVersion() + " created: " + routes.size() + " routes in "
+                    + (System.currentTimeMillis() - startTime) + " ms");
+            return snapshot;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the stop reachability index of published data for one transfer lookups.
+     * Index is built in background after dataset version change, so callers are never blocked by the build:
+     * until the index of the current version is ready, index of the previous version is returned.
+     * The first call starts the build and since then index is built after every dataset version change.
+     * 
+     * @return stop reachability index or {@code null} if the provider does not keep bus routes in memory,
+     *         the index is not built yet or exceeds build work limit
+     */
+    public StopReachability getStopReachability() {
+        reachabilityRequested = true;
+        StopReachability reachability = publishedReachability;
+        if (isReachabilityOutdated(reachability)) {
+            startReachabilityBuild();
+        }
+        return reachability;
+    }
+
+    /**
+     * Check if stop reachability index should be built for the current dataset version.
+     * 
+     * @param reachability
+     *        stop reachability index of the last built dataset version or {@code null}
+     * 
+     * @return {@code true} if index of the current dataset version is not built yet
+     */
+    private boolean isReachabilityOutdated(StopReachability reachability) {
+        long version = datasetVersion;
+        return version != 0 && unreachableVersion != version && (reachability == null || reachability.getDatasetVersion() != version);
+    }
+
+    /**
+     * Start stop reachability index build in background thread, if it is not started yet.
+     */
+    private void startReachabilityBuild() {
+        if (!reachabilityBuilding.compareAndSet(false, true)) return;
+        
+        Thread thread = new Thread(this::buildReachability, "bus-route-reachability-build");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Build stop reachability index of the current dataset version and publish it.
+     * If dataset version changes during the build, index is built again. If the index can not be built,
+     * no index is published for the version.
+     */
+    private void buildReachability() {
+        long version = 0;
+        try {
+            while (isReachabilityOutdated(publishedReachability)) {
+                version = datasetVersion;
+                RouteStorage routes = getPublishedRoutes();
+                if (routes == null) {
+                    publishedReachability = null;
+                    unreachableVersion = version;
+                    break;
+                }
+                
+                long startTime = System.currentTimeMillis();
+                StopReachability reachability = StopReachability.build(routes, version, orderedLookup, reachabilityMaxWork);
+                if (reachability == null) {
+                    logger.warn("Stop reachability index of dataset version " + version + " exceeds build work limit " + reachabilityMaxWork);
+                    publishedReachability = null;
+                    unreachableVersion = version;
+                    break;
+                }
+                publishedReachability = reachability;
+                logger.info("Stop reachability index of dataset version " + version + " built: " + reachability.getStopCount() + " stops, "
+                        + reachability.sizeInBytes() / 1024 + " KB in " + (System.currentTimeMillis() - startTime) + " ms");
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error building stop reachability index of dataset version " + version + ": " + e.getClass().getName() + ": " + e.getMessage());
+            publishedReachability = null;
+            unreachableVersion = version;
+        } finally {
+            reachabilityBuilding.set(false);
+        }
+        if (isReachabilityOutdated(publishedReachability)) {
+            startReachabilityBuild();
+        }
+    }
+
+    /**
+     * Load data from snapshot received from another instance and publish it with the snapshot dataset version.
+     * If another load is in progress, the load is rejected.
+     * 
+     * @param snapshot
+     *        snapshot of bus routes
+     * 
+     * @return load results statistics
+     */
+    public LoadResult loadSnapshot(RouteSnapshot snapshot) {
+        LoadResult loadResult = new LoadResult();
+        if (!loadLock.tryLock()) {
+            logger.warn("Loading snapshot rejected, another load is in progress");
+            loadResult.setRejected(true);
+            return loadResult;
+        }
+        
+        try {
+            loadCount = 0;
+            errorCount = 0;
+            try {
+                addSnapshotRoutes(snapshot, "dataset version " + snapshot.getDatasetVersion());
+            } catch (RuntimeException e) {
+                logger.error(e.getClass().getName() + ": " + e.getMessage());
+                loadResult.setFailed(true);
+                loadCount = 0;
+                errorCount++;
+                discardDataStore();
+            }
+            LOADED_LINES.add(loadCount);
+            ERROR_LINES.add(errorCount);
+            loadResult.setLoad_count(loadCount);
+            loadResult.setError_count(errorCount);
+            completeLoadResult(loadResult);
+            return loadResult;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Check if bus routes of published data can be changed by put and delete.
+     * Default implementation returns {@code false}, data providers applying single bus route change by
+     * {@link AbstractDataProvider#applyRouteChanges(RouteChanges)} in time independent of the number of routes return {@code true}.
+     * 
+     * @return {@code true} if bus route changes are supported
+     */
+    @Override
+    public boolean isRouteChangeSupported() {
+        return false;
+    }
+
+    /**
+     * Check if published data contains bus route with specified id.
+     * Default implementation returns {@code true}, so delete is applied without check.
+     * 
+     * @param routeId
+     *        bus route id
+     * 
+     * @return {@code true} if bus route is found
+     */
+    protected boolean containsBusRoute(int routeId) {
+        return true;
+    }
+
+    /**
+     * Add bus route into published data or replace bus route with the same id.
+     * Change is applied by {@link AbstractDataProvider#applyRouteChanges(RouteChanges)}. Change waits for another change
+     * for a short time, if a load is in progress, the change is rejected as {@link RouteChangeResult#BUSY}.
+     * 
+     * @param routeId
+     *        bus route id
+     * 
+     * @param stopIds
+     *        array holding bus route stop ids from position 0
+     * 
+     * @param stopCount
+     *        number of bus route stop ids, at least 2
+     * 
+     * @return result of the change
+     */
+    @Override
+    public RouteChangeResult putBusRoute(int routeId, int[] stopIds, int stopCount) {
+        if (!isRouteChangeSupported()) return RouteChangeResult.UNSUPPORTED;
+        if (stopIds == null || stopCount < 2 || routeId == NO_ROUTE) return RouteChangeResult.INVALID;
+        
+        RouteStorageBuilder route = new RouteStorageBuilder(1);
+        route.add(routeId, stopIds, stopCount);
+        if (!lockRouteChange()) {
+            logger.warn("Putting bus route " + routeId + " rejected, data store is locked by a load in progress");
+            return RouteChangeResult.BUSY;
+        }
+        try {
+            if (!applyRouteChanges(new RouteChanges(route.build(), new int[0], 0))) return RouteChangeResult.FAILED;
+            if (routeFingerprints != null) {
+                routeFingerprints.put(routeId, RouteChanges.fingerprint(stopIds, 0, stopCount));
+            }
+            publishDatasetVersion(0);
+            logger.info("Bus route put: " + routeId + ", " + stopCount + " stops");
+            return RouteChangeResult.APPLIED;
+        } catch (RuntimeException e) {
+            logger.error("Error putting bus route " + routeId + ": " + e.getClass().getName() + ": " + e.getMessage());
+            return RouteChangeResult.FAILED;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Delete bus route from published data.
+     * Change is applied by {@link AbstractDataProvider#applyRouteChanges(RouteChanges)}. Change waits for another change
+     * for a short time, if a load is in progress, the change is rejected as {@link RouteChangeResult#BUSY}.
+     * 
+     * @param routeId
+     *        bus route id
+     * 
+     * @return result of the change
+     */
+    @Override
+    public RouteChangeResult deleteBusRoute(int routeId) {
+        if (!isRouteChangeSupported()) return RouteChangeResult.UNSUPPORTED;
+        
+        if (!lockRouteChange()) {
+            logger.warn("Deleting bus route " + routeId + " rejected, data store is locked by a load in progress");
+            return RouteChangeResult.BUSY;
+        }
+        try {
+            if (!containsBusRoute(routeId)) return RouteChangeResult.NOT_FOUND;
+            if (!applyRouteChanges(new RouteChanges(new RouteStorageBuilder(0).build(), new int[] {routeId}, 0))) return RouteChangeResult.FAILED;
+            if (routeFingerprints != null) {
+                routeFingerprints.remove(routeId);
+            }
+            publishDatasetVersion(0);
+            logger.info("Bus route deleted: " + routeId);
+            return RouteChangeResult.APPLIED;
+        } catch (RuntimeException e) {
+            logger.error("Error deleting bus route " + routeId + ": " + e.getClass().getName() + ": " + e.getMessage());
+            return RouteChangeResult.FAILED;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Acquire load lock for bus route change. Changes wait for each other for {@link AbstractDataProvider#ROUTE_CHANGE_LOCK_TIMEOUT},
+     * so request threads are not blocked for the whole duration of a load in progress.
+     * 
+     * @return {@code true} if the lock is acquired and should be released by caller
+     */
+    private boolean lockRouteChange() {
+        try {
+            return loadLock.tryLock(ROUTE_CHANGE_LOCK_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Add provider specific values into load results statistics.
+     * Default implementation does nothing.
+     * 
+     * @param loadResult
+     *        load results statistics
+     */
+    protected void completeLoadResult(LoadResult loadResult) {
+    }
+
+    /**
+     * Discard data store under construction after failed load. Previous data store stays published.
+     * Default implementation does nothing.
+     */
+    protected void discardDataStore() {
+    }
+
+    /**
+     * Gets the value of dataset version property {@link AbstractDataProvider.datasetVersion}.
+     * 
+     * @return version of published data store
+     */
+    public long getDatasetVersion() {
+        return datasetVersion;
+    }
+    
+    /**
+     * Set dataset version after new data store is published.
+     * Version of parsed source file is the current time, but always greater than the previous version.
+     * If stop reachability index was requested, its build for the new version is started.
+     * 
+     * @param version
+     *        new dataset version, {@code 0} to derive version from current time
+     * 
+     * @return published dataset version
+     */
+    private long publishDatasetVersion(long version) {
+        datasetVersion = version != 0 ? version : Math.max(System.currentTimeMillis(), datasetVersion + 1);
+        if (reachabilityRequested) {
+            startReachabilityBuild();
+        }
+        return datasetVersion;
+    }
+
+    /**
+     * Gets the path of source file under load. Providers persisting data store use it to check
+     * whether the data store can be reused for the file.
+     * 
+     * @return source file path or {@code null} if data is loaded from stream or snapshot
+     */
+    protected Path getLoadingSourcePath() {
+        return loadingSourcePath;
+    }
+
+    /**
+     * Gets the number of error lines of the last or current load property {@link AbstractDataProvider.errorCount}.
+     * 
+     * @return number of error lines
+     */
+    protected int getErrorCount() {
+        return errorCount;
+    }
+
     /**
      * Gets the value source file path property {@link AbstractDataProvider.sourceFilePath}.
      * 
@@ -69,7 +658,113 @@ public abstract class AbstractDataProvider implements DataProvider{
     }
     
     /**
-     * Loads data from specified file path into storage
+     * Gets the value of load threads property {@link AbstractDataProvider.loadThreads}.
+     * 
+     * @return number of threads parsing source file
+     */
+    public int getLoadThreads() {
+        return loadThreads;
+    }
+
+    /**
+     * Sets the value of load threads property {@link AbstractDataProvider.loadThreads}.
+     * 
+     * @param loadThreads
+     *        new number of threads parsing source file
+     */
+    public void setLoadThreads(int loadThreads) {
+        this.loadThreads = loadThreads;
+    }
+    
+    /**
+     * Gets the value of stop reachability index build work limit property {@link AbstractDataProvider.reachabilityMaxWork}.
+     * 
+     * @return maximal sum of squared bus route lengths
+     */
+    public long getReachabilityMaxWork() {
+        return reachabilityMaxWork;
+    }
+
+    /**
+     * Sets the value of stop reachability index build work limit property {@link AbstractDataProvider.reachabilityMaxWork}.
+     * 
+     * @param reachabilityMaxWork
+     *        new maximal sum of squared bus route lengths
+     */
+    public void setReachabilityMaxWork(long reachabilityMaxWork) {
+        this.reachabilityMaxWork = reachabilityMaxWork;
+    }
+    
+    /**
+     * Gets the value of snapshot enabled property {@link AbstractDataProvider.snapshotEnabled}.
+     * 
+     * @return {@code true} if binary snapshot is written and used on load
+     */
+    public boolean isSnapshotEnabled() {
+        return snapshotEnabled;
+    }
+
+    /**
+     * Sets the value of snapshot enabled property {@link AbstractDataProvider.snapshotEnabled}.
+     * 
+     * @param snapshotEnabled
+     *        new snapshot enabled value
+     */
+    public void setSnapshotEnabled(boolean snapshotEnabled) {
+        this.snapshotEnabled = snapshotEnabled;
+    }
+    
+    /**
+     * Gets the value of ordered lookup property {@link AbstractDataProvider.orderedLookup}.
+     * 
+     * @return {@code true} if lookups match only bus routes going from the first stop to the second stop
+     */
+    public boolean isOrderedLookup() {
+        return orderedLookup;
+    }
+
+    /**
+     * Sets the value of ordered lookup property {@link AbstractDataProvider.orderedLookup}.
+     * In ordered mode bus route matches only if the first (departure) stop comes before the second (arrival) stop in its stops.
+     * Providers keeping stop indexes build stop position index on load, so the property should be set before data is loaded.
+     * 
+     * @param orderedLookup
+     *        new ordered lookup value
+     */
+    public void setOrderedLookup(boolean orderedLookup) {
+        this.orderedLookup = orderedLookup;
+    }
+    
+    /**
+     * Gets the value of incremental reload property {@link AbstractDataProvider.incrementalReload}.
+     * 
+     * @return {@code true} if reload applies only changes of source file
+     */
+    public boolean isIncrementalReload() {
+        return incrementalReload;
+    }
+
+    /**
+     * Sets the value of incremental reload property {@link AbstractDataProvider.incrementalReload}.
+     * Route fingerprints are collected on complete load, so the property should be set before data is loaded.
+     * 
+     * @param incrementalReload
+     *        new incremental reload value
+     */
+    public void setIncrementalReload(boolean incrementalReload) {
+        this.incrementalReload = incrementalReload;
+        if (!incrementalReload) {
+            routeFingerprints = null;
+        }
+    }
+    
+    /**
+     * Loads data from specified file path into storage.
+     * If incremental reload is enabled and data is already loaded, only changed bus routes are applied
+     * by {@link AbstractDataProvider#applyRouteChanges(RouteChanges)}.
+     * If provider has data store persisted by previous load of the file, it is opened by {@link AbstractDataProvider#openDataStore(Path, LoadResult)}.
+     * If snapshot is enabled and binary snapshot next to the file is newer than the file, data is loaded from snapshot.
+     * Otherwise the file is parsed in parallel by {@link ParallelFileLoader} and new snapshot is written. 
      * 
      * @param filePath
      *        source data file path value
@@ -77,88 +772,466 @@ public abstract class AbstractDataProvider implements DataProvider{
      * @return load results statistics
      */
     protected LoadResult loadFile(String filePath) {
-        lineCount = 0;
-        tmpLineCount = 0;
-        loadCount = 0;
-        errorCount = 0;
-        
-        try (Stream<String> stream = Files.lines(Paths.get(filePath))) {
-            logger.info("Start loading file: " + filePath);
-            
-            stream.forEach(x -> { processLine(x); });
-
-            logger.info("End loading file: " + filePath);
-            
-        } catch (IOException e) {
-           logger.error(e.getClass().getName() + ": " + e.getMessage());
-           errorCount++;
-        }
-        
-        LoadResult loadResult = new LoadResult();
-        loadResult.setLoad_count(loadCount);
-        loadResult.setError_count(errorCount);
-        return loadResult;
+        return loadFile(filePath, null);
     }
     
     /**
-     * Parse line from source file
+     * Loads data from specified file path into storage like {@link AbstractDataProvider#loadFile(String)}
+     * reporting progress of the file parsing. If the load is cancelled by {@link LoadProgress#cancel()}
+     * before new data is published, the previous data is kept and load result is marked as cancelled.
      * 
-     * @param line
-     *        source line value
+     * @param filePath
+     *        source data file path value
+     * 
+     * @param progress
+     *        progress of the load or {@code null} if progress is not reported
+     * 
+     * @return load results statistics
      */
-    protected void processLine(String line) {
-        if (tmpLineCount >= 100) {
-            logger.info("Lines loaded: " + lineCount);
-            tmpLineCount = 0;
+    protected LoadResult loadFile(String filePath, LoadProgress progress) {
+        LoadResult loadResult = new LoadResult();
+        if (!loadLock.tryLock()) {
+            logger.warn("Loading file rejected, another load is in progress: " + filePath);
+            loadResult.setRejected(true);
+            return loadResult;
         }
-
+        
         try {
-            if (lineCount == 0) {
-                try {
-                    int estimatedLinesCount = Integer.valueOf(line);
-                    createDataStore(estimatedLinesCount);
-                    logger.info("Estimated lines count: " + estimatedLinesCount);
-                } catch (NumberFormatException nfe) {
-                    logger.error("Error line " + lineCount + " parsing: the line should contain only numbers"); 
-                }    
-                return;
+            loadProgress = progress;
+            loadCount = 0;
+            errorCount = 0;
+            
+            Path sourcePath = Paths.get(filePath);
+            if (incrementalReload && routeFingerprints != null && loadChanges(sourcePath, loadResult)) {
+                return loadResult;
             }
             
-            BusRoute busRoute = new BusRoute();
-            String[] values = line.split(" ");
-            if (values.length < 3) {
-                logger.error("Error line " + lineCount + " parsing: the line elements count is less then 3");
-                errorCount++;
-                return;
+            if (openDataStore(sourcePath, loadResult)) {
+                publishDatasetVersion(0);
+                loadCount = loadResult.getLoad_count();
+                errorCount = loadResult.getError_count();
+                LOADED_LINES.add(loadCount);
+                ERROR_LINES.add(errorCount);
+                completeLoadResult(loadResult);
+                return loadResult;
             }
             
-            busRoute.getStopIds().ensureCapacity(values.length - 1);
-            boolean firstElement = true;
+            Path snapshotPath = getSnapshotPath(filePath);
+            long[] sourceAttributes = snapshotEnabled ? getSourceAttributes(sourcePath) : null;
+            if (sourceAttributes != null && loadSnapshot(snapshotPath, sourceAttributes[0], sourceAttributes[1])) {
+                LOADED_LINES.add(loadCount);
+                ERROR_LINES.add(errorCount);
+                loadResult.setLoad_count(loadCount);
+                loadResult.setError_count(errorCount);
+                completeLoadResult(loadResult);
+                return loadResult;
+            }
             
+            RouteStorageBuilder loadedRoutes = sourceAttributes != null ? new RouteStorageBuilder(1024) : null;
             try {
-                for (String val : values) {
-                    if (firstElement) {
-                        busRoute.setId(Integer.valueOf(val));
-                        firstElement = false;
-                    } else {
-                        busRoute.getStopIds().add(Integer.valueOf(val));
-                    }
+                loadingSourcePath = sourcePath;
+                long version = parseSource(filePath, sourcePath, null, loadedRoutes);
+                
+                if (loadedRoutes != null) {
+                    long phaseStartTime = System.nanoTime();
+                    writeSnapshot(snapshotPath, new RouteSnapshot(version, sourceAttributes[0], sourceAttributes[1], errorCount, loadedRoutes.build()));
+                    SNAPSHOT_WRITE_PHASE.recordSince(phaseStartTime);
                 }
-            } catch (NumberFormatException nfe) {
-                logger.error("Error line " + lineCount + " parsing: the line should contain only numbers");
-                errorCount++;
-                return;
+            } catch (CancellationException e) {
+               logger.info("Loading file cancelled: " + filePath);
+               loadResult.setCancelled(true);
+               loadCount = 0;
+               discardDataStore();
+            } catch (IOException | RuntimeException e) {
+               logger.error(e.getClass().getName() + ": " + e.getMessage());
+               loadResult.setFailed(true);
+               loadCount = 0;
+               errorCount++;
+               ERROR_LINES.increment();
+               discardDataStore();
+            } finally {
+                loadingSourcePath = null;
+            }
+            
+            loadResult.setLoad_count(loadCount);
+            loadResult.setError_count(errorCount);
+            completeLoadResult(loadResult);
+            return loadResult;
+        } finally {
+            loadProgress = null;
+            loadLock.unlock();
+        }
+    }
+    
+    /**
+     * Initialize data provider and loads data from source file into storage reporting progress of the load.
+     * The load can be cancelled by {@link LoadProgress#cancel()} until new data is published.
+     * 
+     * @param progress
+     *        progress of the load
+     * 
+     * @return load results statistics
+     */
+    @Override
+    public LoadResult init(LoadProgress progress) {
+        return loadFile(getSourceFilePath(), progress);
+    }
+    
+    /**
+     * Loads data from stream into storage. The stream has source file format, it is parsed while it is read
+     * by {@link ParallelFileLoader} and published like reloaded source file.
+     * Incremental reload, snapshot and persisted data store are not used, route fingerprints are collected
+     * for the next incremental reload of source file. If the stream can not be read, e.g. it is truncated,
+     * load result is marked as failed with invalid input and no line is reported as loaded.
+     * 
+     * @param in
+     *        source data stream, not closed by the method
+     * 
+     * @return load results statistics
+     */
+    public LoadResult loadStream(InputStream in) {
+        LoadResult loadResult = new LoadResult();
+        if (!loadLock.tryLock()) {
+            logger.warn("Loading stream rejected, another load is in progress");
+            loadResult.setRejected(true);
+            return loadResult;
+        }
+        
+        try {
+            loadCount = 0;
+            errorCount = 0;
+            try {
+                parseSource("stream", null, in, null);
+            } catch (IOException | RuntimeException e) {
+               logger.error(e.getClass().getName() + ": " + e.getMessage());
+               loadResult.setFailed(true);
+               loadResult.setInvalidInput(e instanceof IOException);
+               loadCount = 0;
+               errorCount++;
+               ERROR_LINES.increment();
+               discardDataStore();
             }
             
-            if (addBusRoute(busRoute)) {
-                loadCount++;
+            loadResult.setLoad_count(loadCount);
+            loadResult.setError_count(errorCount);
+            completeLoadResult(loadResult);
+            return loadResult;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+    
+    /**
+     * Parse source file or stream in parallel into new data store and publish it.
+     * 
+     * @param name
+     *        source name for log messages
+     * 
+     * @param sourcePath
+     *        source data file path or {@code null} to parse stream
+     * 
+     * @param in
+     *        source data stream, used if file path is {@code null}
+     * 
+     * @param loadedRoutes
+     *        storage collecting loaded bus routes for snapshot or {@code null}
+     * 
+     * @return published dataset version
+     * 
+     * @throws IOException if the source can not be read
+     * 
+     * @throws CancellationException if the load is cancelled before new data store is completed
+     */
+    private long parseSource(String name, Path sourcePath, InputStream in, RouteStorageBuilder loadedRoutes) throws IOException {
+        ParallelFileLoader loader = new ParallelFileLoader(this, loadThreads);
+        loader.setProgress(loadProgress);
+        loader.setLoadedRoutes(loadedRoutes);
+        IntLongHashMap fingerprints = incrementalReload ? new IntLongHashMap(1024) : null;
+        loader.setFingerprints(fingerprints);
+        logger.info("Start loading " + (sourcePath != null ? "file" : "stream") + ": " + name);
+        
+        long phaseStartTime = System.nanoTime();
+        try {
+            if (sourcePath != null) {
+                loader.load(sourcePath);
             } else {
-                errorCount++;
+                loader.load(in);
             }
-
         } finally {
-            lineCount++;
-            tmpLineCount++;
-        }    
+            loadCount = loader.getLoadCount();
+            errorCount = loader.getErrorCount();
+            LOADED_LINES.add(loadCount);
+            ERROR_LINES.add(errorCount);
+        }
+        PARSE_PHASE.recordSince(phaseStartTime);
+        if (loadProgress != null) {
+            loadProgress.checkCancelled();
+        }
+        
+        phaseStartTime = System.nanoTime();
+        completeDataStore();
+        long version = publishDatasetVersion(0);
+        PUBLISH_PHASE.recordSince(phaseStartTime);
+        setRouteFingerprints(fingerprints, loader.getDuplicateCount());
+        
+        logger.info("End loading " + (sourcePath != null ? "file" : "stream") + ": " + name);
+        return version;
+    }
+    
+    /**
+     * Load only changes of source file compared with loaded data.
+     * The file is parsed completely, but only added and updated bus routes are kept and applied with deleted ones.
+     * 
+     * @param sourcePath
+     *        source data file path
+     * 
+     * @param loadResult
+     *        load results statistics
+     * 
+     * @return {@code true} if changes are loaded or the load is cancelled, {@code false} if the file should be loaded completely
+     */
+    private boolean loadChanges(Path sourcePath, LoadResult loadResult) {
+        long startTime = System.currentTimeMillis();
+        logger.info("Start loading changes: " + sourcePath);
+        RouteDiff routeDiff = new RouteDiff(routeFingerprints);
+        ParallelFileLoader loader = new ParallelFileLoader(this, loadThreads);
+        loader.setRouteDiff(routeDiff);
+        loader.setProgress(loadProgress);
+        long phaseStartTime = System.nanoTime();
+        try {
+            loader.load(sourcePath);
+            if (loadProgress != null) {
+                loadProgress.checkCancelled();
+            }
+        } catch (CancellationException e) {
+            logger.info("Loading changes cancelled: " + sourcePath);
+            loadResult.setCancelled(true);
+            completeLoadResult(loadResult);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error loading changes, file will be loaded completely: " + e.getClass().getName() + ": " + e.getMessage());
+            return false;
+        }
+        if (routeDiff.isDuplicate()) {
+            logger.info("Source file contains duplicate bus route ids, file will be loaded completely");
+            return false;
+        }
+        RouteChanges changes = routeDiff.getChanges();
+        DIFF_PHASE.recordSince(phaseStartTime);
+        
+        if (!changes.isEmpty()) {
+            phaseStartTime = System.nanoTime();
+            try {
+                if (!applyRouteChanges(changes)) {
+                    logger.info("Changes can not be applied, file will be loaded completely");
+                    return false;
+                }
+            } catch (RuntimeException e) {
+                logger.error("Error applying changes, file will be loaded completely: " + e.getClass().getName() + ": " + e.getMessage());
+                return false;
+            }
+            routeDiff.applyTo(changes);
+            publishDatasetVersion(0);
+            APPLY_PHASE.recordSince(phaseStartTime);
+        }
+        
+        loadCount = loader.getLoadCount();
+        errorCount = loader.getErrorCount();
+        LOADED_LINES.add(loadCount);
+        ERROR_LINES.add(errorCount);
+        loadResult.setLoad_count(loadCount);
+        loadResult.setError_count(errorCount);
+        loadResult.setAdded_count(changes.getAddedCount());
+        loadResult.setUpdated_count(changes.getUpdatedCount());
+        loadResult.setDeleted_count(changes.getDeletedCount());
+        loadResult.setIncremental(true);
+        completeLoadResult(loadResult);
+        logger.info("End loading changes: " + changes.getAddedCount() + " added, " + changes.getUpdatedCount() + " updated, "
+                + changes.getDeletedCount() + " deleted, " + routeDiff.getUnchangedCount() + " unchanged routes in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+        return true;
+    }
+    
+    /**
+     * Keep stop fingerprints of completely loaded bus routes for the next incremental reload.
+     * Bus routes with duplicate ids can not be matched with source file routes, so incremental reload is not used then.
+     * 
+     * @param fingerprints
+     *        stop fingerprints by route id or {@code null}
+     * 
+     * @param duplicateCount
+     *        number of loaded bus routes with duplicate ids
+     */
+    private void setRouteFingerprints(IntLongHashMap fingerprints, int duplicateCount) {
+        if (fingerprints != null && duplicateCount > 0) {
+            logger.info("Loaded data contains " + duplicateCount + " duplicate bus route ids, the next reload will be complete");
+            fingerprints = null;
+        }
+        routeFingerprints = fingerprints;
+    }
+    
+    /**
+     * Gets the binary snapshot path of specified source file path.
+     * 
+     * @param filePath
+     *        source data file path value
+     * 
+     * @return snapshot file path
+     */
+    public static Path getSnapshotPath(String filePath) {
+        return Paths.get(filePath + ".snapshot");
+    }
+    
+    /**
+     * Gets the size and last modified time of source file, which are stored in the snapshot header to check
+     * that snapshot is written for the same source file version. Attributes are taken before parsing,
+     * so source file changed during parsing does not match the written snapshot.
+     * 
+     * @param sourcePath
+     *        source data file path
+     * 
+     * @return source file size and last modified time in milliseconds or {@code null} if they can not be read
+     */
+    private static long[] getSourceAttributes(Path sourcePath) {
+        try {
+            return new long[] {Files.size(sourcePath), Files.getLastModifiedTime(sourcePath).toMillis()};
+        } catch (IOException e) {
+            logger.warn("Error reading source file attributes, snapshot is not used: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Load data from binary snapshot into storage.
+     * If snapshot is absent, is written for another source file version, is corrupted or its routes can not be added,
+     * data store is discarded and {@code false} is returned to fall back to source file parsing.
+     * 
+     * @param snapshotPath
+     *        snapshot file path
+     * 
+     * @param sourceSize
+     *        size of source file
+     * 
+     * @param sourceTime
+     *        last modified time of source file in milliseconds
+     * 
+     * @return {@code true} if snapshot is loaded
+     */
+    private boolean loadSnapshot(Path snapshotPath, long sourceSize, long sourceTime) {
+        if (!Files.exists(snapshotPath)) return false;
+        long phaseStartTime = System.nanoTime();
+        RouteSnapshot snapshot;
+        try {
+            snapshot = RouteSnapshot.read(snapshotPath, sourceSize, sourceTime);
+        } catch (IOException e) {
+            logger.warn("Error reading snapshot, source file will be parsed: " + e.getMessage());
+            return false;
+        }
+        if (snapshot == null) {
+            logger.info("Snapshot is written for another source file version: " + snapshotPath);
+            return false;
+        }
+        SNAPSHOT_READ_PHASE.recordSince(phaseStartTime);
+        
+        try {
+            addSnapshotRoutes(snapshot, snapshotPath.toString());
+        } catch (RuntimeException e) {
+            logger.warn("Error loading snapshot, source file will be parsed: " + e.getClass().getName() + ": " + e.getMessage());
+            discardDataStore();
+            loadCount = 0;
+            errorCount = 0;
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Add bus routes of snapshot into new data store and publish it with the snapshot dataset version.
+     * 
+     * @param snapshot
+     *        snapshot of bus routes
+     * 
+     * @param name
+     *        snapshot name for log messages
+     */
+    private void addSnapshotRoutes(RouteSnapshot snapshot, String name) {
+        long startTime = System.currentTimeMillis();
+        logger.info("Start loading snapshot: " + name);
+        long phaseStartTime = System.nanoTime();
+        RouteStorage routes = withoutReservedRouteIds(snapshot.getRoutes());
+        errorCount += snapshot.getRoutes().size() - routes.size();
+        createDataStore(routes.size());
+        int addedCount = addBusRoutes(routes);
+        loadCount += addedCount;
+        errorCount += routes.size() - addedCount + snapshot.getErrorCount();
+        IntLongHashMap fingerprints = incrementalReload ? new IntLongHashMap(routes.size()) : null;
+        int duplicateCount = 0;
+        if (fingerprints != null) {
+            for (int routeIndex = 0; routeIndex < routes.size(); routeIndex++) {
+                long fingerprint = RouteChanges.fingerprint(routes.getStopIds(), routes.getOffset(routeIndex), routes.getStopCount(routeIndex));
+                if (!fingerprints.put(routes.getRouteId(routeIndex), fingerprint)) {
+                    duplicateCount++;
+                }
+            }
+        }
+        PARSE_PHASE.recordSince(phaseStartTime);
+        
+        phaseStartTime = System.nanoTime();
+        completeDataStore();
+        publishDatasetVersion(snapshot.getDatasetVersion());
+        PUBLISH_PHASE.recordSince(phaseStartTime);
+        setRouteFingerprints(fingerprints, duplicateCount);
+        logger.info("End loading snapshot: " + routes.size() + " routes in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+    
+    /**
+     * Gets the storage without deleted bus routes and bus routes with reserved {@link DataProvider#NO_ROUTE} id,
+     * which can not be added. Storage is returned as is if it has no such routes.
+     * 
+     * @param routes
+     *        bus routes storage
+     * 
+     * @return bus routes storage which can be added into data store
+     */
+    private static RouteStorage withoutReservedRouteIds(RouteStorage routes) {
+        int reservedCount = 0;
+        for (int routeIndex = 0; routeIndex < routes.size(); routeIndex++) {
+            if (routes.getRouteId(routeIndex) == NO_ROUTE) {
+                reservedCount++;
+            }
+        }
+        if (reservedCount == 0 && !routes.hasDeleted()) return routes;
+
+        RouteStorageBuilder validRoutes = new RouteStorageBuilder(routes.size() - reservedCount);
+        int[] stopIds = new int[64];
+        for (int routeIndex = 0; routeIndex < routes.size(); routeIndex++) {
+            if (routes.isDeleted(routeIndex) || routes.getRouteId(routeIndex) == NO_ROUTE) continue;
+            int stopCount = routes.getStopCount(routeIndex);
+            if (stopCount > stopIds.length) {
+                stopIds = new int[stopCount];
+            }
+            System.arraycopy(routes.getStopIds(), routes.getOffset(routeIndex), stopIds, 0, stopCount);
+            validRoutes.add(routes.getRouteId(routeIndex), stopIds, stopCount);
+        }
+        return validRoutes.build();
+    }
+    
+    /**
+     * Write binary snapshot of loaded data. Errors are logged and ignored.
+     * 
+     * @param snapshotPath
+     *        snapshot file path
+     * 
+     * @param snapshot
+     *        snapshot to write
+     */
+    private void writeSnapshot(Path snapshotPath, RouteSnapshot snapshot) {
+        long startTime = System.currentTimeMillis();
+        try {
+            snapshot.write(snapshotPath);
+            logger.info("Snapshot written: " + snapshotPath + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        } catch (IOException e) {
+            logger.warn("Error writing snapshot " + snapshotPath + ": " + e.getMessage());
+        }
     }
 }
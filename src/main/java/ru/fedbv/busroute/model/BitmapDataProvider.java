@@ -0,0 +1,75 @@
+package ru.fedbv.busroute.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory data provider class with compressed bitmap stop index.
+ * Bus routes are kept in compact {@link RouteStorage}. For every stop keeps {@link CompressedBitmap}
+ * of indexes of bus routes which contain the stop.
+ * Find by two stops is a container-wise AND of two bitmaps which stops on the first common bus route.
+ * In ordered lookup mode {@link StopPositionIndex} is built as well and find by two stops
+ * returns only bus routes which go from the first stop to the second one.
+ */
+public class BitmapDataProvider extends StopIndexDataProvider<CompressedBitmap> {
+    public static Logger logger = LoggerFactory.getLogger(BitmapDataProvider.class);
+
+    /**
+     * Compress bus route indexes into bitmap.
+     *
+     * @param routeIndexes
+     *        sorted distinct bus route indexes
+     *
+     * @return bitmap of bus route indexes
+     */
+    @Override
+    protected CompressedBitmap createStopEntry(int[] routeIndexes) {
+        return CompressedBitmap.of(routeIndexes, routeIndexes.length);
+    }
+
+    /**
+     * Decompress bus route indexes of bitmap.
+     *
+     * @param stopEntry
+     *        bitmap of bus route indexes
+     *
+     * @return sorted distinct bus route indexes
+     */
+    @Override
+    protected int[] getRouteIndexes(CompressedBitmap stopEntry) {
+        return stopEntry.toArray();
+    }
+
+    /**
+     * Find the first common bus route index of two bitmaps, which is not less than specified index,
+     * by container-wise AND of bitmaps.
+     *
+     * @param stopEntry1
+     *        first bitmap
+     *
+     * @param stopEntry2
+     *        second bitmap
+     *
+     * @param fromRouteIndex
+     *        the smallest bus route index to find
+     *
+     * @return bus route index or {@code -1}
+     */
+    @Override
+    protected int findCommonRouteIndex(CompressedBitmap stopEntry1, CompressedBitmap stopEntry2, int fromRouteIndex) {
+        return stopEntry1.nextIntersection(stopEntry2, fromRouteIndex);
+    }
+
+    /**
+     * Gets the size of bitmap in memory.
+     *
+     * @param stopEntry
+     *        bitmap
+     *
+     * @return size in bytes
+     */
+    @Override
+    protected long sizeInBytes(CompressedBitmap stopEntry) {
+        return stopEntry.sizeInBytes();
+    }
+}
@@ -12,9 +12,25 @@ public class BusRoute {
     private int id;
     
     /** 
-     * Bus route stop id list property
+     * Bus route stop id list property. For bus route view it is built on demand and published
+     * to concurrent readers only when complete.
      */
-    private ArrayList<Integer> stopIds;
+    private volatile ArrayList<Integer> stopIds;
+    
+    /** 
+     * Shared stop ids storage for bus route view, {@code null} for standalone bus route
+     */
+    private int[] stopIdsStorage;
+    
+    /** 
+     * Position of the first stop id in shared storage
+     */
+    private int stopIdsOffset;
+    
+    /** 
+     * Number of stop ids in shared storage
+     */
+    private int stopIdsCount;
 
     /** 
      * Constructs new bus route object and initialize stops list
@@ -33,6 +49,29 @@ public class BusRoute {
         stopIds = new ArrayList<Integer>(capacity);
     }
 
+    /** 
+     * Constructs new lightweight bus route view over shared stop ids storage.
+     * Stops list is not created until {@link BusRoute#getStopIds()} is called. 
+     * 
+     * @param id
+     *        bus route id
+     * 
+     * @param stopIdsStorage
+     *        shared stop ids storage
+     * 
+     * @param offset
+     *        position of the first bus route stop id in storage
+     * 
+     * @param count
+     *        number of bus route stop ids
+     */
+    public BusRoute(int id, int[] stopIdsStorage, int offset, int count) {
+        this.id = id;
+        this.stopIdsStorage = stopIdsStorage;
+        this.stopIdsOffset = offset;
+        this.stopIdsCount = count;
+    }
+
     /**
      * Gets the value of the bus route id property {@link BusRoute.id}.
      * 
@@ -54,11 +93,108 @@ public class BusRoute {
 
     /**
      * Gets the value of the bus route stops list {@link BusRoute.stopIds}.
+     * For bus route view the list is built from shared storage on the first call. Views are read by concurrent
+     * threads, so the list is assigned only when it is complete and the view keeps reading stops from storage.
      * 
      * @return bus stops' ids list
      */
     public ArrayList<Integer> getStopIds() {
-        return stopIds;
+        ArrayList<Integer> list = stopIds;
+        if (list == null && stopIdsStorage != null) {
+            list = new ArrayList<Integer>(stopIdsCount);
+            for (int i = 0; i < stopIdsCount; i++) {
+                list.add(stopIdsStorage[stopIdsOffset + i]);
+            }
+            stopIds = list;
+        }
+        return list;
+    }
+    
+    /**
+     * Gets the number of bus route stops.
+     * 
+     * @return number of stops
+     */
+    public int getStopCount() {
+        if (stopIdsStorage != null) return stopIdsCount;
+        return stopIds == null ? 0 : stopIds.size();
+    }
+    
+    /**
+     * Gets the stop id at specified position of the bus route.
+     * 
+     * @param index
+     *        stop position
+     * 
+     * @return stop id
+     */
+    public int getStopId(int index) {
+        if (stopIdsStorage != null) return stopIdsStorage[stopIdsOffset + index];
+        return stopIds.get(index);
+    }
+    
+    /**
+     * Check if the bus route contains specified stop id without boxing it.
+     * 
+     * @param stopId
+     *        stop id to find
+     * 
+     * @return {@code true} if bus route contains the stop
+     */
+    public boolean containsStopId(int stopId) {
+        int count = getStopCount();
+        for (int i = 0; i < count; i++) {
+            if (getStopId(i) == stopId) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the position of the first occurrence of specified stop id in the bus route.
+     * 
+     * @param stopId
+     *        stop id to find
+     * 
+     * @return stop position or {@code -1} if bus route does not contain the stop
+     */
+    public int indexOfStopId(int stopId) {
+        int count = getStopCount();
+        for (int i = 0; i < count; i++) {
+            if (getStopId(i) == stopId) return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * Gets the position of the last occurrence of specified stop id in the bus route.
+     * 
+     * @param stopId
+     *        stop id to find
+     * 
+     * @return stop position or {@code -1} if bus route does not contain the stop
+     */
+    public int lastIndexOfStopId(int stopId) {
+        for (int i = getStopCount() - 1; i >= 0; i--) {
+            if (getStopId(i) == stopId) return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * Check if the bus route goes from departure stop to arrival stop,
+     * that is departure stop comes before arrival stop in the bus route stops.
+     * 
+     * @param depStopId
+     *        departure stop id
+     * 
+     * @param arrStopId
+     *        arrival stop id
+     * 
+     * @return {@code true} if departure stop comes before arrival stop
+     */
+    public boolean containsStopIdsInOrder(int depStopId, int arrStopId) {
+        int depIndex = indexOfStopId(depStopId);
+        return depIndex >= 0 && depIndex < lastIndexOfStopId(arrStopId);
     }
 
     /**
@@ -69,6 +205,7 @@ public class BusRoute {
      */
     public void setStopIds(ArrayList<Integer> stopIds) {
         this.stopIds = stopIds;
+        this.stopIdsStorage = null;
     }
     
  }
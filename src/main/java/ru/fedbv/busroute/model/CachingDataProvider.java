@@ -0,0 +1,776 @@
+package ru.fedbv.busroute.model;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caching data provider class.
+ * Decorates another data provider and caches results of stop pair lookups, both found and not found bus routes.
+ * Cache key is the pair of stop ids packed into {@code long}. Every cache entry is tagged with dataset version of the data
+ * it was found in, so entries become unreachable as soon as reloaded data is published.
+ * Cache is split into segments with their own lock and LRU order. When segment is full, new entry is admitted only if
+ * its estimated access frequency is higher than the frequency of the least recently used entry, so rare pairs
+ * do not push popular pairs out of the cache.
+ * Segment entries are kept in primitive arrays indexed by open addressing hash table of {@code long} keys,
+ * so lookups and puts do not allocate objects.
+ */
+public class CachingDataProvider implements DataProvider {
+    public static Logger logger = LoggerFactory.getLogger(CachingDataProvider.class);
+
+    /**
+     * Number of cache segments
+     */
+    private static final int SEGMENT_COUNT = 32;
+
+    /**
+     * Cached lookup result value if stop pair is not cached
+     */
+    public static final long NOT_CACHED = Long.MIN_VALUE;
+
+    /**
+     * Cached bus route value if stop pair is not cached or cached entry has no bus route object
+     */
+    private static final BusRoute NOT_CACHED_ROUTE = new BusRoute(0);
+
+    /**
+     * Decorated data provider property
+     */
+    private final DataProvider dataProvider;
+
+    /**
+     * Maximum number of cached stop pairs property
+     */
+    private final int maximumSize;
+
+    /**
+     * Cache segments
+     */
+    private final Segment[] segments;
+
+    /**
+     * Access frequency of stop pairs
+     */
+    private final FrequencySketch sketch;
+
+    /**
+     * Number of lookups answered from cache
+     */
+    private final LongAdder hitCount = new LongAdder();
+
+    /**
+     * Number of lookups passed to decorated data provider
+     */
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * Number of entries evicted for more frequent entries
+     */
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Number of entries not admitted into full cache
+     */
+    private final LongAdder rejectionCount = new LongAdder();
+
+    /**
+     * Constructs new caching data provider
+     *
+     * @param dataProvider
+     *        decorated data provider
+     *
+     * @param maximumSize
+     *        maximum number of cached stop pairs
+     */
+    public CachingDataProvider(DataProvider dataProvider, int maximumSize) {
+        this.dataProvider = dataProvider;
+        this.maximumSize = Math.max(maximumSize, SEGMENT_COUNT);
+        this.sketch = new FrequencySketch(this.maximumSize);
+        this.segments = new Segment[SEGMENT_COUNT];
+        int segmentSize = (this.maximumSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * Initialize decorated data provider and clear cache.
+     *
+     * @return load results statistics
+     */
+    @Override
+    public LoadResult init() {
+        LoadResult loadResult = dataProvider.init();
+        if (!loadResult.isRejected()) {
+            invalidateAll();
+            logger.info("Cache cleared after reload, dataset version: " + dataProvider.getDatasetVersion());
+        }
+        return loadResult;
+    }
+
+    /**
+     * Initialize decorated data provider reporting load progress and clear cache.
+     *
+     * @param progress
+     *        progress of the load
+     *
+     * @return load results statistics
+     */
+    @Override
+    public LoadResult init(LoadProgress progress) {
+        LoadResult loadResult = dataProvider.init(progress);
+        if (!loadResult.isRejected() && !loadResult.isCancelled()) {
+            invalidateAll();
+            logger.info("Cache cleared after reload, dataset version: " + dataProvider.getDatasetVersion());
+        }
+        return loadResult;
+    }
+
+    /**
+     * Load data stream into decorated data provider and clear cache.
+     *
+     * @param in
+     *        source data stream
+     *
+     * @return load results statistics
+     */
+    @Override
+    public LoadResult loadStream(InputStream in) {
+        LoadResult loadResult = dataProvider.loadStream(in);
+        if (!loadResult.isRejected()) {
+            invalidateAll();
+            logger.info("Cache cleared after stream load, dataset version: " + dataProvider.getDatasetVersion());
+        }
+        return loadResult;
+    }
+
+    /**
+     * Create data store of decorated data provider.
+     *
+     * @param capacity
+     *        default capacity
+     */
+    @Override
+    public void createDataStore(int capacity) {
+        dataProvider.createDataStore(capacity);
+    }
+
+    /**
+     * Add bus route object into storage of decorated data provider.
+     *
+     * @param busRoute
+     *        bus route object to add
+     *
+     * @return if bus route was added successfully, returns {@code true} otherwise {@code false}
+     */
+    @Override
+    public boolean addBusRoute(BusRoute busRoute) {
+        return dataProvider.addBusRoute(busRoute);
+    }
+
+    /**
+     * Find bus route by two stop ids in cache or in decorated data provider.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @return {@link BusRoute}
+     *         bus route which contains both stops
+     */
+    @Override
+    public BusRoute findByTwoStopIds(Integer stopId1, Integer stopId2) {
+        if (stopId1 == null || stopId2 == null) return null;
+
+        long key = toKey(stopId1, stopId2);
+        sketch.increment(key);
+        long version = dataProvider.getDatasetVersion();
+        BusRoute busRoute = getSegment(key).getBusRoute(key, version);
+        if (busRoute != NOT_CACHED_ROUTE) {
+            hitCount.increment();
+            return busRoute;
+        }
+
+        missCount.increment();
+        busRoute = dataProvider.findByTwoStopIds(stopId1, stopId2);
+        getSegment(key).put(key, version, busRoute != null ? busRoute.getId() : NO_ROUTE, busRoute);
+        return busRoute;
+    }
+
+    /**
+     * Find id of bus route which contains both stops in cache or in decorated data provider.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @return bus route id or {@link DataProvider#NO_ROUTE}
+     */
+    @Override
+    public int findRouteIdByTwoStopIds(int stopId1, int stopId2) {
+        long key = toKey(stopId1, stopId2);
+        sketch.increment(key);
+        long version = dataProvider.getDatasetVersion();
+        long cachedRouteId = getSegment(key).getRouteId(key, version);
+        if (cachedRouteId != NOT_CACHED) {
+            hitCount.increment();
+            return (int) cachedRouteId;
+        }
+
+        missCount.increment();
+        int routeId = dataProvider.findRouteIdByTwoStopIds(stopId1, stopId2);
+        getSegment(key).put(key, version, routeId, null);
+        return routeId;
+    }
+
+    /**
+     * Find id of bus route which contains both stops only in cache, decorated data provider is not called.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @return bus route id, {@link DataProvider#NO_ROUTE} or {@link CachingDataProvider#NOT_CACHED} if stop pair is not cached
+     */
+    public long findCachedRouteIdByTwoStopIds(int stopId1, int stopId2) {
+        long key = toKey(stopId1, stopId2);
+        long routeId = getSegment(key).getRouteId(key, dataProvider.getDatasetVersion());
+        if (routeId != NOT_CACHED) {
+            sketch.increment(key);
+            hitCount.increment();
+        }
+        return routeId;
+    }
+
+    /**
+     * Find ids of all bus routes which contain both stops in decorated data provider.
+     * Route lists are not cached, but stop pair cached without bus route is answered from cache.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @param limit
+     *        maximum number of bus route ids
+     *
+     * @return bus route ids or {@link DataProvider#NO_ROUTES}
+     */
+    @Override
+    public int[] findAllRouteIdsByTwoStopIds(int stopId1, int stopId2, int limit) {
+        long key = toKey(stopId1, stopId2);
+        if (getSegment(key).getRouteId(key, dataProvider.getDatasetVersion()) == NO_ROUTE) {
+            return NO_ROUTES;
+        }
+        return dataProvider.findAllRouteIdsByTwoStopIds(stopId1, stopId2, limit);
+    }
+
+    /**
+     * Find ids of bus routes for a batch of stop pairs in cache.
+     * Pairs missing in cache are passed to decorated data provider as one batch.
+     *
+     * @param stopIds1
+     *        first stop ids of pairs
+     *
+     * @param stopIds2
+     *        second stop ids of pairs
+     *
+     * @param routeIds
+     *        array receiving bus route ids
+     *
+     * @param count
+     *        number of pairs
+     */
+    @Override
+    public void findRouteIdsByTwoStopIds(int[] stopIds1, int[] stopIds2, int[] routeIds, int count) {
+        long version = dataProvider.getDatasetVersion();
+        int[] missPairs = new int[count];
+        int misses = 0;
+        for (int i = 0; i < count; i++) {
+            long key = toKey(stopIds1[i], stopIds2[i]);
+            sketch.increment(key);
+            long routeId = getSegment(key).getRouteId(key, version);
+            if (routeId != NOT_CACHED) {
+                routeIds[i] = (int) routeId;
+            } else {
+                missPairs[misses++] = i;
+            }
+        }
+        hitCount.add(count - misses);
+        missCount.add(misses);
+        if (misses == 0) return;
+
+        int[] missStopIds1 = new int[misses];
+        int[] missStopIds2 = new int[misses];
+        int[] missRouteIds = new int[misses];
+        for (int i = 0; i < misses; i++) {
+            missStopIds1[i] = stopIds1[missPairs[i]];
+            missStopIds2[i] = stopIds2[missPairs[i]];
+        }
+        dataProvider.findRouteIdsByTwoStopIds(missStopIds1, missStopIds2, missRouteIds, misses);
+        for (int i = 0; i < misses; i++) {
+            routeIds[missPairs[i]] = missRouteIds[i];
+            long key = toKey(missStopIds1[i], missStopIds2[i]);
+            getSegment(key).put(key, version, missRouteIds[i], null);
+        }
+    }
+
+    /**
+     * Put bus route into decorated data provider.
+     * Cached entries become outdated, because the change publishes new dataset version.
+     *
+     * @param routeId
+     *        bus route id
+     *
+     * @param stopIds
+     *        array holding bus route stop ids from position 0
+     *
+     * @param stopCount
+     *        number of bus route stop ids
+     *
+     * @return result of the change
+     */
+    @Override
+    public RouteChangeResult putBusRoute(int routeId, int[] stopIds, int stopCount) {
+        return dataProvider.putBusRoute(routeId, stopIds, stopCount);
+    }
+
+    /**
+     * Delete bus route from decorated data provider.
+     * Cached entries become outdated, because the change publishes new dataset version.
+     *
+     * @param routeId
+     *        bus route id
+     *
+     * @return result of the change
+     */
+    @Override
+    public RouteChangeResult deleteBusRoute(int routeId) {
+        return dataProvider.deleteBusRoute(routeId);
+    }
+
+    /**
+     * Check if bus routes of decorated data provider can be changed by put and delete.
+     *
+     * @return {@code true} if bus route changes are supported
+     */
+    @Override
+    public boolean isRouteChangeSupported() {
+        return dataProvider.isRouteChangeSupported();
+    }
+
+    /**
+     * Gets the dataset version of decorated data provider.
+     *
+     * @return dataset version
+     */
+    @Override
+    public long getDatasetVersion() {
+        return dataProvider.getDatasetVersion();
+    }
+
+    /**
+     * Remove all entries from cache.
+     */
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Gets the value of decorated data provider property {@link CachingDataProvider.dataProvider}.
+     *
+     * @return decorated data provider
+     */
+    public DataProvider getDataProvider() {
+        return dataProvider;
+    }
+
+    /**
+     * Gets the value of maximum size property {@link CachingDataProvider.maximumSize}.
+     *
+     * @return maximum number of cached stop pairs
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Gets the number of cached stop pairs.
+     *
+     * @return number of cache entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of lookups answered from cache.
+     *
+     * @return number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Gets the number of lookups passed to decorated data provider.
+     *
+     * @return number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Gets the ratio of lookups answered from cache.
+     *
+     * @return hit ratio from {@code 0} to {@code 1}
+     */
+    public double getHitRatio() {
+        long hits = hitCount.sum();
+        long requests = hits + missCount.sum();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /**
+     * Gets the number of entries evicted for more frequent entries.
+     *
+     * @return number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * Gets the number of entries not admitted into full cache.
+     *
+     * @return number of rejected entries
+     */
+    public long getRejectionCount() {
+        return rejectionCount.sum();
+    }
+
+    /**
+     * Gets the segment of the key.
+     *
+     * @param key
+     *        packed stop ids
+     *
+     * @return cache segment
+     */
+    private Segment getSegment(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) (hash >>> 59) & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * Pack two stop ids into cache key.
+     *
+     * @param stopId1
+     *        first stop id
+     *
+     * @param stopId2
+     *        second stop id
+     *
+     * @return cache key
+     */
+    private static long toKey(int stopId1, int stopId2) {
+        return ((long) stopId1 << 32) | (stopId2 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Cache segment with LRU order and frequency based admission.
+     * Entries are stored in parallel arrays by entry index and linked in access order by entry indexes.
+     * Open addressing hash table with linear probing maps keys to entry indexes. Index of evicted entry is reused
+     * by the admitted entry, so segment arrays are allocated once.
+     */
+    private final class Segment {
+        /**
+         * Packed stop ids of entries
+         */
+        private final long[] keys;
+
+        /**
+         * Dataset versions of the data lookups of entries were made in
+         */
+        private final long[] versions;
+
+        /**
+         * Found bus route ids of entries or {@link DataProvider#NO_ROUTE}
+         */
+        private final int[] routeIds;
+
+        /**
+         * Found bus routes of entries, {@code null} if bus route is not found or only route id was requested
+         */
+        private final BusRoute[] busRoutes;
+
+        /**
+         * Index of the less recently used entry, {@code -1} for the least recently used entry
+         */
+        private final int[] previous;
+
+        /**
+         * Index of the more recently used entry, {@code -1} for the most recently used entry
+         */
+        private final int[] next;
+
+        /**
+         * Hash table of entry indexes, {@code -1} marks empty slot
+         */
+        private final int[] table;
+
+        /**
+         * Number of entries
+         */
+        private int size;
+
+        /**
+         * Index of the least recently used entry, {@code -1} if segment is empty
+         */
+        private int head = -1;
+
+        /**
+         * Index of the most recently used entry, {@code -1} if segment is empty
+         */
+        private int tail = -1;
+
+        Segment(int maximumSize) {
+            keys = new long[maximumSize];
+            versions = new long[maximumSize];
+            routeIds = new int[maximumSize];
+            busRoutes = new BusRoute[maximumSize];
+            previous = new int[maximumSize];
+            next = new int[maximumSize];
+            table = new int[Integer.highestOneBit(Math.max(maximumSize, 2) * 2 - 1) << 1];
+            Arrays.fill(table, -1);
+        }
+
+        /**
+         * Find cached route id of the key looked up in the dataset version and mark entry as recently used.
+         *
+         * @param key
+         *        packed stop ids
+         *
+         * @param version
+         *        current dataset version
+         *
+         * @return bus route id, {@link DataProvider#NO_ROUTE} or {@link CachingDataProvider#NOT_CACHED}
+         */
+        synchronized long getRouteId(long key, long version) {
+            int index = find(key);
+            if (index < 0 || versions[index] != version) return NOT_CACHED;
+
+            moveToTail(index);
+            return routeIds[index];
+        }
+
+        /**
+         * Find cached bus route of the key looked up in the dataset version and mark entry as recently used.
+         *
+         * @param key
+         *        packed stop ids
+         *
+         * @param version
+         *        current dataset version
+         *
+         * @return bus route, {@code null} if bus route is not found or {@link CachingDataProvider#NOT_CACHED_ROUTE}
+         *         if entry is missing or has only route id
+         */
+        synchronized BusRoute getBusRoute(long key, long version) {
+            int index = find(key);
+            if (index < 0 || versions[index] != version || (busRoutes[index] == null && routeIds[index] != NO_ROUTE)) return NOT_CACHED_ROUTE;
+
+            moveToTail(index);
+            return busRoutes[index];
+        }
+
+        /**
+         * Put lookup result into segment. If segment is full, the least recently used entry is evicted,
+         * unless it is up to date and at least as frequent as the key.
+         *
+         * @param key
+         *        packed stop ids
+         *
+         * @param version
+         *        dataset version of the data lookup was made in
+         *
+         * @param routeId
+         *        found bus route id or {@link DataProvider#NO_ROUTE}
+         *
+         * @param busRoute
+         *        found bus route or {@code null}
+         */
+        synchronized void put(long key, long version, int routeId, BusRoute busRoute) {
+            int index = find(key);
+            if (index >= 0) {
+                moveToTail(index);
+            } else {
+                if (size < keys.length) {
+                    index = size++;
+                } else {
+                    index = head;
+                    if (versions[index] == version && sketch.frequency(key) <= sketch.frequency(keys[index])) {
+                        rejectionCount.increment();
+                        return;
+                    }
+                    removeFromTable(index);
+                    unlink(index);
+                    evictionCount.increment();
+                }
+                keys[index] = key;
+                addToTable(index);
+                linkAtTail(index);
+            }
+            versions[index] = version;
+            routeIds[index] = routeId;
+            busRoutes[index] = busRoute;
+        }
+
+        synchronized void clear() {
+            Arrays.fill(table, -1);
+            Arrays.fill(busRoutes, 0, size, null);
+            size = 0;
+            head = -1;
+            tail = -1;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Gets the home slot of the key in hash table.
+         *
+         * @param key
+         *        packed stop ids
+         *
+         * @return slot index
+         */
+        private int slot(long key) {
+            long hash = key * 0xC2B2AE3D27D4EB4FL;
+            return (int) (hash ^ (hash >>> 32)) & (table.length - 1);
+        }
+
+        /**
+         * Find entry of the key.
+         *
+         * @param key
+         *        packed stop ids
+         *
+         * @return entry index or {@code -1} if key is not cached
+         */
+        private int find(long key) {
+            int mask = table.length - 1;
+            for (int slot = slot(key); table[slot] >= 0; slot = (slot + 1) & mask) {
+                if (keys[table[slot]] == key) return table[slot];
+            }
+            return -1;
+        }
+
+        /**
+         * Add entry into hash table by its key.
+         *
+         * @param index
+         *        entry index
+         */
+        private void addToTable(int index) {
+            int mask = table.length - 1;
+            int slot = slot(keys[index]);
+            while (table[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index;
+        }
+
+        /**
+         * Remove entry from hash table. Following entries of the probe sequence are shifted back,
+         * so lookups do not stop at the freed slot.
+         *
+         * @param index
+         *        entry index
+         */
+        private void removeFromTable(int index) {
+            int mask = table.length - 1;
+            int slot = slot(keys[index]);
+            while (table[slot] != index) {
+                slot = (slot + 1) & mask;
+            }
+            int free = slot;
+            for (slot = (slot + 1) & mask; table[slot] >= 0; slot = (slot + 1) & mask) {
+                int home = slot(keys[table[slot]]);
+                boolean reachable = free <= slot ? free < home && home <= slot : free < home || home <= slot;
+                if (!reachable) {
+                    table[free] = table[slot];
+                    free = slot;
+                }
+            }
+            table[free] = -1;
+        }
+
+        /**
+         * Mark entry as the most recently used.
+         *
+         * @param index
+         *        entry index
+         */
+        private void moveToTail(int index) {
+            if (index == tail) return;
+
+            unlink(index);
+            linkAtTail(index);
+        }
+
+        /**
+         * Remove entry from access order.
+         *
+         * @param index
+         *        entry index
+         */
+        private void unlink(int index) {
+            if (previous[index] >= 0) {
+                next[previous[index]] = next[index];
+            } else {
+                head = next[index];
+            }
+            if (next[index] >= 0) {
+                previous[next[index]] = previous[index];
+            } else {
+                tail = previous[index];
+            }
+        }
+
+        /**
+         * Add entry to access order as the most recently used.
+         *
+         * @param index
+         *        entry index
+         */
+        private void linkAtTail(int index) {
+            previous[index] = tail;
+            next[index] = -1;
+            if (tail >= 0) {
+                next[tail] = index;
+            } else {
+                head = index;
+            }
+            tail = index;
+        }
+    }
+}
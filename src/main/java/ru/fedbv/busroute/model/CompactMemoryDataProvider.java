@@ -0,0 +1,334 @@
+package ru.fedbv.busroute.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact memory data provider class.
+ * All bus routes are kept in primitive arrays of {@link RouteStorage}, no object is created per bus route or stop.
+ */
+public class CompactMemoryDataProvider extends AbstractDataProvider {
+    public static Logger logger = LoggerFactory.getLogger(CompactMemoryDataProvider.class);
+
+    /**
+     * Bus routes store property
+     */
+    private volatile RouteStorage busRoutes = new RouteStorageBuilder(0).build();
+
+    /**
+     * Bus routes store under construction property
+     */
+    private RouteStorageBuilder pendingBusRoutes;
+
+    /**
+     * Updater of bus routes store on incremental reload
+     */
+    private final RouteStorageUpdater busRoutesUpdater = new RouteStorageUpdater();
+
+    /**
+     * Initialize data provider and loads data into storage.
+     *
+     * @return load results statistics
+     */
+    @Override
+    public LoadResult init() {
+        return loadFile(getSourceFilePath());
+    }
+
+    /**
+     * Create data store with defined default capacity.
+     *
+     * @param capacity
+     *        default capacity
+     */
+    @Override
+    public void createDataStore(int capacity) {
+        pendingBusRoutes = new RouteStorageBuilder(capacity);
+    }
+
+    /**
+     * Add bus route object into storage.
+     *
+     * @param busRoute
+     *        bus route object to add
+     * @return if bus route was added successfully, returns {@code true} otherwise {@code false}
+     */
+    @Override
+    public boolean addBusRoute(BusRoute busRoute) {
+        if (busRoute == null) return false;
+
+        int[] stopIds = new int[busRoute.getStopCount()];
+        for (int i = 0; i < stopIds.length; i++) {
+            stopIds[i] = busRoute.getStopId(i);
+        }
+        return addBusRoute(busRoute.getId(), stopIds, stopIds.length);
+    }
+
+    /**
+     * Append parsed bus route to storage under construction.
+     *
+     * @param routeId
+     *        bus route id
+     *
+     * @param stopIds
+     *        array holding bus route stop ids from position 0
+     *
+     * @param stopCount
+     *        number of bus route stop ids
+     *
+     * @return if bus route was added successfully, returns {@code true} otherwise {@code false}
+     */
+    @Override
+    protected boolean addBusRoute(int routeId, int[] stopIds, int stopCount) {
+        if (pendingBusRoutes == null) return false;
+
+        pendingBusRoutes.add(routeId, stopIds, stopCount);
+        return true;
+    }
+
+    /**
+     * Append all bus routes of complete storage to storage under construction with bulk copy of its arrays.
+     *
+     * @param routes
+     *        bus routes storage
+     *
+     * @return number of added bus routes
+     */
+    @Override
+    protected int addBusRoutes(RouteStorage routes) {
+        if (pendingBusRoutes == null) return 0;
+
+        pendingBusRoutes.addAll(routes);
+        return routes.size();
+    }
+
+    /**
+     * Build bus routes storage with capacity reserved for route changes and publish it.
+     */
+    @Override
+    protected void completeDataStore() {
+        if (pendingBusRoutes == null) return;
+
+        busRoutes = RouteStorageUpdater.build(pendingBusRoutes);
+        pendingBusRoutes = null;
+    }
+
+    /**
+     * Discard bus routes storage under construction.
+     */
+    @Override
+    protected void discardDataStore() {
+        pendingBusRoutes = null;
+    }
+
+    /**
+     * Gets the published bus routes storage for snapshot replication.
+     *
+     * @return published bus routes storage
+     */
+    @Override
+    protected RouteStorage getPublishedRoutes() {
+        return busRoutes;
+    }
+
+    /**
+     * Check if published bus routes storage contains live bus route. Route is found by route id index of storage updater.
+     *
+     * @param routeId
+     *        bus route id
+     *
+     * @return {@code true} if bus route is found
+     */
+    @Override
+    protected boolean containsBusRoute(int routeId) {
+        return busRoutesUpdater.contains(busRoutes, routeId);
+    }
+
+    /**
+     * Apply changes of incremental reload: changed bus routes are appended to the store and replaced ones are marked deleted,
+     * the store is compacted when too many routes are deleted.
+     *
+     * @param changes
+     *        added, updated and deleted bus routes
+     *
+     * @return {@code true} if changes are applied
+     */
+    @Override
+    protected boolean applyRouteChanges(RouteChanges changes) {
+        busRoutes = busRoutesUpdater.update(busRoutes, changes).getRoutes();
+        return true;
+    }
+
+    /**
+     * Check if bus routes of published data can be changed by put and delete.
+     * Changes are applied by {@link CompactMemoryDataProvider#applyRouteChanges(RouteChanges)}.
+     *
+     * @return {@code true}, bus route changes are supported
+     */
+    @Override
+    public boolean isRouteChangeSupported() {
+        return true;
+    }
+
+    /**
+     * Find bus route by two stop ids. Return {@link BusRoute} object which contains both stops.
+     * In ordered lookup mode the first stop should come before the second stop in the bus route.
+     * Return {@code null} if one/or both stops are {@code null} or bus route does not contains both stops.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @return {@link BusRoute}
+     *         bus route which contains both stops
+     */
+    @Override
+    public BusRoute findByTwoStopIds(Integer stopId1, Integer stopId2) {
+        if (stopId1 == null || stopId2 == null) return null;
+
+        RouteStorage routes = busRoutes;
+        int routeIndex = findRouteIndex(routes, stopId1, stopId2, 0);
+        return routeIndex < 0 ? null : routes.getBusRoute(routeIndex);
+    }
+
+    /**
+     * Find id of bus route which contains both stops without boxing stop ids.
+     * In ordered lookup mode the first stop should come before the second stop in the bus route.
+     * Return {@link DataProvider#NO_ROUTE} if bus route does not contains both stops.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @return bus route id or {@link DataProvider#NO_ROUTE}
+     */
+    @Override
+    public int findRouteIdByTwoStopIds(int stopId1, int stopId2) {
+        RouteStorage routes = busRoutes;
+        int routeIndex = findRouteIndex(routes, stopId1, stopId2, 0);
+        return routeIndex < 0 ? NO_ROUTE : routes.getRouteId(routeIndex);
+    }
+
+    /**
+     * Find ids of all bus routes which contain both stops, but not more than {@code limit} of them.
+     * Scan continues from the route after the last found one and stops when {@code limit} routes are found.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @param limit
+     *        maximum number of bus route ids
+     *
+     * @return bus route ids or {@link DataProvider#NO_ROUTES}
+     */
+    @Override
+    public int[] findAllRouteIdsByTwoStopIds(int stopId1, int stopId2, int limit) {
+        RouteStorage routes = busRoutes;
+        IntList routeIds = null;
+        int routeIndex = findRouteIndex(routes, stopId1, stopId2, 0);
+        while (routeIndex >= 0) {
+            if (routeIds == null) routeIds = new IntList(Math.min(limit, 16));
+            routeIds.add(routes.getRouteId(routeIndex));
+            if (routeIds.size() >= limit) break;
+            routeIndex = findRouteIndex(routes, stopId1, stopId2, routeIndex + 1);
+        }
+        return routeIds == null ? NO_ROUTES : routeIds.toArray();
+    }
+
+    /**
+     * Find index of the first bus route starting from specified index, which contains both stops.
+     * In ordered lookup mode the route must go from the first stop to the second one.
+     * Bus routes deleted by incremental reload are skipped.
+     *
+     * @param routes
+     *        bus routes storage
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @param from
+     *        index of bus route to start from
+     *
+     * @return bus route index or {@code -1}
+     */
+    private int findRouteIndex(RouteStorage routes, int stopId1, int stopId2, int from) {
+        int routeIndex = isOrderedLookup() ? scanOrdered(routes, stopId1, stopId2, from) : scan(routes, stopId1, stopId2, from);
+        while (routeIndex >= 0 && routes.isDeleted(routeIndex)) {
+            routeIndex = isOrderedLookup() ? scanOrdered(routes, stopId1, stopId2, routeIndex + 1) : scan(routes, stopId1, stopId2, routeIndex + 1);
+        }
+        return routeIndex;
+    }
+
+    /**
+     * Scan concatenated stop ids of bus routes for the first route which contains both stops.
+     *
+     * @param routes
+     *        bus routes storage
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @param from
+     *        index of bus route to start from
+     *
+     * @return bus route index or {@code -1}
+     */
+    private static int scan(RouteStorage routes, int stopId1, int stopId2, int from) {
+        int[] offsets = routes.getOffsets();
+        int[] stopIds = routes.getStopIds();
+        for (int routeIndex = from, size = routes.size(); routeIndex < size; routeIndex++) {
+            boolean found1 = false;
+            boolean found2 = false;
+            for (int i = offsets[routeIndex], end = offsets[routeIndex + 1]; i < end; i++) {
+                found1 |= stopIds[i] == stopId1;
+                found2 |= stopIds[i] == stopId2;
+            }
+            if (found1 && found2) return routeIndex;
+        }
+        return -1;
+    }
+
+    /**
+     * Scan concatenated stop ids of bus routes for the first route going from the first stop to the second stop:
+     * the first occurrence of the first stop comes before the last occurrence of the second stop.
+     *
+     * @param routes
+     *        bus routes storage
+     *
+     * @param stopId1
+     *        departure stop id
+     *
+     * @param stopId2
+     *        arrival stop id
+     *
+     * @param from
+     *        index of bus route to start from
+     *
+     * @return bus route index or {@code -1}
+     */
+    private static int scanOrdered(RouteStorage routes, int stopId1, int stopId2, int from) {
+        int[] offsets = routes.getOffsets();
+        int[] stopIds = routes.getStopIds();
+        for (int routeIndex = from, size = routes.size(); routeIndex < size; routeIndex++) {
+            boolean found1 = false;
+            for (int i = offsets[routeIndex], end = offsets[routeIndex + 1]; i < end; i++) {
+                if (found1 && stopIds[i] == stopId2) return routeIndex;
+                found1 |= stopIds[i] == stopId1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,558 @@
+package ru.fedbv.busroute.model;
+
+import java.util.Arrays;
+
+/**
+ * Immutable compressed bitmap of non-negative {@code int} values.
+ * Values are split by high 16 bits into chunks, every chunk keeps its low 16 bits in the smallest of three containers:
+ * sorted array, plain 65536 bits bitmap or list of runs.
+ */
+public class CompressedBitmap {
+    /**
+     * Maximum number of values kept by array container
+     */
+    private static final int ARRAY_MAX_SIZE = 4096;
+
+    /**
+     * Number of 64 bits words in bitmap container
+     */
+    private static final int BITMAP_WORDS = 1024;
+
+    /**
+     * Empty bitmap instance
+     */
+    public static final CompressedBitmap EMPTY = new CompressedBitmap(new char[0], new Container[0]);
+
+    /**
+     * High 16 bits of chunk values, sorted
+     */
+    private final char[] keys;
+
+    /**
+     * Chunk containers in keys order
+     */
+    private final Container[] containers;
+
+    /**
+     * Constructs new bitmap
+     *
+     * @param keys
+     *        sorted chunk keys
+     *
+     * @param containers
+     *        chunk containers
+     */
+    private CompressedBitmap(char[] keys, Container[] containers) {
+        this.keys = keys;
+        this.containers = containers;
+    }
+
+    /**
+     * Create bitmap of sorted distinct non-negative values.
+     *
+     * @param values
+     *        array holding sorted distinct values from position 0
+     *
+     * @param count
+     *        number of values
+     *
+     * @return compressed bitmap
+     */
+    public static CompressedBitmap of(int[] values, int count) {
+        if (count == 0) return EMPTY;
+
+        int chunks = 1;
+        for (int i = 1; i < count; i++) {
+            if ((values[i] >>> 16) != (values[i - 1] >>> 16)) chunks++;
+        }
+
+        char[] keys = new char[chunks];
+        Container[] containers = new Container[chunks];
+        int chunk = 0;
+        for (int begin = 0; begin < count; chunk++) {
+            int key = values[begin] >>> 16;
+            int end = begin + 1;
+            while (end < count && (values[end] >>> 16) == key) {
+                end++;
+            }
+            keys[chunk] = (char) key;
+            containers[chunk] = createContainer(values, begin, end);
+            begin = end;
+        }
+        return new CompressedBitmap(keys, containers);
+    }
+
+    /**
+     * Check if bitmap contains specified value.
+     *
+     * @param value
+     *        value to find
+     *
+     * @return {@code true} if bitmap contains value
+     */
+    public boolean contains(int value) {
+        if (value < 0) return false;
+        int chunk = Arrays.binarySearch(keys, (char) (value >>> 16));
+        return chunk >= 0 && containers[chunk].contains((char) value);
+    }
+
+    /**
+     * Find the smallest value contained in both bitmaps.
+     * Chunks are intersected container by container in ascending order, search stops on the first common value.
+     *
+     * @param other
+     *        bitmap to intersect with
+     *
+     * @return the smallest common value or {@code -1} if bitmaps do not intersect
+     */
+    public int firstIntersection(CompressedBitmap other) {
+        return nextIntersection(other, 0);
+    }
+
+    /**
+     * Find the smallest value contained in both bitmaps which is not less than specified value.
+     * Repeated calls from the previous result plus one stream the intersection in ascending order.
+     *
+     * @param other
+     *        bitmap to intersect with
+     *
+     * @param from
+     *        the smallest non negative value to search
+     *
+     * @return the smallest common value not less than {@code from} or {@code -1} if there is no such value
+     */
+    public int nextIntersection(CompressedBitmap other, int from) {
+        int fromKey = from >>> 16;
+        int i = lowerBound(keys, fromKey);
+        int j = lowerBound(other.keys, fromKey);
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                int low = containers[i].firstIntersection(other.containers[j], keys[i] == fromKey ? from & 0xFFFF : 0);
+                if (low >= 0) return (keys[i] << 16) | low;
+                i++;
+                j++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the number of values in bitmap.
+     *
+     * @return number of values
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (Container container : containers) {
+            cardinality += container.cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * Gets all values of bitmap.
+     *
+     * @return sorted values
+     */
+    public int[] toArray() {
+        int[] values = new int[cardinality()];
+        int count = 0;
+        for (int i = 0; i < containers.length; i++) {
+            count = containers[i].copyTo(values, count, keys[i] << 16);
+        }
+        return values;
+    }
+
+    /**
+     * Gets the approximate size of bitmap data in bytes.
+     *
+     * @return size in bytes
+     */
+    public long sizeInBytes() {
+        long size = keys.length * 2L;
+        for (Container container : containers) {
+            size += container.sizeInBytes();
+        }
+        return size;
+    }
+
+    /**
+     * Find position of the first array element which is not less than specified value.
+     *
+     * @param array
+     *        sorted array
+     *
+     * @param value
+     *        value to search
+     *
+     * @return position of the element or array length if all elements are less than value
+     */
+    private static int lowerBound(char[] array, int value) {
+        int low = 0;
+        int high = array.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (array[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Create the smallest container for low 16 bits of chunk values.
+     *
+     * @param values
+     *        sorted distinct values
+     *
+     * @param begin
+     *        first chunk value position
+     *
+     * @param end
+     *        position after the last chunk value
+     *
+     * @return chunk container
+     */
+    private static Container createContainer(int[] values, int begin, int end) {
+        int cardinality = end - begin;
+        int runs = 1;
+        for (int i = begin + 1; i < end; i++) {
+            if (values[i] != values[i - 1] + 1) runs++;
+        }
+
+        long arraySize = cardinality * 2L;
+        long runSize = runs * 4L;
+        if (runSize < Math.min(arraySize, BITMAP_WORDS * 8L)) {
+            char[] starts = new char[runs];
+            char[] lengths = new char[runs];
+            int run = 0;
+            starts[0] = (char) values[begin];
+            for (int i = begin + 1; i < end; i++) {
+                if (values[i] != values[i - 1] + 1) {
+                    lengths[run] = (char) ((char) values[i - 1] - starts[run]);
+                    starts[++run] = (char) values[i];
+                }
+            }
+            lengths[run] = (char) ((char) values[end - 1] - starts[run]);
+            return new RunContainer(starts, lengths);
+        }
+        if (cardinality <= ARRAY_MAX_SIZE) {
+            char[] lows = new char[cardinality];
+            for (int i = begin; i < end; i++) {
+                lows[i - begin] = (char) values[i];
+            }
+            return new ArrayContainer(lows);
+        }
+        long[] words = new long[BITMAP_WORDS];
+        for (int i = begin; i < end; i++) {
+            char low = (char) values[i];
+            words[low >>> 6] |= 1L << low;
+        }
+        return new BitmapContainer(words, cardinality);
+    }
+
+    /**
+     * Container of low 16 bits of chunk values
+     */
+    private static abstract class Container {
+        /**
+         * Check if container contains specified low bits value.
+         *
+         * @param low
+         *        low 16 bits value
+         *
+         * @return {@code true} if container contains value
+         */
+        abstract boolean contains(char low);
+
+        /**
+         * Find the smallest low bits value contained in both containers which is not less than specified value.
+         *
+         * @param other
+         *        container to intersect with
+         *
+         * @param from
+         *        the smallest low bits value to search
+         *
+         * @return the smallest common value or {@code -1}
+         */
+        abstract int firstIntersection(Container other, int from);
+
+        /**
+         * Gets the number of values in container.
+         *
+         * @return number of values
+         */
+        abstract int cardinality();
+
+        /**
+         * Copy container values into array.
+         *
+         * @param values
+         *        array receiving values
+         *
+         * @param offset
+         *        position of the first copied value
+         *
+         * @param high
+         *        high 16 bits of chunk values
+         *
+         * @return position after the last copied value
+         */
+        abstract int copyTo(int[] values, int offset, int high);
+
+        /**
+         * Gets the approximate size of container data in bytes.
+         *
+         * @return size in bytes
+         */
+        abstract int sizeInBytes();
+    }
+
+    /**
+     * Sorted array of low bits values
+     */
+    private static final class ArrayContainer extends Container {
+        /**
+         * Sorted values
+         */
+        private final char[] lows;
+
+        ArrayContainer(char[] lows) {
+            this.lows = lows;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(lows, low) >= 0;
+        }
+
+        @Override
+        int firstIntersection(Container other, int from) {
+            int begin = lowerBound(lows, from);
+            if (other instanceof ArrayContainer) {
+                char[] otherLows = ((ArrayContainer) other).lows;
+                int i = begin;
+                int j = lowerBound(otherLows, from);
+                while (i < lows.length && j < otherLows.length) {
+                    if (lows[i] < otherLows[j]) {
+                        i++;
+                    } else if (lows[i] > otherLows[j]) {
+                        j++;
+                    } else {
+                        return lows[i];
+                    }
+                }
+                return -1;
+            }
+            for (int i = begin; i < lows.length; i++) {
+                if (other.contains(lows[i])) return lows[i];
+            }
+            return -1;
+        }
+
+        @Override
+        int cardinality() {
+            return lows.length;
+        }
+
+        @Override
+        int copyTo(int[] values, int offset, int high) {
+            for (char low : lows) {
+                values[offset++] = high | low;
+            }
+            return offset;
+        }
+
+        @Override
+        int sizeInBytes() {
+            return lows.length * 2;
+        }
+    }
+
+    /**
+     * Plain bitmap of all 65536 low bits values
+     */
+    private static final class BitmapContainer extends Container {
+        /**
+         * Bitmap words
+         */
+        private final long[] words;
+
+        /**
+         * Number of set bits
+         */
+        private final int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        int firstIntersection(Container other, int from) {
+            if (other instanceof BitmapContainer) {
+                long[] otherWords = ((BitmapContainer) other).words;
+                for (int i = from >>> 6; i < BITMAP_WORDS; i++) {
+                    long word = words[i] & otherWords[i];
+                    if (i == from >>> 6) word &= -1L << from;
+                    if (word != 0) return (i << 6) + Long.numberOfTrailingZeros(word);
+                }
+                return -1;
+            }
+            return other.firstIntersection(this, from);
+        }
+
+        /**
+         * Find the first set bit in range.
+         *
+         * @param from
+         *        first bit of range
+         *
+         * @param to
+         *        last bit of range (inclusive)
+         *
+         * @return the first set bit or {@code -1}
+         */
+        int firstSetBit(int from, int to) {
+            int wordIndex = from >>> 6;
+            long word = words[wordIndex] & (-1L << from);
+            while (true) {
+                if (word != 0) {
+                    int bit = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                    return bit <= to ? bit : -1;
+                }
+                if (++wordIndex > (to >>> 6)) return -1;
+                word = words[wordIndex];
+            }
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int copyTo(int[] values, int offset, int high) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[offset++] = high | (i << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return offset;
+        }
+
+        @Override
+        int sizeInBytes() {
+            return BITMAP_WORDS * 8;
+        }
+    }
+
+    /**
+     * List of runs of consecutive low bits values
+     */
+    private static final class RunContainer extends Container {
+        /**
+         * Sorted run start values
+         */
+        private final char[] starts;
+
+        /**
+         * Run lengths minus one
+         */
+        private final char[] lengths;
+
+        RunContainer(char[] starts, char[] lengths) {
+            this.starts = starts;
+            this.lengths = lengths;
+        }
+
+        @Override
+        boolean contains(char low) {
+            int run = Arrays.binarySearch(starts, low);
+            if (run >= 0) return true;
+            run = -run - 2;
+            return run >= 0 && low - starts[run] <= lengths[run];
+        }
+
+        @Override
+        int firstIntersection(Container other, int from) {
+            if (other instanceof ArrayContainer) {
+                return other.firstIntersection(this, from);
+            }
+            if (other instanceof BitmapContainer) {
+                BitmapContainer bitmap = (BitmapContainer) other;
+                for (int run = firstRun(from); run < starts.length; run++) {
+                    int bit = bitmap.firstSetBit(Math.max(starts[run], from), starts[run] + lengths[run]);
+                    if (bit >= 0) return bit;
+                }
+                return -1;
+            }
+            RunContainer otherRuns = (RunContainer) other;
+            int i = firstRun(from);
+            int j = otherRuns.firstRun(from);
+            while (i < starts.length && j < otherRuns.starts.length) {
+                int start = Math.max(Math.max(starts[i], otherRuns.starts[j]), from);
+                int end1 = starts[i] + lengths[i];
+                int end2 = otherRuns.starts[j] + otherRuns.lengths[j];
+                if (start <= Math.min(end1, end2)) return start;
+                if (end1 < end2) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Find the first run which ends not before specified value.
+         *
+         * @param from
+         *        low bits value
+         *
+         * @return run position or number of runs if all runs end before value
+         */
+        int firstRun(int from) {
+            int run = lowerBound(starts, from);
+            return run > 0 && starts[run - 1] + lengths[run - 1] >= from ? run - 1 : run;
+        }
+
+        @Override
+        int cardinality() {
+            int cardinality = 0;
+            for (int run = 0; run < starts.length; run++) {
+                cardinality += lengths[run] + 1;
+            }
+            return cardinality;
+        }
+
+        @Override
+        int copyTo(int[] values, int offset, int high) {
+            for (int run = 0; run < starts.length; run++) {
+                for (int low = starts[run], end = starts[run] + lengths[run]; low <= end; low++) {
+                    values[offset++] = high | low;
+                }
+            }
+            return offset;
+        }
+
+        @Override
+        int sizeInBytes() {
+            return starts.length * 4;
+        }
+    }
+}
@@ -1,10 +1,41 @@
 package ru.fedbv.busroute.model;
 
+import java.io.InputStream;
+
 /**
  * Data provider interface
  */
 public interface DataProvider {
     
+    /**
+     * Result of bus route put and delete
+     */
+    public enum RouteChangeResult {
+        /** Change is applied and published */
+        APPLIED,
+        /** Bus route to delete is not found */
+        NOT_FOUND,
+        /** Bus route is invalid: reserved route id or less than 2 stops */
+        INVALID,
+        /** Data store is locked by a load in progress, change can be retried later */
+        BUSY,
+        /** Change failed with unexpected error, published data is not changed */
+        FAILED,
+        /** Data provider does not support bus route changes */
+        UNSUPPORTED
+    }
+    
+    /**
+     * Route id value returned by primitive lookup if bus route is not found.
+     * The value is reserved, bus routes with this id are rejected on load and put.
+     */
+    public static final int NO_ROUTE = Integer.MIN_VALUE;
+    
+    /**
+     * Route ids value returned by route ids lookup if bus route is not found
+     */
+    public static final int[] NO_ROUTES = new int[0];
+    
     /**
      * Initialize data provider and loads data into storage.
      * 
@@ -12,6 +43,28 @@ public interface DataProvider {
      */
     public LoadResult init();
     
+    /**
+     * Initialize data provider and loads data into storage reporting progress of the load.
+     * The load can be cancelled by {@link LoadProgress#cancel()} until new data is published.
+     * 
+     * @param progress
+     *        progress of the load
+     * 
+     * @return load results statistics
+     */
+    public LoadResult init(LoadProgress progress);
+    
+    /**
+     * Loads data from stream in source file format into storage and publishes it like reloaded source file.
+     * The stream is parsed while it is read, so the whole data is never kept in memory.
+     * 
+     * @param in
+     *        source data stream, not closed by the method
+     * 
+     * @return load results statistics
+     */
+    public LoadResult loadStream(InputStream in);
+    
     /**
      * Create data store with defined default capacity.
      * 
@@ -44,4 +97,100 @@ public interface DataProvider {
      *         bus route which contains both stops
      */
     public BusRoute findByTwoStopIds(Integer stopId1, Integer stopId2);
+    
+    /**
+     * Find id of bus route which contains both stops without boxing stop ids.
+     * Return {@link DataProvider#NO_ROUTE} if bus route does not contains both stops.
+     * 
+     * @param stopId1
+     *        first stop id to find
+     * 
+     * @param stopId2
+     *        second stop id to find
+     * 
+     * @return bus route id or {@link DataProvider#NO_ROUTE}
+     */
+    public int findRouteIdByTwoStopIds(int stopId1, int stopId2);
+    
+    /**
+     * Find ids of bus routes for a batch of stop pairs.
+     * Route id of pair {@code i} is written into {@code routeIds[i]}, {@link DataProvider#NO_ROUTE} if bus route is not found.
+     * 
+     * @param stopIds1
+     *        first stop ids of pairs
+     * 
+     * @param stopIds2
+     *        second stop ids of pairs
+     * 
+     * @param routeIds
+     *        array receiving bus route ids
+     * 
+     * @param count
+     *        number of pairs
+     */
+    public void findRouteIdsByTwoStopIds(int[] stopIds1, int[] stopIds2, int[] routeIds, int count);
+    
+    /**
+     * Find ids of all bus routes which contain both stops, but not more than {@code limit} of them.
+     * Search stops as soon as {@code limit} bus routes are found, so lookup with limit {@code 1}
+     * costs as much as {@link DataProvider#findRouteIdByTwoStopIds(int, int)}.
+     * Memory data providers return routes in loaded data order, database returns them in route id order.
+     * 
+     * @param stopId1
+     *        first stop id to find
+     * 
+     * @param stopId2
+     *        second stop id to find
+     * 
+     * @param limit
+     *        maximum number of bus route ids, should be positive
+     * 
+     * @return bus route ids or {@link DataProvider#NO_ROUTES}
+     */
+    public int[] findAllRouteIdsByTwoStopIds(int stopId1, int stopId2, int limit);
+    
+    /**
+     * Add bus route into published data or replace bus route with the same id.
+     * Lookups are not blocked, they see either previous or updated data. Change is kept until the next reload.
+     * 
+     * @param routeId
+     *        bus route id, not {@link DataProvider#NO_ROUTE}
+     * 
+     * @param stopIds
+     *        array holding bus route stop ids from position 0
+     * 
+     * @param stopCount
+     *        number of bus route stop ids, at least 2
+     * 
+     * @return result of the change
+     */
+    public RouteChangeResult putBusRoute(int routeId, int[] stopIds, int stopCount);
+    
+    /**
+     * Delete bus route from published data.
+     * Lookups are not blocked, they see either previous or updated data. Change is kept until the next reload.
+     * 
+     * @param routeId
+     *        bus route id
+     * 
+     * @return result of the change
+     */
+    public RouteChangeResult deleteBusRoute(int routeId);
+    
+    /**
+     * Check if bus routes of published data can be changed by {@link DataProvider#putBusRoute(int, int[], int)}
+     * and {@link DataProvider#deleteBusRoute(int)}. If changes are not supported, both methods return
+     * {@link RouteChangeResult#UNSUPPORTED}.
+     * 
+     * @return {@code true} if bus route changes are supported
+     */
+    public boolean isRouteChangeSupported();
+    
+    /**
+     * Gets the version of published data. Version changes every time new data is published,
+     * so results of lookups made on the previous data can be recognized as outdated.
+     * 
+     * @return dataset version, {@code 0} if data is not loaded
+     */
+    public long getDatasetVersion();
 }
@@ -13,11 +13,22 @@ import oracle.jdbc.pool.OracleDataSource;
 public class DataSourceFactory {
     public static Logger logger = LoggerFactory.getLogger(DataSourceFactory.class);
     
+    /**
+     * Default maximum number of pooled connections
+     */
+    public static final int DEFAULT_POOL_SIZE = 8;
+    
     public static DataSource createDerbyDataSource() {
+        return createDerbyDataSource(DEFAULT_POOL_SIZE);
+    }
+    
+    public static DataSource createDerbyDataSource(int poolSize) {
         try {
             BasicDataSource dataSource = (BasicDataSource) Class.forName("org.apache.commons.dbcp2.BasicDataSource").newInstance();
             dataSource.setDriverClassName("org.apache.derby.jdbc.EmbeddedDriver");
             dataSource.setUrl("jdbc:derby:" + System.getProperty("BUS_ROUTE_HOME") + "/database;create=true");
+            dataSource.setMaxTotal(poolSize);
+            dataSource.setMaxIdle(poolSize);
             return dataSource;
         } catch (Exception e) {
             logger.error("Error datasource creation", e);
@@ -32,10 +43,17 @@ public class DataSourceFactory {
             dataSource.setUser(prop.getProperty("jdbc.username"));
             dataSource.setPassword(prop.getProperty("jdbc.password"));
             dataSource.setConnectionCachingEnabled(true);
+            Properties cacheProperties = new Properties();
+            cacheProperties.setProperty("MaxLimit", String.valueOf(getPoolSize(prop)));
+            dataSource.setConnectionCacheProperties(cacheProperties);
             return dataSource;
         } catch (Exception e) {
             logger.error("Error datasource creation", e);
         }
         return null;
     }
+    
+    public static int getPoolSize(Properties prop) {
+        return Integer.valueOf(prop.getProperty("jdbc.pool-size", String.valueOf(DEFAULT_POOL_SIZE)));
+    }
 }
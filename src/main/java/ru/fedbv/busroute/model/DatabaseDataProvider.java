@@ -1,48 +1,189 @@
 package ru.fedbv.busroute.model;
 
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.sql.Types;
+import java.util.Arrays;
 
 import javax.sql.DataSource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ru.fedbv.busroute.metrics.LatencyHistogram;
+import ru.fedbv.busroute.metrics.MetricsRegistry;
+
 /**
- * Database data provider class
+ * Database data provider class.
+ * Bus stops are kept in two tables of the same structure. Lookups use the active table, 
+ * load fills the other one and makes it active when the load is completed.
+ * Every table row is a bus route stop: {@code (route_id, stop_seq, stop_id)}, where {@code stop_seq} is the stop position in the route.
+ * Lookups use index on {@code (stop_id, route_id, stop_seq)}, which is dropped before load and built after it.
  */
 public class DatabaseDataProvider extends AbstractDataProvider {
     public static Logger logger = LoggerFactory.getLogger(DatabaseDataProvider.class);
 
+    /** 
+     * Names of bus stops tables
+     */
+    private static final String[] TABLE_NAMES = {"bus_stops_a", "bus_stops_b"};
+    
+    /** 
+     * Time spent waiting for database connection
+     */
+    private static final LatencyHistogram CONNECTION_WAIT = MetricsRegistry.getDefault().histogram("bus_route_jdbc_connection_wait_seconds", "", "Time spent waiting for database connection");
+    
+    /** 
+     * Derby database type
+     */
+    public static final String DERBY = "derby";
+    
+    /** 
+     * Oracle database type
+     */
+    public static final String ORACLE = "oracle";
+    
+    /** 
+     * Database type property, {@link DatabaseDataProvider#DERBY} or {@link DatabaseDataProvider#ORACLE}
+     */
+    private String databaseType = DERBY;
+    
+    /** 
+     * Number of stop pairs looked up by one batch query
+     */
+    private static final int BATCH_LOOKUP_SIZE = 100;
+    
+    /** 
+     * Find by two stop ids queries for bus stops tables
+     */
+    private String[] findQueries = createFindQueries(DERBY, false);
+    
+    /** 
+     * Find by batch of stop pairs queries for bus stops tables
+     */
+    private String[] batchFindQueries = createBatchFindQueries(DERBY, false);
+    
+    /** 
+     * Find all route ids by two stop ids queries for bus stops tables
+     */
+    private String[] findAllQueries = createFindAllQueries(DERBY, false);
+
     /** 
      * Database data source property
      */
     private DataSource dataSource;
     
+    /** 
+     * Index of the active bus stops table used by lookups
+     */
+    private volatile int activeTable = 0;
+    
+    /** 
+     * Index of the bus stops table under load, {@code -1} if there is no load
+     */
+    private int pendingTable = -1;
+    
+    /** 
+     * Number of rows sent to database in one batch property
+     */
+    private int batchSize = 1000;
+    
+    /** 
+     * Number of rows inserted in one transaction property
+     */
+    private int commitSize = 100000;
+    
+    /** 
+     * Lookup query timeout in seconds property, {@code 0} means no timeout
+     */
+    private int queryTimeout = 0;
+    
+    /** 
+     * Connection used by load
+     */
+    private Connection loadConnection;
+    
+    /** 
+     * Insert statement used by load
+     */
+    private PreparedStatement loadStatement;
+    
+    /** 
+     * Number of rows added to current batch
+     */
+    private int batchRows;
+    
+    /** 
+     * Number of rows inserted since last commit
+     */
+    private int uncommittedRows;
+    
+    /** 
+     * Number of rows inserted by load
+     */
+    private long loadedRows;
+    
+    /** 
+     * Load start time in nanoseconds
+     */
+    private long loadStartTime;
+    
+    /** 
+     * Inserted rows per second of the last load
+     */
+    private long rowsPerSecond;
+    
     /** 
      * Create database and fill it with data from source file
      * 
      * @return load results statistics
      */
     public LoadResult createDatabase() {
+        createSchema();
+        return loadFile(getSourceFilePath());
+    }
+    
+    /**
+     * Create bus stops tables if they do not exist. 
+     * Table of previous structure without {@code stop_seq} column is dropped and created again,
+     * route index is added to table created without it.
+     */
+    public void createSchema() {
         Connection con = null;
-        PreparedStatement stmt = null;
         try {
-            con=dataSource.getConnection();
-            stmt=con.prepareStatement("CREATE TABLE bus_stops (route_id INTEGER, stop_id INTEGER)");
-            stmt.execute();
-        } catch (SQLException ignore) {
-            
+            con=getConnection();
+            DatabaseMetaData metaData = con.getMetaData();
+            for (String tableName : TABLE_NAMES) {
+                String storedName = metaData.storesUpperCaseIdentifiers() ? tableName.toUpperCase() : tableName;
+                boolean tableExists;
+                boolean actualStructure;
+                try (ResultSet rs = metaData.getTables(null, null, storedName, null)) {
+                    tableExists = rs.next();
+                }
+                try (ResultSet rs = metaData.getColumns(null, null, storedName, metaData.storesUpperCaseIdentifiers() ? "STOP_SEQ" : "stop_seq")) {
+                    actualStructure = rs.next();
+                }
+                
+                if (tableExists && !actualStructure) {
+                    logger.info("Dropping bus stops table of previous structure: " + tableName);
+                    execute(con, "DROP TABLE " + tableName);
+                }
+                if (!tableExists || !actualStructure) {
+                    logger.info("Creating bus stops table: " + tableName);
+                    execute(con, "CREATE TABLE " + tableName + " (route_id INTEGER NOT NULL, stop_seq INTEGER NOT NULL, stop_id INTEGER NOT NULL)");
+                    createIndexes(con, tableName);
+                } else if (!hasIndex(metaData, storedName, getRouteIndexName(tableName))) {
+                    logger.info("Creating route index on bus stops table: " + tableName);
+                    execute(con, "CREATE INDEX " + getRouteIndexName(tableName) + " ON " + tableName + " (route_id, stop_seq)");
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error creating bus stops tables", e);
         } finally {
-            closePreparedStatement(stmt);
             closeConnection(con);
         }
-        
-        return loadFile(getSourceFilePath());
     }
     
     /**
@@ -56,25 +197,214 @@ public class DatabaseDataProvider extends AbstractDataProvider {
     }
 
     /**
-     * Clear database. Capacity parameter is not used
+     * Clear inactive bus stops table and prepare batch insert into it on single connection. 
+     * Capacity parameter is not used
      * 
      * @param capacity
      *        default capacity
      */
     @Override
     public void createDataStore(int capacity) {
+        discardDataStore();
+        pendingTable = 1 - activeTable;
+        batchRows = 0;
+        uncommittedRows = 0;
+        loadedRows = 0;
+        rowsPerSecond = 0;
+        loadStartTime = System.nanoTime();
+        
+        String tableName = TABLE_NAMES[pendingTable];
+        try {
+            loadConnection = getConnection();
+            loadConnection.setAutoCommit(false);
+            for (String indexName : new String[] {getIndexName(tableName), getRouteIndexName(tableName)}) {
+                try {
+                    execute(loadConnection, "DROP INDEX " + indexName);
+                } catch (SQLException ignore) {
+                    loadConnection.rollback();
+                }
+            }
+            execute(loadConnection, "TRUNCATE TABLE " + tableName);
+            loadConnection.commit();
+            loadStatement = loadConnection.prepareStatement("INSERT INTO " + tableName + " (route_id, stop_seq, stop_id) VALUES (?, ?, ?)");
+        } catch (SQLException e) {
+            logger.error("Error preparing bus stops table " + tableName + " for load", e);
+            discardDataStore();
+        }
+    }
+
+    /**
+     * Insert remaining batch, commit and make loaded bus stops table active.
+     */
+    @Override
+    protected void completeDataStore() {
+        if (pendingTable < 0) return;
+        
+        try {
+            if (batchRows > 0) {
+                loadStatement.executeBatch();
+                loadedRows += batchRows;
+                batchRows = 0;
+            }
+            loadConnection.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error completing bus stops table " + TABLE_NAMES[pendingTable] + " load", e);
+        }
+        
+        long elapsedTime = Math.max(System.nanoTime() - loadStartTime, 1);
+        rowsPerSecond = loadedRows * 1000000000L / elapsedTime;
+        
+        long indexStartTime = System.currentTimeMillis();
+        try {
+            createIndexes(loadConnection, TABLE_NAMES[pendingTable]);
+            loadConnection.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error creating indexes on bus stops table " + TABLE_NAMES[pendingTable], e);
+        }
+        logger.info("Indexes on bus stops table " + TABLE_NAMES[pendingTable] + " created in " + (System.currentTimeMillis() - indexStartTime) + " ms");
+        closeLoadConnection();
+        
+        activeTable = pendingTable;
+        pendingTable = -1;
+        logger.info("Active bus stops table: " + TABLE_NAMES[activeTable] + ", " + loadedRows + " rows inserted, " + rowsPerSecond + " rows/s");
+    }
+    
+    /**
+     * Roll back uncommitted rows and keep current bus stops table active after failed load.
+     */
+    @Override
+    protected void discardDataStore() {
+        if (loadConnection != null) {
+            try {
+                loadConnection.rollback();
+            } catch (SQLException ignore) {
+            }
+        }
+        closeLoadConnection();
+        pendingTable = -1;
+    }
+    
+    /**
+     * Apply changes of incremental reload to active bus stops table in one transaction:
+     * rows of deleted and updated bus routes are deleted, then rows of added and updated routes are inserted.
+     * Lookups see the table either before or after the transaction.
+     * 
+     * @param changes
+     *        added, updated and deleted bus routes
+     * 
+     * @return {@code true} if changes are committed, {@code false} if transaction is rolled back
+     */
+    @Override
+    protected boolean applyRouteChanges(RouteChanges changes) {
+        String tableName = TABLE_NAMES[activeTable];
+        RouteStorage changedRoutes = changes.getRoutes();
+        long startTime = System.nanoTime();
+        long insertedRows = 0;
+        Connection con = null;
+        PreparedStatement deleteStatement = null;
+        PreparedStatement insertStatement = null;
+        try {
+            con = getConnection();
+            con.setAutoCommit(false);
+            deleteStatement = con.prepareStatement("DELETE FROM " + tableName + " WHERE route_id=?");
+            int rows = 0;
+            for (int routeId : changes.getDeletedRouteIds()) {
+                deleteStatement.setInt(1, routeId);
+                deleteStatement.addBatch();
+                if (++rows % batchSize == 0) deleteStatement.executeBatch();
+            }
+            for (int i = 0; i < changedRoutes.size(); i++) {
+                deleteStatement.setInt(1, changedRoutes.getRouteId(i));
+                deleteStatement.addBatch();
+                if (++rows % batchSize == 0) deleteStatement.executeBatch();
+            }
+            deleteStatement.executeBatch();
+            
+            insertStatement = con.prepareStatement("INSERT INTO " + tableName + " (route_id, stop_seq, stop_id) VALUES (?, ?, ?)");
+            int[] stopIds = changedRoutes.getStopIds();
+            for (int i = 0; i < changedRoutes.size(); i++) {
+                for (int j = changedRoutes.getOffset(i), end = changedRoutes.getOffset(i + 1); j < end; j++) {
+                    insertStatement.setInt(1, changedRoutes.getRouteId(i));
+                    insertStatement.setInt(2, j - changedRoutes.getOffset(i));
+                    insertStatement.setInt(3, stopIds[j]);
+                    insertStatement.addBatch();
+                    if (++insertedRows % batchSize == 0) insertStatement.executeBatch();
+                }
+            }
+            insertStatement.executeBatch();
+            con.commit();
+        } catch (SQLException e) {
+            logger.error("Error applying changes to bus stops table " + tableName, e);
+            if (con != null) {
+                try {
+                    con.rollback();
+                } catch (SQLException ignore) {
+                }
+            }
+            return false;
+        } finally {
+            closePreparedStatement(deleteStatement);
+            closePreparedStatement(insertStatement);
+            closeConnection(con);
+        }
+        rowsPerSecond = insertedRows * 1000000000L / Math.max(System.nanoTime() - startTime, 1);
+        logger.info("Changes applied to bus stops table " + tableName + ", " + insertedRows + " rows inserted");
+        return true;
+    }
+    
+    /**
+     * Check if bus routes of published data can be changed by put and delete.
+     * Changes are applied by {@link DatabaseDataProvider#applyRouteChanges(RouteChanges)}.
+     * 
+     * @return {@code true}, bus route changes are supported
+     */
+    @Override
+    public boolean isRouteChangeSupported() {
+        return true;
+    }
+    
+    /**
+     * Check if active bus stops table has rows of bus route.
+     * 
+     * @param routeId
+     *        bus route id
+     * 
+     * @return {@code true} if bus route is found, {@code false} if it is not found or query fails
+     */
+    @Override
+    protected boolean containsBusRoute(int routeId) {
         Connection con = null;
         PreparedStatement stmt = null;
+        ResultSet rs = null;
+        
         try {
-            con=dataSource.getConnection();
-            stmt=con.prepareStatement("DELETE FROM bus_stops");
-            stmt.executeUpdate();
-        } catch (SQLException ignore) {
+            con = getConnection();
+            stmt = con.prepareStatement("SELECT route_id FROM " + TABLE_NAMES[activeTable] + " WHERE route_id=?");
+            stmt.setQueryTimeout(queryTimeout);
+            stmt.setMaxRows(1);
+            stmt.setInt(1, routeId);
             
+            rs = stmt.executeQuery();
+            return rs.next();
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
         } finally {
+            closeResultSet(rs);
             closePreparedStatement(stmt);
             closeConnection(con);
         }
+        return false;
+    }
+    
+    /**
+     * Sets inserted rows per second into load results statistics.
+     * 
+     * @param loadResult
+     *        load results statistics
+     */
+    @Override
+    protected void completeLoadResult(LoadResult loadResult) {
+        loadResult.setRows_per_second(rowsPerSecond);
     }
 
     /**
@@ -94,21 +424,90 @@ public class DatabaseDataProvider extends AbstractDataProvider {
     public BusRoute findByTwoStopIds(Integer stopId1, Integer stopId2) {
         if (stopId1 == null || stopId2 == null) return null;
         
+        int routeId = findRouteIdByTwoStopIds(stopId1, stopId2);
+        if (routeId == NO_ROUTE) return null;
+        
+        BusRoute busRoute = new BusRoute();
+        busRoute.setId(routeId);
+        return busRoute;
+    }
+
+    /**
+     * Find id of bus route which contains both stops without boxing stop ids.
+     * Return {@link DataProvider#NO_ROUTE} if bus route does not contains both stops.
+     * 
+     * @param stopId1
+     *        first stop id to find
+     * 
+     * @param stopId2
+     *        second stop id to find
+     * 
+     * @return bus route id or {@link DataProvider#NO_ROUTE}
+     */
+    @Override
+    public int findRouteIdByTwoStopIds(int stopId1, int stopId2) {
         Connection con = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
                 
         try {
-            con=dataSource.getConnection();
-            stmt=con.prepareStatement("SELECT t1.route_id FROM bus_stops t1, bus_stops t2 WHERE t1.stop_id=? AND t2.stop_id=? AND t1.route_id=t2.route_id");
-            setInteger(stmt, 1, stopId1);
-            setInteger(stmt, 2, stopId2);
+            con=getConnection();
+            stmt=con.prepareStatement(findQueries[activeTable]);
+            stmt.setQueryTimeout(queryTimeout);
+            stmt.setMaxRows(1);
+            stmt.setInt(1, stopId1);
+            stmt.setInt(2, stopId2);
             
             rs = stmt.executeQuery();
             if (rs.next()) {
-                BusRoute busRoute = new BusRoute();
-                busRoute.setId(rs.getInt(1));
-                return busRoute;
+                return rs.getInt(1);
+            }
+            
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            closeResultSet(rs);
+            closePreparedStatement(stmt);
+            closeConnection(con);
+        }
+        return NO_ROUTE;
+    }
+
+    /**
+     * Find ids of all bus routes which contain both stops, but not more than {@code limit} of them.
+     * Limit is passed to the query, so database stops reading the stop index when {@code limit} routes are found.
+     * 
+     * @param stopId1
+     *        first stop id to find
+     * 
+     * @param stopId2
+     *        second stop id to find
+     * 
+     * @param limit
+     *        maximum number of bus route ids
+     * 
+     * @return bus route ids in ascending order or {@link DataProvider#NO_ROUTES}
+     */
+    @Override
+    public int[] findAllRouteIdsByTwoStopIds(int stopId1, int stopId2, int limit) {
+        Connection con = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        IntList routeIds = null;
+        
+        try {
+            con=getConnection();
+            stmt=con.prepareStatement(findAllQueries[activeTable]);
+            stmt.setQueryTimeout(queryTimeout);
+            stmt.setMaxRows(limit);
+            stmt.setInt(1, stopId1);
+            stmt.setInt(2, stopId2);
+            stmt.setInt(3, limit);
+            
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                if (routeIds == null) routeIds = new IntList(Math.min(limit, 16));
+                routeIds.add(rs.getInt(1));
             }
             
         } catch (SQLException e) {
@@ -118,7 +517,62 @@ public class DatabaseDataProvider extends AbstractDataProvider {
             closePreparedStatement(stmt);
             closeConnection(con);
         }
-        return null;
+        return routeIds == null ? NO_ROUTES : routeIds.toArray();
+    }
+
+    /**
+     * Find ids of bus routes for a batch of stop pairs.
+     * Pairs are sent to database in chunks of {@link DatabaseDataProvider#BATCH_LOOKUP_SIZE}, every chunk is answered by one query
+     * on a single connection. The last chunk is padded with its last pair, so all chunks use the same statement.
+     * 
+     * @param stopIds1
+     *        first stop ids of pairs
+     * 
+     * @param stopIds2
+     *        second stop ids of pairs
+     * 
+     * @param routeIds
+     *        array receiving bus route ids
+     * 
+     * @param count
+     *        number of pairs
+     */
+    @Override
+    public void findRouteIdsByTwoStopIds(int[] stopIds1, int[] stopIds2, int[] routeIds, int count) {
+        Arrays.fill(routeIds, 0, count, NO_ROUTE);
+        if (count == 0) return;
+        
+        Connection con = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        
+        try {
+            con=getConnection();
+            stmt=con.prepareStatement(batchFindQueries[activeTable]);
+            stmt.setQueryTimeout(queryTimeout);
+            for (int begin = 0; begin < count; begin += BATCH_LOOKUP_SIZE) {
+                for (int i = 0; i < BATCH_LOOKUP_SIZE; i++) {
+                    int pair = Math.min(begin + i, count - 1);
+                    stmt.setInt(i * 2 + 1, stopIds1[pair]);
+                    stmt.setInt(i * 2 + 2, stopIds2[pair]);
+                }
+                rs = stmt.executeQuery();
+                while (rs.next()) {
+                    int pair = begin + rs.getInt(1);
+                    if (pair < count) {
+                        routeIds[pair] = rs.getInt(2);
+                    }
+                }
+                closeResultSet(rs);
+                rs = null;
+            }
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            closeResultSet(rs);
+            closePreparedStatement(stmt);
+            closeConnection(con);
+        }
     }
 
     /**
@@ -132,29 +586,151 @@ public class DatabaseDataProvider extends AbstractDataProvider {
     @Override
     public boolean addBusRoute(BusRoute busRoute) {
         if (busRoute == null) return false;
-        if (busRoute.getStopIds() == null || busRoute.getStopIds().size() == 0) return false;
         
-        Connection con = null;
-        Statement stmt = null;        
+        int[] stopIds = new int[busRoute.getStopCount()];
+        for (int i = 0; i < stopIds.length; i++) {
+            stopIds[i] = busRoute.getStopId(i);
+        }
+        return addBusRoute(busRoute.getId(), stopIds, stopIds.length);
+    }
+
+    /**
+     * Add parsed bus route rows into insert batch. 
+     * Batch is sent to database when it reaches {@link DatabaseDataProvider.batchSize} rows,
+     * transaction is committed after {@link DatabaseDataProvider.commitSize} rows.
+     * Database error fails the whole load, so that incomplete table never becomes active.
+     * 
+     * @param routeId
+     *        bus route id
+     * 
+     * @param stopIds
+     *        array holding bus route stop ids from position 0
+     * 
+     * @param stopCount
+     *        number of bus route stop ids
+     *        
+     * @return if bus route was added successfully, returns {@code true} otherwise {@code false}
+     */
+    @Override
+    protected boolean addBusRoute(int routeId, int[] stopIds, int stopCount) {
+        if (stopCount == 0) return false;
+        if (loadStatement == null) return false;
+        
         try {
-            con=dataSource.getConnection();
-            StringBuilder queryBuilder = new StringBuilder();
-            queryBuilder.append("INSERT INTO bus_stops (route_id, stop_id) VALUES ");
-           
-            busRoute.getStopIds().stream().forEach(x -> 
-                queryBuilder.append("(").append(busRoute.getId()).append(",").append(x).append("),"));
-            
-            queryBuilder.delete(queryBuilder.length() - 1, queryBuilder.length());
-            
-            stmt = con.createStatement();
-            stmt.executeUpdate(queryBuilder.toString());
+            for (int i = 0; i < stopCount; i++) {
+                loadStatement.setInt(1, routeId);
+                loadStatement.setInt(2, i);
+                loadStatement.setInt(3, stopIds[i]);
+                loadStatement.addBatch();
+                if (++batchRows >= batchSize) {
+                    loadStatement.executeBatch();
+                    uncommittedRows += batchRows;
+                    loadedRows += batchRows;
+                    batchRows = 0;
+                }
+            }
+            if (uncommittedRows >= commitSize) {
+                loadConnection.commit();
+                uncommittedRows = 0;
+            }
             return true;
         } catch (SQLException e) {
-            logger.error("Error adding bus rote (id = " + busRoute.getId() + " to database", e);
-        } finally {
-            closeConnection(con);
+            throw new IllegalStateException("Error adding bus route (id = " + routeId + ") to database", e);
         }
-        return false;
+    }
+
+    /**
+     * Gets the value of batch size property {@link DatabaseDataProvider.batchSize}.
+     * 
+     * @return number of rows sent to database in one batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the value of batch size property {@link DatabaseDataProvider.batchSize}.
+     * 
+     * @param batchSize
+     *        new number of rows sent to database in one batch
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * Gets the value of commit size property {@link DatabaseDataProvider.commitSize}.
+     * 
+     * @return number of rows inserted in one transaction
+     */
+    public int getCommitSize() {
+        return commitSize;
+    }
+
+    /**
+     * Sets the value of commit size property {@link DatabaseDataProvider.commitSize}.
+     * 
+     * @param commitSize
+     *        new number of rows inserted in one transaction
+     */
+    public void setCommitSize(int commitSize) {
+        this.commitSize = Math.max(commitSize, 1);
+    }
+
+    /**
+     * Gets the value of query timeout property {@link DatabaseDataProvider.queryTimeout}.
+     * 
+     * @return lookup query timeout in seconds
+     */
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    /**
+     * Sets the value of query timeout property {@link DatabaseDataProvider.queryTimeout}.
+     * 
+     * @param queryTimeout
+     *        new lookup query timeout in seconds, {@code 0} means no timeout
+     */
+    public void setQueryTimeout(int queryTimeout) {
+        this.queryTimeout = Math.max(queryTimeout, 0);
+    }
+
+    /**
+     * Gets the value of database type property {@link DatabaseDataProvider.databaseType}.
+     * 
+     * @return database type
+     */
+    public String getDatabaseType() {
+        return databaseType;
+    }
+
+    /**
+     * Sets the value of database type property {@link DatabaseDataProvider.databaseType}.
+     * Database type defines SQL dialect of lookup queries.
+     * 
+     * @param databaseType
+     *        new database type, {@link DatabaseDataProvider#DERBY} or {@link DatabaseDataProvider#ORACLE}
+     */
+    public void setDatabaseType(String databaseType) {
+        this.databaseType = databaseType;
+        this.findQueries = createFindQueries(databaseType, isOrderedLookup());
+        this.batchFindQueries = createBatchFindQueries(databaseType, isOrderedLookup());
+        this.findAllQueries = createFindAllQueries(databaseType, isOrderedLookup());
+    }
+
+    /**
+     * Sets the value of ordered lookup property and creates lookup queries comparing {@code stop_seq} of both stops.
+     * 
+     * @param orderedLookup
+     *        new ordered lookup value
+     */
+    @Override
+    public void setOrderedLookup(boolean orderedLookup) {
+        super.setOrderedLookup(orderedLookup);
+        this.findQueries = createFindQueries(databaseType, orderedLookup);
+        this.batchFindQueries = createBatchFindQueries(databaseType, orderedLookup);
+        this.findAllQueries = createFindAllQueries(databaseType, orderedLookup);
     }
 
     /**
@@ -176,6 +752,196 @@ public class DatabaseDataProvider extends AbstractDataProvider {
         this.dataSource = dataSource;
     }
    
+    /**
+     * Create find by two stop ids queries for bus stops tables.
+     * Query reads the first route of the first stop, which has the second stop too, using index on {@code (stop_id, route_id, stop_seq)}.
+     * Ordered query requires the second stop to have greater {@code stop_seq} than the first one.
+     * 
+     * @param databaseType
+     *        database type
+     * 
+     * @param ordered
+     *        match only bus routes going from the first stop to the second stop
+     * 
+     * @return queries in bus stops tables order
+     */
+    private static String[] createFindQueries(String databaseType, boolean ordered) {
+        String[] queries = new String[TABLE_NAMES.length];
+        for (int i = 0; i < TABLE_NAMES.length; i++) {
+            String query = "SELECT t1.route_id FROM " + TABLE_NAMES[i] + " t1 WHERE t1.stop_id=?"
+                    + " AND EXISTS (SELECT 1 FROM " + TABLE_NAMES[i] + " t2 WHERE t2.stop_id=? AND t2.route_id=t1.route_id"
+                    + (ordered ? " AND t2.stop_seq>t1.stop_seq)" : ")");
+            queries[i] = ORACLE.equals(databaseType) ? query + " AND ROWNUM = 1" : query + " FETCH FIRST 1 ROWS ONLY";
+        }
+        return queries;
+    }
+    
+    /**
+     * Create find all route ids by two stop ids queries for bus stops tables.
+     * Query reads distinct routes of the first stop having the second stop in route id order, 
+     * number of routes is limited by the last query parameter.
+     * 
+     * @param databaseType
+     *        database type
+     * 
+     * @param ordered
+     *        match only bus routes going from the first stop to the second stop
+     * 
+     * @return queries in bus stops tables order
+     */
+    private static String[] createFindAllQueries(String databaseType, boolean ordered) {
+        String[] queries = new String[TABLE_NAMES.length];
+        for (int i = 0; i < TABLE_NAMES.length; i++) {
+            String query = "SELECT DISTINCT t1.route_id FROM " + TABLE_NAMES[i] + " t1 WHERE t1.stop_id=?"
+                    + " AND EXISTS (SELECT 1 FROM " + TABLE_NAMES[i] + " t2 WHERE t2.stop_id=? AND t2.route_id=t1.route_id"
+                    + (ordered ? " AND t2.stop_seq>t1.stop_seq)" : ")") + " ORDER BY t1.route_id";
+            queries[i] = ORACLE.equals(databaseType) ? "SELECT route_id FROM (" + query + ") WHERE ROWNUM <= ?" : query + " FETCH FIRST ? ROWS ONLY";
+        }
+        return queries;
+    }
+    
+    /**
+     * Create find by batch of stop pairs queries for bus stops tables.
+     * Pairs are passed as union of {@link DatabaseDataProvider#BATCH_LOOKUP_SIZE} one row selects with pair position,
+     * query returns the smallest bus route id of every pair having bus route.
+     * 
+     * @param databaseType
+     *        database type
+     * 
+     * @param ordered
+     *        match only bus routes going from the departure stop to the arrival stop
+     * 
+     * @return queries in bus stops tables order
+     */
+    private static String[] createBatchFindQueries(String databaseType, boolean ordered) {
+        String dummyTable = ORACLE.equals(databaseType) ? "dual" : "SYSIBM.SYSDUMMY1";
+        StringBuilder pairs = new StringBuilder();
+        for (int i = 0; i < BATCH_LOOKUP_SIZE; i++) {
+            if (i > 0) pairs.append(" UNION ALL ");
+            pairs.append("SELECT ").append(i).append(" pair_index, CAST(? AS INTEGER) dep_sid, CAST(? AS INTEGER) arr_sid FROM ").append(dummyTable);
+        }
+        
+        String[] queries = new String[TABLE_NAMES.length];
+        for (int i = 0; i < TABLE_NAMES.length; i++) {
+            queries[i] = "SELECT p.pair_index, MIN(t1.route_id) FROM (" + pairs + ") p, " + TABLE_NAMES[i] + " t1, " + TABLE_NAMES[i] + " t2"
+                    + " WHERE t1.stop_id=p.dep_sid AND t2.stop_id=p.arr_sid AND t2.route_id=t1.route_id"
+                    + (ordered ? " AND t2.stop_seq>t1.stop_seq" : "") + " GROUP BY p.pair_index";
+        }
+        return queries;
+    }
+    
+    /**
+     * Gets the name of stop index of bus stops table.
+     * 
+     * @param tableName
+     *        bus stops table name
+     * 
+     * @return index name
+     */
+    private static String getIndexName(String tableName) {
+        return tableName + "_stop_idx";
+    }
+    
+    /**
+     * Gets the name of route index of bus stops table, which is used by deletes and checks of single bus routes.
+     * 
+     * @param tableName
+     *        bus stops table name
+     * 
+     * @return index name
+     */
+    private static String getRouteIndexName(String tableName) {
+        return tableName + "_route_idx";
+    }
+    
+    /**
+     * Create stop index and route index of bus stops table.
+     * 
+     * @param con
+     *        connection
+     * 
+     * @param tableName
+     *        bus stops table name
+     * 
+     * @exception SQLException if index creation failed
+     */
+    private void createIndexes(Connection con, String tableName) throws SQLException {
+        execute(con, "CREATE INDEX " + getIndexName(tableName) + " ON " + tableName + " (stop_id, route_id, stop_seq)");
+        execute(con, "CREATE INDEX " + getRouteIndexName(tableName) + " ON " + tableName + " (route_id, stop_seq)");
+    }
+    
+    /**
+     * Check if table has index with specified name.
+     * 
+     * @param metaData
+     *        database metadata
+     * 
+     * @param storedTableName
+     *        table name as it is stored in database metadata
+     * 
+     * @param indexName
+     *        index name
+     * 
+     * @return {@code true} if index exists
+     * 
+     * @exception SQLException if metadata can not be read
+     */
+    private static boolean hasIndex(DatabaseMetaData metaData, String storedTableName, String indexName) throws SQLException {
+        try (ResultSet rs = metaData.getIndexInfo(null, null, storedTableName, false, true)) {
+            while (rs.next()) {
+                if (indexName.equalsIgnoreCase(rs.getString("INDEX_NAME"))) return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Get connection from data source recording connection wait time.
+     * 
+     * @return database connection
+     * 
+     * @exception SQLException if connection can not be obtained
+     */
+    private Connection getConnection() throws SQLException {
+        long startTime = System.nanoTime();
+        try {
+            return dataSource.getConnection();
+        } finally {
+            CONNECTION_WAIT.recordSince(startTime);
+        }
+    }
+    
+    /**
+     * Execute sql statement on specified connection
+     * 
+     * @param con
+     *        connection
+     * 
+     * @param sql
+     *        sql statement
+     * 
+     * @exception SQLException if statement execution failed
+     */
+    private void execute(Connection con, String sql) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = con.prepareStatement(sql);
+            stmt.execute();
+        } finally {
+            closePreparedStatement(stmt);
+        }
+    }
+    
+    /**
+     * Close load statement and connection
+     */
+    private void closeLoadConnection() {
+        closePreparedStatement(loadStatement);
+        closeConnection(loadConnection);
+        loadStatement = null;
+        loadConnection = null;
+    }
+   
     /**
      * Close specified sql result set
      * 
@@ -220,34 +986,4 @@ public class DatabaseDataProvider extends AbstractDataProvider {
             }
         }
     }
-    
-    /**
-     * Close specified sql connection
-     * 
-     * @param con
-     *        connection to close
-     */
-    /**
-     * Sets the parameter value base on defined {@code Integer} value.
-     * If {@code Integer} is {@code null}, the parameter value is set to {@code null} of SQL  INTEGER, 
-     * otherwise the value is converted to SQL INTEGER.
-     * 
-     * @param stmt
-     *        prepared statement which holds parameter
-     * 
-     * @param parameterIndex
-     *        parameter index in the sql query
-     * 
-     * @param value
-     *        Integer value to insert
-     *        
-     * @exception SQLException if parameterIndex does not correspond to a parameter marker in the SQL statement        
-     */
-    private void setInteger(PreparedStatement stmt, int parameterIndex, Integer value) throws SQLException {
-        if (value == null) {
-            stmt.setNull(parameterIndex, Types.INTEGER);
-        } else {
-            stmt.setInt(parameterIndex, value);
-        }
-    }
 }
@@ -0,0 +1,162 @@
+package ru.fedbv.busroute.model;
+
+/**
+ * Approximate access frequency of {@code long} keys.
+ * Count-min sketch of 4 bits counters, 16 counters are packed into every {@code long} word.
+ * Counters are halved after a number of increments, so the sketch forgets old popularity.
+ * Counters are updated without synchronization: lost updates under contention only make estimates less accurate.
+ */
+public class FrequencySketch {
+    /**
+     * Maximum counter value
+     */
+    private static final long MAX_COUNT = 15;
+
+    /**
+     * Mask of the lower three bits of every counter in a word
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * Hash seeds of the four rows
+     */
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    /**
+     * Counter words
+     */
+    private final long[] table;
+
+    /**
+     * Number of increments before counters are halved
+     */
+    private final int sampleSize;
+
+    /**
+     * Number of increments since the last halving
+     */
+    private int size;
+
+    /**
+     * Constructs new sketch
+     *
+     * @param maximumSize
+     *        maximum number of cached keys
+     */
+    public FrequencySketch(int maximumSize) {
+        int capacity = Integer.highestOneBit(Math.max(maximumSize, 16) - 1) << 1;
+        this.table = new long[Math.max(capacity >>> 2, 8)];
+        this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the estimated number of key occurrences.
+     *
+     * @param key
+     *        key value
+     *
+     * @return estimated frequency from {@code 0} to {@code 15}
+     */
+    public int frequency(long key) {
+        long hash = spread(key);
+        int frequency = (int) MAX_COUNT;
+        for (int row = 0; row < SEEDS.length; row++) {
+            long rowHash = rehash(hash, row);
+            long word = table[index(rowHash)];
+            int shift = counterShift(rowHash, row);
+            frequency = Math.min(frequency, (int) ((word >>> shift) & MAX_COUNT));
+        }
+        return frequency;
+    }
+
+    /**
+     * Increment counters of the key occurrence.
+     *
+     * @param key
+     *        key value
+     */
+    public void increment(long key) {
+        long hash = spread(key);
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            long rowHash = rehash(hash, row);
+            int index = index(rowHash);
+            int shift = counterShift(rowHash, row);
+            long word = table[index];
+            if (((word >>> shift) & MAX_COUNT) != MAX_COUNT) {
+                table[index] = word + (1L << shift);
+                added = true;
+            }
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halve all counters.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = size >>> 1;
+    }
+
+    /**
+     * Gets the word index of the row hash.
+     *
+     * @param rowHash
+     *        row hash
+     *
+     * @return word index
+     */
+    private int index(long rowHash) {
+        return (int) (rowHash >>> 32) & (table.length - 1);
+    }
+
+    /**
+     * Gets the bit shift of the row counter in a word. Every row uses its own four counters of the word.
+     *
+     * @param rowHash
+     *        row hash
+     *
+     * @param row
+     *        row number
+     *
+     * @return counter bit shift
+     */
+    private static int counterShift(long rowHash, int row) {
+        return (((int) rowHash & 3) + (row << 2)) << 2;
+    }
+
+    /**
+     * Mix key bits.
+     *
+     * @param key
+     *        key value
+     *
+     * @return key hash
+     */
+    private static long spread(long key) {
+        key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+        key = (key ^ (key >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return key ^ (key >>> 33);
+    }
+
+    /**
+     * Gets the row specific hash.
+     *
+     * @param hash
+     *        key hash
+     *
+     * @param row
+     *        row number
+     *
+     * @return row hash
+     */
+    private static long rehash(long hash, int row) {
+        long rowHash = (hash + SEEDS[row]) * SEEDS[row];
+        return rowHash ^ (rowHash >>> 29);
+    }
+}
@@ -0,0 +1,144 @@
+package ru.fedbv.busroute.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory data provider class with inverted stop index.
+ * Bus routes are kept in compact {@link RouteStorage}. For every stop keeps sorted postings list
+ * of indexes of bus routes which contain the stop.
+ * Find by two stops is an intersection of two postings lists.
+ * In ordered lookup mode {@link StopPositionIndex} is built as well and find by two stops
+ * returns only bus routes which go from the first stop to the second one.
+ */
+public class IndexedMemoryDataProvider extends StopIndexDataProvider<int[]> {
+    public static Logger logger = LoggerFactory.getLogger(IndexedMemoryDataProvider.class);
+
+    /**
+     * Marker of absent intersection value
+     */
+    private static final int NOT_FOUND = -1;
+
+    /**
+     * Create postings list of bus route indexes, the array itself is used.
+     *
+     * @param routeIndexes
+     *        sorted distinct bus route indexes
+     *
+     * @return postings list
+     */
+    @Override
+    protected int[] createStopEntry(int[] routeIndexes) {
+        return routeIndexes;
+    }
+
+    /**
+     * Gets the bus route indexes of postings list.
+     *
+     * @param stopEntry
+     *        postings list
+     *
+     * @return sorted distinct bus route indexes
+     */
+    @Override
+    protected int[] getRouteIndexes(int[] stopEntry) {
+        return stopEntry;
+    }
+
+    /**
+     * Find the first common bus route index of two postings lists, which is not less than specified index.
+     * The smaller list is searched in the larger one.
+     *
+     * @param stopEntry1
+     *        first postings list
+     *
+     * @param stopEntry2
+     *        second postings list
+     *
+     * @param fromRouteIndex
+     *        the smallest bus route index to find
+     *
+     * @return bus route index or {@link IndexedMemoryDataProvider.NOT_FOUND}
+     */
+    @Override
+    protected int findCommonRouteIndex(int[] stopEntry1, int[] stopEntry2, int fromRouteIndex) {
+        return stopEntry1.length <= stopEntry2.length
+                ? intersectFirst(stopEntry1, stopEntry2, fromRouteIndex)
+                : intersectFirst(stopEntry2, stopEntry1, fromRouteIndex);
+    }
+
+    /**
+     * Gets the approximate size of postings list in memory.
+     *
+     * @param stopEntry
+     *        postings list
+     *
+     * @return size in bytes
+     */
+    @Override
+    protected long sizeInBytes(int[] stopEntry) {
+        return 16 + 4L * stopEntry.length;
+    }
+
+    /**
+     * Find the first common value of two sorted arrays which is not less than specified value.
+     * Each value of the smaller array is searched in the larger one with galloping search,
+     * which starts from position of previous search result.
+     *
+     * @param smaller
+     *        smaller sorted array
+     *
+     * @param larger
+     *        larger sorted array
+     *
+     * @param fromValue
+     *        the smallest value to search
+     *
+     * @return first common value or {@link IndexedMemoryDataProvider.NOT_FOUND}
+     */
+    private static int intersectFirst(int[] smaller, int[] larger, int fromValue) {
+        int from = fromValue == 0 ? 0 : gallop(larger, 0, fromValue);
+        for (int i = fromValue == 0 ? 0 : gallop(smaller, 0, fromValue); i < smaller.length; i++) {
+            int value = smaller[i];
+            from = gallop(larger, from, value);
+            if (from == larger.length) break;
+            if (larger[from] == value) return value;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Find position of the first array element which is not less than specified value.
+     *
+     * @param array
+     *        sorted array
+     *
+     * @param from
+     *        position to start search from
+     *
+     * @param value
+     *        value to search
+     *
+     * @return position of the element or array length if all elements are less than value
+     */
+    private static int gallop(int[] array, int from, int value) {
+        int step = 1;
+        int high = from;
+        while (high < array.length && array[high] < value) {
+            from = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        int low = from;
+        high = Math.min(high, array.length);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (array[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,116 @@
+package ru.fedbv.busroute.model;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive {@code int} values.
+ * Used on load to collect values without boxing them into {@code Integer} objects.
+ */
+public class IntList {
+    /**
+     * Values storage property
+     */
+    private int[] values;
+
+    /**
+     * Number of stored values property
+     */
+    private int size;
+
+    /**
+     * Constructs new empty list with default capacity
+     */
+    public IntList() {
+        this(8);
+    }
+
+    /**
+     * Constructs new empty list with defined capacity
+     *
+     * @param capacity
+     *        initial capacity
+     */
+    public IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Append value to the end of the list.
+     *
+     * @param value
+     *        value to append
+     */
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Gets the value at specified position.
+     *
+     * @param index
+     *        value position
+     *
+     * @return value
+     */
+    public int get(int index) {
+        return values[index];
+    }
+
+    /**
+     * Replace the value at specified position.
+     *
+     * @param index
+     *        value position
+     *
+     * @param value
+     *        new value
+     */
+    public void set(int index, int value) {
+        values[index] = value;
+    }
+
+    /**
+     * Gets the number of stored values.
+     *
+     * @return number of values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all values from the list. Capacity is kept.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Gets the stored values as a new array of exact size.
+     *
+     * @return array of values
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Gets the stored values sorted in ascending order with duplicates removed.
+     *
+     * @return sorted array of distinct values
+     */
+    public int[] toSortedDistinctArray() {
+        int[] result = toArray();
+        Arrays.sort(result);
+        int count = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (count == 0 || result[count - 1] != result[i]) {
+                result[count++] = result[i];
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+}
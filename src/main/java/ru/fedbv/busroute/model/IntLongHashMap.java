@@ -0,0 +1,234 @@
+package ru.fedbv.busroute.model;
+
+/**
+ * Open addressing hash map with primitive {@code int} keys and {@code long} values.
+ * Neither keys nor values are boxed. Map is not thread safe.
+ */
+public class IntLongHashMap {
+    /**
+     * Keys table property
+     */
+    private int[] keys;
+
+    /**
+     * Values table property
+     */
+    private long[] values;
+
+    /**
+     * Slot is used flags table property
+     */
+    private boolean[] used;
+
+    /**
+     * Number of stored entries property
+     */
+    private int size;
+
+    /**
+     * Constructs new empty map with defined expected number of entries
+     *
+     * @param expectedSize
+     *        expected number of entries
+     */
+    public IntLongHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+    }
+
+    /**
+     * Gets the value mapped to specified key.
+     *
+     * @param key
+     *        key to find
+     *
+     * @param defaultValue
+     *        value returned if key is absent
+     *
+     * @return value or {@code defaultValue} if key is absent
+     */
+    public long get(int key, long defaultValue) {
+        int slot = find(key);
+        return slot >= 0 ? values[slot] : defaultValue;
+    }
+
+    /**
+     * Check if map contains specified key.
+     *
+     * @param key
+     *        key to find
+     *
+     * @return {@code true} if key is present
+     */
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Gets the slot of specified key.
+     *
+     * @param key
+     *        key to find
+     *
+     * @return slot or {@code -1} if key is absent
+     */
+    public int find(int key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; used[slot]; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Map specified key to value.
+     *
+     * @param key
+     *        key
+     *
+     * @param value
+     *        value
+     *
+     * @return {@code true} if key was absent
+     */
+    public boolean put(int key, long value) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; used[slot]; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return false;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        used[slot] = true;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+        return true;
+    }
+
+    /**
+     * Remove specified key. Following entries of the probe sequence are shifted back, so no deleted markers are left.
+     *
+     * @param key
+     *        key to remove
+     *
+     * @return {@code true} if key was present
+     */
+    public boolean remove(int key) {
+        int slot = find(key);
+        if (slot < 0) return false;
+
+        int mask = keys.length - 1;
+        int free = slot;
+        for (int next = (free + 1) & mask; used[next]; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+        }
+        used[free] = false;
+        size--;
+        return true;
+    }
+
+    /**
+     * Gets the number of stored entries.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of table slots. Used with {@link IntLongHashMap#isUsed(int)}, {@link IntLongHashMap#keyAt(int)} and
+     * {@link IntLongHashMap#valueAt(int)} to iterate over entries.
+     *
+     * @return number of slots
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Check if specified slot holds an entry.
+     *
+     * @param slot
+     *        table slot
+     *
+     * @return {@code true} if slot is used
+     */
+    public boolean isUsed(int slot) {
+        return used[slot];
+    }
+
+    /**
+     * Gets the key stored in specified slot.
+     *
+     * @param slot
+     *        table slot
+     *
+     * @return key, meaningless for free slot
+     */
+    public int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Gets the value stored in specified slot.
+     *
+     * @param slot
+     *        table slot
+     *
+     * @return value, meaningless for free slot
+     */
+    public long valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Double table size and rehash entries.
+     */
+    private void resize() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        used = new boolean[oldUsed.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (!oldUsed[i]) continue;
+            int slot = hash(oldKeys[i]) & mask;
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            used[slot] = true;
+        }
+    }
+
+    /**
+     * Spread key bits.
+     *
+     * @param key
+     *        key
+     *
+     * @return hash value
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,176 @@
+package ru.fedbv.busroute.model;
+
+/**
+ * Open addressing hash map with primitive {@code int} keys.
+ * Lookup does not box the key. {@code null} values are not allowed.
+ * 
+ * @param <V> value type
+ */
+public class IntObjectHashMap<V> {
+    /**
+     * Keys table property
+     */
+    private int[] keys;
+
+    /**
+     * Values table property, {@code null} marks free slot
+     */
+    private Object[] values;
+
+    /**
+     * Number of stored entries property
+     */
+    private int size;
+
+    /**
+     * Constructs new empty map with defined expected number of entries
+     *
+     * @param expectedSize
+     *        expected number of entries
+     */
+    public IntObjectHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * Constructs new map with entries of another map. Values are shared, not copied.
+     *
+     * @param other
+     *        map to copy
+     */
+    public IntObjectHashMap(IntObjectHashMap<V> other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        size = other.size;
+    }
+
+    /**
+     * Gets the value mapped to specified key.
+     *
+     * @param key
+     *        key to find
+     *
+     * @return value or {@code null} if key is absent
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return (V) values[slot];
+        }
+        return null;
+    }
+
+    /**
+     * Map specified key to value.
+     *
+     * @param key
+     *        key
+     *
+     * @param value
+     *        not {@code null} value
+     *
+     * @return previous value or {@code null} if key was absent
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) throw new NullPointerException("value");
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of stored entries.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of table slots. Used with {@link IntObjectHashMap#keyAt(int)} and
+     * {@link IntObjectHashMap#valueAt(int)} to iterate over entries.
+     *
+     * @return number of slots
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Gets the key stored in specified slot.
+     *
+     * @param slot
+     *        table slot
+     *
+     * @return key, meaningless for free slot
+     */
+    public int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Gets the value stored in specified slot.
+     *
+     * @param slot
+     *        table slot
+     *
+     * @return value or {@code null} for free slot
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    /**
+     * Double table size and rehash entries.
+     */
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null) continue;
+            int slot = hash(oldKeys[i]) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * Spread key bits.
+     *
+     * @param key
+     *        key
+     *
+     * @return hash value
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,123 @@
+package ru.fedbv.busroute.model;
+
+/**
+ * Immutable map with primitive {@code int} keys, updated by creating new map.
+ * Map is a base {@link IntObjectHashMap} shared by updated maps plus small overlay of changed entries,
+ * so update copies only the overlay and creates only changed entries. When overlay grows over
+ * {@code 1/}{@link IntObjectOverlayMap#OVERLAY_SIZE_DIVISOR} of base entries, it is folded into new base.
+ * Lookup does not box the key, changed entries are found in overlay first. {@code null} values are not allowed.
+ *
+ * @param <V> value type
+ */
+public class IntObjectOverlayMap<V> {
+    /**
+     * Minimal overlay size folded into base
+     */
+    private static final int MIN_OVERLAY_SIZE = 256;
+
+    /**
+     * Ratio of base size to overlay size folded into base
+     */
+    private static final int OVERLAY_SIZE_DIVISOR = 256;
+
+    /**
+     * Base entries shared by updated maps property
+     */
+    private final IntObjectHashMap<V> base;
+
+    /**
+     * Changed entries property, empty if all entries are in base
+     */
+    private final IntObjectHashMap<V> overlay;
+
+    /**
+     * Number of entries property
+     */
+    private final int size;
+
+    /**
+     * Constructs new map with entries of specified map. The map is not copied and should not be changed later.
+     *
+     * @param base
+     *        map entries
+     */
+    public IntObjectOverlayMap(IntObjectHashMap<V> base) {
+        this(base, new IntObjectHashMap<V>(0), base.size());
+    }
+
+    /**
+     * Constructs new map of base entries and changed entries
+     *
+     * @param base
+     *        base entries
+     *
+     * @param overlay
+     *        changed entries
+     *
+     * @param size
+     *        number of entries
+     */
+    private IntObjectOverlayMap(IntObjectHashMap<V> base, IntObjectHashMap<V> overlay, int size) {
+        this.base = base;
+        this.overlay = overlay;
+        this.size = size;
+    }
+
+    /**
+     * Gets the value mapped to specified key.
+     *
+     * @param key
+     *        key to find
+     *
+     * @return value or {@code null} if key is absent
+     */
+    public V get(int key) {
+        if (overlay.size() != 0) {
+            V value = overlay.get(key);
+            if (value != null) return value;
+        }
+        return base.get(key);
+    }
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Create map with specified entries added or replaced. This map is not changed.
+     *
+     * @param changes
+     *        added and replaced entries
+     *
+     * @return updated map
+     */
+    public IntObjectOverlayMap<V> update(IntObjectHashMap<V> changes) {
+        IntObjectHashMap<V> updatedOverlay = new IntObjectHashMap<V>(overlay);
+        int updatedSize = size;
+        for (int slot = 0; slot < changes.capacity(); slot++) {
+            V value = changes.valueAt(slot);
+            if (value == null) continue;
+            int key = changes.keyAt(slot);
+            if (updatedOverlay.put(key, value) == null && base.get(key) == null) {
+                updatedSize++;
+            }
+        }
+        if (updatedOverlay.size() <= Math.max(MIN_OVERLAY_SIZE, base.size() / OVERLAY_SIZE_DIVISOR)) {
+            return new IntObjectOverlayMap<V>(base, updatedOverlay, updatedSize);
+        }
+
+        IntObjectHashMap<V> updatedBase = new IntObjectHashMap<V>(base);
+        for (int slot = 0; slot < updatedOverlay.capacity(); slot++) {
+            V value = updatedOverlay.valueAt(slot);
+            if (value != null) {
+                updatedBase.put(updatedOverlay.keyAt(slot), value);
+            }
+        }
+        return new IntObjectOverlayMap<V>(updatedBase);
+    }
+}
@@ -0,0 +1,199 @@
+package ru.fedbv.busroute.model;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load progress class.
+ * Loading thread adds parsed bytes, lines and errors once per chunk, so progress can be read from
+ * other threads at any time without logging on the load path. The load can be cancelled:
+ * the loader checks the cancel flag between chunks and stops with {@link CancellationException}.
+ */
+public class LoadProgress {
+    /**
+     * Number of parsed bytes
+     */
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    /**
+     * Number of parsed lines including header line
+     */
+    private final AtomicLong linesParsed = new AtomicLong();
+
+    /**
+     * Number of error lines
+     */
+    private final AtomicLong errorLines = new AtomicLong();
+
+    /**
+     * Total number of bytes to parse, {@code -1} if it is unknown
+     */
+    private volatile long totalBytes = -1;
+
+    /**
+     * Parsing start time from {@link System#nanoTime()}, {@code 0} if parsing is not started
+     */
+    private volatile long startTime;
+
+    /**
+     * Load end time from {@link System#nanoTime()}, {@code 0} if the load is not finished
+     */
+    private volatile long endTime;
+
+    /**
+     * Load cancel was requested
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Start parsing source data. Counters of previous parsing of the same load are reset,
+     * e.g. when incremental reload falls back to complete reload.
+     *
+     * @param totalBytes
+     *        total number of bytes to parse or {@code -1} if it is unknown
+     */
+    public void start(long totalBytes) {
+        bytesRead.set(0);
+        linesParsed.set(0);
+        errorLines.set(0);
+        this.totalBytes = totalBytes;
+        startTime = System.nanoTime();
+        endTime = 0;
+    }
+
+    /**
+     * Finish the load. Elapsed time and throughput do not change after the load is finished.
+     */
+    public void finish() {
+        if (endTime == 0) {
+            endTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Add parsed chunk of source data.
+     *
+     * @param bytes
+     *        number of parsed bytes
+     *
+     * @param lines
+     *        number of parsed lines
+     *
+     * @param errors
+     *        number of error lines
+     */
+    public void add(long bytes, long lines, long errors) {
+        bytesRead.addAndGet(bytes);
+        linesParsed.addAndGet(lines);
+        if (errors > 0) {
+            errorLines.addAndGet(errors);
+        }
+    }
+
+    /**
+     * Request load cancel. Already published data is not affected.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Stop the load if cancel was requested.
+     *
+     * @throws CancellationException if cancel was requested
+     */
+    public void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Load cancelled");
+        }
+    }
+
+    /**
+     * Gets the value of load cancel was requested property {@link LoadProgress.cancelled}.
+     *
+     * @return {@code true} if cancel was requested
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Gets the value of number of parsed bytes property {@link LoadProgress.bytesRead}.
+     *
+     * @return number of parsed bytes
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Gets the value of total number of bytes to parse property {@link LoadProgress.totalBytes}.
+     *
+     * @return total number of bytes or {@code -1} if it is unknown
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Gets the value of number of parsed lines property {@link LoadProgress.linesParsed}.
+     *
+     * @return number of parsed lines including header line
+     */
+    public long getLinesParsed() {
+        return linesParsed.get();
+    }
+
+    /**
+     * Gets the value of number of error lines property {@link LoadProgress.errorLines}.
+     *
+     * @return number of error lines
+     */
+    public long getErrorLines() {
+        return errorLines.get();
+    }
+
+    /**
+     * Gets the time since parsing start until the load end or until now if the load is not finished.
+     *
+     * @return elapsed time in milliseconds or {@code 0} if parsing is not started
+     */
+    public long getElapsedMillis() {
+        long start = startTime;
+        long end = endTime;
+        return start == 0 ? 0 : ((end == 0 ? System.nanoTime() : end) - start) / 1000000;
+    }
+
+    /**
+     * Gets the parsing throughput.
+     *
+     * @return parsed bytes per second
+     */
+    public long getBytesPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : getBytesRead() * 1000 / elapsed;
+    }
+
+    /**
+     * Gets the parsing throughput in lines.
+     *
+     * @return parsed lines per second
+     */
+    public long getLinesPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : getLinesParsed() * 1000 / elapsed;
+    }
+
+    /**
+     * Gets the estimated time until parsing end by the current throughput.
+     *
+     * @return estimated time in milliseconds or {@code -1} if total size or throughput is unknown
+     */
+    public long getEtaMillis() {
+        long total = totalBytes;
+        long bytesPerSecond = getBytesPerSecond();
+        if (total < 0 || bytesPerSecond == 0 || getLinesParsed() <= 1) return -1;
+
+        return Math.max(total - getBytesRead(), 0) * 1000 / bytesPerSecond;
+    }
+}
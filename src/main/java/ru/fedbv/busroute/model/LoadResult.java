@@ -12,6 +12,42 @@ public class LoadResult {
      * Number of error lines or errors on load property
      */
     private int error_count;
+    /** 
+     * Number of rows inserted into database per second property
+     */
+    private long rows_per_second;
+    /** 
+     * Load was rejected because another load is in progress property
+     */
+    private boolean rejected;
+    /** 
+     * Load was cancelled before new data was published property
+     */
+    private boolean cancelled;
+    /** 
+     * Load failed with error before new data was published property
+     */
+    private boolean failed;
+    /** 
+     * Load failed because source stream could not be read or decoded property
+     */
+    private boolean invalidInput;
+    /** 
+     * Only changes of source file were applied by incremental reload property
+     */
+    private boolean incremental;
+    /** 
+     * Number of bus routes added by incremental reload property
+     */
+    private int added_count;
+    /** 
+     * Number of bus routes updated by incremental reload property
+     */
+    private int updated_count;
+    /** 
+     * Number of bus routes deleted by incremental reload property
+     */
+    private int deleted_count;
     
     /**
      * Gets the value of the number of error lines or errors on load property {@link LoadResult.error_count}.
@@ -51,5 +87,174 @@ public class LoadResult {
         this.load_count = load_count;
     }
     
+    /**
+     * Gets the value of number of rows inserted into database per second property {@link LoadResult.rows_per_second}.
+     * 
+     * @return number of rows per second, {@code 0} if data is not loaded into database
+     */
+    public long getRows_per_second() {
+        return rows_per_second;
+    }
+    
+    /**
+     * Sets the value of number of rows inserted into database per second property {@link LoadResult.rows_per_second}.
+     * 
+     * @param rows_per_second
+     *        new number of rows per second value
+     */
+    public void setRows_per_second(long rows_per_second) {
+        this.rows_per_second = rows_per_second;
+    }
+    
+    /**
+     * Gets the value of load rejected property {@link LoadResult.rejected}.
+     * 
+     * @return {@code true} if load was rejected because another load is in progress
+     */
+    public boolean isRejected() {
+        return rejected;
+    }
+    
+    /**
+     * Sets the value of load rejected property {@link LoadResult.rejected}.
+     * 
+     * @param rejected
+     *        new load rejected value
+     */
+    public void setRejected(boolean rejected) {
+        this.rejected = rejected;
+    }
+    
+    /**
+     * Gets the value of load cancelled property {@link LoadResult.cancelled}.
+     * 
+     * @return {@code true} if load was cancelled before new data was published
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    /**
+     * Sets the value of load cancelled property {@link LoadResult.cancelled}.
+     * 
+     * @param cancelled
+     *        new load cancelled value
+     */
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+    
+    /**
+     * Gets the value of load failed property {@link LoadResult.failed}.
+     * 
+     * @return {@code true} if load failed with error and previous data stays published
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+    
+    /**
+     * Sets the value of load failed property {@link LoadResult.failed}.
+     * 
+     * @param failed
+     *        new load failed value
+     */
+    public void setFailed(boolean failed) {
+        this.failed = failed;
+    }
+    
+    /**
+     * Gets the value of invalid input property {@link LoadResult.invalidInput}.
+     * 
+     * @return {@code true} if load failed because source stream is truncated or malformed
+     */
+    public boolean isInvalidInput() {
+        return invalidInput;
+    }
+    
+    /**
+     * Sets the value of invalid input property {@link LoadResult.invalidInput}.
+     * 
+     * @param invalidInput
+     *        new invalid input value
+     */
+    public void setInvalidInput(boolean invalidInput) {
+        this.invalidInput = invalidInput;
+    }
     
+    /**
+     * Gets the value of incremental property {@link LoadResult.incremental}.
+     * 
+     * @return {@code true} if only changes of source file were applied
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+    
+    /**
+     * Sets the value of incremental property {@link LoadResult.incremental}.
+     * 
+     * @param incremental
+     *        new incremental value
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+    
+    /**
+     * Gets the value of number of added bus routes property {@link LoadResult.added_count}.
+     * 
+     * @return number of bus routes added by incremental reload
+     */
+    public int getAdded_count() {
+        return added_count;
+    }
+    
+    /**
+     * Sets the value of number of added bus routes property {@link LoadResult.added_count}.
+     * 
+     * @param added_count
+     *        new number of added bus routes value
+     */
+    public void setAdded_count(int added_count) {
+        this.added_count = added_count;
+    }
+    
+    /**
+     * Gets the value of number of updated bus routes property {@link LoadResult.updated_count}.
+     * 
+     * @return number of bus routes updated by incremental reload
+     */
+    public int getUpdated_count() {
+        return updated_count;
+    }
+    
+    /**
+     * Sets the value of number of updated bus routes property {@link LoadResult.updated_count}.
+     * 
+     * @param updated_count
+     *        new number of updated bus routes value
+     */
+    public void setUpdated_count(int updated_count) {
+        this.updated_count = updated_count;
+    }
+    
+    /**
+     * Gets the value of number of deleted bus routes property {@link LoadResult.deleted_count}.
+     * 
+     * @return number of bus routes deleted by incremental reload
+     */
+    public int getDeleted_count() {
+        return deleted_count;
+    }
+    
+    /**
+     * Sets the value of number of deleted bus routes property {@link LoadResult.deleted_count}.
+     * 
+     * @param deleted_count
+     *        new number of deleted bus routes value
+     */
+    public void setDeleted_count(int deleted_count) {
+        this.deleted_count = deleted_count;
+    }
 }
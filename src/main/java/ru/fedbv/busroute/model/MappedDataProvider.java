@@ -0,0 +1,288 @@
+package ru.fedbv.busroute.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory-mapped data provider class.
+ * Bus routes and stop index are written into {@link MappedRouteIndex} file and lookups read the mapped file directly,
+ * so heap usage does not depend on the number of bus routes and processes using the same file share the page cache.
+ * If index file was built from the current source file, it is mapped without parsing the source file.
+ * Incremental reload and runtime bus route changes are not supported, every reload builds new index file.
+ */
+public class MappedDataProvider extends AbstractDataProvider {
+    public static Logger logger = LoggerFactory.getLogger(MappedDataProvider.class);
+
+    /**
+     * Index file path property, {@code null} to keep index file next to source file
+     */
+    private String indexFilePath;
+
+    /**
+     * Published mapped index, {@code null} if data is not loaded
+     */
+    private volatile MappedRouteIndex index;
+
+    /**
+     * Bus routes store under construction, released when index file is written
+     */
+    private RouteStorageBuilder pendingBusRoutes;
+
+    /**
+     * Size of source file under load, {@code -1} if it is unknown
+     */
+    private long pendingSourceSize;
+
+    /**
+     * Last modified time of source file under load, {@code -1} if it is unknown
+     */
+    private long pendingSourceTime;
+
+    /**
+     * Initialize data provider and loads data into storage.
+     *
+     * @return load results statistics
+     */
+    @Override
+    public LoadResult init() {
+        return loadFile(getSourceFilePath());
+    }
+
+    /**
+     * Create data store with defined default capacity. Source file size and modified time are remembered
+     * before the file is parsed, so index file built from the file is not used after the file is changed.
+     * Index file built from stream or snapshot is not stamped and is never reused for source file.
+     *
+     * @param capacity
+     *        default capacity
+     */
+    @Override
+    public void createDataStore(int capacity) {
+        pendingBusRoutes = new RouteStorageBuilder(capacity);
+        pendingSourceSize = -1;
+        pendingSourceTime = -1;
+        Path sourcePath = getLoadingSourcePath();
+        if (sourcePath == null) return;
+        try {
+            pendingSourceSize = Files.size(sourcePath);
+            pendingSourceTime = Files.getLastModifiedTime(sourcePath).toMillis();
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Source file is not available, index file will not be reused: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Add bus route object into storage.
+     *
+     * @param busRoute
+     *        bus route object to add
+     * @return if bus route was added successfully, returns {@code true} otherwise {@code false}
+     */
+    @Override
+    public boolean addBusRoute(BusRoute busRoute) {
+        if (busRoute == null) return false;
+
+        int[] stopIds = new int[busRoute.getStopCount()];
+        for (int i = 0; i < stopIds.length; i++) {
+            stopIds[i] = busRoute.getStopId(i);
+        }
+        return addBusRoute(busRoute.getId(), stopIds, stopIds.length);
+    }
+
+    /**
+     * Append parsed bus route to storage under construction.
+     *
+     * @param routeId
+     *        bus route id
+     *
+     * @param stopIds
+     *        array holding bus route stop ids from position 0
+     *
+     * @param stopCount
+     *        number of bus route stop ids
+     *
+     * @return if bus route was added successfully, returns {@code true} otherwise {@code false}
+     */
+    @Override
+    protected boolean addBusRoute(int routeId, int[] stopIds, int stopCount) {
+        if (pendingBusRoutes == null) return false;
+
+        pendingBusRoutes.add(routeId, stopIds, stopCount);
+        return true;
+    }
+
+    /**
+     * Write index file of loaded bus routes, map it and publish the mapped index.
+     * Bus routes storage under construction is released, so heap keeps only the mapped buffers.
+     */
+    @Override
+    protected void completeDataStore() {
+        if (pendingBusRoutes == null) return;
+
+        long startTime = System.currentTimeMillis();
+        Path indexPath = getIndexPath();
+        RouteStorage routes = pendingBusRoutes.build();
+        pendingBusRoutes = null;
+        try {
+            MappedRouteIndex.write(indexPath, routes, getErrorCount(), pendingSourceSize, pendingSourceTime);
+            index = MappedRouteIndex.open(indexPath, -1, -1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error writing index file " + indexPath, e);
+        }
+        logger.info("Index file written: " + indexPath + ", " + routes.size() + " routes in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * Discard bus routes storage under construction.
+     */
+    @Override
+    protected void discardDataStore() {
+        pendingBusRoutes = null;
+    }
+
+    /**
+     * Map index file built from the current source file instead of parsing the file.
+     *
+     * @param sourcePath
+     *        source data file path
+     *
+     * @param loadResult
+     *        load results statistics
+     *
+     * @return {@code true} if index file is mapped and published
+     */
+    @Override
+    protected boolean openDataStore(Path sourcePath, LoadResult loadResult) {
+        Path indexPath = getIndexPath();
+        if (!Files.exists(indexPath)) return false;
+
+        try {
+            MappedRouteIndex mappedIndex = MappedRouteIndex.open(indexPath, Files.size(sourcePath), Files.getLastModifiedTime(sourcePath).toMillis());
+            if (mappedIndex == null) {
+                logger.info("Index file was built from another version of source file: " + indexPath);
+                return false;
+            }
+            index = mappedIndex;
+            loadResult.setLoad_count(mappedIndex.getRouteCount());
+            loadResult.setError_count(mappedIndex.getErrorCount());
+            logger.info("Index file mapped: " + indexPath + ", " + mappedIndex.getRouteCount() + " routes, " + mappedIndex.getStopCount() + " stops");
+            return true;
+        } catch (IOException e) {
+            logger.warn("Error mapping index file, source file will be parsed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Find bus route by two stop ids. Return {@link BusRoute} object which contains both stops.
+     * In ordered lookup mode the first stop should come before the second stop in the bus route.
+     * Return {@code null} if one/or both stops are {@code null} or bus route does not contains both stops.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @return {@link BusRoute}
+     *         bus route which contains both stops
+     */
+    @Override
+    public BusRoute findByTwoStopIds(Integer stopId1, Integer stopId2) {
+        if (stopId1 == null || stopId2 == null) return null;
+
+        MappedRouteIndex currentIndex = index;
+        if (currentIndex == null) return null;
+
+        int routeIndex = currentIndex.findRouteIndex(stopId1, stopId2, 0, isOrderedLookup());
+        return routeIndex < 0 ? null : currentIndex.getBusRoute(routeIndex);
+    }
+
+    /**
+     * Find id of bus route which contains both stops without boxing stop ids.
+     * In ordered lookup mode the first stop should come before the second stop in the bus route.
+     * Return {@link DataProvider#NO_ROUTE} if bus route does not contains both stops.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @return bus route id or {@link DataProvider#NO_ROUTE}
+     */
+    @Override
+    public int findRouteIdByTwoStopIds(int stopId1, int stopId2) {
+        MappedRouteIndex currentIndex = index;
+        if (currentIndex == null) return NO_ROUTE;
+
+        int routeIndex = currentIndex.findRouteIndex(stopId1, stopId2, 0, isOrderedLookup());
+        return routeIndex < 0 ? NO_ROUTE : currentIndex.getRouteId(routeIndex);
+    }
+
+    /**
+     * Find ids of all bus routes which contain both stops, but not more than {@code limit} of them.
+     * Stop entries are intersected from the route after the last found one, so intersection stops
+     * when {@code limit} routes are found.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @param limit
+     *        maximum number of bus route ids
+     *
+     * @return bus route ids or {@link DataProvider#NO_ROUTES}
+     */
+    @Override
+    public int[] findAllRouteIdsByTwoStopIds(int stopId1, int stopId2, int limit) {
+        MappedRouteIndex currentIndex = index;
+        if (currentIndex == null) return NO_ROUTES;
+
+        IntList routeIds = null;
+        int routeIndex = currentIndex.findRouteIndex(stopId1, stopId2, 0, isOrderedLookup());
+        while (routeIndex >= 0) {
+            if (routeIds == null) routeIds = new IntList(Math.min(limit, 16));
+            routeIds.add(currentIndex.getRouteId(routeIndex));
+            if (routeIds.size() >= limit) break;
+            routeIndex = currentIndex.findRouteIndex(stopId1, stopId2, routeIndex + 1, isOrderedLookup());
+        }
+        return routeIds == null ? NO_ROUTES : routeIds.toArray();
+    }
+
+    /**
+     * Gets the index file path: configured path or source file path with {@code .index} suffix.
+     *
+     * @return index file path
+     */
+    private Path getIndexPath() {
+        return Paths.get(indexFilePath != null ? indexFilePath : getSourceFilePath() + ".index");
+    }
+
+    /**
+     * Gets the value of index file path property {@link MappedDataProvider.indexFilePath}.
+     *
+     * @return index file path or {@code null} if index file is kept next to source file
+     */
+    public String getIndexFilePath() {
+        return indexFilePath;
+    }
+
+    /**
+     * Sets the value of index file path property {@link MappedDataProvider.indexFilePath}.
+     *
+     * @param indexFilePath
+     *        new index file path or {@code null} to keep index file next to source file
+     */
+    public void setIndexFilePath(String indexFilePath) {
+        this.indexFilePath = indexFilePath;
+    }
+}
@@ -0,0 +1,470 @@
+package ru.fedbv.busroute.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Bus routes and stop index in memory-mapped file, queried directly from the mapped buffers.
+ * Nothing is copied to heap when the file is opened, so several processes mapping the same file share the page cache.
+ * File layout (little-endian, every section starts at 8 bytes boundary):
+ * <pre>
+ * int    magic           'BRMI'
+ * int    format version
+ * long   source size     size of parsed source file
+ * long   source time     last modified time of parsed source file in milliseconds
+ * int    error count     number of source file error lines
+ * int    stop count      S, number of distinct stops
+ * int    route count     N
+ * int    route stop count M
+ * int    entry count     E, number of distinct (stop, route) pairs
+ * int[S] sorted stop ids
+ * int[S + 1] entry offsets of stops
+ * int[3E] entries (route index, first position, last position) of stops sorted by route index
+ * int[N] route ids
+ * int[N + 1] route stop offsets
+ * int[M] route stop ids
+ * </pre>
+ * Every section is mapped separately, so one section is limited to 2 GB.
+ */
+public class MappedRouteIndex {
+    /**
+     * Index file magic number
+     */
+    public static final int MAGIC = 0x42524D49;
+
+    /**
+     * Current index file format version
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * Header size in bytes
+     */
+    private static final int HEADER_SIZE = 48;
+
+    /**
+     * Number of values of one entry: route index, first position and last position of the stop
+     */
+    private static final int ENTRY_SIZE = 3;
+
+    /**
+     * Number of source file error lines property
+     */
+    private final int errorCount;
+
+    /**
+     * Sorted stop ids
+     */
+    private final IntBuffer stopIds;
+
+    /**
+     * Entry offsets of stops
+     */
+    private final IntBuffer entryOffsets;
+
+    /**
+     * Entries of stops
+     */
+    private final IntBuffer entries;
+
+    /**
+     * Bus route ids
+     */
+    private final IntBuffer routeIds;
+
+    /**
+     * Bus route stop offsets
+     */
+    private final IntBuffer routeOffsets;
+
+    /**
+     * Bus route stop ids
+     */
+    private final IntBuffer routeStopIds;
+
+    /**
+     * Constructs new index of mapped sections
+     *
+     * @param errorCount
+     *        number of source file error lines
+     *
+     * @param sections
+     *        mapped sections in file layout order
+     */
+    private MappedRouteIndex(int errorCount, IntBuffer[] sections) {
+        this.errorCount = errorCount;
+        this.stopIds = sections[0];
+        this.entryOffsets = sections[1];
+        this.entries = sections[2];
+        this.routeIds = sections[3];
+        this.routeOffsets = sections[4];
+        this.routeStopIds = sections[5];
+    }
+
+    /**
+     * Write index of bus routes into file. Data is written into unique temporary file in the same directory first,
+     * which atomically replaces target file when it is complete, so processes which mapped the previous file keep using it
+     * and processes writing index of the same source file concurrently do not write into the same temporary file.
+     * Sections are written directly into mapped file, entries are not built on heap.
+     *
+     * @param path
+     *        index file path
+     *
+     * @param routes
+     *        bus routes storage without deleted routes
+     *
+     * @param errorCount
+     *        number of source file error lines
+     *
+     * @param sourceSize
+     *        size of parsed source file
+     *
+     * @param sourceTime
+     *        last modified time of parsed source file in milliseconds
+     *
+     * @throws IOException if the file can not be written or a section exceeds 2 GB
+     */
+    public static void write(Path path, RouteStorage routes, int errorCount, long sourceSize, long sourceTime) throws IOException {
+        int routeCount = routes.size();
+        int routeStopCount = routes.getTotalStopCount();
+        int[] routeOffsets = routes.getOffsets();
+        int[] routeStops = routes.getStopIds();
+
+        int[] stops = Arrays.copyOf(routeStops, routeStopCount);
+        Arrays.sort(stops);
+        int stopCount = 0;
+        for (int i = 0; i < stops.length; i++) {
+            if (i == 0 || stops[i] != stops[i - 1]) {
+                stops[stopCount++] = stops[i];
+            }
+        }
+        stops = Arrays.copyOf(stops, stopCount);
+
+        int[] stopIndexes = new int[routeStopCount];
+        int[] lastRoutes = new int[stopCount];
+        int[] entryOffsets = new int[stopCount + 1];
+        Arrays.fill(lastRoutes, -1);
+        for (int routeIndex = 0; routeIndex < routeCount; routeIndex++) {
+            for (int i = routeOffsets[routeIndex]; i < routeOffsets[routeIndex + 1]; i++) {
+                int stopIndex = Arrays.binarySearch(stops, routeStops[i]);
+                stopIndexes[i] = stopIndex;
+                if (lastRoutes[stopIndex] != routeIndex) {
+                    lastRoutes[stopIndex] = routeIndex;
+                    entryOffsets[stopIndex + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < stopCount; i++) {
+            entryOffsets[i + 1] += entryOffsets[i];
+        }
+        int entryCount = entryOffsets[stopCount];
+
+        long[] sizes = {stopCount, stopCount + 1, (long) entryCount * ENTRY_SIZE, routeCount, routeCount + 1, routeStopCount};
+        Path tmpPath = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(sourceSize).putLong(sourceTime).putInt(errorCount)
+                      .putInt(stopCount).putInt(routeCount).putInt(routeStopCount).putInt(entryCount);
+                header.clear();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+
+                IntBuffer[] sections = map(channel, FileChannel.MapMode.READ_WRITE, sizes);
+                sections[0].put(stops);
+                sections[1].put(entryOffsets);
+                sections[3].put(routes.getRouteIds(), 0, routeCount);
+                sections[4].put(routeOffsets, 0, routeCount + 1);
+                sections[5].put(routeStops, 0, routeStopCount);
+
+                IntBuffer entries = sections[2];
+                int[] cursors = Arrays.copyOf(entryOffsets, stopCount);
+                Arrays.fill(lastRoutes, -1);
+                for (int routeIndex = 0; routeIndex < routeCount; routeIndex++) {
+                    for (int i = routeOffsets[routeIndex], position = 0; i < routeOffsets[routeIndex + 1]; i++, position++) {
+                        int stopIndex = stopIndexes[i];
+                        if (lastRoutes[stopIndex] != routeIndex) {
+                            lastRoutes[stopIndex] = routeIndex;
+                            int entry = cursors[stopIndex]++ * ENTRY_SIZE;
+                            entries.put(entry, routeIndex);
+                            entries.put(entry + 1, position);
+                            entries.put(entry + 2, position);
+                        } else {
+                            entries.put((cursors[stopIndex] - 1) * ENTRY_SIZE + 2, position);
+                        }
+                    }
+                }
+                long fileSize = sectionOffset(sizes, sizes.length);
+                if (channel.size() < fileSize) {
+                    channel.write(ByteBuffer.allocate(1), fileSize - 1);
+                }
+                channel.force(true);
+            }
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    /**
+     * Open index file and map its sections read-only.
+     *
+     * @param path
+     *        index file path
+     *
+     * @param sourceSize
+     *        expected size of source file or {@code -1} to skip the check
+     *
+     * @param sourceTime
+     *        expected last modified time of source file in milliseconds or {@code -1} to skip the check
+     *
+     * @return mapped index or {@code null} if the index was built from another version of source file
+     *
+     * @throws IOException if the file can not be read, has unsupported format version or wrong size
+     */
+    public static MappedRouteIndex open(Path path, long sourceSize, long sourceTime) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) throw new IOException("Unexpected end of index file: " + path);
+            }
+            header.flip();
+
+            if (header.getInt() != MAGIC) throw new IOException("Not a bus routes index file: " + path);
+            int formatVersion = header.getInt();
+            if (formatVersion != FORMAT_VERSION) throw new IOException("Unsupported index file format version " + formatVersion + ": " + path);
+            long indexSourceSize = header.getLong();
+            long indexSourceTime = header.getLong();
+            if ((sourceSize >= 0 && sourceSize != indexSourceSize) || (sourceTime >= 0 && sourceTime != indexSourceTime)) return null;
+
+            int errorCount = header.getInt();
+            int stopCount = header.getInt();
+            int routeCount = header.getInt();
+            int routeStopCount = header.getInt();
+            int entryCount = header.getInt();
+            if (stopCount < 0 || routeCount < 0 || routeStopCount < 0 || entryCount < 0) {
+                throw new IOException("Index file header is corrupted: " + path);
+            }
+            long[] sizes = {stopCount, stopCount + 1, (long) entryCount * ENTRY_SIZE, routeCount, routeCount + 1, routeStopCount};
+            if (channel.size() != sectionOffset(sizes, sizes.length)) {
+                throw new IOException("Index file size does not match its header: " + path);
+            }
+            return new MappedRouteIndex(errorCount, map(channel, FileChannel.MapMode.READ_ONLY, sizes));
+        }
+    }
+
+    /**
+     * Map sections of index file.
+     *
+     * @param channel
+     *        index file channel
+     *
+     * @param mode
+     *        map mode
+     *
+     * @param sizes
+     *        section sizes in ints
+     *
+     * @return sections in file layout order
+     *
+     * @throws IOException if the file can not be mapped or a section exceeds 2 GB
+     */
+    private static IntBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long[] sizes) throws IOException {
+        IntBuffer[] sections = new IntBuffer[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            long bytes = sizes[i] * 4;
+            if (bytes > Integer.MAX_VALUE) throw new IOException("Index file section " + i + " exceeds 2 GB: " + bytes + " bytes");
+            sections[i] = channel.map(mode, sectionOffset(sizes, i), bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+        return sections;
+    }
+
+    /**
+     * Calculate file offset of section.
+     *
+     * @param sizes
+     *        section sizes in ints
+     *
+     * @param section
+     *        section number, number of sections to get file size
+     *
+     * @return section offset in bytes
+     */
+    private static long sectionOffset(long[] sizes, int section) {
+        long offset = HEADER_SIZE;
+        for (int i = 0; i < section; i++) {
+            offset += (sizes[i] * 4 + 7) & ~7L;
+        }
+        return offset;
+    }
+
+    /**
+     * Gets the number of source file error lines property {@link MappedRouteIndex.errorCount}.
+     *
+     * @return number of error lines
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Gets the number of bus routes.
+     *
+     * @return number of bus routes
+     */
+    public int getRouteCount() {
+        return routeIds.limit();
+    }
+
+    /**
+     * Gets the number of distinct stops.
+     *
+     * @return number of stops
+     */
+    public int getStopCount() {
+        return stopIds.limit();
+    }
+
+    /**
+     * Gets the id of bus route.
+     *
+     * @param routeIndex
+     *        bus route index
+     *
+     * @return bus route id
+     */
+    public int getRouteId(int routeIndex) {
+        return routeIds.get(routeIndex);
+    }
+
+    /**
+     * Create bus route object of bus route. Only the result is created on heap.
+     *
+     * @param routeIndex
+     *        bus route index
+     *
+     * @return bus route object
+     */
+    public BusRoute getBusRoute(int routeIndex) {
+        int offset = routeOffsets.get(routeIndex);
+        int stopCount = routeOffsets.get(routeIndex + 1) - offset;
+        int[] stops = new int[stopCount];
+        for (int i = 0; i < stopCount; i++) {
+            stops[i] = routeStopIds.get(offset + i);
+        }
+        return new BusRoute(routeIds.get(routeIndex), stops, 0, stopCount);
+    }
+
+    /**
+     * Find index of the first bus route starting from specified index, which contains both stops.
+     * Entries of both stops are intersected by route index with galloping search.
+     * In ordered mode the first position of the first stop should be less than the last position of the second stop.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @param from
+     *        index of bus route to start from
+     *
+     * @param ordered
+     *        match only bus routes going from the first stop to the second stop
+     *
+     * @return bus route index or {@code -1}
+     */
+    public int findRouteIndex(int stopId1, int stopId2, int from, boolean ordered) {
+        int stopIndex1 = indexOfStop(stopId1);
+        int stopIndex2 = indexOfStop(stopId2);
+        if (stopIndex1 < 0 || stopIndex2 < 0) return -1;
+
+        int end1 = entryOffsets.get(stopIndex1 + 1);
+        int end2 = entryOffsets.get(stopIndex2 + 1);
+        int i = gallop(entryOffsets.get(stopIndex1), end1, from);
+        int j = gallop(entryOffsets.get(stopIndex2), end2, from);
+        while (i < end1 && j < end2) {
+            int route1 = entries.get(i * ENTRY_SIZE);
+            int route2 = entries.get(j * ENTRY_SIZE);
+            if (route1 < route2) {
+                i = gallop(i + 1, end1, route2);
+            } else if (route1 > route2) {
+                j = gallop(j + 1, end2, route1);
+            } else {
+                if (!ordered || entries.get(i * ENTRY_SIZE + 1) < entries.get(j * ENTRY_SIZE + 2)) return route1;
+                i++;
+                j++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find position of stop in sorted stop ids.
+     *
+     * @param stopId
+     *        stop id
+     *
+     * @return stop index or {@code -1} if there is no such stop
+     */
+    private int indexOfStop(int stopId) {
+        int low = 0;
+        int high = stopIds.limit() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int value = stopIds.get(middle);
+            if (value < stopId) {
+                low = middle + 1;
+            } else if (value > stopId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first entry in range which route index is not less than specified value.
+     *
+     * @param from
+     *        number of the first entry of the range
+     *
+     * @param end
+     *        number of the entry after the range
+     *
+     * @param routeIndex
+     *        route index to search
+     *
+     * @return number of the entry or {@code end} if all entries have smaller route index
+     */
+    private int gallop(int from, int end, int routeIndex) {
+        int low = from;
+        int high = from;
+        int step = 1;
+        while (high < end && entries.get(high * ENTRY_SIZE) < routeIndex) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        high = Math.min(high, end);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries.get(middle * ENTRY_SIZE) < routeIndex) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -14,7 +14,12 @@ public class MemoryDataProvider extends AbstractDataProvider{
     /** 
      * Bus routes store property
      */
-    private ArrayList<BusRoute> busRoutes;
+    private volatile ArrayList<BusRoute> busRoutes = new ArrayList<BusRoute>();
+    
+    /** 
+     * Bus routes store under construction property
+     */
+    private ArrayList<BusRoute> pendingBusRoutes;
     
     /**
      * Initialize data provider and loads data into storage.
@@ -34,7 +39,89 @@ public class MemoryDataProvider extends AbstractDataProvider{
      */
     @Override
     public void createDataStore(int capacity) {
-        busRoutes = new ArrayList<BusRoute>(capacity);
+        pendingBusRoutes = new ArrayList<BusRoute>(capacity);
+    }
+    
+    /**
+     * Publish loaded bus routes store.
+     */
+    @Override
+    protected void completeDataStore() {
+        if (pendingBusRoutes == null) return;
+        
+        busRoutes = pendingBusRoutes;
+        pendingBusRoutes = null;
+    }
+    
+    /**
+     * Apply changes of incremental reload. Bus route objects are created only for changed routes,
+     * but the list of routes is copied, so it takes time proportional to the number of routes
+     * like the reload itself. Single bus route put and delete are not supported for the same reason.
+     * 
+     * @param changes
+     *        added, updated and deleted bus routes
+     * 
+     * @return {@code true} if changes are applied
+     */
+    @Override
+    protected boolean applyRouteChanges(RouteChanges changes) {
+        RouteStorage changedRoutes = changes.getRoutes();
+        IntLongHashMap replacedRouteIds = new IntLongHashMap(changedRoutes.size() + changes.getDeletedCount());
+        for (int routeId : changes.getDeletedRouteIds()) {
+            replacedRouteIds.put(routeId, 0);
+        }
+        for (int i = 0; i < changedRoutes.size(); i++) {
+            replacedRouteIds.put(changedRoutes.getRouteId(i), 0);
+        }
+        
+        ArrayList<BusRoute> currentBusRoutes = busRoutes;
+        ArrayList<BusRoute> updatedBusRoutes = new ArrayList<BusRoute>(currentBusRoutes.size() + changes.getAddedCount());
+        for (BusRoute busRoute : currentBusRoutes) {
+            if (!replacedRouteIds.containsKey(busRoute.getId())) {
+                updatedBusRoutes.add(busRoute);
+            }
+        }
+        for (int i = 0; i < changedRoutes.size(); i++) {
+            BusRoute busRoute = new BusRoute(changedRoutes.getStopCount(i));
+            busRoute.setId(changedRoutes.getRouteId(i));
+            for (int j = changedRoutes.getOffset(i), end = changedRoutes.getOffset(i + 1); j < end; j++) {
+                busRoute.getStopIds().add(changedRoutes.getStopIds()[j]);
+            }
+            updatedBusRoutes.add(busRoute);
+        }
+        busRoutes = updatedBusRoutes;
+        return true;
+    }
+    
+    /**
+     * Copy published bus routes into storage for snapshot replication.
+     * 
+     * @return bus routes storage
+     */
+    @Override
+    protected RouteStorage getPublishedRoutes() {
+        ArrayList<BusRoute> currentBusRoutes = busRoutes;
+        RouteStorageBuilder routes = new RouteStorageBuilder(currentBusRoutes.size());
+        int[] stopIds = new int[64];
+        for (BusRoute busRoute : currentBusRoutes) {
+            int stopCount = busRoute.getStopCount();
+            if (stopCount > stopIds.length) {
+                stopIds = new int[stopCount];
+            }
+            for (int i = 0; i < stopCount; i++) {
+                stopIds[i] = busRoute.getStopId(i);
+            }
+            routes.add(busRoute.getId(), stopIds, stopCount);
+        }
+        return routes.build();
+    }
+    
+    /**
+     * Discard bus routes store under construction.
+     */
+    @Override
+    protected void discardDataStore() {
+        pendingBusRoutes = null;
     }
 
     /**
@@ -46,14 +133,15 @@ public class MemoryDataProvider extends AbstractDataProvider{
      */
     @Override
     public boolean addBusRoute(BusRoute busRoute) {
-        if (busRoute == null) return false;
+        if (busRoute == null || pendingBusRoutes == null) return false;
 
-        busRoutes.add(busRoute);
+        pendingBusRoutes.add(busRoute);
         return true;
     }
     
     /**
      * Find bus route by two stop ids. Return {@link BusRoute} object which contains both stops.
+     * In ordered lookup mode the first stop should come before the second stop in the bus route.
      * Return {@code null} if one/or both stops are {@code null} or bus route does not contains both stops.
      * 
      * @param stopId1
@@ -69,8 +157,9 @@ public class MemoryDataProvider extends AbstractDataProvider{
     public BusRoute findByTwoStopIds(Integer stopId1, Integer stopId2) {
         if (stopId1 == null || stopId2 == null) return null;
         try {
+            boolean ordered = isOrderedLookup();
             return busRoutes.stream().
-                filter(x -> x.getStopIds().contains(stopId1) && x.getStopIds().contains(stopId2)).
+                filter(x -> ordered ? x.containsStopIdsInOrder(stopId1, stopId2) : x.getStopIds().contains(stopId1) && x.getStopIds().contains(stopId2)).
                 findFirst().get();
         } catch (NoSuchElementException ignore) {    
         } catch (Exception e) {
@@ -78,4 +167,60 @@ public class MemoryDataProvider extends AbstractDataProvider{
         }
         return null;
     }
+    
+    /**
+     * Find id of bus route which contains both stops without boxing stop ids.
+     * In ordered lookup mode the first stop should come before the second stop in the bus route.
+     * Return {@link DataProvider#NO_ROUTE} if bus route does not contains both stops.
+     * 
+     * @param stopId1
+     *        first stop id to find
+     * 
+     * @param stopId2
+     *        second stop id to find
+     * 
+     * @return bus route id or {@link DataProvider#NO_ROUTE}
+     */
+    @Override
+    public int findRouteIdByTwoStopIds(int stopId1, int stopId2) {
+        ArrayList<BusRoute> routes = busRoutes;
+        boolean ordered = isOrderedLookup();
+        for (int i = 0, size = routes.size(); i < size; i++) {
+            BusRoute busRoute = routes.get(i);
+            if (ordered ? busRoute.containsStopIdsInOrder(stopId1, stopId2) : busRoute.containsStopId(stopId1) && busRoute.containsStopId(stopId2)) {
+                return busRoute.getId();
+            }
+        }
+        return NO_ROUTE;
+    }
+    
+    /**
+     * Find ids of all bus routes which contain both stops, but not more than {@code limit} of them.
+     * 
+     * @param stopId1
+     *        first stop id to find
+     * 
+     * @param stopId2
+     *        second stop id to find
+     * 
+     * @param limit
+     *        maximum number of bus route ids
+     * 
+     * @return bus route ids or {@link DataProvider#NO_ROUTES}
+     */
+    @Override
+    public int[] findAllRouteIdsByTwoStopIds(int stopId1, int stopId2, int limit) {
+        ArrayList<BusRoute> routes = busRoutes;
+        boolean ordered = isOrderedLookup();
+        IntList routeIds = null;
+        for (int i = 0, size = routes.size(); i < size; i++) {
+            BusRoute busRoute = routes.get(i);
+            if (ordered ? busRoute.containsStopIdsInOrder(stopId1, stopId2) : busRoute.containsStopId(stopId1) && busRoute.containsStopId(stopId2)) {
+                if (routeIds == null) routeIds = new IntList(Math.min(limit, 16));
+                routeIds.add(busRoute.getId());
+                if (routeIds.size() >= limit) break;
+            }
+        }
+        return routeIds == null ? NO_ROUTES : routeIds.toArray();
+    }
 }
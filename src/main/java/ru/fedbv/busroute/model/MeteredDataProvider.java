@@ -0,0 +1,330 @@
+package ru.fedbv.busroute.model;
+
+import java.io.InputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.fedbv.busroute.metrics.Counter;
+import ru.fedbv.busroute.metrics.LatencyHistogram;
+import ru.fedbv.busroute.metrics.MetricsRegistry;
+
+/**
+ * Metered data provider class.
+ * Decorates another data provider and records lookup latency, split into lookups with found bus route (hit)
+ * and without it (miss), batch lookup latency and reload latency into {@link MetricsRegistry}.
+ * Recording does not allocate objects, so it does not add garbage to lookup path.
+ */
+public class MeteredDataProvider implements DataProvider {
+    public static Logger logger = LoggerFactory.getLogger(MeteredDataProvider.class);
+
+    /**
+     * Decorated data provider property
+     */
+    private final DataProvider dataProvider;
+
+    /**
+     * Latency of lookups with found bus route
+     */
+    private final LatencyHistogram lookupHit;
+
+    /**
+     * Latency of lookups without bus route
+     */
+    private final LatencyHistogram lookupMiss;
+
+    /**
+     * Latency of batch lookups
+     */
+    private final LatencyHistogram batchLookup;
+
+    /**
+     * Number of stop pairs looked up in batches
+     */
+    private final Counter batchPairs;
+
+    /**
+     * Latency of route ids lookups
+     */
+    private final LatencyHistogram routeIdsLookup;
+
+    /**
+     * Number of route ids returned by route ids lookups
+     */
+    private final Counter routeIdsFound;
+
+    /**
+     * Number of put bus route requests
+     */
+    private final Counter routePuts;
+
+    /**
+     * Number of delete bus route requests
+     */
+    private final Counter routeDeletes;
+
+    /**
+     * Latency of data reloads
+     */
+    private final LatencyHistogram reload;
+
+    /**
+     * Number of rejected data reloads
+     */
+    private final Counter reloadRejected;
+
+    /**
+     * Constructs new metered data provider
+     *
+     * @param dataProvider
+     *        decorated data provider
+     *
+     * @param registry
+     *        metrics registry
+     */
+    public MeteredDataProvider(DataProvider dataProvider, MetricsRegistry registry) {
+        this.dataProvider = dataProvider;
+        String provider = "provider=\"" + dataProvider.getClass().getSimpleName() + "\"";
+        this.lookupHit = registry.histogram("bus_route_lookup_seconds", provider + ",result=\"hit\"", "Latency of stop pair lookups");
+        this.lookupMiss = registry.histogram("bus_route_lookup_seconds", provider + ",result=\"miss\"", "Latency of stop pair lookups");
+        this.batchLookup = registry.histogram("bus_route_batch_lookup_seconds", provider, "Latency of batch stop pair lookups");
+        this.batchPairs = registry.counter("bus_route_batch_lookup_pairs_total", provider, "Number of stop pairs looked up in batches");
+        this.routeIdsLookup = registry.histogram("bus_route_route_ids_lookup_seconds", provider, "Latency of stop pair lookups of all bus routes");
+        this.routeIdsFound = registry.counter("bus_route_route_ids_total", provider, "Number of bus route ids returned by lookups of all bus routes");
+        this.routePuts = registry.counter("bus_route_route_changes_total", provider + ",operation=\"put\"", "Number of bus routes put or deleted at runtime");
+        this.routeDeletes = registry.counter("bus_route_route_changes_total", provider + ",operation=\"delete\"", "Number of bus routes put or deleted at runtime");
+        this.reload = registry.histogram("bus_route_reload_seconds", provider, "Duration of data reloads");
+        this.reloadRejected = registry.counter("bus_route_reload_rejected_total", provider, "Number of data reloads rejected because another reload is in progress");
+    }
+
+    /**
+     * Initialize decorated data provider recording reload duration.
+     *
+     * @return load results statistics
+     */
+    @Override
+    public LoadResult init() {
+        long startTime = System.nanoTime();
+        LoadResult loadResult = dataProvider.init();
+        if (loadResult.isRejected()) {
+            reloadRejected.increment();
+        } else {
+            reload.recordSince(startTime);
+        }
+        return loadResult;
+    }
+
+    /**
+     * Initialize decorated data provider reporting load progress and recording reload duration.
+     *
+     * @param progress
+     *        progress of the load
+     *
+     * @return load results statistics
+     */
+    @Override
+    public LoadResult init(LoadProgress progress) {
+        long startTime = System.nanoTime();
+        LoadResult loadResult = dataProvider.init(progress);
+        if (loadResult.isRejected()) {
+            reloadRejected.increment();
+        } else if (!loadResult.isCancelled()) {
+            reload.recordSince(startTime);
+        }
+        return loadResult;
+    }
+
+    /**
+     * Load data stream into decorated data provider recording reload duration.
+     *
+     * @param in
+     *        source data stream
+     *
+     * @return load results statistics
+     */
+    @Override
+    public LoadResult loadStream(InputStream in) {
+        long startTime = System.nanoTime();
+        LoadResult loadResult = dataProvider.loadStream(in);
+        if (loadResult.isRejected()) {
+            reloadRejected.increment();
+        } else {
+            reload.recordSince(startTime);
+        }
+        return loadResult;
+    }
+
+    /**
+     * Create data store of decorated data provider.
+     *
+     * @param capacity
+     *        default capacity
+     */
+    @Override
+    public void createDataStore(int capacity) {
+        dataProvider.createDataStore(capacity);
+    }
+
+    /**
+     * Add bus route object into storage of decorated data provider.
+     *
+     * @param busRoute
+     *        bus route object to add
+     *
+     * @return if bus route was added successfully, returns {@code true} otherwise {@code false}
+     */
+    @Override
+    public boolean addBusRoute(BusRoute busRoute) {
+        return dataProvider.addBusRoute(busRoute);
+    }
+
+    /**
+     * Find bus route by two stop ids in decorated data provider recording lookup latency.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @return {@link BusRoute}
+     *         bus route which contains both stops
+     */
+    @Override
+    public BusRoute findByTwoStopIds(Integer stopId1, Integer stopId2) {
+        long startTime = System.nanoTime();
+        BusRoute busRoute = dataProvider.findByTwoStopIds(stopId1, stopId2);
+        (busRoute != null ? lookupHit : lookupMiss).recordSince(startTime);
+        return busRoute;
+    }
+
+    /**
+     * Find id of bus route which contains both stops in decorated data provider recording lookup latency.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @return bus route id or {@link DataProvider#NO_ROUTE}
+     */
+    @Override
+    public int findRouteIdByTwoStopIds(int stopId1, int stopId2) {
+        long startTime = System.nanoTime();
+        int routeId = dataProvider.findRouteIdByTwoStopIds(stopId1, stopId2);
+        (routeId != NO_ROUTE ? lookupHit : lookupMiss).recordSince(startTime);
+        return routeId;
+    }
+
+    /**
+     * Find ids of bus routes for a batch of stop pairs in decorated data provider recording batch latency.
+     *
+     * @param stopIds1
+     *        first stop ids of pairs
+     *
+     * @param stopIds2
+     *        second stop ids of pairs
+     *
+     * @param routeIds
+     *        array receiving bus route ids
+     *
+     * @param count
+     *        number of pairs
+     */
+    @Override
+    public void findRouteIdsByTwoStopIds(int[] stopIds1, int[] stopIds2, int[] routeIds, int count) {
+        long startTime = System.nanoTime();
+        dataProvider.findRouteIdsByTwoStopIds(stopIds1, stopIds2, routeIds, count);
+        batchLookup.recordSince(startTime);
+        batchPairs.add(count);
+    }
+
+    /**
+     * Find ids of all bus routes which contain both stops in decorated data provider recording lookup latency.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @param limit
+     *        maximum number of bus route ids
+     *
+     * @return bus route ids or {@link DataProvider#NO_ROUTES}
+     */
+    @Override
+    public int[] findAllRouteIdsByTwoStopIds(int stopId1, int stopId2, int limit) {
+        long startTime = System.nanoTime();
+        int[] routeIds = dataProvider.findAllRouteIdsByTwoStopIds(stopId1, stopId2, limit);
+        routeIdsLookup.recordSince(startTime);
+        routeIdsFound.add(routeIds.length);
+        return routeIds;
+    }
+
+    /**
+     * Put bus route into decorated data provider counting successful puts.
+     *
+     * @param routeId
+     *        bus route id
+     *
+     * @param stopIds
+     *        array holding bus route stop ids from position 0
+     *
+     * @param stopCount
+     *        number of bus route stop ids
+     *
+     * @return result of the change
+     */
+    @Override
+    public RouteChangeResult putBusRoute(int routeId, int[] stopIds, int stopCount) {
+        RouteChangeResult result = dataProvider.putBusRoute(routeId, stopIds, stopCount);
+        if (result == RouteChangeResult.APPLIED) routePuts.increment();
+        return result;
+    }
+
+    /**
+     * Delete bus route from decorated data provider counting successful deletes.
+     *
+     * @param routeId
+     *        bus route id
+     *
+     * @return result of the change
+     */
+    @Override
+    public RouteChangeResult deleteBusRoute(int routeId) {
+        RouteChangeResult result = dataProvider.deleteBusRoute(routeId);
+        if (result == RouteChangeResult.APPLIED) routeDeletes.increment();
+        return result;
+    }
+
+    /**
+     * Check if bus routes of decorated data provider can be changed by put and delete.
+     *
+     * @return {@code true} if bus route changes are supported
+     */
+    @Override
+    public boolean isRouteChangeSupported() {
+        return dataProvider.isRouteChangeSupported();
+    }
+
+    /**
+     * Gets the dataset version of decorated data provider.
+     *
+     * @return dataset version
+     */
+    @Override
+    public long getDatasetVersion() {
+        return dataProvider.getDatasetVersion();
+    }
+
+    /**
+     * Gets the value of decorated data provider property {@link MeteredDataProvider.dataProvider}.
+     *
+     * @return decorated data provider
+     */
+    public DataProvider getDataProvider() {
+        return dataProvider;
+    }
+}
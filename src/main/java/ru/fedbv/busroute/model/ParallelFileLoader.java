@@ -0,0 +1,666 @@
+package ru.fedbv.busroute.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parallel source file loader.
+ * The file is memory-mapped and split into chunks on line boundaries. Chunks are parsed in parallel
+ * on fork-join pool with byte level parser into compact {@link RouteStorageBuilder},
+ * parsed bus routes are added into data provider storage in file order by the loading thread.
+ * Streamed data is read into chunks of fixed size ending on line boundaries, which are parsed the same way
+ * as soon as they are read, so memory used by the stream does not depend on its size.
+ * On incremental reload parsed bus routes are compared with loaded ones by {@link RouteDiff} instead.
+ * Parsed bytes, lines and errors are added to {@link LoadProgress} once per chunk, the load stops between chunks
+ * when it is cancelled.
+ */
+public class ParallelFileLoader {
+    public static Logger logger = LoggerFactory.getLogger(ParallelFileLoader.class);
+
+    /**
+     * Minimal chunk size in bytes
+     */
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+
+    /**
+     * Maximal chunk size in bytes
+     */
+    private static final long MAX_CHUNK_SIZE = 64L << 20;
+
+    /**
+     * Size of chunk read from stream in bytes
+     */
+    private static final int STREAM_CHUNK_SIZE = 4 << 20;
+
+    /**
+     * Error kind of the line with less than 3 elements
+     */
+    private static final int ERROR_COUNT = 1;
+
+    /**
+     * Error kind of the line with not a number element
+     */
+    private static final int ERROR_NUMBER = 2;
+
+    /**
+     * Error kind of the line with reserved bus route id {@link DataProvider#NO_ROUTE}
+     */
+    private static final int ERROR_ROUTE_ID = 3;
+
+    /**
+     * Data provider to load data into
+     */
+    private final AbstractDataProvider dataProvider;
+
+    /**
+     * Number of parser threads
+     */
+    private final int threads;
+
+    /**
+     * Storage collecting successfully added bus routes, {@code null} if not needed
+     */
+    private RouteStorageBuilder loadedRoutes;
+
+    /**
+     * Stop fingerprints of successfully added bus routes by route id, {@code null} if not needed
+     */
+    private IntLongHashMap fingerprints;
+
+    /**
+     * Diff receiving parsed bus routes instead of data provider, {@code null} if data is loaded completely
+     */
+    private RouteDiff routeDiff;
+
+    /**
+     * Progress of the load updated after each parsed chunk
+     */
+    private LoadProgress progress = new LoadProgress();
+
+    /**
+     * Number of added bus routes with id added before property
+     */
+    private int duplicateCount;
+
+    /**
+     * Processed lines including header line property
+     */
+    private int lineCount;
+
+    /**
+     * Number of loaded lines property
+     */
+    private int loadCount;
+
+    /**
+     * Number of error lines property
+     */
+    private int errorCount;
+
+    /**
+     * Constructs new loader
+     *
+     * @param dataProvider
+     *        data provider to load data into
+     *
+     * @param threads
+     *        number of parser threads
+     */
+    public ParallelFileLoader(AbstractDataProvider dataProvider, int threads) {
+        this.dataProvider = dataProvider;
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * Load source file into data provider storage.
+     * The first line is estimated lines count, which is passed to {@link DataProvider#createDataStore(int)}.
+     * If route diff is set, data store is not created and parsed bus routes are passed to the diff.
+     *
+     * @param path
+     *        source data file path
+     *
+     * @throws IOException if the file can not be read
+     *
+     * @throws CancellationException if the load is cancelled by {@link LoadProgress#cancel()}
+     */
+    public void load(Path path) throws IOException {
+        long startTime = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) return;
+
+            progress.start(size);
+            long headerEnd = findLineEnd(channel, 0, size);
+            processHeader(channel.map(FileChannel.MapMode.READ_ONLY, 0, headerEnd), (int) headerEnd);
+            lineCount = 1;
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                loadChunks(channel, Math.min(headerEnd + 1, size), size, pool);
+            } finally {
+                pool.shutdownNow();
+            }
+
+            double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+            logger.info(String.format("Loaded %d lines, %.1f MB in %.3f s: %.1f MB/s, %.0f lines/s, %d threads",
+                    lineCount, size / 1048576.0, seconds, size / 1048576.0 / seconds, lineCount / seconds, threads));
+        }
+    }
+
+    /**
+     * Load source data stream into data provider storage. Data is read in chunks ending on line boundaries,
+     * not more than two chunks per parser thread are kept in memory.
+     * The first line is estimated lines count, which is passed to {@link DataProvider#createDataStore(int)}.
+     *
+     * @param in
+     *        source data stream, not closed by the method
+     *
+     * @throws IOException if the stream can not be read
+     *
+     * @throws CancellationException if the load is cancelled by {@link LoadProgress#cancel()}
+     */
+    public void load(InputStream in) throws IOException {
+        long startTime = System.nanoTime();
+        long size = 0;
+        byte[] data = new byte[STREAM_CHUNK_SIZE];
+        int length = 0;
+        boolean header = true;
+        boolean eof = false;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayDeque<ForkJoinTask<ChunkResult>> tasks = new ArrayDeque<ForkJoinTask<ChunkResult>>();
+        progress.start(-1);
+        try {
+            while (true) {
+                while (!eof && length < data.length) {
+                    int read = in.read(data, length, data.length - length);
+                    if (read < 0) {
+                        eof = true;
+                    } else {
+                        length += read;
+                        size += read;
+                    }
+                }
+                if (header && eof && length == 0) return;
+
+                int end = eof ? length : lastLineEnd(data, length) + 1;
+                if (end == 0 && !eof) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                    continue;
+                }
+
+                int begin = 0;
+                if (header) {
+                    int headerEnd = 0;
+                    while (headerEnd < end && data[headerEnd] != '\n') {
+                        headerEnd++;
+                    }
+                    processHeader(ByteBuffer.wrap(data, 0, headerEnd).slice(), headerEnd);
+                    lineCount = 1;
+                    header = false;
+                    begin = Math.min(headerEnd + 1, end);
+                }
+                if (end > begin) {
+                    ByteBuffer buffer = ByteBuffer.wrap(data, begin, end - begin).slice();
+                    tasks.add(pool.submit(() -> parseChunk(buffer)));
+                }
+
+                byte[] next = new byte[Math.max(STREAM_CHUNK_SIZE, (length - end) * 2)];
+                System.arraycopy(data, end, next, 0, length - end);
+                data = next;
+                length -= end;
+                while (tasks.size() >= threads * 2 || (eof && !tasks.isEmpty())) {
+                    mergeChunk(join(tasks.poll()));
+                }
+                if (eof) break;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+        logger.info(String.format("Loaded %d lines, %.1f MB stream in %.3f s: %.1f MB/s, %.0f lines/s, %d threads",
+                lineCount, size / 1048576.0, seconds, size / 1048576.0 / seconds, lineCount / seconds, threads));
+    }
+
+    /**
+     * Sets the storage collecting successfully added bus routes.
+     *
+     * @param loadedRoutes
+     *        storage collecting bus routes or {@code null}
+     */
+    public void setLoadedRoutes(RouteStorageBuilder loadedRoutes) {
+        this.loadedRoutes = loadedRoutes;
+    }
+
+    /**
+     * Sets the map collecting stop fingerprints of successfully added bus routes.
+     *
+     * @param fingerprints
+     *        map collecting fingerprints by route id or {@code null}
+     */
+    public void setFingerprints(IntLongHashMap fingerprints) {
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Sets the diff receiving parsed bus routes instead of data provider.
+     *
+     * @param routeDiff
+     *        route diff or {@code null}
+     */
+    public void setRouteDiff(RouteDiff routeDiff) {
+        this.routeDiff = routeDiff;
+    }
+
+    /**
+     * Sets the progress of the load updated after each parsed chunk.
+     *
+     * @param progress
+     *        load progress, {@code null} if progress is not needed
+     */
+    public void setProgress(LoadProgress progress) {
+        this.progress = progress != null ? progress : new LoadProgress();
+    }
+
+    /**
+     * Gets the number of added bus routes with id, which was added before.
+     *
+     * @return number of duplicate bus routes
+     */
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Gets the number of processed lines including header line.
+     *
+     * @return number of lines
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Gets the number of loaded lines.
+     *
+     * @return number of loaded lines
+     */
+    public int getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * Gets the number of error lines.
+     *
+     * @return number of error lines
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Parse estimated lines count and create data store.
+     *
+     * @param header
+     *        header line bytes
+     *
+     * @param headerEnd
+     *        position of header line end
+     */
+    private void processHeader(ByteBuffer header, int headerEnd) {
+        long estimatedLinesCount = parseInt(header, 0, trimLineEnd(header, 0, headerEnd));
+        if (estimatedLinesCount == Long.MIN_VALUE) {
+            logger.error("Error line 0 parsing: the line should contain only numbers");
+            progress.add(headerEnd + 1, 1, 0);
+            return;
+        }
+        if (routeDiff == null) {
+            dataProvider.createDataStore((int) estimatedLinesCount);
+        }
+        logger.info("Estimated lines count: " + estimatedLinesCount);
+        progress.add(headerEnd + 1, 1, 0);
+    }
+
+    /**
+     * Split file into chunks, parse them in parallel and add parsed bus routes into storage in file order.
+     * Number of chunks being parsed at the same time is limited, so parsed data does not wait in memory for long.
+     *
+     * @param channel
+     *        source file channel
+     *
+     * @param begin
+     *        position of the first data line
+     *
+     * @param size
+     *        file size
+     *
+     * @param pool
+     *        parser threads pool
+     *
+     * @throws IOException if the file can not be read
+     */
+    private void loadChunks(FileChannel channel, long begin, long size, ForkJoinPool pool) throws IOException {
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, (size - begin) / (threads * 4L) + 1));
+        ArrayDeque<ForkJoinTask<ChunkResult>> tasks = new ArrayDeque<ForkJoinTask<ChunkResult>>();
+        long position = begin;
+        while (position < size || !tasks.isEmpty()) {
+            while (position < size && tasks.size() < threads * 2) {
+                long end = findLineEnd(channel, Math.min(position + chunkSize, size) - 1, size) + 1;
+                end = Math.min(end, size);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, end - position);
+                tasks.add(pool.submit(() -> parseChunk(buffer)));
+                position = end;
+            }
+            mergeChunk(join(tasks.poll()));
+        }
+    }
+
+    /**
+     * Wait for chunk parsing result.
+     *
+     * @param task
+     *        chunk parsing task
+     *
+     * @return chunk parsing result
+     *
+     * @throws IOException if chunk parsing failed
+     */
+    private static ChunkResult join(ForkJoinTask<ChunkResult> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Loading interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Chunk parsing failed", e.getCause());
+        }
+    }
+
+    /**
+     * Add parsed bus routes of the chunk into storage or route diff and log error lines with their file line numbers.
+     * Load progress is updated after the chunk is added.
+     *
+     * @param chunk
+     *        chunk parsing result
+     *
+     * @throws CancellationException if the load is cancelled by {@link LoadProgress#cancel()}
+     */
+    private void mergeChunk(ChunkResult chunk) {
+        int chunkErrorCount = errorCount;
+        for (int i = 0; i < chunk.errorLines.size(); i++) {
+            int line = lineCount + chunk.errorLines.get(i);
+            if (chunk.errorKinds.get(i) == ERROR_COUNT) {
+                logger.error("Error line " + line + " parsing: the line elements count is less then 3");
+            } else if (chunk.errorKinds.get(i) == ERROR_ROUTE_ID) {
+                logger.error("Error line " + line + " parsing: bus route id " + DataProvider.NO_ROUTE + " is reserved");
+            } else {
+                logger.error("Error line " + line + " parsing: the line should contain only numbers");
+            }
+        }
+        errorCount += chunk.errorLines.size();
+
+        RouteStorage routes = chunk.routes.build();
+        int[] stopIds = new int[64];
+        for (int routeIndex = 0; routeIndex < routes.size(); routeIndex++) {
+            int stopCount = routes.getStopCount(routeIndex);
+            if (stopCount > stopIds.length) {
+                stopIds = new int[stopCount];
+            }
+            System.arraycopy(routes.getStopIds(), routes.getOffset(routeIndex), stopIds, 0, stopCount);
+            if (routeDiff != null) {
+                routeDiff.add(routes.getRouteId(routeIndex), stopIds, stopCount);
+                loadCount++;
+            } else if (dataProvider.addBusRoute(routes.getRouteId(routeIndex), stopIds, stopCount)) {
+                loadCount++;
+                if (loadedRoutes != null) {
+                    loadedRoutes.add(routes.getRouteId(routeIndex), stopIds, stopCount);
+                }
+                if (fingerprints != null && !fingerprints.put(routes.getRouteId(routeIndex), RouteChanges.fingerprint(stopIds, 0, stopCount))) {
+                    duplicateCount++;
+                }
+            } else {
+                errorCount++;
+            }
+        }
+        lineCount += chunk.lineCount;
+        progress.add(chunk.byteCount, chunk.lineCount, errorCount - chunkErrorCount);
+        progress.checkCancelled();
+    }
+
+    /**
+     * Parse all lines of the chunk. Runs on parser thread.
+     *
+     * @param buffer
+     *        chunk data, starts at line start and ends after line end or at file end
+     *
+     * @return chunk parsing result
+     */
+    private static ChunkResult parseChunk(ByteBuffer buffer) {
+        ChunkResult chunk = new ChunkResult(buffer.limit() / 256);
+        chunk.byteCount = buffer.limit();
+        int[] values = new int[64];
+        int limit = buffer.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+
+            int end = trimLineEnd(buffer, lineStart, lineEnd);
+            while (end > lineStart && buffer.get(end - 1) == ' ') {
+                end--;
+            }
+
+            int count = 0;
+            boolean valid = true;
+            int position = lineStart;
+            while (end > lineStart && position <= end) {
+                int separator = position;
+                while (separator < end && buffer.get(separator) != ' ') {
+                    separator++;
+                }
+                if (count == values.length) {
+                    int[] grown = new int[count * 2];
+                    System.arraycopy(values, 0, grown, 0, count);
+                    values = grown;
+                }
+                long value = parseInt(buffer, position, separator);
+                if (value == Long.MIN_VALUE) {
+                    valid = false;
+                } else {
+                    values[count] = (int) value;
+                }
+                count++;
+                position = separator + 1;
+            }
+
+            if (count < 3) {
+                chunk.addError(ERROR_COUNT);
+            } else if (!valid) {
+                chunk.addError(ERROR_NUMBER);
+            } else if (values[0] == DataProvider.NO_ROUTE) {
+                chunk.addError(ERROR_ROUTE_ID);
+            } else {
+                chunk.routes.add(values[0], shift(values, count), count - 1);
+            }
+            chunk.lineCount++;
+            lineStart = lineEnd + 1;
+        }
+        return chunk;
+    }
+
+    /**
+     * Shift stop ids to the beginning of the values buffer after bus route id.
+     *
+     * @param values
+     *        bus route id followed by stop ids
+     *
+     * @param count
+     *        number of values
+     *
+     * @return values buffer holding stop ids from position 0
+     */
+    private static int[] shift(int[] values, int count) {
+        System.arraycopy(values, 1, values, 0, count - 1);
+        return values;
+    }
+
+    /**
+     * Parse integer value from bytes like {@link Integer#parseInt(String)} does, without allocation.
+     *
+     * @param buffer
+     *        bytes buffer
+     *
+     * @param begin
+     *        value begin position
+     *
+     * @param end
+     *        value end position (exclusive)
+     *
+     * @return parsed value or {@code Long.MIN_VALUE} if bytes are not an integer value
+     */
+    private static long parseInt(ByteBuffer buffer, int begin, int end) {
+        if (begin >= end) return Long.MIN_VALUE;
+        boolean negative = false;
+        byte first = buffer.get(begin);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++begin == end) return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (int i = begin; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) return Long.MIN_VALUE;
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L) return Long.MIN_VALUE;
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? Long.MIN_VALUE : value;
+    }
+
+    /**
+     * Exclude carriage return before line end.
+     *
+     * @param buffer
+     *        bytes buffer
+     *
+     * @param lineStart
+     *        line start position
+     *
+     * @param lineEnd
+     *        line end position (exclusive)
+     *
+     * @return line end position without carriage return
+     */
+    private static int trimLineEnd(ByteBuffer buffer, int lineStart, int lineEnd) {
+        return lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+    }
+
+    /**
+     * Find position of the last line feed in bytes read from stream.
+     *
+     * @param data
+     *        bytes read from stream
+     *
+     * @param length
+     *        number of bytes read
+     *
+     * @return line feed position or {@code -1} if there is no line feed
+     */
+    private static int lastLineEnd(byte[] data, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (data[i] == '\n') return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Find position of the line feed at or after specified position.
+     *
+     * @param channel
+     *        source file channel
+     *
+     * @param position
+     *        position to start search from
+     *
+     * @param size
+     *        file size
+     *
+     * @return line feed position or file size if there is no line feed
+     *
+     * @throws IOException if the file can not be read
+     */
+    private static long findLineEnd(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') return position + i;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Chunk parsing result
+     */
+    private static final class ChunkResult {
+        /**
+         * Parsed bus routes
+         */
+        final RouteStorageBuilder routes;
+
+        /**
+         * Error line numbers relative to the chunk start
+         */
+        final IntList errorLines = new IntList();
+
+        /**
+         * Error kinds of error lines
+         */
+        final IntList errorKinds = new IntList();
+
+        /**
+         * Number of chunk lines
+         */
+        int lineCount;
+
+        /**
+         * Number of chunk bytes
+         */
+        int byteCount;
+
+        ChunkResult(int capacity) {
+            routes = new RouteStorageBuilder(capacity);
+        }
+
+        /**
+         * Register error of the current line.
+         *
+         * @param kind
+         *        error kind
+         */
+        void addError(int kind) {
+            errorLines.add(lineCount);
+            errorKinds.add(kind);
+        }
+    }
+}
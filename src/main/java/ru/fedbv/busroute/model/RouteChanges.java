@@ -0,0 +1,121 @@
+package ru.fedbv.busroute.model;
+
+/**
+ * Changes of bus routes found by comparing source file with loaded data, applied by incremental reload.
+ * Added and updated routes are kept with their new stops, deleted routes are kept by id.
+ */
+public class RouteChanges {
+    /**
+     * Added and updated bus routes property
+     */
+    private final RouteStorage routes;
+
+    /**
+     * Ids of deleted bus routes property
+     */
+    private final int[] deletedRouteIds;
+
+    /**
+     * Number of added bus routes property
+     */
+    private final int addedCount;
+
+    /**
+     * Constructs new bus route changes
+     *
+     * @param routes
+     *        added and updated bus routes
+     *
+     * @param deletedRouteIds
+     *        ids of deleted bus routes
+     *
+     * @param addedCount
+     *        number of added bus routes
+     */
+    public RouteChanges(RouteStorage routes, int[] deletedRouteIds, int addedCount) {
+        this.routes = routes;
+        this.deletedRouteIds = deletedRouteIds;
+        this.addedCount = addedCount;
+    }
+
+    /**
+     * Calculate 64-bit fingerprint of bus route stops, used to find changed routes without keeping their stops.
+     *
+     * @param stopIds
+     *        array holding bus route stop ids
+     *
+     * @param offset
+     *        position of the first stop id
+     *
+     * @param count
+     *        number of stop ids
+     *
+     * @return stops fingerprint
+     */
+    public static long fingerprint(int[] stopIds, int offset, int count) {
+        long hash = count * 0x9E3779B97F4A7C15L;
+        for (int i = offset, end = offset + count; i < end; i++) {
+            hash = (hash ^ (stopIds[i] & 0xFFFFFFFFL)) * 0x100000001B3L;
+            hash ^= hash >>> 29;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Gets the added and updated bus routes property {@link RouteChanges.routes}.
+     *
+     * @return bus routes storage
+     */
+    public RouteStorage getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Gets the ids of deleted bus routes property {@link RouteChanges.deletedRouteIds}.
+     *
+     * @return deleted bus route ids
+     */
+    public int[] getDeletedRouteIds() {
+        return deletedRouteIds;
+    }
+
+    /**
+     * Gets the number of added bus routes property {@link RouteChanges.addedCount}.
+     *
+     * @return number of added bus routes
+     */
+    public int getAddedCount() {
+        return addedCount;
+    }
+
+    /**
+     * Gets the number of updated bus routes.
+     *
+     * @return number of updated bus routes
+     */
+    public int getUpdatedCount() {
+        return routes.size() - addedCount;
+    }
+
+    /**
+     * Gets the number of deleted bus routes.
+     *
+     * @return number of deleted bus routes
+     */
+    public int getDeletedCount() {
+        return deletedRouteIds.length;
+    }
+
+    /**
+     * Check if there are no changes.
+     *
+     * @return {@code true} if no bus route is added, updated or deleted
+     */
+    public boolean isEmpty() {
+        return routes.size() == 0 && deletedRouteIds.length == 0;
+    }
+}
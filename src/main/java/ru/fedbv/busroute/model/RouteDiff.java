@@ -0,0 +1,140 @@
+package ru.fedbv.busroute.model;
+
+/**
+ * Comparison of parsed source file bus routes with fingerprints of loaded bus routes.
+ * Only stops of added and updated routes are kept, unchanged routes are counted and dropped,
+ * routes which are not found in the file are deleted. Diff is not thread safe, routes are added by loading thread.
+ */
+public class RouteDiff {
+    /**
+     * Stop fingerprints of loaded bus routes by route id, not changed by the diff
+     */
+    private final IntLongHashMap fingerprints;
+
+    /**
+     * Flags of loaded bus routes found in the file by fingerprints slot
+     */
+    private final boolean[] seen;
+
+    /**
+     * Added and updated bus routes
+     */
+    private final RouteStorageBuilder changedRoutes = new RouteStorageBuilder(64);
+
+    /**
+     * Stop fingerprints of added and updated bus routes by route id
+     */
+    private final IntLongHashMap changedFingerprints = new IntLongHashMap(64);
+
+    /**
+     * Number of added bus routes property
+     */
+    private int addedCount;
+
+    /**
+     * Number of unchanged bus routes property
+     */
+    private int unchangedCount;
+
+    /**
+     * Source file has duplicate bus route ids property
+     */
+    private boolean duplicate;
+
+    /**
+     * Constructs new diff against loaded bus routes
+     *
+     * @param fingerprints
+     *        stop fingerprints of loaded bus routes by route id
+     */
+    public RouteDiff(IntLongHashMap fingerprints) {
+        this.fingerprints = fingerprints;
+        this.seen = new boolean[fingerprints.capacity()];
+    }
+
+    /**
+     * Compare parsed bus route with loaded one.
+     *
+     * @param routeId
+     *        bus route id
+     *
+     * @param stopIds
+     *        array holding bus route stop ids from position 0
+     *
+     * @param stopCount
+     *        number of bus route stop ids
+     */
+    public void add(int routeId, int[] stopIds, int stopCount) {
+        long fingerprint = RouteChanges.fingerprint(stopIds, 0, stopCount);
+        int slot = fingerprints.find(routeId);
+        if (slot >= 0) {
+            if (seen[slot]) {
+                duplicate = true;
+                return;
+            }
+            seen[slot] = true;
+            if (fingerprints.valueAt(slot) == fingerprint) {
+                unchangedCount++;
+                return;
+            }
+        } else if (changedFingerprints.containsKey(routeId)) {
+            duplicate = true;
+            return;
+        } else {
+            addedCount++;
+        }
+        changedFingerprints.put(routeId, fingerprint);
+        changedRoutes.add(routeId, stopIds, stopCount);
+    }
+
+    /**
+     * Gets the changes found by the diff. Loaded bus routes not found in the file are deleted.
+     *
+     * @return bus route changes
+     */
+    public RouteChanges getChanges() {
+        IntList deletedRouteIds = new IntList();
+        for (int slot = 0; slot < seen.length; slot++) {
+            if (fingerprints.isUsed(slot) && !seen[slot]) {
+                deletedRouteIds.add(fingerprints.keyAt(slot));
+            }
+        }
+        return new RouteChanges(changedRoutes.build(), deletedRouteIds.toArray(), addedCount);
+    }
+
+    /**
+     * Update fingerprints of loaded bus routes after changes are applied.
+     *
+     * @param changes
+     *        applied bus route changes
+     */
+    public void applyTo(RouteChanges changes) {
+        for (int routeId : changes.getDeletedRouteIds()) {
+            fingerprints.remove(routeId);
+        }
+        for (int slot = 0; slot < changedFingerprints.capacity(); slot++) {
+            if (changedFingerprints.isUsed(slot)) {
+                fingerprints.put(changedFingerprints.keyAt(slot), changedFingerprints.valueAt(slot));
+            }
+        }
+    }
+
+    /**
+     * Gets the number of unchanged bus routes property {@link RouteDiff.unchangedCount}.
+     *
+     * @return number of unchanged bus routes
+     */
+    public int getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /**
+     * Gets the duplicate property {@link RouteDiff.duplicate}.
+     * Bus routes with the same id can not be matched with loaded routes, so such file is loaded completely.
+     *
+     * @return {@code true} if source file has duplicate bus route ids
+     */
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+}
@@ -0,0 +1,458 @@
+package ru.fedbv.busroute.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of loaded bus routes.
+ * Snapshot layout (big-endian):
+ * <pre>
+ * int    magic           'BRSN'
+ * int    format version
+ * long   dataset version
+ * long   source size     size of parsed source file or {@code -1}
+ * long   source time     last modified time of parsed source file in milliseconds or {@code -1}
+ * int    error count     number of source file error lines
+ * int    route count     N
+ * int    stop count      M
+ * int[N] route ids
+ * int[N + 1] offsets
+ * int[M] stop ids
+ * long   CRC32 of all previous bytes
+ * </pre>
+ * The same layout is streamed between service instances by snapshot replication, source size and time are {@code -1}
+ * in snapshots of published data.
+ */
+public class RouteSnapshot {
+    /**
+     * Snapshot file magic number
+     */
+    public static final int MAGIC = 0x4252534E;
+
+    /**
+     * Current snapshot format version
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    /**
+     * Header size in bytes
+     */
+    private static final int HEADER_SIZE = 44;
+
+    /**
+     * Size of read and write buffer in bytes
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Dataset version property
+     */
+    private final long datasetVersion;
+
+    /**
+     * Size of parsed source file property, {@code -1} if snapshot is not written for source file
+     */
+    private final long sourceSize;
+
+    /**
+     * Last modified time of parsed source file in milliseconds property, {@code -1} if snapshot is not written for source file
+     */
+    private final long sourceTime;
+
+    /**
+     * Number of source file error lines property
+     */
+    private final int errorCount;
+
+    /**
+     * Bus routes property
+     */
+    private final RouteStorage routes;
+
+    /**
+     * Constructs new snapshot
+     *
+     * @param datasetVersion
+     *        dataset version
+     *
+     * @param errorCount
+     *        number of source file error lines
+     *
+     * @param routes
+     *        bus routes
+     */
+    public RouteSnapshot(long datasetVersion, int errorCount, RouteStorage routes) {
+        this(datasetVersion, -1, -1, errorCount, routes);
+    }
+
+    /**
+     * Constructs new snapshot of parsed source file
+     *
+     * @param datasetVersion
+     *        dataset version
+     *
+     * @param sourceSize
+     *        size of parsed source file or {@code -1}
+     *
+     * @param sourceTime
+     *        last modified time of parsed source file in milliseconds or {@code -1}
+     *
+     * @param errorCount
+     *        number of source file error lines
+     *
+     * @param routes
+     *        bus routes
+     */
+    public RouteSnapshot(long datasetVersion, long sourceSize, long sourceTime, int errorCount, RouteStorage routes) {
+        this.datasetVersion = datasetVersion;
+        this.sourceSize = sourceSize;
+        this.sourceTime = sourceTime;
+        this.errorCount = errorCount;
+        this.routes = routes;
+    }
+
+    /**
+     * Gets the dataset version.
+     *
+     * @return dataset version
+     */
+    public long getDatasetVersion() {
+        return datasetVersion;
+    }
+
+    /**
+     * Gets the size of parsed source file.
+     *
+     * @return source file size or {@code -1}
+     */
+    public long getSourceSize() {
+        return sourceSize;
+    }
+
+    /**
+     * Gets the last modified time of parsed source file.
+     *
+     * @return source file time in milliseconds or {@code -1}
+     */
+    public long getSourceTime() {
+        return sourceTime;
+    }
+
+    /**
+     * Gets the number of source file error lines.
+     *
+     * @return number of error lines
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Gets the bus routes.
+     *
+     * @return bus routes storage
+     */
+    public RouteStorage getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Gets the snapshot size in bytes. Deleted bus routes of incrementally updated storage are not counted.
+     *
+     * @return snapshot size in bytes
+     */
+    public long getSize() {
+        int routeCount = 0;
+        long stopCount = 0;
+        for (int routeIndex = 0; routeIndex < routes.size(); routeIndex++) {
+            if (!routes.isDeleted(routeIndex)) {
+                routeCount++;
+                stopCount += routes.getStopCount(routeIndex);
+            }
+        }
+        return getSize(routeCount, stopCount);
+    }
+
+    /**
+     * Write snapshot into file. Data is written into unique temporary file in the same directory first, which atomically
+     * replaces target file when it is complete, so concurrent writers never write into the same file.
+     * Deleted bus routes of incrementally updated storage are not written.
+     *
+     * @param path
+     *        snapshot file path
+     *
+     * @throws IOException if the file can not be written
+     */
+    public void write(Path path) throws IOException {
+        Path tmpPath = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.WRITE)) {
+                write(channel);
+                channel.force(true);
+            }
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    /**
+     * Write snapshot into channel. Deleted bus routes of incrementally updated storage are not written.
+     *
+     * @param channel
+     *        target channel, not closed by the method
+     *
+     * @throws IOException if the channel can not be written
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+        RouteStorage liveRoutes = routes.hasDeleted() ? routes.withoutDeleted() : routes;
+        CRC32 crc = new CRC32();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(datasetVersion).putLong(sourceSize).putLong(sourceTime).putInt(errorCount)
+              .putInt(liveRoutes.size()).putInt(liveRoutes.getTotalStopCount());
+        header.flip();
+        write(channel, crc, header);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        writeInts(channel, crc, buffer, liveRoutes.getRouteIds(), liveRoutes.size());
+        writeInts(channel, crc, buffer, liveRoutes.getOffsets(), liveRoutes.size() + 1);
+        writeInts(channel, crc, buffer, liveRoutes.getStopIds(), liveRoutes.getTotalStopCount());
+
+        ByteBuffer checksum = ByteBuffer.allocate(8);
+        checksum.putLong(crc.getValue());
+        checksum.flip();
+        while (checksum.hasRemaining()) {
+            channel.write(checksum);
+        }
+    }
+
+    /**
+     * Read snapshot from file with bulk read into primitive arrays.
+     * Source file size and time are checked by header before bus routes are read.
+     *
+     * @param path
+     *        snapshot file path
+     *
+     * @param sourceSize
+     *        expected size of source file or {@code -1} to skip the check
+     *
+     * @param sourceTime
+     *        expected last modified time of source file in milliseconds or {@code -1} to skip the check
+     *
+     * @return snapshot or {@code null} if the snapshot was written for another version of source file
+     *
+     * @throws IOException if the file can not be read, has unsupported format version or wrong checksum
+     */
+    public static RouteSnapshot read(Path path, long sourceSize, long sourceTime) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel, channel.size(), path.toString(), sourceSize, sourceTime);
+        }
+    }
+
+    /**
+     * Read snapshot from channel with bulk read into primitive arrays.
+     * Arrays are allocated by header counts, so the size announced by the sender should be passed to check them.
+     *
+     * @param channel
+     *        source channel, not closed by the method
+     *
+     * @param size
+     *        expected snapshot size in bytes or {@code -1} if it is unknown
+     *
+     * @param name
+     *        snapshot name for error messages
+     *
+     * @return snapshot
+     *
+     * @throws IOException if the channel can not be read, has unsupported format version, wrong size or wrong checksum
+     */
+    public static RouteSnapshot read(ReadableByteChannel channel, long size, String name) throws IOException {
+        return read(channel, size, name, -1, -1);
+    }
+
+    /**
+     * Read snapshot from channel checking source file size and time by header before bus routes are read.
+     *
+     * @param channel
+     *        source channel, not closed by the method
+     *
+     * @param size
+     *        expected snapshot size in bytes or {@code -1} if it is unknown
+     *
+     * @param name
+     *        snapshot name for error messages
+     *
+     * @param sourceSize
+     *        expected size of source file or {@code -1} to skip the check
+     *
+     * @param sourceTime
+     *        expected last modified time of source file in milliseconds or {@code -1} to skip the check
+     *
+     * @return snapshot or {@code null} if the snapshot was written for another version of source file
+     *
+     * @throws IOException if the channel can not be read, has unsupported format version, wrong size or wrong checksum
+     */
+    private static RouteSnapshot read(ReadableByteChannel channel, long size, String name, long sourceSize, long sourceTime) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header);
+        header.flip();
+        crc.update(header.array(), 0, HEADER_SIZE);
+
+        if (header.getInt() != MAGIC) throw new IOException("Not a bus routes snapshot: " + name);
+        int formatVersion = header.getInt();
+        if (formatVersion != FORMAT_VERSION) throw new IOException("Unsupported snapshot format version " + formatVersion + ": " + name);
+        long datasetVersion = header.getLong();
+        long snapshotSourceSize = header.getLong();
+        long snapshotSourceTime = header.getLong();
+        if ((sourceSize >= 0 && sourceSize != snapshotSourceSize) || (sourceTime >= 0 && sourceTime != snapshotSourceTime)) return null;
+        int errorCount = header.getInt();
+        int routeCount = header.getInt();
+        int stopCount = header.getInt();
+        if (routeCount < 0 || stopCount < 0 || (size >= 0 && size != getSize(routeCount, stopCount))) {
+            throw new IOException("Snapshot size does not match its header: " + name);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        int[] routeIds = readInts(channel, crc, buffer, new int[routeCount]);
+        int[] offsets = readInts(channel, crc, buffer, new int[routeCount + 1]);
+        int[] stopIds = readInts(channel, crc, buffer, new int[stopCount]);
+
+        ByteBuffer checksum = ByteBuffer.allocate(8);
+        readFully(channel, checksum);
+        checksum.flip();
+        if (checksum.getLong() != crc.getValue()) throw new IOException("Snapshot checksum mismatch: " + name);
+
+        return new RouteSnapshot(datasetVersion, snapshotSourceSize, snapshotSourceTime, errorCount, new RouteStorage(routeIds, offsets, stopIds));
+    }
+
+    /**
+     * Calculate snapshot size in bytes.
+     *
+     * @param routeCount
+     *        number of bus routes
+     *
+     * @param stopCount
+     *        total number of bus route stops
+     *
+     * @return snapshot size in bytes
+     */
+    private static long getSize(long routeCount, long stopCount) {
+        return HEADER_SIZE + 4L * (routeCount * 2 + 1 + stopCount) + 8;
+    }
+
+    /**
+     * Write int values through buffer updating checksum.
+     *
+     * @param channel
+     *        channel
+     *
+     * @param crc
+     *        checksum
+     *
+     * @param buffer
+     *        write buffer
+     *
+     * @param values
+     *        values to write
+     *
+     * @param length
+     *        number of values to write from the array beginning
+     *
+     * @throws IOException if the channel can not be written
+     */
+    private static void writeInts(WritableByteChannel channel, CRC32 crc, ByteBuffer buffer, int[] values, int length) throws IOException {
+        int position = 0;
+        while (position < length) {
+            buffer.clear();
+            int count = Math.min(length - position, buffer.capacity() / 4);
+            buffer.asIntBuffer().put(values, position, count);
+            buffer.limit(count * 4);
+            write(channel, crc, buffer);
+            position += count;
+        }
+    }
+
+    /**
+     * Write buffer content updating checksum.
+     *
+     * @param channel
+     *        channel
+     *
+     * @param crc
+     *        checksum
+     *
+     * @param buffer
+     *        buffer to write
+     *
+     * @throws IOException if the channel can not be written
+     */
+    private static void write(WritableByteChannel channel, CRC32 crc, ByteBuffer buffer) throws IOException {
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Read int values through buffer updating checksum.
+     *
+     * @param channel
+     *        channel
+     *
+     * @param crc
+     *        checksum
+     *
+     * @param buffer
+     *        read buffer
+     *
+     * @param values
+     *        array to fill
+     *
+     * @return filled array
+     *
+     * @throws IOException if the channel can not be read
+     */
+    private static int[] readInts(ReadableByteChannel channel, CRC32 crc, ByteBuffer buffer, int[] values) throws IOException {
+        int position = 0;
+        while (position < values.length) {
+            int count = Math.min(values.length - position, buffer.capacity() / 4);
+            buffer.clear();
+            buffer.limit(count * 4);
+            readFully(channel, buffer);
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            IntBuffer ints = buffer.asIntBuffer();
+            ints.get(values, position, count);
+            position += count;
+        }
+        return values;
+    }
+
+    /**
+     * Read bytes until buffer is full.
+     *
+     * @param channel
+     *        channel
+     *
+     * @param buffer
+     *        buffer to fill
+     *
+     * @throws IOException if the channel can not be read or ends too early
+     */
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("Unexpected end of snapshot");
+        }
+    }
+}
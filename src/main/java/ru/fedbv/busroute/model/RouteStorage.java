@@ -0,0 +1,253 @@
+package ru.fedbv.busroute.model;
+
+/**
+ * Compact immutable bus routes storage class.
+ * All routes are kept in primitive arrays: route ids, offsets and concatenated stop ids.
+ * Stops of route with index {@code i} are {@code stopIds[offsets[i]] .. stopIds[offsets[i + 1] - 1]}.
+ * Storage updated by {@link RouteStorageBuilder#view(long[][])} shares arrays with the builder, so arrays can be longer
+ * than used part, and routes replaced or deleted by incremental update stay in arrays marked as deleted.
+ * Deleted routes are marked in bitset split into pages, so update copies only pages of changed routes.
+ */
+public class RouteStorage {
+    /**
+     * Shift of bus route index giving the deleted bitset page, every page holds {@code 65536} routes
+     */
+    static final int DELETED_PAGE_SHIFT = 16;
+
+    /**
+     * Number of {@code long} words of deleted bitset page
+     */
+    static final int DELETED_PAGE_LENGTH = 1 << (DELETED_PAGE_SHIFT - 6);
+
+    /**
+     * Bus route ids property
+     */
+    private final int[] routeIds;
+
+    /**
+     * Offsets of the first route stop in stop ids array property, contains one extra final offset
+     */
+    private final int[] offsets;
+
+    /**
+     * Concatenated stop ids of all routes property
+     */
+    private final int[] stopIds;
+
+    /**
+     * Number of stored bus routes property
+     */
+    private final int size;
+
+    /**
+     * Pages of bitset of deleted bus route indexes property, {@code null} if no route is deleted,
+     * page is {@code null} if no route of the page is deleted
+     */
+    private final long[][] deleted;
+
+    /**
+     * Constructs new bus routes storage over specified arrays
+     *
+     * @param routeIds
+     *        bus route ids
+     *
+     * @param offsets
+     *        offsets of the first route stop, {@code routeIds.length + 1} values
+     *
+     * @param stopIds
+     *        concatenated stop ids
+     */
+    public RouteStorage(int[] routeIds, int[] offsets, int[] stopIds) {
+        this(routeIds, offsets, stopIds, routeIds.length, null);
+    }
+
+    /**
+     * Constructs new bus routes storage over used part of specified arrays
+     *
+     * @param routeIds
+     *        bus route ids
+     *
+     * @param offsets
+     *        offsets of the first route stop, at least {@code size + 1} values
+     *
+     * @param stopIds
+     *        concatenated stop ids
+     *
+     * @param size
+     *        number of bus routes
+     *
+     * @param deleted
+     *        pages of bitset of deleted bus route indexes or {@code null}
+     */
+    RouteStorage(int[] routeIds, int[] offsets, int[] stopIds, int size, long[][] deleted) {
+        this.routeIds = routeIds;
+        this.offsets = offsets;
+        this.stopIds = stopIds;
+        this.size = size;
+        this.deleted = deleted;
+    }
+
+    /**
+     * Gets the number of stored bus routes including deleted ones.
+     *
+     * @return number of bus routes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of stored stop ids of all bus routes.
+     *
+     * @return number of stop ids
+     */
+    public int getTotalStopCount() {
+        return offsets[size];
+    }
+
+    /**
+     * Check if bus route with specified index is deleted by incremental update.
+     * Deleted routes are not found by lookups, but keep their index.
+     *
+     * @param index
+     *        bus route index
+     *
+     * @return {@code true} if bus route is deleted
+     */
+    public boolean isDeleted(int index) {
+        if (deleted == null) return false;
+        long[] page = deleted[index >>> DELETED_PAGE_SHIFT];
+        return page != null && (page[(index >>> 6) & (DELETED_PAGE_LENGTH - 1)] & (1L << index)) != 0;
+    }
+
+    /**
+     * Check if storage has deleted bus routes.
+     *
+     * @return {@code true} if some bus route is deleted
+     */
+    public boolean hasDeleted() {
+        return deleted != null;
+    }
+
+    /**
+     * Gets the pages of bitset of deleted bus route indexes.
+     *
+     * @return deleted bus route indexes or {@code null}
+     */
+    long[][] getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Gets the id of bus route with specified index.
+     *
+     * @param index
+     *        bus route index
+     *
+     * @return bus route id
+     */
+    public int getRouteId(int index) {
+        return routeIds[index];
+    }
+
+    /**
+     * Gets the position of the first stop of bus route with specified index in stop ids array.
+     *
+     * @param index
+     *        bus route index
+     *
+     * @return stop ids offset
+     */
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * Gets the number of stops of bus route with specified index.
+     *
+     * @param index
+     *        bus route index
+     *
+     * @return number of stops
+     */
+    public int getStopCount(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    /**
+     * Check if bus route with specified index contains stop id.
+     *
+     * @param index
+     *        bus route index
+     *
+     * @param stopId
+     *        stop id to find
+     *
+     * @return {@code true} if bus route contains the stop
+     */
+    public boolean containsStopId(int index, int stopId) {
+        for (int i = offsets[index], end = offsets[index + 1]; i < end; i++) {
+            if (stopIds[i] == stopId) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Create storage of exact size without deleted bus routes.
+     *
+     * @return bus routes storage
+     */
+    public RouteStorage withoutDeleted() {
+        RouteStorageBuilder liveRoutes = new RouteStorageBuilder(size);
+        int[] routeStopIds = new int[64];
+        for (int index = 0; index < size; index++) {
+            if (isDeleted(index)) continue;
+            int stopCount = getStopCount(index);
+            if (stopCount > routeStopIds.length) {
+                routeStopIds = new int[stopCount];
+            }
+            System.arraycopy(stopIds, offsets[index], routeStopIds, 0, stopCount);
+            liveRoutes.add(routeIds[index], routeStopIds, stopCount);
+        }
+        return liveRoutes.build();
+    }
+
+    /**
+     * Gets the lightweight view of bus route with specified index.
+     *
+     * @param index
+     *        bus route index
+     *
+     * @return {@link BusRoute} view over storage
+     */
+    public BusRoute getBusRoute(int index) {
+        return new BusRoute(routeIds[index], stopIds, offsets[index], getStopCount(index));
+    }
+
+    /**
+     * Gets the bus route ids array, which can be longer than {@link RouteStorage#size()}.
+     *
+     * @return bus route ids
+     */
+    public int[] getRouteIds() {
+        return routeIds;
+    }
+
+    /**
+     * Gets the stop offsets array, which can be longer than {@link RouteStorage#size()} plus one.
+     *
+     * @return offsets of the first route stop
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Gets the concatenated stop ids array, which can be longer than {@link RouteStorage#getTotalStopCount()}.
+     *
+     * @return stop ids
+     */
+    public int[] getStopIds() {
+        return stopIds;
+    }
+}
@@ -0,0 +1,201 @@
+package ru.fedbv.busroute.model;
+
+import java.util.Arrays;
+
+/**
+ * Growable builder of {@link RouteStorage} used on load and on incremental update.
+ * Storage views created by {@link RouteStorageBuilder#view(long[][])} share builder arrays, routes appended later
+ * are written after the used part of the arrays and are not visible to earlier views.
+ */
+public class RouteStorageBuilder {
+    /**
+     * Bus route ids property
+     */
+    private int[] routeIds;
+
+    /**
+     * Offsets of the first route stop property
+     */
+    private int[] offsets;
+
+    /**
+     * Concatenated stop ids property
+     */
+    private int[] stopIds;
+
+    /**
+     * Number of added bus routes property
+     */
+    private int routeCount;
+
+    /**
+     * Number of added stop ids property
+     */
+    private int stopCount;
+
+    /**
+     * Constructs new builder with defined bus routes capacity
+     *
+     * @param capacity
+     *        expected number of bus routes
+     */
+    public RouteStorageBuilder(int capacity) {
+        capacity = Math.max(capacity, 16);
+        routeIds = new int[capacity];
+        offsets = new int[capacity + 1];
+        stopIds = new int[capacity * 8];
+    }
+
+    /**
+     * Constructs new builder appending bus routes after the used part of storage arrays, the arrays are not copied
+     * until they are full. Storage is not changed, but storage arrays should not be appended by another builder.
+     *
+     * @param routes
+     *        bus routes storage to append to
+     */
+    RouteStorageBuilder(RouteStorage routes) {
+        routeCount = routes.size();
+        stopCount = routes.getTotalStopCount();
+        routeIds = routes.getRouteIds();
+        offsets = routes.getOffsets();
+        stopIds = routes.getStopIds();
+    }
+
+    /**
+     * Append bus route.
+     *
+     * @param routeId
+     *        bus route id
+     *
+     * @param routeStopIds
+     *        array holding bus route stop ids from position 0
+     *
+     * @param routeStopCount
+     *        number of bus route stop ids
+     *
+     * @return index of added bus route
+     */
+    public int add(int routeId, int[] routeStopIds, int routeStopCount) {
+        if (routeCount == routeIds.length) {
+            int capacity = routeCount + (routeCount >> 1) + 1;
+            routeIds = Arrays.copyOf(routeIds, capacity);
+            offsets = Arrays.copyOf(offsets, capacity + 1);
+        }
+        if (stopCount + routeStopCount > stopIds.length) {
+            stopIds = Arrays.copyOf(stopIds, Math.max(stopCount + routeStopCount, stopIds.length + (stopIds.length >> 1)));
+        }
+        System.arraycopy(routeStopIds, 0, stopIds, stopCount, routeStopCount);
+        stopCount += routeStopCount;
+        routeIds[routeCount] = routeId;
+        offsets[++routeCount] = stopCount;
+        return routeCount - 1;
+    }
+
+    /**
+     * Append all bus routes of storage with bulk copy of its arrays, deleted bus routes are skipped.
+     * Exactly sized arrays of storage without deleted routes are shared by empty builder instead of copying,
+     * they are never written because any append into full arrays reallocates them first.
+     *
+     * @param routes
+     *        bus routes storage to append
+     *
+     * @return index of the first appended bus route
+     */
+    public int addAll(RouteStorage routes) {
+        int firstIndex = routeCount;
+        if (routes.hasDeleted()) {
+            int[] routeStopIds = new int[64];
+            for (int index = 0; index < routes.size(); index++) {
+                if (routes.isDeleted(index)) continue;
+                int routeStopCount = routes.getStopCount(index);
+                if (routeStopCount > routeStopIds.length) {
+                    routeStopIds = new int[routeStopCount];
+                }
+                System.arraycopy(routes.getStopIds(), routes.getOffset(index), routeStopIds, 0, routeStopCount);
+                add(routes.getRouteId(index), routeStopIds, routeStopCount);
+            }
+            return firstIndex;
+        }
+
+        int addedRouteCount = routes.size();
+        int firstOffset = routes.getOffset(0);
+        int addedStopCount = routes.getOffset(addedRouteCount) - firstOffset;
+        if (routeCount == 0 && firstOffset == 0 && routes.getRouteIds().length == addedRouteCount
+                && routes.getOffsets().length == addedRouteCount + 1 && routes.getStopIds().length == addedStopCount) {
+            routeIds = routes.getRouteIds();
+            offsets = routes.getOffsets();
+            stopIds = routes.getStopIds();
+            routeCount = addedRouteCount;
+            stopCount = addedStopCount;
+            return firstIndex;
+        }
+
+        if (routeCount + addedRouteCount > routeIds.length) {
+            routeIds = Arrays.copyOf(routeIds, routeCount + addedRouteCount);
+            offsets = Arrays.copyOf(offsets, routeCount + addedRouteCount + 1);
+        }
+        if (stopCount + addedStopCount > stopIds.length) {
+            stopIds = Arrays.copyOf(stopIds, stopCount + addedStopCount);
+        }
+        System.arraycopy(routes.getRouteIds(), 0, routeIds, routeCount, addedRouteCount);
+        System.arraycopy(routes.getStopIds(), firstOffset, stopIds, stopCount, addedStopCount);
+        int[] addedOffsets = routes.getOffsets();
+        int offsetShift = stopCount - firstOffset;
+        for (int index = 1; index <= addedRouteCount; index++) {
+            offsets[routeCount + index] = addedOffsets[index] + offsetShift;
+        }
+        routeCount += addedRouteCount;
+        stopCount += addedStopCount;
+        return firstIndex;
+    }
+
+    /**
+     * Gets the number of added bus routes.
+     *
+     * @return number of bus routes
+     */
+    public int size() {
+        return routeCount;
+    }
+
+    /**
+     * Create storage sharing builder arrays, which sees only bus routes added before this call.
+     *
+     * @param deleted
+     *        pages of bitset of deleted bus route indexes or {@code null}
+     *
+     * @return bus routes storage
+     */
+    public RouteStorage view(long[][] deleted) {
+        return new RouteStorage(routeIds, offsets, stopIds, routeCount, deleted);
+    }
+
+    /**
+     * Create storage from added bus routes with arrays trimmed to capacity for specified number of bus routes
+     * to append, see {@link RouteStorageBuilder#RouteStorageBuilder(RouteStorage)}.
+     * Stop ids capacity is reserved for routes of average stop count.
+     *
+     * @param extraCapacity
+     *        number of bus routes to append
+     *
+     * @return bus routes storage
+     */
+    public RouteStorage build(int extraCapacity) {
+        if (extraCapacity <= 0) return build();
+
+        int extraStopCount = (int) Math.min(Integer.MAX_VALUE - stopCount, routeCount > 0 ? ((long) stopCount * extraCapacity + routeCount - 1) / routeCount : extraCapacity * 8L);
+        return new RouteStorage(Arrays.copyOf(routeIds, routeCount + extraCapacity), Arrays.copyOf(offsets, routeCount + extraCapacity + 1),
+                Arrays.copyOf(stopIds, stopCount + extraStopCount), routeCount, null);
+    }
+
+    /**
+     * Create storage of exact size from added bus routes. Exactly sized arrays are shared instead of copying.
+     *
+     * @return bus routes storage
+     */
+    public RouteStorage build() {
+        return new RouteStorage(routeIds.length == routeCount ? routeIds : Arrays.copyOf(routeIds, routeCount),
+                offsets.length == routeCount + 1 ? offsets : Arrays.copyOf(offsets, routeCount + 1),
+                stopIds.length == stopCount ? stopIds : Arrays.copyOf(stopIds, stopCount));
+    }
+}
@@ -0,0 +1,215 @@
+package ru.fedbv.busroute.model;
+
+/**
+ * Result of incremental {@link RouteStorage} update: new storage and indexes of removed and added bus routes.
+ * Stop indexes are updated only for stops of removed and added routes.
+ * If storage was compacted, route indexes of all routes are changed and stop indexes should be built again.
+ */
+public class RouteStorageUpdate {
+    /**
+     * Updated bus routes storage property
+     */
+    private final RouteStorage routes;
+
+    /**
+     * Sorted indexes of removed bus routes property, {@code null} if storage was compacted
+     */
+    private final int[] removedIndexes;
+
+    /**
+     * Sorted indexes of added bus routes property, all of them are greater than indexes of previous storage,
+     * {@code null} if storage was compacted
+     */
+    private final int[] addedIndexes;
+
+    /**
+     * Sorted indexes of removed bus routes by stop id, created on demand
+     */
+    private IntObjectHashMap<IntList> removedByStop;
+
+    /**
+     * Sorted indexes of added bus routes by stop id, created on demand
+     */
+    private IntObjectHashMap<IntList> addedByStop;
+
+    /**
+     * Constructs new storage update
+     *
+     * @param routes
+     *        updated bus routes storage
+     *
+     * @param removedIndexes
+     *        sorted indexes of removed bus routes or {@code null} if storage was compacted
+     *
+     * @param addedIndexes
+     *        sorted indexes of added bus routes or {@code null} if storage was compacted
+     */
+    public RouteStorageUpdate(RouteStorage routes, int[] removedIndexes, int[] addedIndexes) {
+        this.routes = routes;
+        this.removedIndexes = removedIndexes;
+        this.addedIndexes = addedIndexes;
+    }
+
+    /**
+     * Gets the updated bus routes storage property {@link RouteStorageUpdate.routes}.
+     *
+     * @return bus routes storage
+     */
+    public RouteStorage getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Check if storage was compacted, so all bus routes got new indexes.
+     *
+     * @return {@code true} if stop indexes should be built again
+     */
+    public boolean isCompacted() {
+        return removedIndexes == null;
+    }
+
+    /**
+     * Gets the sorted indexes of removed bus routes property {@link RouteStorageUpdate.removedIndexes}.
+     *
+     * @return removed bus route indexes
+     */
+    public int[] getRemovedIndexes() {
+        return removedIndexes;
+    }
+
+    /**
+     * Gets the sorted indexes of added bus routes property {@link RouteStorageUpdate.addedIndexes}.
+     *
+     * @return added bus route indexes
+     */
+    public int[] getAddedIndexes() {
+        return addedIndexes;
+    }
+
+    /**
+     * Gets the ids of stops of removed and added bus routes.
+     *
+     * @return affected stop ids
+     */
+    public int[] getAffectedStopIds() {
+        IntList stopIds = new IntList();
+        IntObjectHashMap<IntList> removed = getRemovedByStop();
+        IntObjectHashMap<IntList> added = getAddedByStop();
+        for (int slot = 0; slot < removed.capacity(); slot++) {
+            if (removed.valueAt(slot) != null) {
+                stopIds.add(removed.keyAt(slot));
+            }
+        }
+        for (int slot = 0; slot < added.capacity(); slot++) {
+            if (added.valueAt(slot) != null && removed.get(added.keyAt(slot)) == null) {
+                stopIds.add(added.keyAt(slot));
+            }
+        }
+        return stopIds.toArray();
+    }
+
+    /**
+     * Gets the sorted indexes of removed bus routes containing stop.
+     *
+     * @param stopId
+     *        stop id
+     *
+     * @return removed bus route indexes or {@code null}
+     */
+    public IntList getRemovedIndexes(int stopId) {
+        return getRemovedByStop().get(stopId);
+    }
+
+    /**
+     * Gets the sorted indexes of added bus routes containing stop.
+     *
+     * @param stopId
+     *        stop id
+     *
+     * @return added bus route indexes or {@code null}
+     */
+    public IntList getAddedIndexes(int stopId) {
+        return getAddedByStop().get(stopId);
+    }
+
+    /**
+     * Update sorted bus route indexes of stop: remove indexes of removed routes and append indexes of added routes.
+     *
+     * @param stopId
+     *        stop id
+     *
+     * @param routeIndexes
+     *        sorted bus route indexes of stop in previous storage or {@code null}
+     *
+     * @return sorted bus route indexes of stop in updated storage
+     */
+    public int[] updateRouteIndexes(int stopId, int[] routeIndexes) {
+        IntList removed = getRemovedIndexes(stopId);
+        IntList added = getAddedIndexes(stopId);
+        int length = routeIndexes != null ? routeIndexes.length : 0;
+        IntList updated = new IntList(length + (added != null ? added.size() : 0));
+        for (int i = 0, r = 0; i < length; i++) {
+            int routeIndex = routeIndexes[i];
+            while (removed != null && r < removed.size() && removed.get(r) < routeIndex) {
+                r++;
+            }
+            if (removed == null || r == removed.size() || removed.get(r) != routeIndex) {
+                updated.add(routeIndex);
+            }
+        }
+        for (int i = 0; added != null && i < added.size(); i++) {
+            updated.add(added.get(i));
+        }
+        return updated.toArray();
+    }
+
+    /**
+     * Gets the sorted indexes of removed bus routes by stop id.
+     *
+     * @return removed bus route indexes by stop id
+     */
+    private IntObjectHashMap<IntList> getRemovedByStop() {
+        if (removedByStop == null) {
+            removedByStop = groupByStop(removedIndexes);
+        }
+        return removedByStop;
+    }
+
+    /**
+     * Gets the sorted indexes of added bus routes by stop id.
+     *
+     * @return added bus route indexes by stop id
+     */
+    private IntObjectHashMap<IntList> getAddedByStop() {
+        if (addedByStop == null) {
+            addedByStop = groupByStop(addedIndexes);
+        }
+        return addedByStop;
+    }
+
+    /**
+     * Group bus route indexes by stops of the routes.
+     *
+     * @param routeIndexes
+     *        sorted bus route indexes
+     *
+     * @return sorted distinct bus route indexes by stop id
+     */
+    private IntObjectHashMap<IntList> groupByStop(int[] routeIndexes) {
+        IntObjectHashMap<IntList> groups = new IntObjectHashMap<IntList>(routeIndexes.length * 4);
+        int[] stopIds = routes.getStopIds();
+        for (int routeIndex : routeIndexes) {
+            for (int i = routes.getOffset(routeIndex), end = routes.getOffset(routeIndex + 1); i < end; i++) {
+                IntList group = groups.get(stopIds[i]);
+                if (group == null) {
+                    group = new IntList(4);
+                    groups.put(stopIds[i], group);
+                }
+                if (group.size() == 0 || group.get(group.size() - 1) != routeIndex) {
+                    group.add(routeIndex);
+                }
+            }
+        }
+        return groups;
+    }
+}
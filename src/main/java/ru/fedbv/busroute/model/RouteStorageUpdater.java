@@ -0,0 +1,195 @@
+package ru.fedbv.busroute.model;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incremental updater of published {@link RouteStorage}.
+ * Added and updated bus routes are appended after the used part of storage arrays, so loaded storage should be
+ * created with reserved capacity by {@link RouteStorageUpdater#build(RouteStorageBuilder)} and is not copied
+ * on the first update. Replaced and deleted routes are marked in paged deleted bitset, update copies only
+ * pages of changed routes. Published storage is never changed, every update creates new storage view sharing
+ * arrays and unchanged bitset pages with the previous one.
+ * When too many routes are deleted, storage is compacted: deleted routes are dropped and live routes get new indexes.
+ * Updater is not thread safe, updates are applied by loading thread only.
+ */
+public class RouteStorageUpdater {
+    public static Logger logger = LoggerFactory.getLogger(RouteStorageUpdater.class);
+
+    /**
+     * Maximal percent of deleted bus routes in storage
+     */
+    private static final int MAX_DELETED_PERCENT = 25;
+
+    /**
+     * Ratio of bus routes number to capacity reserved for appended bus routes
+     */
+    private static final int RESERVED_CAPACITY_DIVISOR = 16;
+
+    /**
+     * Builder sharing arrays with the last created storage
+     */
+    private RouteStorageBuilder builder;
+
+    /**
+     * Index of live bus route by route id
+     */
+    private IntLongHashMap routeIndexes;
+
+    /**
+     * Pages of bitset of deleted bus route indexes of the last created storage
+     */
+    private long[][] deleted;
+
+    /**
+     * Number of deleted bus routes of the last created storage
+     */
+    private int deletedCount;
+
+    /**
+     * The last created storage, {@code null} if updater state should be created again
+     */
+    private RouteStorage current;
+
+    /**
+     * Create storage of loaded bus routes with capacity reserved for bus routes appended by updates.
+     *
+     * @param routes
+     *        loaded bus routes
+     *
+     * @return bus routes storage
+     */
+    public static RouteStorage build(RouteStorageBuilder routes) {
+        return routes.build(Math.max(routes.size() / RESERVED_CAPACITY_DIVISOR, 16));
+    }
+
+    /**
+     * Create storage with bus route changes applied.
+     * If storage is not the one created by the previous update (it was loaded completely), updater state is created
+     * from it first.
+     *
+     * @param routes
+     *        published bus routes storage
+     *
+     * @param changes
+     *        bus route changes
+     *
+     * @return storage update
+     */
+    public RouteStorageUpdate update(RouteStorage routes, RouteChanges changes) {
+        RouteStorage changedRoutes = changes.getRoutes();
+        if (routes != current) {
+            reset(routes);
+        }
+        int newSize = builder.size() + changedRoutes.size();
+        current = null;
+        int pageCount = ((newSize - 1) >>> RouteStorage.DELETED_PAGE_SHIFT) + 1;
+        long[][] newDeleted = deleted != null ? Arrays.copyOf(deleted, pageCount) : new long[pageCount][];
+        IntList removedIndexes = new IntList();
+        IntList addedIndexes = new IntList(changedRoutes.size());
+        for (int routeId : changes.getDeletedRouteIds()) {
+            int index = (int) routeIndexes.get(routeId, -1);
+            if (index < 0) continue;
+            markDeleted(newDeleted, index);
+            removedIndexes.add(index);
+            routeIndexes.remove(routeId);
+        }
+        int[] stopIds = new int[64];
+        for (int i = 0; i < changedRoutes.size(); i++) {
+            int routeId = changedRoutes.getRouteId(i);
+            int index = (int) routeIndexes.get(routeId, -1);
+            if (index >= 0) {
+                markDeleted(newDeleted, index);
+                removedIndexes.add(index);
+            }
+            int stopCount = changedRoutes.getStopCount(i);
+            if (stopCount > stopIds.length) {
+                stopIds = new int[stopCount];
+            }
+            System.arraycopy(changedRoutes.getStopIds(), changedRoutes.getOffset(i), stopIds, 0, stopCount);
+            int newIndex = builder.add(routeId, stopIds, stopCount);
+            routeIndexes.put(routeId, newIndex);
+            addedIndexes.add(newIndex);
+        }
+
+        deletedCount += removedIndexes.size();
+        deleted = deletedCount > 0 ? newDeleted : null;
+        current = builder.view(deleted);
+        if ((long) deletedCount * 100 > (long) current.size() * MAX_DELETED_PERCENT) {
+            logger.info("Compacting bus routes storage: " + deletedCount + " of " + current.size() + " routes are deleted");
+            RouteStorageBuilder liveRoutes = new RouteStorageBuilder(current.size() - deletedCount);
+            liveRoutes.addAll(current);
+            RouteStorage compactRoutes = build(liveRoutes);
+            reset(compactRoutes);
+            current = compactRoutes;
+            return new RouteStorageUpdate(current, null, null);
+        }
+        return new RouteStorageUpdate(current, removedIndexes.toSortedDistinctArray(), addedIndexes.toArray());
+    }
+
+    /**
+     * Check if storage contains live bus route with specified id. Route is found by route id index of updater,
+     * if storage is not the one created by the previous update, updater state is created from it first.
+     *
+     * @param routes
+     *        published bus routes storage
+     *
+     * @param routeId
+     *        bus route id
+     *
+     * @return {@code true} if bus route is found
+     */
+    public boolean contains(RouteStorage routes, int routeId) {
+        if (routes != current) {
+            reset(routes);
+            current = routes;
+        }
+        return routeIndexes.get(routeId, -1) >= 0;
+    }
+
+    /**
+     * Mark bus route as deleted in bitset of updated storage. Bitset page shared with the last created storage
+     * is copied before the first change.
+     *
+     * @param newDeleted
+     *        pages of deleted bitset of updated storage
+     *
+     * @param index
+     *        bus route index
+     */
+    private void markDeleted(long[][] newDeleted, int index) {
+        int pageIndex = index >>> RouteStorage.DELETED_PAGE_SHIFT;
+        long[] page = newDeleted[pageIndex];
+        if (page == null) {
+            page = new long[RouteStorage.DELETED_PAGE_LENGTH];
+            newDeleted[pageIndex] = page;
+        } else if (deleted != null && pageIndex < deleted.length && page == deleted[pageIndex]) {
+            page = page.clone();
+            newDeleted[pageIndex] = page;
+        }
+        page[(index >>> 6) & (RouteStorage.DELETED_PAGE_LENGTH - 1)] |= 1L << index;
+    }
+
+    /**
+     * Create updater state from published storage. Storage arrays are not copied, bus routes are appended
+     * after their used part, see {@link RouteStorageBuilder#RouteStorageBuilder(RouteStorage)}.
+     *
+     * @param routes
+     *        published bus routes storage
+     */
+    private void reset(RouteStorage routes) {
+        builder = new RouteStorageBuilder(routes);
+        routeIndexes = new IntLongHashMap(routes.size());
+        deleted = routes.getDeleted();
+        deletedCount = 0;
+        for (int index = 0; index < routes.size(); index++) {
+            if (routes.isDeleted(index)) {
+                deletedCount++;
+            } else {
+                routeIndexes.put(routes.getRouteId(index), index);
+            }
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package ru.fedbv.busroute.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base memory data provider class with inverted stop index.
+ * Bus routes are kept in compact {@link RouteStorage}. For every stop keeps entry of sorted indexes of bus routes
+ * which contain the stop, entry format is defined by subclass.
+ * Find by two stops is an intersection of two stop entries.
+ * In ordered lookup mode {@link StopPositionIndex} is built as well and find by two stops
+ * returns only bus routes which go from the first stop to the second one.
+ * Route changes rewrite entries only for stops of removed and added routes, they are put into overlay
+ * of published entries, see {@link IntObjectOverlayMap}.
+ *
+ * @param <V> stop entry type
+ */
+public abstract class StopIndexDataProvider<V> extends AbstractDataProvider {
+    public static Logger logger = LoggerFactory.getLogger(StopIndexDataProvider.class);
+
+    /**
+     * Bus routes store under construction property
+     */
+    private RouteStorageBuilder pendingBusRoutes;
+
+    /**
+     * Bus route indexes under construction by stop id property
+     */
+    private IntObjectHashMap<IntList> pendingRouteIndexes;
+
+    /**
+     * Published bus routes store and stop index property
+     */
+    private volatile StopIndex<V> stopIndex = new StopIndex<V>(new RouteStorageBuilder(0).build(), new IntObjectOverlayMap<V>(new IntObjectHashMap<V>(0)), null);
+
+    /**
+     * Updater of bus routes store on incremental reload
+     */
+    private final RouteStorageUpdater busRoutesUpdater = new RouteStorageUpdater();
+
+    /**
+     * Create stop entry of bus route indexes.
+     *
+     * @param routeIndexes
+     *        sorted distinct bus route indexes
+     *
+     * @return stop entry
+     */
+    protected abstract V createStopEntry(int[] routeIndexes);
+
+    /**
+     * Gets the bus route indexes of stop entry.
+     *
+     * @param stopEntry
+     *        stop entry
+     *
+     * @return sorted distinct bus route indexes
+     */
+    protected abstract int[] getRouteIndexes(V stopEntry);
+
+    /**
+     * Find the first bus route index of both stop entries which is not less than specified index.
+     *
+     * @param stopEntry1
+     *        first stop entry
+     *
+     * @param stopEntry2
+     *        second stop entry
+     *
+     * @param fromRouteIndex
+     *        the smallest bus route index to find
+     *
+     * @return bus route index or {@code -1}
+     */
+    protected abstract int findCommonRouteIndex(V stopEntry1, V stopEntry2, int fromRouteIndex);
+
+    /**
+     * Gets the approximate size of stop entry in memory.
+     *
+     * @param stopEntry
+     *        stop entry
+     *
+     * @return size in bytes
+     */
+    protected abstract long sizeInBytes(V stopEntry);
+
+    /**
+     * Initialize data provider and loads data into storage.
+     *
+     * @return load results statistics
+     */
+    @Override
+    public LoadResult init() {
+        return loadFile(getSourceFilePath());
+    }
+
+    /**
+     * Create data store with defined default capacity.
+     *
+     * @param capacity
+     *        default capacity
+     */
+    @Override
+    public void createDataStore(int capacity) {
+        pendingBusRoutes = new RouteStorageBuilder(capacity);
+        pendingRouteIndexes = new IntObjectHashMap<IntList>(16);
+    }
+
+    /**
+     * Add bus route object into storage.
+     *
+     * @param busRoute
+     *        bus route object to add
+     * @return if bus route was added successfully, returns {@code true} otherwise {@code false}
+     */
+    @Override
+    public boolean addBusRoute(BusRoute busRoute) {
+        if (busRoute == null) return false;
+
+        int[] stopIds = new int[busRoute.getStopCount()];
+        for (int i = 0; i < stopIds.length; i++) {
+            stopIds[i] = busRoute.getStopId(i);
+        }
+        return addBusRoute(busRoute.getId(), stopIds, stopIds.length);
+    }
+
+    /**
+     * Add parsed bus route into storage and append its index to the route indexes of every stop.
+     * Bus route indexes grow on load, so route indexes of stops are sorted by construction.
+     *
+     * @param routeId
+     *        bus route id
+     *
+     * @param stopIds
+     *        array holding bus route stop ids from position 0
+     *
+     * @param stopCount
+     *        number of bus route stop ids
+     *
+     * @return if bus route was added successfully, returns {@code true} otherwise {@code false}
+     */
+    @Override
+    protected boolean addBusRoute(int routeId, int[] stopIds, int stopCount) {
+        if (pendingBusRoutes == null) return false;
+
+        int routeIndex = pendingBusRoutes.add(routeId, stopIds, stopCount);
+        addRouteIndex(pendingRouteIndexes, routeIndex, stopIds, 0, stopCount);
+        return true;
+    }
+
+    /**
+     * Append all bus routes of complete storage to storage under construction with bulk copy of its arrays
+     * and append their indexes to the route indexes of stops reading stop ids from the storage.
+     *
+     * @param routes
+     *        bus routes storage
+     *
+     * @return number of added bus routes
+     */
+    @Override
+    protected int addBusRoutes(RouteStorage routes) {
+        if (pendingBusRoutes == null) return 0;
+
+        int firstRouteIndex = pendingBusRoutes.addAll(routes);
+        for (int routeIndex = 0; routeIndex < routes.size(); routeIndex++) {
+            addRouteIndex(pendingRouteIndexes, firstRouteIndex + routeIndex, routes.getStopIds(), routes.getOffset(routeIndex), routes.getOffset(routeIndex + 1));
+        }
+        return routes.size();
+    }
+
+    /**
+     * Build bus routes storage and stop entries collected on load and publish them.
+     */
+    @Override
+    protected void completeDataStore() {
+        if (pendingBusRoutes == null) return;
+
+        IntObjectHashMap<V> completeEntries = completeStopEntries(pendingRouteIndexes);
+        long entriesSize = 0;
+        for (int slot = 0; slot < completeEntries.capacity(); slot++) {
+            V stopEntry = completeEntries.valueAt(slot);
+            if (stopEntry != null) {
+                entriesSize += sizeInBytes(stopEntry);
+            }
+        }
+        RouteStorage completeBusRoutes = RouteStorageUpdater.build(pendingBusRoutes);
+        StopPositionIndex positions = isOrderedLookup() ? StopPositionIndex.build(completeBusRoutes) : null;
+        stopIndex = new StopIndex<V>(completeBusRoutes, new IntObjectOverlayMap<V>(completeEntries), positions);
+        pendingBusRoutes = null;
+        pendingRouteIndexes = null;
+        logger.info("Stop index created: " + completeEntries.size() + " stops, " + entriesSize + " bytes" + (positions != null ? ", with stop positions" : ""));
+    }
+
+    /**
+     * Discard bus routes storage and route indexes under construction.
+     */
+    @Override
+    protected void discardDataStore() {
+        pendingBusRoutes = null;
+        pendingRouteIndexes = null;
+    }
+
+    /**
+     * Gets the published bus routes storage for snapshot replication.
+     *
+     * @return published bus routes storage
+     */
+    @Override
+    protected RouteStorage getPublishedRoutes() {
+        return stopIndex.busRoutes;
+    }
+
+    /**
+     * Check if published bus routes storage contains live bus route. Route is found by route id index of storage updater.
+     *
+     * @param routeId
+     *        bus route id
+     *
+     * @return {@code true} if bus route is found
+     */
+    @Override
+    protected boolean containsBusRoute(int routeId) {
+        return busRoutesUpdater.contains(stopIndex.busRoutes, routeId);
+    }
+
+    /**
+     * Apply changes of incremental reload. Changed bus routes are appended to the store, entries of stops
+     * of removed and added routes are rewritten and put into overlay of published entries,
+     * then the new stop index is published. If bus routes store is compacted, stop entries are built again.
+     *
+     * @param changes
+     *        added, updated and deleted bus routes
+     *
+     * @return {@code true} if changes are applied
+     */
+    @Override
+    protected boolean applyRouteChanges(RouteChanges changes) {
+        StopIndex<V> current = stopIndex;
+        RouteStorageUpdate update = busRoutesUpdater.update(current.busRoutes, changes);
+
+        RouteStorage updatedBusRoutes = update.getRoutes();
+        if (update.isCompacted()) {
+            IntObjectHashMap<IntList> routeIndexes = new IntObjectHashMap<IntList>(current.stopEntries.size());
+            for (int routeIndex = 0; routeIndex < updatedBusRoutes.size(); routeIndex++) {
+                addRouteIndex(routeIndexes, routeIndex, updatedBusRoutes.getStopIds(), updatedBusRoutes.getOffset(routeIndex), updatedBusRoutes.getOffset(routeIndex + 1));
+            }
+            StopPositionIndex positions = current.positions != null ? StopPositionIndex.build(updatedBusRoutes) : null;
+            stopIndex = new StopIndex<V>(updatedBusRoutes, new IntObjectOverlayMap<V>(completeStopEntries(routeIndexes)), positions);
+            return true;
+        }
+
+        int[] affectedStopIds = update.getAffectedStopIds();
+        IntObjectHashMap<V> changedEntries = new IntObjectHashMap<V>(affectedStopIds.length);
+        for (int stopId : affectedStopIds) {
+            V stopEntry = current.stopEntries.get(stopId);
+            changedEntries.put(stopId, createStopEntry(update.updateRouteIndexes(stopId, stopEntry != null ? getRouteIndexes(stopEntry) : null)));
+        }
+        StopPositionIndex positions = current.positions != null ? current.positions.update(update) : null;
+        stopIndex = new StopIndex<V>(updatedBusRoutes, current.stopEntries.update(changedEntries), positions);
+        return true;
+    }
+
+    /**
+     * Check if bus routes of published data can be changed by put and delete.
+     * Changes are applied by {@link StopIndexDataProvider#applyRouteChanges(RouteChanges)}.
+     *
+     * @return {@code true}, bus route changes are supported
+     */
+    @Override
+    public boolean isRouteChangeSupported() {
+        return true;
+    }
+
+    /**
+     * Append bus route index to the route indexes of every stop of the route.
+     *
+     * @param routeIndexes
+     *        route indexes by stop id
+     *
+     * @param routeIndex
+     *        bus route index, greater than indexes appended before
+     *
+     * @param stopIds
+     *        array holding bus route stop ids
+     *
+     * @param from
+     *        position of the first stop id
+     *
+     * @param to
+     *        position after the last stop id
+     */
+    private static void addRouteIndex(IntObjectHashMap<IntList> routeIndexes, int routeIndex, int[] stopIds, int from, int to) {
+        for (int i = from; i < to; i++) {
+            IntList stopRouteIndexes = routeIndexes.get(stopIds[i]);
+            if (stopRouteIndexes == null) {
+                stopRouteIndexes = new IntList(4);
+                routeIndexes.put(stopIds[i], stopRouteIndexes);
+            }
+            if (stopRouteIndexes.size() == 0 || stopRouteIndexes.get(stopRouteIndexes.size() - 1) != routeIndex) {
+                stopRouteIndexes.add(routeIndex);
+            }
+        }
+    }
+
+    /**
+     * Convert collected route indexes of every stop into stop entry.
+     *
+     * @param routeIndexes
+     *        route indexes by stop id
+     *
+     * @return stop entries by stop id
+     */
+    private IntObjectHashMap<V> completeStopEntries(IntObjectHashMap<IntList> routeIndexes) {
+        IntObjectHashMap<V> completeEntries = new IntObjectHashMap<V>(routeIndexes.size());
+        for (int slot = 0; slot < routeIndexes.capacity(); slot++) {
+            IntList stopRouteIndexes = routeIndexes.valueAt(slot);
+            if (stopRouteIndexes != null) {
+                completeEntries.put(routeIndexes.keyAt(slot), createStopEntry(stopRouteIndexes.toArray()));
+            }
+        }
+        return completeEntries;
+    }
+
+    /**
+     * Find bus route by two stop ids. Return {@link BusRoute} object which contains both stops.
+     * Return {@code null} if one/or both stops are {@code null} or bus route does not contains both stops.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @return {@link BusRoute}
+     *         bus route which contains both stops
+     */
+    @Override
+    public BusRoute findByTwoStopIds(Integer stopId1, Integer stopId2) {
+        if (stopId1 == null || stopId2 == null) return null;
+
+        StopIndex<V> current = stopIndex;
+        int routeIndex = findRouteIndex(current, stopId1, stopId2, 0);
+        return routeIndex < 0 ? null : current.busRoutes.getBusRoute(routeIndex);
+    }
+
+    /**
+     * Find id of bus route which contains both stops without boxing stop ids.
+     * Return {@link DataProvider#NO_ROUTE} if bus route does not contains both stops.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @return bus route id or {@link DataProvider#NO_ROUTE}
+     */
+    @Override
+    public int findRouteIdByTwoStopIds(int stopId1, int stopId2) {
+        StopIndex<V> current = stopIndex;
+        int routeIndex = findRouteIndex(current, stopId1, stopId2, 0);
+        return routeIndex < 0 ? NO_ROUTE : current.busRoutes.getRouteId(routeIndex);
+    }
+
+    /**
+     * Find ids of all bus routes which contain both stops, but not more than {@code limit} of them.
+     * Stop entries are intersected from the route after the last found one, so intersection stops
+     * when {@code limit} routes are found.
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @param limit
+     *        maximum number of bus route ids
+     *
+     * @return bus route ids or {@link DataProvider#NO_ROUTES}
+     */
+    @Override
+    public int[] findAllRouteIdsByTwoStopIds(int stopId1, int stopId2, int limit) {
+        StopIndex<V> current = stopIndex;
+        IntList routeIds = null;
+        int routeIndex = findRouteIndex(current, stopId1, stopId2, 0);
+        while (routeIndex >= 0) {
+            if (routeIds == null) routeIds = new IntList(Math.min(limit, 16));
+            routeIds.add(current.busRoutes.getRouteId(routeIndex));
+            if (routeIds.size() >= limit) break;
+            routeIndex = findRouteIndex(current, stopId1, stopId2, routeIndex + 1);
+        }
+        return routeIds == null ? NO_ROUTES : routeIds.toArray();
+    }
+
+    /**
+     * Find index of the first bus route starting from specified index, which contains both stops, by intersection of stop entries.
+     * In ordered lookup mode the route must go from the first stop to the second one, it is found by stop positions.
+     *
+     * @param current
+     *        published stop index
+     *
+     * @param stopId1
+     *        first stop id to find
+     *
+     * @param stopId2
+     *        second stop id to find
+     *
+     * @param fromRouteIndex
+     *        index of bus route to start from
+     *
+     * @return bus route index or {@code -1}
+     */
+    private int findRouteIndex(StopIndex<V> current, int stopId1, int stopId2, int fromRouteIndex) {
+        if (current.positions != null) return current.positions.findOrderedRouteIndex(stopId1, stopId2, fromRouteIndex);
+
+        V stopEntry1 = current.stopEntries.get(stopId1);
+        V stopEntry2 = current.stopEntries.get(stopId2);
+        if (stopEntry1 == null || stopEntry2 == null) return -1;
+
+        return findCommonRouteIndex(stopEntry1, stopEntry2, fromRouteIndex);
+    }
+
+    /**
+     * Immutable bus routes store with stop index, published to readers by single reference
+     *
+     * @param <V> stop entry type
+     */
+    private static final class StopIndex<V> {
+        /**
+         * Bus routes store
+         */
+        final RouteStorage busRoutes;
+
+        /**
+         * Entries of bus route indexes by stop id
+         */
+        final IntObjectOverlayMap<V> stopEntries;
+
+        /**
+         * Stop positions of ordered lookup mode, {@code null} if lookups are not ordered
+         */
+        final StopPositionIndex positions;
+
+        StopIndex(RouteStorage busRoutes, IntObjectOverlayMap<V> stopEntries, StopPositionIndex positions) {
+            this.busRoutes = busRoutes;
+            this.stopEntries = stopEntries;
+            this.positions = positions;
+        }
+    }
+}
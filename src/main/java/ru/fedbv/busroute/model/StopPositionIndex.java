@@ -0,0 +1,212 @@
+package ru.fedbv.busroute.model;
+
+/**
+ * Immutable index of stop positions in bus routes, used by ordered lookups.
+ * For every stop keeps entries {@code (route index, first position, last position)} sorted by route index,
+ * so whether the route goes from departure stop to arrival stop is a single comparison of departure first position
+ * with arrival last position.
+ */
+public class StopPositionIndex {
+    /**
+     * Number of values of one entry: route index, first position and last position of the stop
+     */
+    private static final int ENTRY_SIZE = 3;
+
+    /**
+     * Entries of stops by stop id
+     */
+    private final IntObjectOverlayMap<int[]> entries;
+
+    /**
+     * Constructs new stop position index
+     *
+     * @param entries
+     *        entries of stops by stop id
+     */
+    private StopPositionIndex(IntObjectOverlayMap<int[]> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Build stop position index of bus routes. Deleted bus routes are not indexed.
+     *
+     * @param busRoutes
+     *        bus routes storage
+     *
+     * @return stop position index
+     */
+    public static StopPositionIndex build(RouteStorage busRoutes) {
+        IntObjectHashMap<IntList> pendingEntries = new IntObjectHashMap<IntList>(16);
+        for (int routeIndex = 0; routeIndex < busRoutes.size(); routeIndex++) {
+            if (!busRoutes.isDeleted(routeIndex)) {
+                addEntries(pendingEntries, busRoutes, routeIndex);
+            }
+        }
+
+        IntObjectHashMap<int[]> completeEntries = new IntObjectHashMap<int[]>(pendingEntries.size());
+        for (int slot = 0; slot < pendingEntries.capacity(); slot++) {
+            IntList stopEntries = pendingEntries.valueAt(slot);
+            if (stopEntries != null) {
+                completeEntries.put(pendingEntries.keyAt(slot), stopEntries.toArray());
+            }
+        }
+        return new StopPositionIndex(new IntObjectOverlayMap<int[]>(completeEntries));
+    }
+
+    /**
+     * Create stop position index with storage update applied. Entries are created only for stops of removed
+     * and added bus routes and put into overlay of this index entries, entries of other stops are shared with this index.
+     *
+     * @param update
+     *        bus routes storage update
+     *
+     * @return updated stop position index
+     */
+    public StopPositionIndex update(RouteStorageUpdate update) {
+        RouteStorage busRoutes = update.getRoutes();
+        IntObjectHashMap<IntList> addedEntries = new IntObjectHashMap<IntList>(16);
+        for (int routeIndex : update.getAddedIndexes()) {
+            addEntries(addedEntries, busRoutes, routeIndex);
+        }
+
+        int[] affectedStopIds = update.getAffectedStopIds();
+        IntObjectHashMap<int[]> changedEntries = new IntObjectHashMap<int[]>(affectedStopIds.length);
+        for (int stopId : affectedStopIds) {
+            int[] stopEntries = entries.get(stopId);
+            IntList removed = update.getRemovedIndexes(stopId);
+            IntList added = addedEntries.get(stopId);
+            IntList updated = new IntList((stopEntries != null ? stopEntries.length : 0) + (added != null ? added.size() : 0));
+            for (int i = 0, r = 0; stopEntries != null && i < stopEntries.length; i += ENTRY_SIZE) {
+                while (removed != null && r < removed.size() && removed.get(r) < stopEntries[i]) {
+                    r++;
+                }
+                if (removed == null || r == removed.size() || removed.get(r) != stopEntries[i]) {
+                    updated.add(stopEntries[i]);
+                    updated.add(stopEntries[i + 1]);
+                    updated.add(stopEntries[i + 2]);
+                }
+            }
+            for (int i = 0; added != null && i < added.size(); i++) {
+                updated.add(added.get(i));
+            }
+            changedEntries.put(stopId, updated.toArray());
+        }
+        return new StopPositionIndex(entries.update(changedEntries));
+    }
+
+    /**
+     * Add entries of bus route stops. Bus routes should be added in route index order.
+     *
+     * @param pendingEntries
+     *        entries of stops by stop id
+     *
+     * @param busRoutes
+     *        bus routes storage
+     *
+     * @param routeIndex
+     *        bus route index
+     */
+    private static void addEntries(IntObjectHashMap<IntList> pendingEntries, RouteStorage busRoutes, int routeIndex) {
+        int[] stopIds = busRoutes.getStopIds();
+        int offset = busRoutes.getOffset(routeIndex);
+        for (int position = 0, count = busRoutes.getStopCount(routeIndex); position < count; position++) {
+            int stopId = stopIds[offset + position];
+            IntList stopEntries = pendingEntries.get(stopId);
+            if (stopEntries == null) {
+                stopEntries = new IntList(ENTRY_SIZE * 4);
+                pendingEntries.put(stopId, stopEntries);
+            }
+            int size = stopEntries.size();
+            if (size > 0 && stopEntries.get(size - ENTRY_SIZE) == routeIndex) {
+                stopEntries.set(size - 1, position);
+            } else {
+                stopEntries.add(routeIndex);
+                stopEntries.add(position);
+                stopEntries.add(position);
+            }
+        }
+    }
+
+    /**
+     * Find index of the first bus route starting from specified index, which goes from departure stop to arrival stop.
+     * Entries of both stops are intersected by route index, skipping ahead with galloping search.
+     *
+     * @param depStopId
+     *        departure stop id
+     *
+     * @param arrStopId
+     *        arrival stop id
+     *
+     * @param from
+     *        index of bus route to start from
+     *
+     * @return bus route index or {@code -1}
+     */
+    public int findOrderedRouteIndex(int depStopId, int arrStopId, int from) {
+        int[] depEntries = entries.get(depStopId);
+        int[] arrEntries = entries.get(arrStopId);
+        if (depEntries == null || arrEntries == null) return -1;
+
+        int i = gallop(depEntries, 0, from);
+        int j = gallop(arrEntries, 0, from);
+        while (i < depEntries.length && j < arrEntries.length) {
+            int depRoute = depEntries[i];
+            int arrRoute = arrEntries[j];
+            if (depRoute < arrRoute) {
+                i = gallop(depEntries, i, arrRoute);
+            } else if (depRoute > arrRoute) {
+                j = gallop(arrEntries, j, depRoute);
+            } else {
+                if (depEntries[i + 1] < arrEntries[j + 2]) return depRoute;
+                i += ENTRY_SIZE;
+                j += ENTRY_SIZE;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the number of indexed stops.
+     *
+     * @return number of stops
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Find position of the first entry which route index is not less than specified value.
+     *
+     * @param stopEntries
+     *        entries of stop
+     *
+     * @param from
+     *        position of entry to start search from
+     *
+     * @param routeIndex
+     *        route index to search
+     *
+     * @return position of the entry or entries length if all entries have smaller route index
+     */
+    private static int gallop(int[] stopEntries, int from, int routeIndex) {
+        int entryCount = stopEntries.length / ENTRY_SIZE;
+        int low = from / ENTRY_SIZE;
+        int step = 1;
+        int high = low;
+        while (high < entryCount && stopEntries[high * ENTRY_SIZE] < routeIndex) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        high = Math.min(high, entryCount);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (stopEntries[middle * ENTRY_SIZE] < routeIndex) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low * ENTRY_SIZE;
+    }
+}
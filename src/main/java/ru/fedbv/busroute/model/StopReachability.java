@@ -0,0 +1,365 @@
+package ru.fedbv.busroute.model;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable stop reachability index of one dataset version, used by one transfer lookups.
+ * Stop ids are replaced with dense stop indexes, for every stop keeps {@link CompressedBitmap} of stop indexes
+ * directly reachable from the stop by one bus route and, in ordered lookup mode, bitmap of stops the stop is directly
+ * reachable from. Transfer stops of a stop pair are the intersection of departure reachable stops with arrival
+ * reaching stops, so the lookup is one bitmap intersection and does not depend on the number of bus routes.
+ */
+public class StopReachability {
+    /**
+     * Number of stops built by one parallel build task
+     */
+    private static final int BUILD_BLOCK_SIZE = 256;
+
+    /**
+     * Dataset version of indexed bus routes
+     */
+    private final long datasetVersion;
+
+    /**
+     * Sorted distinct stop ids, stop index is position in the array
+     */
+    private final int[] stopIds;
+
+    /**
+     * Stops directly reachable from the stop by stop index
+     */
+    private final CompressedBitmap[] reachable;
+
+    /**
+     * Stops the stop is directly reachable from by stop index, the same array as {@link StopReachability.reachable}
+     * in unordered lookup mode
+     */
+    private final CompressedBitmap[] reaching;
+
+    /**
+     * Constructs new stop reachability index
+     *
+     * @param datasetVersion
+     *        dataset version of indexed bus routes
+     *
+     * @param stopIds
+     *        sorted distinct stop ids
+     *
+     * @param reachable
+     *        stops directly reachable from the stop by stop index
+     *
+     * @param reaching
+     *        stops the stop is directly reachable from by stop index
+     */
+    private StopReachability(long datasetVersion, int[] stopIds, CompressedBitmap[] reachable, CompressedBitmap[] reaching) {
+        this.datasetVersion = datasetVersion;
+        this.stopIds = stopIds;
+        this.reachable = reachable;
+        this.reaching = reaching;
+    }
+
+    /**
+     * Build stop reachability index of bus routes. Deleted bus routes are not indexed.
+     * Build work is proportional to sum of squared bus route lengths, if it exceeds the limit, index is not built.
+     * Stops are indexed in parallel.
+     *
+     * @param busRoutes
+     *        bus routes storage
+     *
+     * @param datasetVersion
+     *        dataset version of bus routes
+     *
+     * @param ordered
+     *        {@code true} if arrival stop should come after departure stop in the bus route
+     *
+     * @param maxWork
+     *        maximal sum of squared bus route lengths
+     *
+     * @return stop reachability index or {@code null} if build work exceeds the limit
+     */
+    public static StopReachability build(RouteStorage busRoutes, long datasetVersion, boolean ordered, long maxWork) {
+        int[] allStopIds = busRoutes.getStopIds();
+        long work = 0;
+        int stopCount = 0;
+        for (int routeIndex = 0; routeIndex < busRoutes.size(); routeIndex++) {
+            if (busRoutes.isDeleted(routeIndex)) continue;
+            long routeStopCount = busRoutes.getStopCount(routeIndex);
+            work += routeStopCount * routeStopCount;
+            stopCount += routeStopCount;
+        }
+        if (work > maxWork) return null;
+
+        int[] stopIds = new int[stopCount];
+        int count = 0;
+        for (int routeIndex = 0; routeIndex < busRoutes.size(); routeIndex++) {
+            if (busRoutes.isDeleted(routeIndex)) continue;
+            int offset = busRoutes.getOffset(routeIndex);
+            int routeStopCount = busRoutes.getStopCount(routeIndex);
+            System.arraycopy(allStopIds, offset, stopIds, count, routeStopCount);
+            count += routeStopCount;
+        }
+        Arrays.sort(stopIds);
+        int distinctCount = 0;
+        for (int i = 0; i < stopIds.length; i++) {
+            if (i == 0 || stopIds[i] != stopIds[i - 1]) {
+                stopIds[distinctCount++] = stopIds[i];
+            }
+        }
+        stopIds = Arrays.copyOf(stopIds, distinctCount);
+
+        int[] stopIndexes = new int[allStopIds.length];
+        for (int routeIndex = 0; routeIndex < busRoutes.size(); routeIndex++) {
+            if (busRoutes.isDeleted(routeIndex)) continue;
+            for (int i = busRoutes.getOffset(routeIndex), end = i + busRoutes.getStopCount(routeIndex); i < end; i++) {
+                stopIndexes[i] = Arrays.binarySearch(stopIds, allStopIds[i]);
+            }
+        }
+
+        int indexedStopCount = distinctCount;
+        Postings postings = new Postings(busRoutes, stopIndexes, indexedStopCount);
+        CompressedBitmap[] reachable = new CompressedBitmap[indexedStopCount];
+        CompressedBitmap[] reaching = ordered ? new CompressedBitmap[indexedStopCount] : reachable;
+        IntStream.range(0, (indexedStopCount + BUILD_BLOCK_SIZE - 1) / BUILD_BLOCK_SIZE).parallel().forEach(block -> {
+            Collector collector = new Collector(postings, busRoutes, stopIndexes, indexedStopCount);
+            for (int stop = block * BUILD_BLOCK_SIZE, end = Math.min(stop + BUILD_BLOCK_SIZE, indexedStopCount); stop < end; stop++) {
+                collector.collect(stop, ordered, true);
+                reachable[stop] = CompressedBitmap.of(collector.values, collector.count);
+                if (ordered) {
+                    collector.collect(stop, true, false);
+                    reaching[stop] = CompressedBitmap.of(collector.values, collector.count);
+                }
+            }
+        });
+        return new StopReachability(datasetVersion, stopIds, reachable, reaching);
+    }
+
+    /**
+     * Check if arrival stop is directly reachable from departure stop by one bus route.
+     *
+     * @param depStopId
+     *        departure stop id
+     *
+     * @param arrStopId
+     *        arrival stop id
+     *
+     * @return {@code true} if some bus route goes from departure stop to arrival stop
+     */
+    public boolean isDirect(int depStopId, int arrStopId) {
+        int dep = Arrays.binarySearch(stopIds, depStopId);
+        int arr = Arrays.binarySearch(stopIds, arrStopId);
+        return dep >= 0 && arr >= 0 && reachable[dep].contains(arr);
+    }
+
+    /**
+     * Find transfer stops of one transfer routes from departure stop to arrival stop: stops directly reachable
+     * from departure stop, which arrival stop is directly reachable from. Departure and arrival stops are not
+     * transfer stops. Intersection stops when {@code limit} stops are found.
+     *
+     * @param depStopId
+     *        departure stop id
+     *
+     * @param arrStopId
+     *        arrival stop id
+     *
+     * @param limit
+     *        maximum number of transfer stop ids
+     *
+     * @return sorted transfer stop ids or {@link DataProvider#NO_ROUTES} if there are no transfer stops
+     */
+    public int[] findTransferStopIds(int depStopId, int arrStopId, int limit) {
+        int dep = Arrays.binarySearch(stopIds, depStopId);
+        int arr = Arrays.binarySearch(stopIds, arrStopId);
+        if (dep < 0 || arr < 0 || limit <= 0) return DataProvider.NO_ROUTES;
+
+        IntList transferStopIds = null;
+        CompressedBitmap from = reachable[dep];
+        CompressedBitmap to = reaching[arr];
+        for (int stop = from.firstIntersection(to); stop >= 0; stop = from.nextIntersection(to, stop + 1)) {
+            if (stop == dep || stop == arr) continue;
+            if (transferStopIds == null) transferStopIds = new IntList(Math.min(limit, 16));
+            transferStopIds.add(stopIds[stop]);
+            if (transferStopIds.size() >= limit) break;
+        }
+        return transferStopIds == null ? DataProvider.NO_ROUTES : transferStopIds.toArray();
+    }
+
+    /**
+     * Gets the value of dataset version property {@link StopReachability.datasetVersion}.
+     *
+     * @return dataset version of indexed bus routes
+     */
+    public long getDatasetVersion() {
+        return datasetVersion;
+    }
+
+    /**
+     * Gets the number of indexed stops.
+     *
+     * @return number of stops
+     */
+    public int getStopCount() {
+        return stopIds.length;
+    }
+
+    /**
+     * Gets the approximate size of index data in bytes.
+     *
+     * @return size in bytes
+     */
+    public long sizeInBytes() {
+        long size = stopIds.length * 4L;
+        for (int stop = 0; stop < stopIds.length; stop++) {
+            size += reachable[stop].sizeInBytes() + (reaching != reachable ? reaching[stop].sizeInBytes() : 0);
+        }
+        return size;
+    }
+
+    /**
+     * Collector of stop indexes reachable by bus routes of one stop, reused for stops of one build task
+     */
+    private static final class Collector {
+        /**
+         * Bus route entries of stops
+         */
+        final Postings postings;
+
+        /**
+         * Bus routes storage
+         */
+        final RouteStorage busRoutes;
+
+        /**
+         * Stop indexes of bus routes storage stops
+         */
+        final int[] stopIndexes;
+
+        /**
+         * Bitset of collected stop indexes, cleared after each collection
+         */
+        final long[] marks;
+
+        /**
+         * Sorted collected stop indexes from position 0
+         */
+        int[] values = new int[64];
+
+        /**
+         * Number of collected stop indexes
+         */
+        int count;
+
+        Collector(Postings postings, RouteStorage busRoutes, int[] stopIndexes, int stopCount) {
+            this.postings = postings;
+            this.busRoutes = busRoutes;
+            this.stopIndexes = stopIndexes;
+            this.marks = new long[(stopCount >>> 6) + 1];
+        }
+
+        /**
+         * Collect sorted stop indexes of bus routes containing the stop.
+         *
+         * @param stop
+         *        stop index
+         *
+         * @param ordered
+         *        {@code true} to collect only stops after or before the stop in the bus route
+         *
+         * @param after
+         *        {@code true} to collect stops after the first stop position, {@code false} to collect stops
+         *        before the last stop position
+         */
+        void collect(int stop, boolean ordered, boolean after) {
+            count = 0;
+            for (int entry = postings.starts[stop], end = postings.starts[stop + 1]; entry < end; entry++) {
+                int routeIndex = postings.routeIndexes[entry];
+                int begin = busRoutes.getOffset(routeIndex);
+                int routeEnd = begin + busRoutes.getStopCount(routeIndex);
+                if (ordered && after) {
+                    begin += postings.firstPositions[entry] + 1;
+                } else if (ordered) {
+                    routeEnd = begin + postings.lastPositions[entry];
+                }
+                for (int i = begin; i < routeEnd; i++) {
+                    int reached = stopIndexes[i];
+                    long bit = 1L << reached;
+                    if ((marks[reached >>> 6] & bit) == 0) {
+                        marks[reached >>> 6] |= bit;
+                        if (count == values.length) {
+                            values = Arrays.copyOf(values, values.length * 2);
+                        }
+                        values[count++] = reached;
+                    }
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                marks[values[i] >>> 6] = 0;
+            }
+            Arrays.sort(values, 0, count);
+        }
+    }
+
+    /**
+     * Bus route entries of stops: route index, first and last stop position in the route, grouped by stop index
+     */
+    private static final class Postings {
+        /**
+         * Position of the first entry by stop index, the last element is the number of entries
+         */
+        final int[] starts;
+
+        /**
+         * Bus route indexes of entries
+         */
+        final int[] routeIndexes;
+
+        /**
+         * First stop positions in bus routes of entries
+         */
+        final int[] firstPositions;
+
+        /**
+         * Last stop positions in bus routes of entries
+         */
+        final int[] lastPositions;
+
+        Postings(RouteStorage busRoutes, int[] stopIndexes, int stopCount) {
+            int[] lastRoutes = new int[stopCount];
+            Arrays.fill(lastRoutes, -1);
+            starts = new int[stopCount + 1];
+            for (int routeIndex = 0; routeIndex < busRoutes.size(); routeIndex++) {
+                if (busRoutes.isDeleted(routeIndex)) continue;
+                for (int i = busRoutes.getOffset(routeIndex), end = i + busRoutes.getStopCount(routeIndex); i < end; i++) {
+                    int stop = stopIndexes[i];
+                    if (lastRoutes[stop] != routeIndex) {
+                        lastRoutes[stop] = routeIndex;
+                        starts[stop + 1]++;
+                    }
+                }
+            }
+            for (int stop = 0; stop < stopCount; stop++) {
+                starts[stop + 1] += starts[stop];
+            }
+
+            routeIndexes = new int[starts[stopCount]];
+            firstPositions = new int[routeIndexes.length];
+            lastPositions = new int[routeIndexes.length];
+            int[] next = Arrays.copyOf(starts, stopCount);
+            Arrays.fill(lastRoutes, -1);
+            for (int routeIndex = 0; routeIndex < busRoutes.size(); routeIndex++) {
+                if (busRoutes.isDeleted(routeIndex)) continue;
+                int offset = busRoutes.getOffset(routeIndex);
+                for (int i = offset, end = i + busRoutes.getStopCount(routeIndex); i < end; i++) {
+                    int stop = stopIndexes[i];
+                    if (lastRoutes[stop] != routeIndex) {
+                        lastRoutes[stop] = routeIndex;
+                        routeIndexes[next[stop]] = routeIndex;
+                        firstPositions[next[stop]] = i - offset;
+                        next[stop]++;
+                    }
+                    lastPositions[next[stop] - 1] = i - offset;
+                }
+            }
+        }
+    }
+}
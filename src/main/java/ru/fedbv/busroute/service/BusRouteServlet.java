@@ -1,13 +1,33 @@
 package ru.fedbv.busroute.service;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import ru.fedbv.busroute.model.BusRoute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.fedbv.busroute.metrics.Counter;
+import ru.fedbv.busroute.metrics.LatencyHistogram;
+import ru.fedbv.busroute.metrics.MetricsRegistry;
+import ru.fedbv.busroute.model.CachingDataProvider;
 import ru.fedbv.busroute.model.DataProvider;
 
 /** 
@@ -15,18 +35,182 @@ import ru.fedbv.busroute.model.DataProvider;
  */
 public class BusRouteServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
+    public static Logger logger = LoggerFactory.getLogger(BusRouteServlet.class);
+    
+    /**
+     * Number of stop pairs of POST request looked up and written at once
+     */
+    private static final int LOOKUP_BATCH_SIZE = 1024;
+    
+    /**
+     * Departure stop id is valid flag of stop pair
+     */
+    private static final int DEP_VALID = 1;
+    
+    /**
+     * Arrival stop id is valid flag of stop pair
+     */
+    private static final int ARR_VALID = 2;
+
+    /**
+     * Number of GET requests
+     */
+    private static final Counter GET_REQUESTS = MetricsRegistry.getDefault().counter("bus_route_http_requests_total", "method=\"GET\"", "Number of stop pair lookup requests");
+    
+    /**
+     * Number of POST requests
+     */
+    private static final Counter POST_REQUESTS = MetricsRegistry.getDefault().counter("bus_route_http_requests_total", "method=\"POST\"", "Number of stop pair lookup requests");
+    
+    /**
+     * GET request latency
+     */
+    private static final LatencyHistogram GET_LATENCY = MetricsRegistry.getDefault().histogram("bus_route_http_request_seconds", "method=\"GET\"", "Latency of stop pair lookup requests");
+    
+    /**
+     * POST request latency
+     */
+    private static final LatencyHistogram POST_LATENCY = MetricsRegistry.getDefault().histogram("bus_route_http_request_seconds", "method=\"POST\"", "Latency of stop pair lookup requests");
+    
+    /**
+     * Number of stop pairs of POST requests
+     */
+    private static final Counter POST_PAIRS = MetricsRegistry.getDefault().counter("bus_route_http_batch_pairs_total", "", "Number of stop pairs of batch lookup requests");
+    
+    /**
+     * Number of rejected POST requests with invalid body
+     */
+    private static final Counter INVALID_POST_REQUESTS = MetricsRegistry.getDefault().counter("bus_route_http_errors_total", "reason=\"invalid_body\"", "Number of failed stop pair lookup requests");
+    
+    /**
+     * Number of asynchronous lookups rejected because queue is full
+     */
+    private static final Counter QUEUE_FULL_REJECTIONS = MetricsRegistry.getDefault().counter("bus_route_http_errors_total", "reason=\"queue_full\"", "Number of failed stop pair lookup requests");
+    
+    /**
+     * Number of asynchronous lookups timed out
+     */
+    private static final Counter TIMEOUT_REJECTIONS = MetricsRegistry.getDefault().counter("bus_route_http_errors_total", "reason=\"timeout\"", "Number of failed stop pair lookup requests");
+    
+    /**
+     * Number of asynchronous lookups failed with error
+     */
+    private static final Counter FAILED_LOOKUPS = MetricsRegistry.getDefault().counter("bus_route_http_errors_total", "reason=\"lookup_error\"", "Number of failed stop pair lookup requests");
+    
+    /**
+     * Response content type
+     */
+    private static final String CONTENT_TYPE = "application/json;charset=utf-8";
+    
+    /**
+     * Parsed parameter value if parameter is absent or is not a valid number
+     */
+    private static final long NO_VALUE = Long.MIN_VALUE;
+    
+    /**
+     * Parsed parameter value if parameter is URL encoded and should be read by {@link HttpServletRequest#getParameter(String)}
+     */
+    private static final long ENCODED_VALUE = Long.MIN_VALUE + 1;
+    
+    /**
+     * Encoded beginning of GET response
+     */
+    private static final byte[] DEP_SID_PREFIX = "{\"dep_sid\": ".getBytes(StandardCharsets.UTF_8);
+    
+    /**
+     * Encoded part of GET response before arrival stop id
+     */
+    private static final byte[] ARR_SID_PREFIX = ", \"arr_sid\": ".getBytes(StandardCharsets.UTF_8);
+    
+    /**
+     * Encoded end of GET response with bus route found
+     */
+    private static final byte[] DIRECT_TRUE_SUFFIX = ", \"direct_bus_route\": true}\n".getBytes(StandardCharsets.UTF_8);
+    
+    /**
+     * Encoded end of GET response without bus route
+     */
+    private static final byte[] DIRECT_FALSE_SUFFIX = ", \"direct_bus_route\": false}\n".getBytes(StandardCharsets.UTF_8);
+    
+    /**
+     * Encoded end of GET response with bus route found before route ids
+     */
+    private static final byte[] ROUTE_IDS_TRUE_PREFIX = ", \"direct_bus_route\": true, \"route_ids\": [".getBytes(StandardCharsets.UTF_8);
+    
+    /**
+     * Encoded end of GET response with route ids
+     */
+    private static final byte[] ROUTE_IDS_TRUE_SUFFIX = "]}\n".getBytes(StandardCharsets.UTF_8);
+    
+    /**
+     * Encoded end of GET response without bus route with route ids requested
+     */
+    private static final byte[] ROUTE_IDS_FALSE_SUFFIX = ", \"direct_bus_route\": false, \"route_ids\": []}\n".getBytes(StandardCharsets.UTF_8);
+    
+    /**
+     * Encoded separator of route ids
+     */
+    private static final byte[] ROUTE_ID_SEPARATOR = ", ".getBytes(StandardCharsets.UTF_8);
+    
+    /**
+     * Maximum length of encoded route id with separator
+     */
+    private static final int MAX_ROUTE_ID_LENGTH = 13;
+    
+    /**
+     * Encoded null value
+     */
+    private static final byte[] NULL_VALUE = "null".getBytes(StandardCharsets.UTF_8);
+    
+    /**
+     * Size of GET response buffer without route ids
+     */
+    private static final int RESPONSE_BUFFER_SIZE = 128;
+    
+    /**
+     * Reusable GET response buffer of request thread, grows to fit the largest list of route ids
+     */
+    private static final ThreadLocal<byte[]> RESPONSE_BUFFER = ThreadLocal.withInitial(() -> new byte[RESPONSE_BUFFER_SIZE]);
 
     /**
      * Data provider property
      */
     private DataProvider dataProvider;
+    
+    /**
+     * Executor of asynchronous lookups property, {@code null} if lookups are made on request thread
+     */
+    private transient Executor lookupExecutor;
+    
+    /**
+     * Asynchronous lookup timeout in milliseconds property
+     */
+    private long lookupTimeout = 5000;
+    
+    /**
+     * Maximum and default number of route ids returned by GET request property
+     */
+    private int routeIdsLimit = 100;
 
     /**
      * Process GET request to servlet. Accept two parameters: dep_sid, arr_sid.
      * Find bus route by two stop ids and return response as JSON:
      * <code>{"dep_sid": dep_sid, "arr_sid": arr_sid, "direct_bus_route": direct_bus_route}</code>
      * {@code direct_bus_route} is {@code true} if bus route contains both stops.
-     * {@code direct_bus_route} is {@code false} if one/or both stops are {@code null} or bus route does not contains both stops
+     * {@code direct_bus_route} is {@code false} if one/or both stops are {@code null} or bus route does not contains both stops.
+     * With parameter {@code route_ids=true} the response has ids of bus routes containing both stops as well:
+     * <code>{"dep_sid": dep_sid, "arr_sid": arr_sid, "direct_bus_route": direct_bus_route, "route_ids": [route_id, ...]}</code>
+     * Number of route ids is limited by optional parameter {@code limit}, which is not greater than {@link BusRouteServlet#routeIdsLimit}
+     * and defaults to it. Search stops when {@code limit} routes are found, so request with {@code limit=1} is as cheap as
+     * request without route ids.
+     * Stop ids are parsed from query string into primitive values and response is written from encoded templates 
+     * into reusable buffer, so processing of request without route ids does not allocate objects, including lookups
+     * answered by {@link CachingDataProvider}. It is verified by {@code RequestAllocationCheck} of benchmark sources.
+     * URL encoded values are read by {@link HttpServletRequest#getParameter(String)}.
+     * If lookup executor is set, lookup is made asynchronously on executor thread and request thread is released.
+     * Lookup, which is not completed in {@link BusRouteServlet#lookupTimeout} or can not be queued, 
+     * is answered with status 503 (Service Unavailable). Requests with invalid stop ids and stop pairs found in cache
+     * are answered without executor.
      *  
      * @param request
      *        http servlet request
@@ -37,26 +221,66 @@ public class BusRouteServlet extends HttpServlet {
      * @throws ServletException, IOException
      */
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-        Integer dep_sid = getParameterValue(request, "dep_sid");
-        Integer arr_sid = getParameterValue(request, "arr_sid");
+        long startTime = System.nanoTime();
+        GET_REQUESTS.increment();
+        String query = request.getQueryString();
+        long dep_sid = parseParameter(query, "dep_sid");
+        long arr_sid = parseParameter(query, "arr_sid");
+        if (dep_sid == ENCODED_VALUE) {
+            dep_sid = toParameterValue(getParameterValue(request, "dep_sid"));
+        }
+        if (arr_sid == ENCODED_VALUE) {
+            arr_sid = toParameterValue(getParameterValue(request, "arr_sid"));
+        }
         
-        BusRoute busRoute = null;
+        int limit = parseRouteIdsLimit(query);
         
-        if (dep_sid != null && arr_sid != null) {
-            busRoute = dataProvider.findByTwoStopIds(dep_sid, arr_sid);
+        if (dep_sid == NO_VALUE || arr_sid == NO_VALUE) {
+            writeLookupResponse(response, dep_sid, arr_sid, limit > 0 ? DataProvider.NO_ROUTES : null, false, startTime);
+            return;
         }
         
-        String jsonResponse = "{\"dep_sid\": " + dep_sid + ", \"arr_sid\": " + arr_sid + ", \"direct_bus_route\": " + (busRoute != null) +"}";
+        if (lookupExecutor != null) {
+            if (dataProvider instanceof CachingDataProvider && limit <= 1) {
+                long routeId = ((CachingDataProvider) dataProvider).findCachedRouteIdByTwoStopIds((int) dep_sid, (int) arr_sid);
+                if (routeId != CachingDataProvider.NOT_CACHED) {
+                    int[] routeIds = limit > 0 ? toRouteIds((int) routeId) : null;
+                    writeLookupResponse(response, dep_sid, arr_sid, routeIds, routeId != DataProvider.NO_ROUTE, startTime);
+                    return;
+                }
+            }
+            
+            AsyncContext asyncContext = request.startAsync();
+            asyncContext.setTimeout(lookupTimeout);
+            AsyncLookup lookup = new AsyncLookup(asyncContext, dataProvider, (int) dep_sid, (int) arr_sid, limit, startTime);
+            asyncContext.addListener(lookup);
+            try {
+                lookupExecutor.execute(lookup);
+            } catch (RejectedExecutionException e) {
+                lookup.fail("Lookup queue is full", QUEUE_FULL_REJECTIONS);
+            }
+            return;
+        }
         
-        response.setContentType("application/json");
-        response.setCharacterEncoding("UTF-8");
-        response.setStatus(HttpServletResponse.SC_OK);
-        response.getWriter().println(jsonResponse);
+        if (limit > 0) {
+            int[] routeIds = findRouteIds(dataProvider, (int) dep_sid, (int) arr_sid, limit);
+            writeLookupResponse(response, dep_sid, arr_sid, routeIds, routeIds.length > 0, startTime);
+            return;
+        }
+        boolean directBusRoute = dataProvider.findRouteIdByTwoStopIds((int) dep_sid, (int) arr_sid) != DataProvider.NO_ROUTE;
+        writeLookupResponse(response, dep_sid, arr_sid, null, directBusRoute, startTime);
     }
     
     /**
-     * Stub for POST request to servlet  
-     * 
+     * Process POST request to servlet. Accept JSON array of stop pairs as request body:
+     * <code>[{"dep_sid": dep_sid, "arr_sid": arr_sid}, ...]</code> or <code>[[dep_sid, arr_sid], ...]</code>.
+     * Return JSON array of results in the order of pairs, every result has the same format as GET response:
+     * <code>[{"dep_sid": dep_sid, "arr_sid": arr_sid, "direct_bus_route": direct_bus_route}, ...]</code>
+     * Request body is read and response is written in batches of {@link BusRouteServlet#LOOKUP_BATCH_SIZE} pairs,
+     * every batch is looked up by one {@link DataProvider#findRouteIdsByTwoStopIds(int[], int[], int[], int)} call.
+     * Invalid request body is rejected with status 400 (Bad Request), if part of the response is already sent,
+     * the array is closed with error element <code>{"error": message}</code>.
+     *  
      * @param request
      *        http servlet request
      * 
@@ -66,7 +290,161 @@ public class BusRouteServlet extends HttpServlet {
      * @throws ServletException, IOException
      */
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        long startTime = System.nanoTime();
+        POST_REQUESTS.increment();
+        StopPairReader reader = new StopPairReader(request.getInputStream());
+        int[] depStopIds = new int[LOOKUP_BATCH_SIZE];
+        int[] arrStopIds = new int[LOOKUP_BATCH_SIZE];
+        int[] routeIds = new int[LOOKUP_BATCH_SIZE];
+        byte[] validity = new byte[LOOKUP_BATCH_SIZE];
+        int[] lookupDepStopIds = new int[LOOKUP_BATCH_SIZE];
+        int[] lookupArrStopIds = new int[LOOKUP_BATCH_SIZE];
         
+        Writer out = null;
+        boolean first = true;
+        try {
+            while (true) {
+                int count = 0;
+                while (count < LOOKUP_BATCH_SIZE && reader.readPair()) {
+                    depStopIds[count] = reader.getDepStopId();
+                    arrStopIds[count] = reader.getArrStopId();
+                    validity[count] = (byte) ((reader.isDepStopIdValid() ? DEP_VALID : 0) | (reader.isArrStopIdValid() ? ARR_VALID : 0));
+                    count++;
+                }
+                
+                int lookupCount = 0;
+                for (int i = 0; i < count; i++) {
+                    if (validity[i] == (DEP_VALID | ARR_VALID)) {
+                        lookupDepStopIds[lookupCount] = depStopIds[i];
+                        lookupArrStopIds[lookupCount] = arrStopIds[i];
+                        lookupCount++;
+                    }
+                }
+                dataProvider.findRouteIdsByTwoStopIds(lookupDepStopIds, lookupArrStopIds, routeIds, lookupCount);
+                
+                if (out == null) {
+                    response.setContentType("application/json");
+                    response.setCharacterEncoding("UTF-8");
+                    response.setStatus(HttpServletResponse.SC_OK);
+                    out = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8), 8192);
+                    out.write('[');
+                }
+                
+                int lookupIndex = 0;
+                for (int i = 0; i < count; i++) {
+                    if (!first) out.write(", ");
+                    first = false;
+                    boolean directBusRoute = validity[i] == (DEP_VALID | ARR_VALID) && routeIds[lookupIndex++] != DataProvider.NO_ROUTE;
+                    out.write("{\"dep_sid\": ");
+                    out.write((validity[i] & DEP_VALID) != 0 ? Integer.toString(depStopIds[i]) : "null");
+                    out.write(", \"arr_sid\": ");
+                    out.write((validity[i] & ARR_VALID) != 0 ? Integer.toString(arrStopIds[i]) : "null");
+                    out.write(directBusRoute ? ", \"direct_bus_route\": true}" : ", \"direct_bus_route\": false}");
+                }
+                
+                if (count < LOOKUP_BATCH_SIZE) break;
+                out.flush();
+            }
+            out.write("]\n");
+            out.flush();
+            POST_PAIRS.add(reader.getPairCount());
+            POST_LATENCY.recordSince(startTime);
+        } catch (IllegalArgumentException e) {
+            INVALID_POST_REQUESTS.increment();
+            logger.warn(e.getMessage());
+            String error = "{\"error\": \"" + e.getMessage().replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+            if (out == null) {
+                response.setContentType("application/json");
+                response.setCharacterEncoding("UTF-8");
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.getWriter().println(error);
+            } else {
+                out.write(first ? "" : ", ");
+                out.write(error);
+                out.write("]\n");
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Gets the value of lookup executor property {@link BusRouteServlet.lookupExecutor}.
+     * 
+     * @return lookup executor, {@code null} if lookups are synchronous
+     */
+    public Executor getLookupExecutor() {
+        return lookupExecutor;
+    }
+
+    /**
+     * Sets the value of lookup executor property {@link BusRouteServlet.lookupExecutor}.
+     * Servlet should be registered with async support to use executor.
+     * 
+     * @param lookupExecutor
+     *        new lookup executor, {@code null} for synchronous lookups
+     */
+    public void setLookupExecutor(Executor lookupExecutor) {
+        this.lookupExecutor = lookupExecutor;
+    }
+
+    /**
+     * Gets the value of lookup timeout property {@link BusRouteServlet.lookupTimeout}.
+     * 
+     * @return lookup timeout in milliseconds
+     */
+    public long getLookupTimeout() {
+        return lookupTimeout;
+    }
+
+    /**
+     * Sets the value of lookup timeout property {@link BusRouteServlet.lookupTimeout}.
+     * 
+     * @param lookupTimeout
+     *        new lookup timeout in milliseconds
+     */
+    public void setLookupTimeout(long lookupTimeout) {
+        this.lookupTimeout = lookupTimeout;
+    }
+
+    /**
+     * Gets the value of route ids limit property {@link BusRouteServlet.routeIdsLimit}.
+     * 
+     * @return maximum number of route ids returned by GET request
+     */
+    public int getRouteIdsLimit() {
+        return routeIdsLimit;
+    }
+
+    /**
+     * Sets the value of route ids limit property {@link BusRouteServlet.routeIdsLimit}.
+     * 
+     * @param routeIdsLimit
+     *        new maximum number of route ids returned by GET request
+     */
+    public void setRouteIdsLimit(int routeIdsLimit) {
+        this.routeIdsLimit = routeIdsLimit;
+    }
+
+    /**
+     * Create bounded lookup executor. Tasks are rejected when all threads are busy and the queue is full.
+     * 
+     * @param threads
+     *        number of lookup threads, should not exceed the number of database connections
+     * 
+     * @param queueSize
+     *        maximum number of queued lookups
+     * 
+     * @return lookup executor
+     */
+    public static ExecutorService createLookupExecutor(int threads, int queueSize) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "bus-route-lookup-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /**
@@ -107,4 +485,400 @@ public class BusRouteServlet extends HttpServlet {
         }
         return null;
     }
-}
\ No newline at end of file
+    
+    /**
+     * Parse integer parameter value from query string without creating objects.
+     * 
+     * @param query
+     *        query string, may be {@code null}
+     *        
+     * @param paramName
+     *        parameter name
+     *        
+     * @return parameter value, {@link BusRouteServlet#NO_VALUE} if parameter is absent or is not a valid number,
+     *         {@link BusRouteServlet#ENCODED_VALUE} if parameter value is URL encoded
+     */
+    private static long parseParameter(String query, String paramName) {
+        int begin = indexOfValue(query, paramName);
+        if (begin < 0) return NO_VALUE;
+        
+        int end = query.indexOf('&', begin);
+        return parseValue(query, begin, end < 0 ? query.length() : end);
+    }
+    
+    /**
+     * Find position of parameter value in query string.
+     * 
+     * @param query
+     *        query string, may be {@code null}
+     *        
+     * @param paramName
+     *        parameter name
+     *        
+     * @return position of the first value character or {@code -1} if parameter is absent
+     */
+    private static int indexOfValue(String query, String paramName) {
+        if (query == null) return -1;
+        
+        int length = query.length();
+        int begin = 0;
+        while (begin < length) {
+            int end = query.indexOf('&', begin);
+            if (end < 0) end = length;
+            int nameEnd = begin + paramName.length();
+            if (nameEnd < end && query.charAt(nameEnd) == '=' && query.regionMatches(begin, paramName, 0, paramName.length())) {
+                return nameEnd + 1;
+            }
+            begin = end + 1;
+        }
+        return -1;
+    }
+    
+    /**
+     * Parse number of requested route ids from query string parameters {@code route_ids} and {@code limit}.
+     * Missing, invalid or too large limit is replaced by {@link BusRouteServlet#routeIdsLimit}.
+     * 
+     * @param query
+     *        query string, may be {@code null}
+     *        
+     * @return number of route ids, {@code 0} if route ids are not requested
+     */
+    private int parseRouteIdsLimit(String query) {
+        int begin = indexOfValue(query, "route_ids");
+        if (begin < 0 || !query.startsWith("true", begin) || (begin + 4 < query.length() && query.charAt(begin + 4) != '&')) {
+            return 0;
+        }
+        
+        long limit = parseParameter(query, "limit");
+        return limit > 0 && limit < routeIdsLimit ? (int) limit : routeIdsLimit;
+    }
+    
+    /**
+     * Find ids of bus routes containing both stops. Single route is looked up by {@link DataProvider#findRouteIdByTwoStopIds(int, int)},
+     * so it can be answered by lookup cache.
+     * 
+     * @param dataProvider
+     *        data provider
+     *        
+     * @param dep_sid
+     *        departure stop id
+     *        
+     * @param arr_sid
+     *        arrival stop id
+     *        
+     * @param limit
+     *        maximum number of route ids
+     *        
+     * @return bus route ids
+     */
+    private static int[] findRouteIds(DataProvider dataProvider, int dep_sid, int arr_sid, int limit) {
+        if (limit == 1) {
+            return toRouteIds(dataProvider.findRouteIdByTwoStopIds(dep_sid, arr_sid));
+        }
+        return dataProvider.findAllRouteIdsByTwoStopIds(dep_sid, arr_sid, limit);
+    }
+    
+    /**
+     * Convert single route lookup result to route ids.
+     * 
+     * @param routeId
+     *        bus route id or {@link DataProvider#NO_ROUTE}
+     *        
+     * @return bus route ids
+     */
+    private static int[] toRouteIds(int routeId) {
+        return routeId == DataProvider.NO_ROUTE ? DataProvider.NO_ROUTES : new int[] {routeId};
+    }
+    
+    /**
+     * Parse integer value from query string part, accepting the same values as {@link Integer#valueOf(String)}.
+     * 
+     * @param query
+     *        query string
+     *        
+     * @param begin
+     *        first value character position
+     *        
+     * @param end
+     *        position after the last value character
+     *        
+     * @return parsed value, {@link BusRouteServlet#NO_VALUE} if value is not a valid number,
+     *         {@link BusRouteServlet#ENCODED_VALUE} if value is URL encoded
+     */
+    private static long parseValue(String query, int begin, int end) {
+        for (int i = begin; i < end; i++) {
+            char c = query.charAt(i);
+            if (c == '%' || c == '+') return ENCODED_VALUE;
+        }
+        
+        boolean negative = false;
+        if (begin < end && query.charAt(begin) == '-') {
+            negative = true;
+            begin++;
+        }
+        if (begin == end) return NO_VALUE;
+        
+        long value = 0;
+        for (int i = begin; i < end; i++) {
+            char c = query.charAt(i);
+            if (c < '0' || c > '9') return NO_VALUE;
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE + 1L) return NO_VALUE;
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? NO_VALUE : value;
+    }
+    
+    /**
+     * Convert parameter value read by {@link HttpServletRequest#getParameter(String)} to parsed parameter value.
+     * 
+     * @param value
+     *        parameter value
+     *        
+     * @return parsed parameter value or {@link BusRouteServlet#NO_VALUE}
+     */
+    private static long toParameterValue(Integer value) {
+        return value != null ? value.longValue() : NO_VALUE;
+    }
+    
+    /**
+     * Write GET response from encoded templates.
+     * 
+     * @param response
+     *        http servlet response
+     *        
+     * @param dep_sid
+     *        parsed departure stop id
+     *        
+     * @param arr_sid
+     *        parsed arrival stop id
+     *        
+     * @param routeIds
+     *        found bus route ids, {@code null} if route ids are not requested
+     *        
+     * @param directBusRoute
+     *        bus route is found
+     *        
+     * @param startTime
+     *        request processing start time from {@link System#nanoTime()}
+     *        
+     * @throws IOException if response can not be written
+     */
+    private static void writeLookupResponse(HttpServletResponse response, long dep_sid, long arr_sid, int[] routeIds, boolean directBusRoute, long startTime) throws IOException {
+        byte[] buffer = RESPONSE_BUFFER.get();
+        if (routeIds != null && RESPONSE_BUFFER_SIZE + routeIds.length * MAX_ROUTE_ID_LENGTH > buffer.length) {
+            buffer = new byte[RESPONSE_BUFFER_SIZE + routeIds.length * MAX_ROUTE_ID_LENGTH];
+            RESPONSE_BUFFER.set(buffer);
+        }
+        int length = copy(DEP_SID_PREFIX, buffer, 0);
+        length = writeValue(dep_sid, buffer, length);
+        length = copy(ARR_SID_PREFIX, buffer, length);
+        length = writeValue(arr_sid, buffer, length);
+        if (routeIds == null) {
+            length = copy(directBusRoute ? DIRECT_TRUE_SUFFIX : DIRECT_FALSE_SUFFIX, buffer, length);
+        } else if (routeIds.length == 0) {
+            length = copy(ROUTE_IDS_FALSE_SUFFIX, buffer, length);
+        } else {
+            length = copy(ROUTE_IDS_TRUE_PREFIX, buffer, length);
+            for (int i = 0; i < routeIds.length; i++) {
+                if (i > 0) length = copy(ROUTE_ID_SEPARATOR, buffer, length);
+                length = writeValue(routeIds[i], buffer, length);
+            }
+            length = copy(ROUTE_IDS_TRUE_SUFFIX, buffer, length);
+        }
+        
+        response.setContentType(CONTENT_TYPE);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentLength(length);
+        response.getOutputStream().write(buffer, 0, length);
+        GET_LATENCY.recordSince(startTime);
+    }
+    
+    /**
+     * Copy encoded template into buffer.
+     * 
+     * @param template
+     *        encoded template
+     *        
+     * @param buffer
+     *        target buffer
+     *        
+     * @param position
+     *        target position
+     *        
+     * @return position after copied bytes
+     */
+    private static int copy(byte[] template, byte[] buffer, int position) {
+        System.arraycopy(template, 0, buffer, position, template.length);
+        return position + template.length;
+    }
+    
+    /**
+     * Write parsed parameter value into buffer as decimal number or {@code null}.
+     * 
+     * @param value
+     *        parsed parameter value
+     *        
+     * @param buffer
+     *        target buffer
+     *        
+     * @param position
+     *        target position
+     *        
+     * @return position after written bytes
+     */
+    private static int writeValue(long value, byte[] buffer, int position) {
+        if (value == NO_VALUE) return copy(NULL_VALUE, buffer, position);
+        
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + digits;
+    }
+    
+    /**
+     * Asynchronous lookup of GET request.
+     * Lookup result or timeout error is written by whichever comes first, the other one is discarded.
+     */
+    private static final class AsyncLookup implements Runnable, AsyncListener {
+        /**
+         * Lookup is queued
+         */
+        private static final int PENDING = 0;
+        
+        /**
+         * Lookup is running
+         */
+        private static final int RUNNING = 1;
+        
+        /**
+         * Response is written
+         */
+        private static final int DONE = 2;
+        
+        /**
+         * Async context of request
+         */
+        private final AsyncContext asyncContext;
+        
+        /**
+         * Data provider
+         */
+        private final DataProvider dataProvider;
+        
+        /**
+         * Departure stop id
+         */
+        private final int dep_sid;
+        
+        /**
+         * Arrival stop id
+         */
+        private final int arr_sid;
+        
+        /**
+         * Maximum number of route ids, {@code 0} if route ids are not requested
+         */
+        private final int limit;
+        
+        /**
+         * Request processing start time from {@link System#nanoTime()}
+         */
+        private final long startTime;
+        
+        /**
+         * Lookup state: {@link AsyncLookup#PENDING}, {@link AsyncLookup#RUNNING} or {@link AsyncLookup#DONE}
+         */
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        
+        AsyncLookup(AsyncContext asyncContext, DataProvider dataProvider, int dep_sid, int arr_sid, int limit, long startTime) {
+            this.limit = limit;
+            this.startTime = startTime;
+            this.asyncContext = asyncContext;
+            this.dataProvider = dataProvider;
+            this.dep_sid = dep_sid;
+            this.arr_sid = arr_sid;
+        }
+        
+        @Override
+        public void run() {
+            if (!state.compareAndSet(PENDING, RUNNING)) return;
+            
+            int[] routeIds = null;
+            boolean directBusRoute;
+            try {
+                if (limit > 0) {
+                    routeIds = findRouteIds(dataProvider, dep_sid, arr_sid, limit);
+                    directBusRoute = routeIds.length > 0;
+                } else {
+                    directBusRoute = dataProvider.findRouteIdByTwoStopIds(dep_sid, arr_sid) != DataProvider.NO_ROUTE;
+                }
+            } catch (RuntimeException e) {
+                logger.error("Error processing lookup " + dep_sid + "/" + arr_sid, e);
+                fail("Lookup failed", FAILED_LOOKUPS);
+                return;
+            }
+            
+            if (!state.compareAndSet(RUNNING, DONE)) return;
+            try {
+                writeLookupResponse((HttpServletResponse) asyncContext.getResponse(), dep_sid, arr_sid, routeIds, directBusRoute, startTime);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Error writing lookup response: " + e.getMessage());
+            } finally {
+                asyncContext.complete();
+            }
+        }
+        
+        /**
+         * Answer request with status 503 (Service Unavailable) if response is not written yet.
+         * 
+         * @param message
+         *        error message
+         * 
+         * @param reason
+         *        counter of failure reason
+         */
+        void fail(String message, Counter reason) {
+            if (state.getAndSet(DONE) == DONE) return;
+            
+            reason.increment();
+            try {
+                HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+                response.setContentType(CONTENT_TYPE);
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.getOutputStream().write(("{\"error\": \"" + message + "\"}\n").getBytes(StandardCharsets.UTF_8));
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Error writing lookup error response: " + e.getMessage());
+            } finally {
+                asyncContext.complete();
+            }
+        }
+        
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            fail("Lookup timed out", TIMEOUT_REJECTIONS);
+        }
+        
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            state.set(DONE);
+        }
+        
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+        }
+        
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+    }
+}
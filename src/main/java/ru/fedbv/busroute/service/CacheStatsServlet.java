@@ -0,0 +1,71 @@
+package ru.fedbv.busroute.service;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ru.fedbv.busroute.model.CachingDataProvider;
+
+/**
+ * Lookup cache statistics servlet class
+ */
+public class CacheStatsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Caching data provider property
+     */
+    private CachingDataProvider cachingDataProvider;
+
+    /**
+     * Process GET request to servlet. Return lookup cache statistics as JSON:
+     * <code>{"size": size, "maximum_size": maximum_size, "hit_count": hit_count, "miss_count": miss_count,
+     * "hit_ratio": hit_ratio, "eviction_count": eviction_count, "rejection_count": rejection_count, "dataset_version": dataset_version}</code>
+     *
+     * @param request
+     *        http servlet request
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @throws ServletException, IOException
+     */
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String jsonResponse = "{\"size\": " + cachingDataProvider.size()
+                + ", \"maximum_size\": " + cachingDataProvider.getMaximumSize()
+                + ", \"hit_count\": " + cachingDataProvider.getHitCount()
+                + ", \"miss_count\": " + cachingDataProvider.getMissCount()
+                + ", \"hit_ratio\": " + String.format(Locale.ROOT, "%.4f", cachingDataProvider.getHitRatio())
+                + ", \"eviction_count\": " + cachingDataProvider.getEvictionCount()
+                + ", \"rejection_count\": " + cachingDataProvider.getRejectionCount()
+                + ", \"dataset_version\": " + cachingDataProvider.getDatasetVersion() + "}";
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().println(jsonResponse);
+    }
+
+    /**
+     * Gets the value of caching data provider property {@link CacheStatsServlet.cachingDataProvider}.
+     *
+     * @return caching data provider property
+     */
+    public CachingDataProvider getCachingDataProvider() {
+        return cachingDataProvider;
+    }
+
+    /**
+     * Sets the value of caching data provider property {@link CacheStatsServlet.cachingDataProvider}.
+     *
+     * @param cachingDataProvider
+     *        new caching data provider property
+     */
+    public void setCachingDataProvider(CachingDataProvider cachingDataProvider) {
+        this.cachingDataProvider = cachingDataProvider;
+    }
+}
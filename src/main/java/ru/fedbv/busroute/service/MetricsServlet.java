@@ -0,0 +1,74 @@
+package ru.fedbv.busroute.service;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ru.fedbv.busroute.metrics.MetricsRegistry;
+
+/** 
+ * Application metrics servlet class
+ */
+public class MetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Metrics registry property
+     */
+    private transient MetricsRegistry metricsRegistry = MetricsRegistry.getDefault();
+
+    /**
+     * Process GET request to servlet. Return all metrics as JSON object, latencies are in microseconds:
+     * <code>{"counter_name": value, "histogram_name": {"count": count, "mean_us": mean, "p50_us": p50, ...}, ...}</code>
+     * Metrics are returned in Prometheus text format if parameter {@code format=prometheus} is set
+     * or {@code Accept} header requests {@code text/plain}.
+     *  
+     * @param request
+     *        http servlet request
+     * 
+     * @param response
+     *        http servlet response
+     * 
+     * @throws ServletException, IOException
+     */
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String accept = request.getHeader("Accept");
+        boolean prometheus = "prometheus".equals(request.getParameter("format")) 
+                || (accept != null && accept.contains("text/plain") && !accept.contains("application/json"));
+        
+        StringBuilder out = new StringBuilder(16384);
+        if (prometheus) {
+            metricsRegistry.writePrometheus(out);
+            response.setContentType("text/plain; version=0.0.4");
+        } else {
+            metricsRegistry.writeJson(out);
+            out.append('\n');
+            response.setContentType("application/json");
+        }
+        response.setCharacterEncoding("UTF-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().write(out.toString());
+    }
+
+    /**
+     * Gets the value of metrics registry property {@link MetricsServlet.metricsRegistry}.
+     * 
+     * @return metrics registry property
+     */
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Sets the value of metrics registry property {@link MetricsServlet.metricsRegistry}.
+     * 
+     * @param metricsRegistry
+     *        new metrics registry property
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+}
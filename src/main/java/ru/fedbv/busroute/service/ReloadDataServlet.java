@@ -1,12 +1,18 @@
 package ru.fedbv.busroute.service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import ru.fedbv.busroute.metrics.Counter;
+import ru.fedbv.busroute.metrics.LatencyHistogram;
+import ru.fedbv.busroute.metrics.MetricsRegistry;
 import ru.fedbv.busroute.model.DataProvider;
 import ru.fedbv.busroute.model.LoadResult;
 
@@ -15,16 +21,54 @@ import ru.fedbv.busroute.model.LoadResult;
  */
 public class ReloadDataServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
+    
+    /**
+     * Number of reload requests
+     */
+    private static final Counter RELOAD_REQUESTS = MetricsRegistry.getDefault().counter("bus_route_http_reload_requests_total", "", "Number of data reload requests");
+    
+    /**
+     * Number of reload requests rejected because another reload is in progress
+     */
+    private static final Counter RELOAD_CONFLICTS = MetricsRegistry.getDefault().counter("bus_route_http_reload_conflicts_total", "", "Number of data reload requests rejected because another reload is in progress");
+    
+    /**
+     * Reload request latency
+     */
+    private static final LatencyHistogram RELOAD_LATENCY = MetricsRegistry.getDefault().histogram("bus_route_http_reload_request_seconds", "", "Latency of data reload requests");
 
     /**
      * Data provider property
      */
     private DataProvider dataProvider;
 
+    /**
+     * Snapshot replicator of follower instance property, {@code null} if data is loaded from source file
+     */
+    private SnapshotReplicator snapshotReplicator;
+
+    /**
+     * Background reload job manager property, {@code null} if data is reloaded on request thread
+     */
+    private ReloadJobManager reloadJobManager;
+
     /**
      * Process GET request to servlet. Reload data store.
+     * If reload job manager is set, reload is started as background job and the request returns immediately
+     * with status 202 (Accepted) and JSON: <code>{"job_id": job_id, "status": "running"}</code>
+     * Job status is available from {@link ReloadJobServlet} at the URL in {@code Location} header.
+     * If another job is running, the request is rejected with status 409 (Conflict) and id of the running job.
+     * With {@code wait=true} parameter or without reload job manager data store is reloaded on request thread.
      * Reload data store. Return {@LoadResult} as JSON:
      * <code>{"load_count": load_count, "error_count": error_count}</code>
+     * Database data provider also returns {@code rows_per_second} of the load.
+     * Incremental reload also returns {@code "incremental": true} with {@code added_count}, {@code updated_count}
+     * and {@code deleted_count} of applied bus route changes.
+     * Lookups use the previous data until the new data is completely loaded.
+     * If another reload is in progress, the request is rejected with status 409 (Conflict),
+     * failed load is reported with status 500 (Internal Server Error) and previous data stays published.
+     * Follower instance loads snapshot of leader instead of source file, the request returns empty results
+     * if the leader has the same dataset version.
      *  
      * @param request
      *        http servlet request
@@ -35,18 +79,60 @@ public class ReloadDataServlet extends HttpServlet {
      * @throws ServletException, IOException
      */
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-        
-        LoadResult loadResult = dataProvider.init();
-        String jsonResponse = "{\"load_count\": " + loadResult.getLoad_count() +", \"error_count\": " + loadResult.getError_count() + "}";
-        
+        long startTime = System.nanoTime();
+        RELOAD_REQUESTS.increment();
+        if (reloadJobManager != null && !Boolean.valueOf(request.getParameter("wait"))) {
+            startJob(request, response, startTime);
+            return;
+        }
+        LoadResult loadResult = snapshotReplicator != null ? snapshotReplicator.sync() : dataProvider.init();
+        sendLoadResult(response, loadResult, startTime);
+    }
+    
+    /**
+     * Start background reload job and send its id as JSON.
+     * 
+     * @param request
+     *        http servlet request
+     * 
+     * @param response
+     *        http servlet response
+     * 
+     * @param startTime
+     *        request start time from {@link System#nanoTime()}
+     * 
+     * @throws IOException
+     */
+    private void startJob(HttpServletRequest request, HttpServletResponse response, long startTime) throws IOException {
+        ReloadJob job = reloadJobManager.submit();
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
-        response.setStatus(HttpServletResponse.SC_OK);
-        response.getWriter().println(jsonResponse);
+        if (job == null) {
+            RELOAD_CONFLICTS.increment();
+            ReloadJob runningJob = reloadJobManager.getRunningJob();
+            response.setStatus(HttpServletResponse.SC_CONFLICT);
+            response.getWriter().println("{\"error\": \"Data reload is already in progress\""
+                    + (runningJob != null ? ", \"job_id\": " + runningJob.getId() : "") + "}");
+            return;
+        }
+        
+        RELOAD_LATENCY.recordSince(startTime);
+        response.setHeader("Location", request.getContextPath() + ReloadJobServlet.JOBS_PATH + "?job_id=" + job.getId());
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        response.getWriter().println("{\"job_id\": " + job.getId() + ", \"status\": \"running\"}");
     }
     
     /**
-     * Stub for POST request to servlet  
+     * Process POST request to servlet. Load data store from request body instead of source file.
+     * Request body has source file format, plain or compressed with gzip ({@code Content-Encoding: gzip}
+     * or {@code Content-Type: application/gzip}), e.g.
+     * <code>curl --data-binary @routes.txt.gz -H "Content-Encoding: gzip" http://host:8088/api/reload-data</code>
+     * The body is parsed while it is received and published like reloaded source file.
+     * Return {@LoadResult} as JSON like GET request. If another reload is in progress, the request is rejected
+     * with status 409 (Conflict), body not in gzip format, truncated or aborted body with status 400 (Bad Request),
+     * internal load error is reported with status 500 (Internal Server Error). Previous data stays published
+     * if the load is not complete.
+     * Follower instance rejects the request with status 403 (Forbidden).
      * 
      * @param request
      *        http servlet request
@@ -57,7 +143,105 @@ public class ReloadDataServlet extends HttpServlet {
      * @throws ServletException, IOException
      */
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        long startTime = System.nanoTime();
+        RELOAD_REQUESTS.increment();
+        if (snapshotReplicator != null) {
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            response.getWriter().println("{\"error\": \"Follower instance loads data from leader\"}");
+            return;
+        }
+        
+        InputStream in = request.getInputStream();
+        if (isGzip(request)) {
+            try {
+                in = new GZIPInputStream(in, 65536);
+            } catch (ZipException e) {
+                response.setContentType("application/json");
+                response.setCharacterEncoding("UTF-8");
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.getWriter().println("{\"error\": \"Request body is not in gzip format\"}");
+                return;
+            }
+        }
+        
+        LoadResult loadResult;
+        try {
+            loadResult = dataProvider.loadStream(in);
+        } finally {
+            in.close();
+        }
+        sendLoadResult(response, loadResult, startTime);
+    }
+    
+    /**
+     * Check whether request body is compressed with gzip.
+     * 
+     * @param request
+     *        http servlet request
+     * 
+     * @return {@code true} if request body is compressed with gzip
+     */
+    private boolean isGzip(HttpServletRequest request) {
+        String encoding = request.getHeader("Content-Encoding");
+        String contentType = request.getContentType();
+        return (encoding != null && encoding.trim().equalsIgnoreCase("gzip"))
+                || (contentType != null && contentType.trim().toLowerCase().startsWith("application/gzip"));
+    }
+    
+    /**
+     * Record reload metrics and send {@LoadResult} as JSON.
+     * 
+     * @param response
+     *        http servlet response
+     * 
+     * @param loadResult
+     *        load results statistics
+     * 
+     * @param startTime
+     *        request start time from {@link System#nanoTime()}
+     * 
+     * @throws IOException
+     */
+    private void sendLoadResult(HttpServletResponse response, LoadResult loadResult, long startTime) throws IOException {
+        if (loadResult.isRejected()) {
+            RELOAD_CONFLICTS.increment();
+        } else {
+            RELOAD_LATENCY.recordSince(startTime);
+        }
+        String jsonResponse = "{" + toJsonFields(loadResult) + "}";
+        int status = HttpServletResponse.SC_OK;
+        if (loadResult.isRejected()) {
+            jsonResponse = "{\"error\": \"Data reload is already in progress\"}";
+            status = HttpServletResponse.SC_CONFLICT;
+        } else if (loadResult.isInvalidInput()) {
+            jsonResponse = "{\"error\": \"Request body is truncated or malformed, data is not loaded\"}";
+            status = HttpServletResponse.SC_BAD_REQUEST;
+        } else if (loadResult.isFailed()) {
+            jsonResponse = "{\"error\": \"Data load failed, previous data stays published\"}";
+            status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        }
         
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setStatus(status);
+        response.getWriter().println(jsonResponse);
+    }
+
+    /**
+     * Format {@LoadResult} as JSON fields without enclosing braces.
+     * 
+     * @param loadResult
+     *        load results statistics
+     * 
+     * @return JSON fields
+     */
+    static String toJsonFields(LoadResult loadResult) {
+        return "\"load_count\": " + loadResult.getLoad_count() +", \"error_count\": " + loadResult.getError_count()
+                + (loadResult.getRows_per_second() > 0 ? ", \"rows_per_second\": " + loadResult.getRows_per_second() : "")
+                + (loadResult.isIncremental() ? ", \"incremental\": true, \"added_count\": " + loadResult.getAdded_count()
+                        + ", \"updated_count\": " + loadResult.getUpdated_count() + ", \"deleted_count\": " + loadResult.getDeleted_count() : "");
     }
 
     /**
@@ -78,4 +262,42 @@ public class ReloadDataServlet extends HttpServlet {
     public void setDataProvider(DataProvider dataProvider) {
         this.dataProvider = dataProvider;
     }
+
+    /**
+     * Gets the value of snapshot replicator property {@link ReloadDataServlet.snapshotReplicator}.
+     * 
+     * @return snapshot replicator property
+     */
+    public SnapshotReplicator getSnapshotReplicator() {
+        return snapshotReplicator;
+    }
+
+    /**
+     * Sets the value of snapshot replicator property {@link ReloadDataServlet.snapshotReplicator}.
+     * 
+     * @param snapshotReplicator
+     *        new snapshot replicator property
+     */
+    public void setSnapshotReplicator(SnapshotReplicator snapshotReplicator) {
+        this.snapshotReplicator = snapshotReplicator;
+    }
+
+    /**
+     * Gets the value of background reload job manager property {@link ReloadDataServlet.reloadJobManager}.
+     * 
+     * @return reload job manager property
+     */
+    public ReloadJobManager getReloadJobManager() {
+        return reloadJobManager;
+    }
+
+    /**
+     * Sets the value of background reload job manager property {@link ReloadDataServlet.reloadJobManager}.
+     * 
+     * @param reloadJobManager
+     *        new reload job manager property
+     */
+    public void setReloadJobManager(ReloadJobManager reloadJobManager) {
+        this.reloadJobManager = reloadJobManager;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,159 @@
+package ru.fedbv.busroute.service;
+
+import ru.fedbv.busroute.model.LoadProgress;
+import ru.fedbv.busroute.model.LoadResult;
+
+/**
+ * Background reload job class.
+ * Job state and load result are set by the job thread, load progress is updated by the loader,
+ * so job status can be read by status requests while the job is running.
+ */
+public class ReloadJob {
+
+    /**
+     * Reload job state
+     */
+    public enum State {
+        /** Job is waiting or loading data */
+        RUNNING,
+        /** Data is loaded and published */
+        COMPLETED,
+        /** Load was rejected because another load is in progress */
+        REJECTED,
+        /** Load was cancelled, previous data stays published */
+        CANCELLED,
+        /** Load failed with unexpected error */
+        FAILED
+    }
+
+    /**
+     * Job id property
+     */
+    private final long id;
+
+    /**
+     * Load progress property
+     */
+    private final LoadProgress progress = new LoadProgress();
+
+    /**
+     * Job creation time in milliseconds property
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * Job end time in milliseconds property, {@code 0} if job is running
+     */
+    private volatile long endTime;
+
+    /**
+     * Job state property
+     */
+    private volatile State state = State.RUNNING;
+
+    /**
+     * Load results statistics property, {@code null} if job is running
+     */
+    private volatile LoadResult loadResult;
+
+    /**
+     * Constructs new reload job
+     *
+     * @param id
+     *        job id
+     */
+    public ReloadJob(long id) {
+        this.id = id;
+    }
+
+    /**
+     * Complete job with load results. Job state is defined by load results.
+     *
+     * @param loadResult
+     *        load results statistics
+     */
+    void complete(LoadResult loadResult) {
+        this.loadResult = loadResult;
+        finish(loadResult.isRejected() ? State.REJECTED : loadResult.isCancelled() ? State.CANCELLED
+                : loadResult.isFailed() ? State.FAILED : State.COMPLETED);
+    }
+
+    /**
+     * Finish job with defined state.
+     *
+     * @param state
+     *        final job state
+     */
+    void finish(State state) {
+        progress.finish();
+        endTime = System.currentTimeMillis();
+        this.state = state;
+    }
+
+    /**
+     * Request job cancel. Running load stops before new data is published.
+     *
+     * @return {@code true} if cancel was requested, {@code false} if job is already finished
+     */
+    public boolean cancel() {
+        if (state != State.RUNNING) return false;
+
+        progress.cancel();
+        return true;
+    }
+
+    /**
+     * Gets the time since job creation until job end or until now if job is running.
+     *
+     * @return elapsed time in milliseconds
+     */
+    public long getElapsedMillis() {
+        long end = endTime;
+        return (end == 0 ? System.currentTimeMillis() : end) - startTime;
+    }
+
+    /**
+     * Gets the value of job id property {@link ReloadJob.id}.
+     *
+     * @return job id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Gets the value of load progress property {@link ReloadJob.progress}.
+     *
+     * @return load progress
+     */
+    public LoadProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Gets the value of job creation time property {@link ReloadJob.startTime}.
+     *
+     * @return job creation time in milliseconds
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Gets the value of job state property {@link ReloadJob.state}.
+     *
+     * @return job state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the value of load results statistics property {@link ReloadJob.loadResult}.
+     *
+     * @return load results statistics or {@code null} if job is running or failed
+     */
+    public LoadResult getLoadResult() {
+        return loadResult;
+    }
+}
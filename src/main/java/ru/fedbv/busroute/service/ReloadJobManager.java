@@ -0,0 +1,209 @@
+package ru.fedbv.busroute.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.fedbv.busroute.metrics.Counter;
+import ru.fedbv.busroute.metrics.MetricsRegistry;
+import ru.fedbv.busroute.model.DataProvider;
+import ru.fedbv.busroute.model.LoadResult;
+
+/**
+ * Background reload job manager class.
+ * Reload jobs run one at a time on a single daemon thread, so reload requests are answered with job id
+ * immediately and do not keep request threads busy. Finished jobs are kept for status requests,
+ * the oldest finished jobs are dropped when the number of kept jobs exceeds the limit.
+ */
+public class ReloadJobManager {
+    public static Logger logger = LoggerFactory.getLogger(ReloadJobManager.class);
+
+    /**
+     * Number of finished reload jobs
+     */
+    private static final Counter JOBS_COMPLETED = MetricsRegistry.getDefault().counter("bus_route_reload_jobs_total", "state=\"completed\"", "Number of finished background reload jobs");
+
+    /**
+     * Number of rejected reload jobs
+     */
+    private static final Counter JOBS_REJECTED = MetricsRegistry.getDefault().counter("bus_route_reload_jobs_total", "state=\"rejected\"", "Number of finished background reload jobs");
+
+    /**
+     * Number of cancelled reload jobs
+     */
+    private static final Counter JOBS_CANCELLED = MetricsRegistry.getDefault().counter("bus_route_reload_jobs_total", "state=\"cancelled\"", "Number of finished background reload jobs");
+
+    /**
+     * Number of failed reload jobs
+     */
+    private static final Counter JOBS_FAILED = MetricsRegistry.getDefault().counter("bus_route_reload_jobs_total", "state=\"failed\"", "Number of finished background reload jobs");
+
+    /**
+     * Data provider property
+     */
+    private final DataProvider dataProvider;
+
+    /**
+     * Snapshot replicator of follower instance property, {@code null} if data is loaded from source file
+     */
+    private final SnapshotReplicator snapshotReplicator;
+
+    /**
+     * Maximal number of kept jobs property
+     */
+    private final int maxJobs;
+
+    /**
+     * Kept jobs by id in creation order
+     */
+    private final LinkedHashMap<Long, ReloadJob> jobs = new LinkedHashMap<Long, ReloadJob>();
+
+    /**
+     * Job thread executor
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Id of the last created job
+     */
+    private long lastJobId;
+
+    /**
+     * Running job, {@code null} if no job is running
+     */
+    private ReloadJob runningJob;
+
+    /**
+     * Constructs new reload job manager
+     *
+     * @param dataProvider
+     *        data provider to reload
+     *
+     * @param snapshotReplicator
+     *        snapshot replicator of follower instance or {@code null} if data is loaded from source file
+     *
+     * @param maxJobs
+     *        maximal number of kept jobs
+     */
+    public ReloadJobManager(DataProvider dataProvider, SnapshotReplicator snapshotReplicator, int maxJobs) {
+        this.dataProvider = dataProvider;
+        this.snapshotReplicator = snapshotReplicator;
+        this.maxJobs = Math.max(maxJobs, 1);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bus-route-reload-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Create reload job and start it in background.
+     *
+     * @return created job or {@code null} if another job is running
+     */
+    public synchronized ReloadJob submit() {
+        if (runningJob != null) return null;
+
+        ReloadJob job = new ReloadJob(++lastJobId);
+        runningJob = job;
+        jobs.put(job.getId(), job);
+        removeFinishedJobs();
+        executor.execute(() -> run(job));
+        logger.info("Reload job " + job.getId() + " started");
+        return job;
+    }
+
+    /**
+     * Run reload job on job thread.
+     *
+     * @param job
+     *        reload job
+     */
+    private void run(ReloadJob job) {
+        try {
+            LoadResult loadResult = snapshotReplicator != null ? snapshotReplicator.sync(job.getProgress()) : dataProvider.init(job.getProgress());
+            job.complete(loadResult);
+        } catch (RuntimeException e) {
+            logger.error("Reload job " + job.getId() + " failed: " + e.getClass().getName() + ": " + e.getMessage());
+            job.finish(ReloadJob.State.FAILED);
+        } finally {
+            synchronized (this) {
+                runningJob = null;
+            }
+        }
+
+        switch (job.getState()) {
+        case COMPLETED:
+            JOBS_COMPLETED.increment();
+            break;
+        case REJECTED:
+            JOBS_REJECTED.increment();
+            break;
+        case CANCELLED:
+            JOBS_CANCELLED.increment();
+            break;
+        default:
+            JOBS_FAILED.increment();
+        }
+        logger.info("Reload job " + job.getId() + " " + job.getState().name().toLowerCase() + " in " + job.getElapsedMillis() + " ms");
+    }
+
+    /**
+     * Remove the oldest finished jobs exceeding the limit of kept jobs.
+     */
+    private void removeFinishedJobs() {
+        Iterator<Map.Entry<Long, ReloadJob>> iterator = jobs.entrySet().iterator();
+        while (jobs.size() > maxJobs && iterator.hasNext()) {
+            if (iterator.next().getValue() != runningJob) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Find kept job by id.
+     *
+     * @param id
+     *        job id
+     *
+     * @return job or {@code null} if job is not found
+     */
+    public synchronized ReloadJob getJob(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Gets the kept jobs.
+     *
+     * @return jobs in creation order
+     */
+    public synchronized List<ReloadJob> getJobs() {
+        return new ArrayList<ReloadJob>(jobs.values());
+    }
+
+    /**
+     * Gets the running job.
+     *
+     * @return running job or {@code null} if no job is running
+     */
+    public synchronized ReloadJob getRunningJob() {
+        return runningJob;
+    }
+
+    /**
+     * Stop job thread. Running job is cancelled.
+     */
+    public synchronized void stop() {
+        if (runningJob != null) {
+            runningJob.cancel();
+        }
+        executor.shutdown();
+    }
+}
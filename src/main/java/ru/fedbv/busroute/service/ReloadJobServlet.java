@@ -0,0 +1,185 @@
+package ru.fedbv.busroute.service;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ru.fedbv.busroute.model.LoadProgress;
+import ru.fedbv.busroute.model.LoadResult;
+
+/**
+ * Background reload job status servlet class.
+ * Reports progress of reload jobs started by {@link ReloadDataServlet} and cancels them.
+ */
+public class ReloadJobServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Reload job status path
+     */
+    public static final String JOBS_PATH = "/api/reload-jobs";
+
+    /**
+     * Background reload job manager property
+     */
+    private ReloadJobManager reloadJobManager;
+
+    /**
+     * Process GET request to servlet. Return status of job with id from {@code job_id} parameter as JSON:
+     * <code>{"job_id": job_id, "status": status, "lines_parsed": lines_parsed, "bytes_read": bytes_read,
+     * "total_bytes": total_bytes, "error_lines": error_lines, "lines_per_second": lines_per_second,
+     * "bytes_per_second": bytes_per_second, "eta_ms": eta_ms, "elapsed_ms": elapsed_ms}</code>
+     * Status is one of {@code running}, {@code completed}, {@code rejected}, {@code cancelled} and {@code failed},
+     * finished job also returns {@LoadResult} fields like {@link ReloadDataServlet}.
+     * {@code total_bytes} and {@code eta_ms} are {@code -1} if they are unknown.
+     * Without {@code job_id} parameter JSON array of all kept jobs is returned.
+     * Invalid job id is rejected with status 400 (Bad Request), unknown job with status 404 (Not Found).
+     *
+     * @param request
+     *        http servlet request
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @throws ServletException, IOException
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if (request.getParameter("job_id") == null) {
+            List<ReloadJob> jobs = reloadJobManager.getJobs();
+            StringBuilder jsonResponse = new StringBuilder("[");
+            for (int i = 0; i < jobs.size(); i++) {
+                jsonResponse.append(i > 0 ? ", " : "").append(toJson(jobs.get(i)));
+            }
+            sendResponse(response, HttpServletResponse.SC_OK, jsonResponse.append("]").toString());
+            return;
+        }
+
+        ReloadJob job = findJob(request, response);
+        if (job == null) return;
+
+        sendResponse(response, HttpServletResponse.SC_OK, toJson(job));
+    }
+
+    /**
+     * Process DELETE request to servlet. Cancel job with id from {@code job_id} parameter.
+     * The load stops before new data is published and the previous data stays published.
+     * Return job status as JSON like GET request. Finished job is rejected with status 409 (Conflict),
+     * invalid job id with status 400 (Bad Request), unknown job with status 404 (Not Found).
+     *
+     * @param request
+     *        http servlet request
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @throws ServletException, IOException
+     */
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        ReloadJob job = findJob(request, response);
+        if (job == null) return;
+
+        if (!job.cancel()) {
+            sendResponse(response, HttpServletResponse.SC_CONFLICT, "{\"error\": \"Reload job " + job.getId() + " is already "
+                    + job.getState().name().toLowerCase() + "\"}");
+            return;
+        }
+        sendResponse(response, HttpServletResponse.SC_OK, toJson(job));
+    }
+
+    /**
+     * Find job with id from {@code job_id} parameter. If job is not found, error response is sent.
+     *
+     * @param request
+     *        http servlet request
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @return job or {@code null} if job is not found
+     *
+     * @throws IOException
+     */
+    private ReloadJob findJob(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long jobId;
+        try {
+            jobId = Long.parseLong(request.getParameter("job_id"));
+        } catch (NumberFormatException e) {
+            sendResponse(response, HttpServletResponse.SC_BAD_REQUEST, "{\"error\": \"Parameter job_id should be integer\"}");
+            return null;
+        }
+
+        ReloadJob job = reloadJobManager.getJob(jobId);
+        if (job == null) {
+            sendResponse(response, HttpServletResponse.SC_NOT_FOUND, "{\"error\": \"Reload job " + jobId + " is not found\"}");
+        }
+        return job;
+    }
+
+    /**
+     * Format job status as JSON.
+     *
+     * @param job
+     *        reload job
+     *
+     * @return JSON object
+     */
+    private String toJson(ReloadJob job) {
+        ReloadJob.State state = job.getState();
+        LoadProgress progress = job.getProgress();
+        LoadResult loadResult = job.getLoadResult();
+        return "{\"job_id\": " + job.getId() + ", \"status\": \"" + state.name().toLowerCase() + "\""
+                + (state == ReloadJob.State.RUNNING && progress.isCancelled() ? ", \"cancel_requested\": true" : "")
+                + ", \"lines_parsed\": " + progress.getLinesParsed() + ", \"bytes_read\": " + progress.getBytesRead()
+                + ", \"total_bytes\": " + progress.getTotalBytes() + ", \"error_lines\": " + progress.getErrorLines()
+                + ", \"lines_per_second\": " + progress.getLinesPerSecond() + ", \"bytes_per_second\": " + progress.getBytesPerSecond()
+                + ", \"eta_ms\": " + (state == ReloadJob.State.RUNNING ? progress.getEtaMillis() : 0)
+                + ", \"elapsed_ms\": " + job.getElapsedMillis()
+                + (loadResult != null ? ", " + ReloadDataServlet.toJsonFields(loadResult) : "") + "}";
+    }
+
+    /**
+     * Send JSON response.
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @param status
+     *        http status
+     *
+     * @param jsonResponse
+     *        JSON response body
+     *
+     * @throws IOException
+     */
+    private void sendResponse(HttpServletResponse response, int status, String jsonResponse) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setStatus(status);
+        response.getWriter().println(jsonResponse);
+    }
+
+    /**
+     * Gets the value of background reload job manager property {@link ReloadJobServlet.reloadJobManager}.
+     *
+     * @return reload job manager property
+     */
+    public ReloadJobManager getReloadJobManager() {
+        return reloadJobManager;
+    }
+
+    /**
+     * Sets the value of background reload job manager property {@link ReloadJobServlet.reloadJobManager}.
+     *
+     * @param reloadJobManager
+     *        new reload job manager property
+     */
+    public void setReloadJobManager(ReloadJobManager reloadJobManager) {
+        this.reloadJobManager = reloadJobManager;
+    }
+}
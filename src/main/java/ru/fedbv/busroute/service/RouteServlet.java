@@ -0,0 +1,331 @@
+package ru.fedbv.busroute.service;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ru.fedbv.busroute.metrics.LatencyHistogram;
+import ru.fedbv.busroute.metrics.MetricsRegistry;
+import ru.fedbv.busroute.model.DataProvider;
+import ru.fedbv.busroute.model.DataProvider.RouteChangeResult;
+
+/**
+ * Bus route change servlet class.
+ * Adds, replaces and deletes single bus routes of published data without reload.
+ * Changes are kept until the next reload of source file.
+ */
+public class RouteServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Bus route change request latency
+     */
+    private static final LatencyHistogram CHANGE_LATENCY = MetricsRegistry.getDefault().histogram("bus_route_http_route_change_seconds", "", "Latency of bus route put and delete requests");
+
+    /**
+     * Maximal number of characters of integer id with separator
+     */
+    private static final int MAX_ID_LENGTH = 12;
+
+    /**
+     * Seconds to wait before retrying change rejected because of a load in progress
+     */
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    /**
+     * Data provider property
+     */
+    private DataProvider dataProvider;
+
+    /**
+     * Maximal number of stops of bus route property
+     */
+    private int maxStopCount = 10000;
+
+    /**
+     * Process PUT request to servlet. Add bus route or replace bus route with the same id.
+     * Request body is one line in source file format: <code>route_id stop_id stop_id ...</code>
+     * Return JSON: <code>{"route_id": route_id, "stop_count": stop_count}</code>
+     * Request body is read only up to the size of a route line of maximal number of stops, larger body is rejected
+     * with status 413 (Payload Too Large) before parsing.
+     * Invalid request body or reserved route id {@link DataProvider#NO_ROUTE} is rejected with status 400 (Bad Request),
+     * change during a load in progress with status 503 (Service Unavailable) and <code>Retry-After</code> header,
+     * failed change is reported with status 500 (Internal Server Error). If data provider does not support bus route changes,
+     * request is rejected with status 501 (Not Implemented).
+     *
+     * @param request
+     *        http servlet request
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @throws ServletException, IOException
+     */
+    @Override
+    protected void doPut(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        long startTime = System.nanoTime();
+        if (!checkRouteChangeSupported(response)) return;
+
+        long maxBodyLength = getMaxBodyLength();
+        if (request.getContentLengthLong() > maxBodyLength) {
+            sendResponse(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "{\"error\": \"Request body should not be longer than " + maxBodyLength + " bytes\"}");
+            return;
+        }
+        String body = readBody(request.getReader(), (int) Math.min(maxBodyLength, Integer.MAX_VALUE - 1));
+        if (body == null) {
+            sendResponse(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "{\"error\": \"Request body should not be longer than " + maxBodyLength + " characters\"}");
+            return;
+        }
+        int[] values = parseRoute(getFirstLine(body));
+        if (values == null) {
+            sendResponse(response, HttpServletResponse.SC_BAD_REQUEST, "{\"error\": \"Bus route should be route_id followed by at least 2 and not more than "
+                    + maxStopCount + " stop ids\"}");
+            return;
+        }
+        if (values[0] == DataProvider.NO_ROUTE) {
+            sendResponse(response, HttpServletResponse.SC_BAD_REQUEST, "{\"error\": \"Bus route id " + DataProvider.NO_ROUTE + " is reserved\"}");
+            return;
+        }
+
+        int[] stopIds = new int[values.length - 1];
+        System.arraycopy(values, 1, stopIds, 0, stopIds.length);
+        RouteChangeResult result = dataProvider.putBusRoute(values[0], stopIds, stopIds.length);
+        if (result != RouteChangeResult.APPLIED) {
+            sendChangeError(response, result, "Bus route " + values[0] + " is not stored");
+            return;
+        }
+        CHANGE_LATENCY.recordSince(startTime);
+        sendResponse(response, HttpServletResponse.SC_OK, "{\"route_id\": " + values[0] + ", \"stop_count\": " + stopIds.length + "}");
+    }
+
+    /**
+     * Process DELETE request to servlet. Delete bus route with id from {@code route_id} parameter.
+     * Return JSON: <code>{"route_id": route_id, "deleted": true}</code>
+     * Invalid route id is rejected with status 400 (Bad Request), unknown bus route with status 404 (Not Found),
+     * change during a load in progress with status 503 (Service Unavailable) and <code>Retry-After</code> header,
+     * failed change is reported with status 500 (Internal Server Error).
+     * If data provider does not support bus route changes, request is rejected with status 501 (Not Implemented).
+     *
+     * @param request
+     *        http servlet request
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @throws ServletException, IOException
+     */
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        long startTime = System.nanoTime();
+        if (!checkRouteChangeSupported(response)) return;
+
+        int routeId;
+        try {
+            routeId = Integer.parseInt(request.getParameter("route_id"));
+        } catch (NumberFormatException e) {
+            sendResponse(response, HttpServletResponse.SC_BAD_REQUEST, "{\"error\": \"Parameter route_id should be integer\"}");
+            return;
+        }
+
+        RouteChangeResult result = dataProvider.deleteBusRoute(routeId);
+        if (result == RouteChangeResult.NOT_FOUND) {
+            sendResponse(response, HttpServletResponse.SC_NOT_FOUND, "{\"error\": \"Bus route " + routeId + " is not found\"}");
+            return;
+        }
+        if (result != RouteChangeResult.APPLIED) {
+            sendChangeError(response, result, "Bus route " + routeId + " is not deleted");
+            return;
+        }
+        CHANGE_LATENCY.recordSince(startTime);
+        sendResponse(response, HttpServletResponse.SC_OK, "{\"route_id\": " + routeId + ", \"deleted\": true}");
+    }
+
+    /**
+     * Check if data provider supports bus route changes, otherwise send response with status 501 (Not Implemented).
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @return {@code true} if bus route changes are supported
+     *
+     * @throws IOException
+     */
+    private boolean checkRouteChangeSupported(HttpServletResponse response) throws IOException {
+        if (dataProvider.isRouteChangeSupported()) return true;
+
+        sendResponse(response, HttpServletResponse.SC_NOT_IMPLEMENTED, "{\"error\": \"Bus route changes are not supported by data provider\"}");
+        return false;
+    }
+
+    /**
+     * Send error response of rejected or failed bus route change.
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @param result
+     *        result of the change
+     *
+     * @param message
+     *        error message
+     *
+     * @throws IOException
+     */
+    private void sendChangeError(HttpServletResponse response, RouteChangeResult result, String message) throws IOException {
+        switch (result) {
+            case INVALID:
+                sendResponse(response, HttpServletResponse.SC_BAD_REQUEST, "{\"error\": \"" + message + ", bus route is invalid\"}");
+                break;
+            case BUSY:
+                response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+                sendResponse(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "{\"error\": \"" + message + ", data is being loaded\"}");
+                break;
+            case UNSUPPORTED:
+                sendResponse(response, HttpServletResponse.SC_NOT_IMPLEMENTED, "{\"error\": \"Bus route changes are not supported by data provider\"}");
+                break;
+            default:
+                sendResponse(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "{\"error\": \"" + message + "\"}");
+        }
+    }
+
+    /**
+     * Gets the maximal length of PUT request body: route line of maximal number of stops with ids of maximal length
+     * and line separators.
+     *
+     * @return maximal body length
+     */
+    private long getMaxBodyLength() {
+        return (long) (maxStopCount + 2) * MAX_ID_LENGTH;
+    }
+
+    /**
+     * Read request body not longer than specified length.
+     *
+     * @param reader
+     *        request body reader
+     *
+     * @param maxLength
+     *        maximal number of characters
+     *
+     * @return request body or {@code null} if it is longer than maximal length
+     *
+     * @throws IOException
+     */
+    private static String readBody(Reader reader, int maxLength) throws IOException {
+        StringBuilder body = new StringBuilder();
+        char[] buffer = new char[Math.min(maxLength + 1, 8192)];
+        int count;
+        while ((count = reader.read(buffer, 0, Math.min(buffer.length, maxLength + 1 - body.length()))) > 0) {
+            body.append(buffer, 0, count);
+            if (body.length() > maxLength) return null;
+        }
+        return body.toString();
+    }
+
+    /**
+     * Gets the first non-blank line of request body.
+     *
+     * @param body
+     *        request body
+     *
+     * @return first non-blank line or {@code null} if body is blank
+     */
+    private static String getFirstLine(String body) {
+        String content = body.trim();
+        if (content.isEmpty()) return null;
+
+        int end = 0;
+        while (end < content.length() && content.charAt(end) != '\n' && content.charAt(end) != '\r') {
+            end++;
+        }
+        return content.substring(0, end);
+    }
+
+    /**
+     * Parse bus route line: route id followed by stop ids.
+     *
+     * @param line
+     *        bus route line
+     *
+     * @return route id and stop ids or {@code null} if line is invalid
+     */
+    private int[] parseRoute(String line) {
+        if (line == null) return null;
+
+        String[] tokens = line.trim().split("\\s+");
+        if (tokens.length < 3 || tokens.length > maxStopCount + 1) return null;
+
+        int[] values = new int[tokens.length];
+        try {
+            for (int i = 0; i < tokens.length; i++) {
+                values[i] = Integer.parseInt(tokens[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return values;
+    }
+
+    /**
+     * Send JSON response.
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @param status
+     *        http status
+     *
+     * @param jsonResponse
+     *        JSON response body
+     *
+     * @throws IOException
+     */
+    private void sendResponse(HttpServletResponse response, int status, String jsonResponse) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setStatus(status);
+        response.getWriter().println(jsonResponse);
+    }
+
+    /**
+     * Gets the value of data provider property {@link RouteServlet.dataProvider}.
+     *
+     * @return data provider property
+     */
+    public DataProvider getDataProvider() {
+        return dataProvider;
+    }
+
+    /**
+     * Sets the value of data provider property {@link RouteServlet.dataProvider}.
+     *
+     * @param dataProvider
+     *        new data provider property
+     */
+    public void setDataProvider(DataProvider dataProvider) {
+        this.dataProvider = dataProvider;
+    }
+
+    /**
+     * Gets the value of maximal number of stops of bus route property {@link RouteServlet.maxStopCount}.
+     *
+     * @return maximal number of stops
+     */
+    public int getMaxStopCount() {
+        return maxStopCount;
+    }
+
+    /**
+     * Sets the value of maximal number of stops of bus route property {@link RouteServlet.maxStopCount}.
+     *
+     * @param maxStopCount
+     *        new maximal number of stops
+     */
+    public void setMaxStopCount(int maxStopCount) {
+        this.maxStopCount = maxStopCount;
+    }
+}
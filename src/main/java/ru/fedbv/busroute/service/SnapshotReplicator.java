@@ -0,0 +1,274 @@
+package ru.fedbv.busroute.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CancellationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.fedbv.busroute.metrics.Counter;
+import ru.fedbv.busroute.metrics.LatencyHistogram;
+import ru.fedbv.busroute.metrics.MetricsRegistry;
+import ru.fedbv.busroute.model.AbstractDataProvider;
+import ru.fedbv.busroute.model.LoadProgress;
+import ru.fedbv.busroute.model.LoadResult;
+import ru.fedbv.busroute.model.RouteSnapshot;
+
+/**
+ * Snapshot replicator class of follower instance.
+ * Polls snapshot endpoint of leader instance with the local dataset version and loads streamed snapshot
+ * when the leader publishes another version. Snapshot is checked by size and checksum before it is loaded,
+ * loaded data is published with the leader dataset version, so all instances serve the same version.
+ */
+public class SnapshotReplicator {
+    public static Logger logger = LoggerFactory.getLogger(SnapshotReplicator.class);
+
+    /**
+     * Latency of snapshot download and load
+     */
+    private static final LatencyHistogram REPLICATION_LATENCY = MetricsRegistry.getDefault().histogram("bus_route_replication_seconds", "", "Latency of snapshot download and load from leader");
+
+    /**
+     * Number of failed snapshot downloads
+     */
+    private static final Counter REPLICATION_ERRORS = MetricsRegistry.getDefault().counter("bus_route_replication_errors_total", "", "Number of failed snapshot downloads from leader");
+
+    /**
+     * Snapshot path of leader instance
+     */
+    public static final String SNAPSHOT_PATH = "/api/snapshot";
+
+    /**
+     * Data provider property
+     */
+    private final AbstractDataProvider dataProvider;
+
+    /**
+     * Snapshot URL of leader instance property
+     */
+    private final URL snapshotUrl;
+
+    /**
+     * Time between leader polls in milliseconds property
+     */
+    private final long interval;
+
+    /**
+     * Connect and read timeout in milliseconds property
+     */
+    private int timeout = 30000;
+
+    /**
+     * Replicator thread, {@code null} if replicator is not started
+     */
+    private Thread thread;
+
+    /**
+     * Constructs new snapshot replicator
+     *
+     * @param dataProvider
+     *        data provider to load snapshots into
+     *
+     * @param leaderUrl
+     *        base URL of leader instance, e.g. {@code http://leader:8088}
+     *
+     * @param interval
+     *        time between leader polls in milliseconds
+     *
+     * @throws IOException if leader URL is malformed
+     */
+    public SnapshotReplicator(AbstractDataProvider dataProvider, String leaderUrl, long interval) throws IOException {
+        this.dataProvider = dataProvider;
+        this.snapshotUrl = new URL(leaderUrl.replaceAll("/+$", "") + SNAPSHOT_PATH);
+        this.interval = Math.max(interval, 100);
+    }
+
+    /**
+     * Start polling leader on daemon thread. The first poll is made immediately.
+     */
+    public synchronized void start() {
+        if (thread != null) return;
+
+        thread = new Thread(this::poll, "bus-route-snapshot-replicator");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Replicating snapshots from " + snapshotUrl + ", poll interval: " + interval + " ms");
+    }
+
+    /**
+     * Stop polling leader.
+     */
+    public synchronized void stop() {
+        if (thread == null) return;
+
+        thread.interrupt();
+        thread = null;
+    }
+
+    /**
+     * Poll leader until replicator thread is interrupted.
+     */
+    private void poll() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                sync();
+                Thread.sleep(interval);
+            }
+        } catch (InterruptedException e) {
+        }
+        logger.info("Snapshot replicator stopped");
+    }
+
+    /**
+     * Download snapshot from leader if it has another dataset version and load it.
+     * If the local dataset version is actual, returns empty load results.
+     *
+     * @return load results statistics, rejected if another load is in progress, failed if snapshot is not loaded
+     */
+    public LoadResult sync() {
+        return sync(new LoadProgress());
+    }
+
+    /**
+     * Download snapshot from leader if it has another dataset version and load it, reporting downloaded bytes.
+     * If the local dataset version is actual, returns empty load results.
+     * The sync can be cancelled by {@link LoadProgress#cancel()} until the downloaded snapshot is loaded,
+     * cancel is checked before the request, on every read of the snapshot and before the load.
+     *
+     * @param progress
+     *        progress of the download, checked for cancel
+     *
+     * @return load results statistics, rejected if another load is in progress, cancelled if cancel was requested,
+     *         failed if snapshot is not loaded
+     */
+    public synchronized LoadResult sync(LoadProgress progress) {
+        long startTime = System.nanoTime();
+        long localVersion = dataProvider.getDatasetVersion();
+        LoadResult loadResult = new LoadResult();
+        HttpURLConnection connection = null;
+        try {
+            progress.checkCancelled();
+            connection = (HttpURLConnection) snapshotUrl.openConnection();
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            if (localVersion != 0) {
+                connection.setRequestProperty("If-None-Match", "\"" + localVersion + "\"");
+            }
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                logger.debug("Dataset version " + localVersion + " is actual");
+                return loadResult;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Leader responded with status " + status);
+            }
+
+            String etag = connection.getHeaderField("ETag");
+            RouteSnapshot snapshot;
+            progress.start(connection.getContentLengthLong());
+            try (InputStream in = connection.getInputStream()) {
+                snapshot = RouteSnapshot.read(new ProgressChannel(Channels.newChannel(in), progress), connection.getContentLengthLong(), snapshotUrl.toString());
+            }
+            if (etag != null && !etag.equals("\"" + snapshot.getDatasetVersion() + "\"")) {
+                throw new IOException("Snapshot dataset version " + snapshot.getDatasetVersion() + " does not match leader version " + etag);
+            }
+
+            progress.checkCancelled();
+            loadResult = dataProvider.loadSnapshot(snapshot);
+            if (!loadResult.isRejected() && !loadResult.isFailed()) {
+                REPLICATION_LATENCY.recordSince(startTime);
+                logger.info("Dataset version " + snapshot.getDatasetVersion() + " replicated from leader: " + loadResult.getLoad_count() + " routes");
+            }
+            return loadResult;
+        } catch (CancellationException e) {
+            logger.info("Snapshot replication cancelled: " + snapshotUrl);
+            loadResult.setCancelled(true);
+            return loadResult;
+        } catch (IOException e) {
+            REPLICATION_ERRORS.increment();
+            logger.error("Error replicating snapshot from " + snapshotUrl + ": " + e.getMessage());
+            loadResult.setFailed(true);
+            loadResult.setError_count(1);
+            return loadResult;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Snapshot channel reporting downloaded bytes to load progress and stopping the download when cancel is requested.
+     */
+    private static class ProgressChannel implements ReadableByteChannel {
+        /**
+         * Downloaded snapshot channel
+         */
+        private final ReadableByteChannel channel;
+
+        /**
+         * Progress of the download
+         */
+        private final LoadProgress progress;
+
+        /**
+         * Constructs new progress channel
+         *
+         * @param channel
+         *        downloaded snapshot channel
+         *
+         * @param progress
+         *        progress of the download
+         */
+        ProgressChannel(ReadableByteChannel channel, LoadProgress progress) {
+            this.channel = channel;
+            this.progress = progress;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            progress.checkCancelled();
+            int count = channel.read(dst);
+            if (count > 0) {
+                progress.add(count, 0, 0);
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Gets the value of connect and read timeout property {@link SnapshotReplicator.timeout}.
+     *
+     * @return timeout in milliseconds
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the value of connect and read timeout property {@link SnapshotReplicator.timeout}.
+     *
+     * @param timeout
+     *        new timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+}
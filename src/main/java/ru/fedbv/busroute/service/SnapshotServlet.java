@@ -0,0 +1,95 @@
+package ru.fedbv.busroute.service;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ru.fedbv.busroute.metrics.Counter;
+import ru.fedbv.busroute.metrics.MetricsRegistry;
+import ru.fedbv.busroute.model.AbstractDataProvider;
+import ru.fedbv.busroute.model.RouteSnapshot;
+
+/**
+ * Snapshot replication servlet class.
+ * Serves binary {@link RouteSnapshot} of published data to follower instances.
+ */
+public class SnapshotServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of snapshots sent to followers
+     */
+    private static final Counter SNAPSHOTS_SENT = MetricsRegistry.getDefault().counter("bus_route_replication_snapshots_sent_total", "", "Number of snapshots sent to followers");
+
+    /**
+     * Number of snapshot requests answered with not modified status
+     */
+    private static final Counter SNAPSHOTS_NOT_MODIFIED = MetricsRegistry.getDefault().counter("bus_route_replication_snapshots_not_modified_total", "", "Number of snapshot requests of actual dataset version");
+
+    /**
+     * Data provider property
+     */
+    private AbstractDataProvider dataProvider;
+
+    /**
+     * Process GET request to servlet. Stream snapshot of published data as {@code application/octet-stream}
+     * with dataset version in {@code ETag} header and exact {@code Content-Length}.
+     * If {@code If-None-Match} header has the published dataset version, status 304 (Not Modified) is returned without body.
+     * If the data provider can not create snapshot, status 503 (Service Unavailable) is returned.
+     *
+     * @param request
+     *        http servlet request
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @throws ServletException, IOException
+     */
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        RouteSnapshot snapshot = dataProvider.createSnapshot();
+        if (snapshot == null) {
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.getWriter().println("{\"error\": \"Snapshot is not available\"}");
+            return;
+        }
+
+        String etag = "\"" + snapshot.getDatasetVersion() + "\"";
+        response.setHeader("ETag", etag);
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            SNAPSHOTS_NOT_MODIFIED.increment();
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType("application/octet-stream");
+        response.setContentLengthLong(snapshot.getSize());
+        response.setStatus(HttpServletResponse.SC_OK);
+        snapshot.write(Channels.newChannel(response.getOutputStream()));
+        SNAPSHOTS_SENT.increment();
+    }
+
+    /**
+     * Gets the value of data provider property {@link SnapshotServlet.dataProvider}.
+     *
+     * @return data provider property
+     */
+    public AbstractDataProvider getDataProvider() {
+        return dataProvider;
+    }
+
+    /**
+     * Sets the value of data provider property {@link SnapshotServlet.dataProvider}.
+     *
+     * @param dataProvider
+     *        new data provider property
+     */
+    public void setDataProvider(AbstractDataProvider dataProvider) {
+        this.dataProvider = dataProvider;
+    }
+}
@@ -0,0 +1,170 @@
+package ru.fedbv.busroute.service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.fedbv.busroute.model.DataProvider;
+import ru.fedbv.busroute.model.LoadResult;
+
+/**
+ * Source file watcher class.
+ * Watches directory of source file and reloads data when the file is created, modified or replaced.
+ * Reload starts after the file is not changed for the delay, so a file being written is loaded once.
+ * With incremental reload enabled only changed bus routes are applied.
+ */
+public class SourceFileWatcher {
+    public static Logger logger = LoggerFactory.getLogger(SourceFileWatcher.class);
+
+    /**
+     * Data provider property
+     */
+    private final DataProvider dataProvider;
+
+    /**
+     * Watched source file path property
+     */
+    private final Path sourcePath;
+
+    /**
+     * Time without file changes before reload in milliseconds property
+     */
+    private final long delay;
+
+    /**
+     * Watch service, {@code null} if watcher is not started
+     */
+    private WatchService watchService;
+
+    /**
+     * Watcher thread, {@code null} if watcher is not started
+     */
+    private Thread thread;
+
+    /**
+     * Constructs new source file watcher
+     *
+     * @param dataProvider
+     *        data provider to reload
+     *
+     * @param sourceFilePath
+     *        source data file path
+     *
+     * @param delay
+     *        time without file changes before reload in milliseconds
+     */
+    public SourceFileWatcher(DataProvider dataProvider, String sourceFilePath, long delay) {
+        this.dataProvider = dataProvider;
+        this.sourcePath = Paths.get(sourceFilePath).toAbsolutePath().normalize();
+        this.delay = Math.max(delay, 0);
+    }
+
+    /**
+     * Start watching source file directory on daemon thread.
+     *
+     * @throws IOException if directory can not be watched
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) return;
+
+        watchService = FileSystems.getDefault().newWatchService();
+        sourcePath.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::watch, "bus-route-source-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Watching source file: " + sourcePath + ", reload delay: " + delay + " ms");
+    }
+
+    /**
+     * Stop watching source file directory.
+     */
+    public synchronized void stop() {
+        if (thread == null) return;
+
+        try {
+            watchService.close();
+        } catch (IOException ignore) {
+        }
+        thread.interrupt();
+        thread = null;
+        watchService = null;
+    }
+
+    /**
+     * Wait for source file changes and reload data. Runs on watcher thread until watch service is closed.
+     */
+    private void watch() {
+        WatchService service = watchService;
+        try {
+            while (true) {
+                if (!isSourceChanged(service.take())) continue;
+
+                WatchKey key;
+                while ((key = service.poll(delay, TimeUnit.MILLISECONDS)) != null) {
+                    isSourceChanged(key);
+                }
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            logger.info("Source file watcher stopped");
+        }
+    }
+
+    /**
+     * Check if watch key events include changes of source file and reset the key.
+     *
+     * @param key
+     *        signalled watch key
+     *
+     * @return {@code true} if source file is changed
+     */
+    private boolean isSourceChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || sourcePath.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Reload data. If another reload is in progress, reload is repeated after the delay.
+     *
+     * @throws InterruptedException if watcher thread is interrupted
+     */
+    private void reload() throws InterruptedException {
+        while (true) {
+            logger.info("Source file changed, reloading data: " + sourcePath);
+            LoadResult loadResult;
+            try {
+                loadResult = dataProvider.init();
+            } catch (RuntimeException e) {
+                logger.error("Error reloading data after source file change", e);
+                return;
+            }
+            if (loadResult.isFailed()) {
+                logger.warn("Data reload after source file change failed, previous data stays published");
+                return;
+            }
+            if (!loadResult.isRejected()) {
+                logger.info("Data reloaded after source file change: " + loadResult.getLoad_count() + " lines, "
+                        + loadResult.getError_count() + " errors" + (loadResult.isIncremental() ? ", " + loadResult.getAdded_count() + " added, "
+                        + loadResult.getUpdated_count() + " updated, " + loadResult.getDeleted_count() + " deleted routes" : ""));
+                return;
+            }
+            Thread.sleep(Math.max(delay, 100));
+        }
+    }
+}
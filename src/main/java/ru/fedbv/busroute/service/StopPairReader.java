@@ -0,0 +1,435 @@
+package ru.fedbv.busroute.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming reader of JSON array of stop pairs.
+ * Array elements are objects <code>{"dep_sid": dep_sid, "arr_sid": arr_sid}</code> or two element arrays <code>[dep_sid, arr_sid]</code>.
+ * Stop ids are numbers or strings with numbers, other object members are skipped.
+ * Input is read through a small buffer, so memory does not depend on the number of pairs.
+ */
+public class StopPairReader {
+    /**
+     * Size of read buffer in bytes
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Input stream
+     */
+    private final InputStream in;
+
+    /**
+     * Read buffer
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Position of the next byte in buffer
+     */
+    private int position;
+
+    /**
+     * Number of bytes in buffer
+     */
+    private int limit;
+
+    /**
+     * Number of pairs read
+     */
+    private int pairCount;
+
+    /**
+     * End of array is reached
+     */
+    private boolean finished;
+
+    /**
+     * Departure stop id of the last pair
+     */
+    private int depStopId;
+
+    /**
+     * Arrival stop id of the last pair
+     */
+    private int arrStopId;
+
+    /**
+     * Departure stop id of the last pair is a valid number
+     */
+    private boolean depStopIdValid;
+
+    /**
+     * Arrival stop id of the last pair is a valid number
+     */
+    private boolean arrStopIdValid;
+
+    /**
+     * Parsed number is a valid {@code int} value
+     */
+    private boolean numberValid;
+
+    /**
+     * Constructs new stop pair reader
+     *
+     * @param in
+     *        input stream with JSON array
+     */
+    public StopPairReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Read the next stop pair.
+     *
+     * @return {@code true} if pair is read, {@code false} if the end of array is reached
+     *
+     * @throws IOException if the stream can not be read
+     *
+     * @throws IllegalArgumentException if the input is not a JSON array of stop pairs
+     */
+    public boolean readPair() throws IOException {
+        if (finished) return false;
+
+        int c = skipWhitespace();
+        if (pairCount == 0) {
+            if (c != '[') throw error("'[' expected");
+            position++;
+            c = skipWhitespace();
+            if (c == ']') {
+                position++;
+                finished = true;
+                return false;
+            }
+        } else {
+            if (c == ']') {
+                position++;
+                finished = true;
+                return false;
+            }
+            if (c != ',') throw error("',' or ']' expected");
+            position++;
+            c = skipWhitespace();
+        }
+
+        depStopIdValid = false;
+        arrStopIdValid = false;
+        if (c == '{') {
+            readObject();
+        } else if (c == '[') {
+            readArray();
+        } else {
+            throw error("stop pair object or array expected");
+        }
+        pairCount++;
+        return true;
+    }
+
+    /**
+     * Gets the departure stop id of the last pair.
+     *
+     * @return departure stop id
+     */
+    public int getDepStopId() {
+        return depStopId;
+    }
+
+    /**
+     * Gets the arrival stop id of the last pair.
+     *
+     * @return arrival stop id
+     */
+    public int getArrStopId() {
+        return arrStopId;
+    }
+
+    /**
+     * Check if both stop ids of the last pair are valid numbers.
+     *
+     * @return {@code true} if pair can be looked up
+     */
+    public boolean isPairValid() {
+        return depStopIdValid && arrStopIdValid;
+    }
+
+    /**
+     * Check if departure stop id of the last pair is a valid number.
+     *
+     * @return {@code true} if departure stop id is valid
+     */
+    public boolean isDepStopIdValid() {
+        return depStopIdValid;
+    }
+
+    /**
+     * Check if arrival stop id of the last pair is a valid number.
+     *
+     * @return {@code true} if arrival stop id is valid
+     */
+    public boolean isArrStopIdValid() {
+        return arrStopIdValid;
+    }
+
+    /**
+     * Gets the number of pairs read.
+     *
+     * @return number of pairs
+     */
+    public int getPairCount() {
+        return pairCount;
+    }
+
+    /**
+     * Read stop pair object.
+     *
+     * @throws IOException if the stream can not be read
+     */
+    private void readObject() throws IOException {
+        position++;
+        int c = skipWhitespace();
+        if (c == '}') {
+            position++;
+            return;
+        }
+        while (true) {
+            if (c != '"') throw error("member name expected");
+            String name = readString();
+            if (skipWhitespace() != ':') throw error("':' expected");
+            position++;
+            skipWhitespace();
+            if ("dep_sid".equals(name)) {
+                depStopId = readStopId();
+                depStopIdValid = numberValid;
+            } else if ("arr_sid".equals(name)) {
+                arrStopId = readStopId();
+                arrStopIdValid = numberValid;
+            } else {
+                skipValue();
+            }
+            c = skipWhitespace();
+            if (c != ',' && c != '}') throw error("',' or '}' expected");
+            position++;
+            if (c == '}') return;
+            c = skipWhitespace();
+        }
+    }
+
+    /**
+     * Read stop pair array.
+     *
+     * @throws IOException if the stream can not be read
+     */
+    private void readArray() throws IOException {
+        position++;
+        skipWhitespace();
+        depStopId = readStopId();
+        depStopIdValid = numberValid;
+        if (skipWhitespace() != ',') throw error("',' expected");
+        position++;
+        skipWhitespace();
+        arrStopId = readStopId();
+        arrStopIdValid = numberValid;
+        if (skipWhitespace() != ']') throw error("']' expected");
+        position++;
+    }
+
+    /**
+     * Read stop id value: number, string with number or any other value, which is not a valid stop id.
+     * Sets {@link StopPairReader#numberValid}.
+     *
+     * @return stop id value
+     *
+     * @throws IOException if the stream can not be read
+     */
+    private int readStopId() throws IOException {
+        int c = peek();
+        if (c == '"') {
+            position++;
+            int value = readNumber();
+            if (peek() != '"') {
+                numberValid = false;
+                skipStringRest();
+            } else {
+                position++;
+            }
+            return value;
+        }
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            int value = readNumber();
+            int next = peek();
+            if (next == '.' || next == 'e' || next == 'E') {
+                numberValid = false;
+                skipValue();
+            }
+            return value;
+        }
+        numberValid = false;
+        skipValue();
+        return 0;
+    }
+
+    /**
+     * Read integer number. Sets {@link StopPairReader#numberValid}.
+     *
+     * @return number value
+     *
+     * @throws IOException if the stream can not be read
+     */
+    private int readNumber() throws IOException {
+        boolean negative = false;
+        if (peek() == '-') {
+            negative = true;
+            position++;
+        }
+        long value = 0;
+        int digits = 0;
+        int c;
+        while ((c = peek()) >= '0' && c <= '9') {
+            position++;
+            if (value <= Integer.MAX_VALUE + 1L) {
+                value = value * 10 + (c - '0');
+            }
+            digits++;
+        }
+        if (negative) value = -value;
+        numberValid = digits > 0 && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+        return numberValid ? (int) value : 0;
+    }
+
+    /**
+     * Read string value starting with quote. Escape sequences are kept as is, they are not used in member names of stop pairs.
+     *
+     * @return string value
+     *
+     * @throws IOException if the stream can not be read
+     */
+    private String readString() throws IOException {
+        position++;
+        StringBuilder value = new StringBuilder(16);
+        int c;
+        while ((c = next()) != '"') {
+            if (c == '\\') {
+                value.append((char) c);
+                c = next();
+            }
+            value.append((char) c);
+        }
+        return value.toString();
+    }
+
+    /**
+     * Skip the rest of string value after its opening quote.
+     *
+     * @throws IOException if the stream can not be read
+     */
+    private void skipStringRest() throws IOException {
+        int c;
+        while ((c = next()) != '"') {
+            if (c == '\\') next();
+        }
+    }
+
+    /**
+     * Skip JSON value of any type.
+     *
+     * @throws IOException if the stream can not be read
+     */
+    private void skipValue() throws IOException {
+        int depth = 0;
+        while (true) {
+            int c = peek();
+            if (c == '"') {
+                position++;
+                skipStringRest();
+            } else if (c == '{' || c == '[') {
+                position++;
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) return;
+                position++;
+                depth--;
+            } else if (c == ',') {
+                if (depth == 0) return;
+                position++;
+            } else if (c < 0) {
+                throw error("unexpected end of input");
+            } else {
+                position++;
+            }
+            if (depth == 0 && isValueEnd(peek())) return;
+        }
+    }
+
+    /**
+     * Check if character ends a value.
+     *
+     * @param c
+     *        character
+     *
+     * @return {@code true} for separators, closing brackets, whitespace and end of input
+     */
+    private static boolean isValueEnd(int c) {
+        return c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\r' || c == '\n' || c < 0;
+    }
+
+    /**
+     * Skip whitespace and return the next character without consuming it.
+     *
+     * @return next character or {@code -1} at the end of input
+     *
+     * @throws IOException if the stream can not be read
+     */
+    private int skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\t' || c == '\r' || c == '\n') {
+            position++;
+        }
+        return c;
+    }
+
+    /**
+     * Gets the next character without consuming it.
+     *
+     * @return next character or {@code -1} at the end of input
+     *
+     * @throws IOException if the stream can not be read
+     */
+    private int peek() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    /**
+     * Consume the next character.
+     *
+     * @return next character
+     *
+     * @throws IOException if the stream can not be read
+     */
+    private int next() throws IOException {
+        int c = peek();
+        if (c < 0) throw error("unexpected end of input");
+        position++;
+        return c;
+    }
+
+    /**
+     * Create input format error.
+     *
+     * @param message
+     *        error message
+     *
+     * @return format error
+     */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid stop pairs at pair " + pairCount + ": " + message);
+    }
+}
@@ -0,0 +1,178 @@
+package ru.fedbv.busroute.service;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ru.fedbv.busroute.metrics.Counter;
+import ru.fedbv.busroute.metrics.LatencyHistogram;
+import ru.fedbv.busroute.metrics.MetricsRegistry;
+import ru.fedbv.busroute.model.AbstractDataProvider;
+import ru.fedbv.busroute.model.StopReachability;
+
+/**
+ * One transfer lookup servlet class.
+ * Answers whether arrival stop is reachable from departure stop directly or with one transfer
+ * by {@link StopReachability} index of published data.
+ */
+public class TransferServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * One transfer lookup request latency
+     */
+    private static final LatencyHistogram TRANSFER_LATENCY = MetricsRegistry.getDefault().histogram("bus_route_http_transfer_request_seconds", "", "Latency of one transfer lookup requests");
+
+    /**
+     * Number of one transfer lookups found reachable stop pair
+     */
+    private static final Counter TRANSFER_FOUND = MetricsRegistry.getDefault().counter("bus_route_transfer_found_total", "", "Number of one transfer lookups of stop pairs reachable with one transfer");
+
+    /**
+     * Data provider property
+     */
+    private AbstractDataProvider dataProvider;
+
+    /**
+     * Maximal number of returned transfer stop ids property
+     */
+    private int transferStopsLimit = 100;
+
+    /**
+     * Process GET request to servlet. Accept two parameters: dep_sid, arr_sid, and optional {@code limit}
+     * of transfer stop ids, which is not greater than {@link TransferServlet#transferStopsLimit} and defaults to it.
+     * Return JSON:
+     * <code>{"dep_sid": dep_sid, "arr_sid": arr_sid, "direct_bus_route": direct_bus_route,
+     * "one_transfer": one_transfer, "transfer_sids": [stop_id, ...]}</code>
+     * {@code direct_bus_route} is {@code true} if bus route goes from departure stop to arrival stop,
+     * {@code one_transfer} is {@code true} if there is a transfer stop, which is directly reachable from departure stop
+     * and arrival stop is directly reachable from it. {@code transfer_sids} are ids of transfer stops in ascending order.
+     * Both are {@code false} if one/or both stop ids are absent, invalid or unknown, or {@code limit} is not integer.
+     * Index is rebuilt in background after data changes, meanwhile lookups use the index of previous data.
+     * If the data provider does not support the index or it is not built yet, status 503 (Service Unavailable) is returned.
+     *
+     * @param request
+     *        http servlet request
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @throws ServletException, IOException
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        long startTime = System.nanoTime();
+        StopReachability reachability = dataProvider.getStopReachability();
+        if (reachability == null) {
+            sendResponse(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "{\"error\": \"One transfer lookups are not available\"}");
+            return;
+        }
+
+        Integer depStopId = parseInteger(request.getParameter("dep_sid"));
+        Integer arrStopId = parseInteger(request.getParameter("arr_sid"));
+        String limitParameter = request.getParameter("limit");
+        Integer limitValue = parseInteger(limitParameter);
+        int limit = limitValue != null ? Math.min(Math.max(limitValue, 0), transferStopsLimit) : transferStopsLimit;
+        boolean direct = false;
+        int[] transferStopIds = null;
+        if (depStopId != null && arrStopId != null && (limitParameter == null || limitValue != null)) {
+            direct = reachability.isDirect(depStopId, arrStopId);
+            transferStopIds = reachability.findTransferStopIds(depStopId, arrStopId, Math.max(limit, 1));
+        }
+
+        boolean oneTransfer = transferStopIds != null && transferStopIds.length > 0;
+        if (oneTransfer) {
+            TRANSFER_FOUND.increment();
+        }
+        StringBuilder jsonResponse = new StringBuilder("{\"dep_sid\": ").append(depStopId != null ? depStopId.toString() : "null")
+                .append(", \"arr_sid\": ").append(arrStopId != null ? arrStopId.toString() : "null")
+                .append(", \"direct_bus_route\": ").append(direct)
+                .append(", \"one_transfer\": ").append(oneTransfer)
+                .append(", \"transfer_sids\": [");
+        for (int i = 0; oneTransfer && i < Math.min(transferStopIds.length, limit); i++) {
+            jsonResponse.append(i > 0 ? ", " : "").append(transferStopIds[i]);
+        }
+        sendResponse(response, HttpServletResponse.SC_OK, jsonResponse.append("]}").toString());
+        TRANSFER_LATENCY.recordSince(startTime);
+    }
+
+    /**
+     * Parse integer parameter value.
+     *
+     * @param parameter
+     *        parameter value or {@code null} if parameter is absent
+     *
+     * @return parsed value or {@code null} if parameter is absent or is not integer
+     */
+    private static Integer parseInteger(String parameter) {
+        if (parameter == null) return null;
+
+        try {
+            return Integer.valueOf(parameter.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Send JSON response.
+     *
+     * @param response
+     *        http servlet response
+     *
+     * @param status
+     *        http status
+     *
+     * @param jsonResponse
+     *        JSON response body
+     *
+     * @throws IOException
+     */
+    private void sendResponse(HttpServletResponse response, int status, String jsonResponse) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setStatus(status);
+        response.getWriter().println(jsonResponse);
+    }
+
+    /**
+     * Gets the value of data provider property {@link TransferServlet.dataProvider}.
+     *
+     * @return data provider property
+     */
+    public AbstractDataProvider getDataProvider() {
+        return dataProvider;
+    }
+
+    /**
+     * Sets the value of data provider property {@link TransferServlet.dataProvider}.
+     *
+     * @param dataProvider
+     *        new data provider property
+     */
+    public void setDataProvider(AbstractDataProvider dataProvider) {
+        this.dataProvider = dataProvider;
+    }
+
+    /**
+     * Gets the value of maximal number of returned transfer stop ids property {@link TransferServlet.transferStopsLimit}.
+     *
+     * @return maximal number of transfer stop ids
+     */
+    public int getTransferStopsLimit() {
+        return transferStopsLimit;
+    }
+
+    /**
+     * Sets the value of maximal number of returned transfer stop ids property {@link TransferServlet.transferStopsLimit}.
+     *
+     * @param transferStopsLimit
+     *        new maximal number of transfer stop ids
+     */
+    public void setTransferStopsLimit(int transferStopsLimit) {
+        this.transferStopsLimit = transferStopsLimit;
+    }
+}
@@ -0,0 +1,230 @@
+package ru.fedbv.busroute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Snapshot replication test of leader and follower {@link Starter} instances started in process on local ports.
+ * Checks snapshot endpoint of leader without published data, {@code ETag} and {@code If-None-Match} handshake,
+ * and convergence of follower to the dataset version of leader after leader reload.
+ * Started servers are not stopped, they are run on daemon threads until test JVM exits.
+ */
+public class ReplicationTest {
+    /**
+     * Time to wait for server start or follower convergence in milliseconds
+     */
+    private static final long TIMEOUT = 30000;
+
+    @Test
+    public void followerConvergesToLeaderVersion() throws Exception {
+        Path leaderHome = Files.createTempDirectory("bus-route-leader");
+        int leaderPort = getFreePort();
+        Properties leaderConfig = new Properties();
+        leaderConfig.setProperty("replication.mode", "leader");
+        leaderConfig.setProperty("data-provider-mode", "compact");
+        start(leaderHome, leaderPort, leaderConfig);
+        String leaderUrl = "http://localhost:" + leaderPort;
+
+        // Source file is absent, so leader has no snapshot to serve
+        assertEquals(503, request(leaderUrl + "/api/snapshot", null).status);
+
+        writeSourceFile(leaderHome, "1 10 11 12\n2 20 21 22\n");
+        assertEquals(200, request(leaderUrl + "/api/reload-data?wait=true", null).status);
+        Response snapshot = request(leaderUrl + "/api/snapshot", null);
+        assertEquals(200, snapshot.status);
+        assertNotNull(snapshot.etag);
+        Response notModified = request(leaderUrl + "/api/snapshot", snapshot.etag);
+        assertEquals(304, notModified.status);
+        assertEquals(snapshot.etag, notModified.etag);
+
+        Path followerHome = Files.createTempDirectory("bus-route-follower");
+        int followerPort = getFreePort();
+        Properties followerConfig = new Properties();
+        followerConfig.setProperty("replication.mode", "follower");
+        followerConfig.setProperty("replication.leader-url", leaderUrl);
+        followerConfig.setProperty("replication.interval", "200");
+        followerConfig.setProperty("data-provider-mode", "compact");
+        start(followerHome, followerPort, followerConfig);
+        String followerUrl = "http://localhost:" + followerPort;
+        awaitDirect(followerUrl, 10, 12);
+
+        writeSourceFile(leaderHome, "1 10 11 12\n3 30 31 32\n");
+        assertEquals(200, request(leaderUrl + "/api/reload-data?wait=true", null).status);
+        Response updated = request(leaderUrl + "/api/snapshot", snapshot.etag);
+        assertEquals(200, updated.status);
+        assertNotEquals(snapshot.etag, updated.etag);
+        awaitDirect(followerUrl, 30, 32);
+        assertTrue(request(followerUrl + "/api/direct?dep_sid=20&arr_sid=22", null).body.contains("\"direct_bus_route\": false"));
+
+        assertEquals(304, request(leaderUrl + "/api/snapshot", updated.etag).status);
+    }
+
+    /**
+     * Write application configuration and start {@link Starter} on daemon thread, waiting until it accepts connections.
+     *
+     * @param home
+     *        application home directory
+     *
+     * @param port
+     *        server port
+     *
+     * @param config
+     *        application configuration without port and source file
+     *
+     * @throws Exception if server is not started
+     */
+    private static void start(Path home, int port, Properties config) throws Exception {
+        Files.createDirectories(home.resolve("config"));
+        config.setProperty("port", String.valueOf(port));
+        config.setProperty("source-file", "routes.txt");
+        config.setProperty("snapshot.enabled", "false");
+        try (OutputStream out = Files.newOutputStream(home.resolve("config/config.properties"))) {
+            config.store(out, "Replication test configuration");
+        }
+        Properties logging = new Properties();
+        logging.setProperty("log4j.rootLogger", "WARN, stdout");
+        logging.setProperty("log4j.appender.stdout", "org.apache.log4j.ConsoleAppender");
+        logging.setProperty("log4j.appender.stdout.layout", "org.apache.log4j.PatternLayout");
+        logging.setProperty("log4j.appender.stdout.layout.ConversionPattern", "%d %-5p %c{1} - %m%n");
+        try (OutputStream out = Files.newOutputStream(home.resolve("config/log4j.properties"))) {
+            logging.store(out, "Replication test logging");
+        }
+
+        // Application home is a system property, so the next instance is started when this one has read it
+        Thread starterThread = new Thread(() -> Starter.main(new String[] {home.toString()}), "starter-" + port);
+        starterThread.setDaemon(true);
+        starterThread.start();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (true) {
+            try {
+                request("http://localhost:" + port + "/", null);
+                return;
+            } catch (IOException e) {
+                if (!starterThread.isAlive() || System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Server is not started on port " + port);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * Wait until server finds direct bus route between stops.
+     *
+     * @param url
+     *        server URL
+     *
+     * @param depStopId
+     *        departure stop id
+     *
+     * @param arrStopId
+     *        arrival stop id
+     *
+     * @throws Exception if direct bus route is not found in time
+     */
+    private static void awaitDirect(String url, int depStopId, int arrStopId) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!request(url + "/api/direct?dep_sid=" + depStopId + "&arr_sid=" + arrStopId, null).body.contains("\"direct_bus_route\": true")) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Direct bus route " + depStopId + " - " + arrStopId + " is not replicated to " + url);
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Write source file of bus routes into application home directory.
+     *
+     * @param home
+     *        application home directory
+     *
+     * @param routes
+     *        bus route lines
+     *
+     * @throws IOException if the file can not be written
+     */
+    private static void writeSourceFile(Path home, String routes) throws IOException {
+        int routeCount = routes.split("\n").length;
+        Files.write(home.resolve("routes.txt"), (routeCount + "\n" + routes).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Send GET request.
+     *
+     * @param url
+     *        request URL
+     *
+     * @param ifNoneMatch
+     *        {@code If-None-Match} header value or {@code null}
+     *
+     * @return response status, {@code ETag} header and body
+     *
+     * @throws IOException if the request can not be sent
+     */
+    private static Response request(String url, String ifNoneMatch) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout((int) TIMEOUT);
+            connection.setReadTimeout((int) TIMEOUT);
+            if (ifNoneMatch != null) {
+                connection.setRequestProperty("If-None-Match", ifNoneMatch);
+            }
+            Response response = new Response();
+            response.status = connection.getResponseCode();
+            response.etag = connection.getHeaderField("ETag");
+            InputStream in = response.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            response.body = in == null ? "" : new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+            return response;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Get free local port.
+     *
+     * @return port number
+     *
+     * @throws IOException if no port is free
+     */
+    private static int getFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * HTTP response of test request
+     */
+    private static class Response {
+        /**
+         * Response status
+         */
+        int status;
+
+        /**
+         * {@code ETag} header value or {@code null}
+         */
+        String etag;
+
+        /**
+         * Response body
+         */
+        String body;
+    }
+}
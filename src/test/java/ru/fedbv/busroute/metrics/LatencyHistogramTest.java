@@ -0,0 +1,80 @@
+package ru.fedbv.busroute.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link LatencyHistogram} bucket math and percentiles.
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void smallValuesHaveExactBuckets() {
+        for (int value = 0; value < 16; value++) {
+            assertEquals(value, LatencyHistogram.bucketIndex(value));
+            assertEquals(value, LatencyHistogram.bucketUpperBound(value));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        int lastBucket = LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+        for (int index = 0; index < lastBucket; index++) {
+            long upperBound = LatencyHistogram.bucketUpperBound(index);
+            assertEquals(index, LatencyHistogram.bucketIndex(upperBound));
+            assertEquals(index + 1, LatencyHistogram.bucketIndex(upperBound + 1));
+        }
+    }
+
+    @Test
+    public void relativeErrorIsBounded() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = 16 + (random.nextLong() >>> (24 + random.nextInt(40)));
+            long upperBound = LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value));
+            assertTrue(value + " is above bucket bound " + upperBound, upperBound >= value);
+            assertTrue(value + " has bucket bound " + upperBound, upperBound - value < value / 16.0);
+        }
+    }
+
+    @Test
+    public void largeValuesAreRecordedIntoLastBucket() {
+        int lastBucket = LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+        assertEquals(lastBucket, LatencyHistogram.bucketIndex(1L << 50));
+        assertEquals(lastBucket, LatencyHistogram.bucketIndex((1L << 41) - 1));
+        assertEquals(lastBucket - 1, LatencyHistogram.bucketIndex((1L << 41) - (1L << 36) - 1));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram("test", "", "");
+        assertEquals(0, histogram.getPercentile(50));
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        histogram.record(-5);
+
+        assertEquals(1001, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(1000000, histogram.getPercentile(100));
+        long median = histogram.getPercentile(50);
+        assertTrue("median " + median, median >= 500000 && median < 500000 * 1.07);
+        long p99 = histogram.getPercentile(99);
+        assertTrue("p99 " + p99, p99 >= 990000 && p99 <= 1000000);
+    }
+
+    @Test
+    public void coordinatedOmissionCorrection() {
+        LatencyHistogram histogram = new LatencyHistogram("test", "", "");
+        histogram.record(100, 9);
+        histogram.record(1000);
+
+        LatencyHistogram corrected = histogram.copyCorrectedForCoordinatedOmission(100);
+        assertEquals(19, corrected.getCount());
+        assertEquals(histogram.getMax(), corrected.getMax());
+        assertEquals(10, histogram.copyCorrectedForCoordinatedOmission(0).getCount());
+    }
+}
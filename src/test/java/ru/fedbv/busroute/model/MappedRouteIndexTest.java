@@ -0,0 +1,126 @@
+package ru.fedbv.busroute.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of {@link MappedRouteIndex} file round-trip, stop lookups and corruption detection.
+ */
+public class MappedRouteIndexTest {
+    /**
+     * Temporary directory of index files
+     */
+    private Path dir;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("mapped-route-index-test");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        RouteStorage routes = RouteSnapshotTest.createRoutes();
+        Path path = dir.resolve("routes.index");
+        MappedRouteIndex.write(path, routes, 5, 1000, 2000);
+
+        MappedRouteIndex index = MappedRouteIndex.open(path, 1000, 2000);
+        assertNotNull(index);
+        assertEquals(5, index.getErrorCount());
+        assertEquals(3, index.getRouteCount());
+        assertEquals(8, index.getStopCount());
+        for (int routeIndex = 0; routeIndex < routes.size(); routeIndex++) {
+            assertEquals(routes.getRouteId(routeIndex), index.getRouteId(routeIndex));
+            BusRoute busRoute = index.getBusRoute(routeIndex);
+            assertEquals(routes.getRouteId(routeIndex), busRoute.getId());
+            int offset = routes.getOffset(routeIndex);
+            assertArrayEquals(Arrays.copyOfRange(routes.getStopIds(), offset, offset + routes.getStopCount(routeIndex)),
+                    busRoute.getStopIds().stream().mapToInt(Integer::intValue).toArray());
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals("temporary file is left", 1, files.count());
+        }
+    }
+
+    @Test
+    public void findRouteIndex() throws IOException {
+        Path path = dir.resolve("routes.index");
+        MappedRouteIndex.write(path, RouteSnapshotTest.createRoutes(), 0, 1000, 2000);
+        MappedRouteIndex index = MappedRouteIndex.open(path, -1, -1);
+
+        assertEquals(0, index.findRouteIndex(10, 12, 0, true));
+        assertEquals(-1, index.findRouteIndex(12, 10, 0, true));
+        assertEquals(0, index.findRouteIndex(12, 10, 0, false));
+        assertEquals(0, index.findRouteIndex(11, 12, 0, true));
+        assertEquals(-1, index.findRouteIndex(11, 12, 1, false));
+        assertEquals(1, index.findRouteIndex(20, 22, 0, true));
+        assertEquals(1, index.findRouteIndex(11, 11, 1, false));
+        assertEquals(-1, index.findRouteIndex(10, 30, 0, false));
+        assertEquals(-1, index.findRouteIndex(10, 99, 0, false));
+    }
+
+    @Test
+    public void changedSourceFileIsNotOpened() throws IOException {
+        Path path = dir.resolve("routes.index");
+        MappedRouteIndex.write(path, RouteSnapshotTest.createRoutes(), 0, 1000, 2000);
+
+        assertNull(MappedRouteIndex.open(path, 1001, 2000));
+        assertNull(MappedRouteIndex.open(path, 1000, 2001));
+    }
+
+    @Test
+    public void truncatedFileIsDetected() throws IOException {
+        Path path = dir.resolve("routes.index");
+        MappedRouteIndex.write(path, RouteSnapshotTest.createRoutes(), 0, 1000, 2000);
+        byte[] data = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(data, data.length - 4));
+
+        assertThrows(IOException.class, () -> MappedRouteIndex.open(path, -1, -1));
+        Files.write(path, Arrays.copyOf(data, 20));
+        assertThrows(IOException.class, () -> MappedRouteIndex.open(path, -1, -1));
+    }
+
+    @Test
+    public void wrongMagicIsDetected() throws IOException {
+        Path path = dir.resolve("routes.index");
+        MappedRouteIndex.write(path, RouteSnapshotTest.createRoutes(), 0, 1000, 2000);
+        byte[] data = Files.readAllBytes(path);
+        data[0] = 0;
+        Files.write(path, data);
+
+        assertThrows(IOException.class, () -> MappedRouteIndex.open(path, -1, -1));
+    }
+
+    @Test
+    public void corruptedCountIsDetected() throws IOException {
+        Path path = dir.resolve("routes.index");
+        MappedRouteIndex.write(path, RouteSnapshotTest.createRoutes(), 0, 1000, 2000);
+        byte[] data = Files.readAllBytes(path);
+        data[32]++;
+        Files.write(path, data);
+
+        assertThrows(IOException.class, () -> MappedRouteIndex.open(path, -1, -1));
+    }
+}
@@ -0,0 +1,108 @@
+package ru.fedbv.busroute.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link RouteDiff} comparison of parsed bus routes with fingerprints of loaded ones.
+ */
+public class RouteDiffTest {
+    @Test
+    public void findsAddedUpdatedAndDeletedRoutes() {
+        IntLongHashMap fingerprints = createFingerprints();
+        RouteDiff diff = new RouteDiff(fingerprints);
+        diff.add(1, new int[] {10, 11, 12, 99}, 3);
+        diff.add(2, new int[] {20, 21}, 2);
+        diff.add(4, new int[] {40, 41}, 2);
+
+        RouteChanges changes = diff.getChanges();
+        assertFalse(diff.isDuplicate());
+        assertEquals(1, diff.getUnchangedCount());
+        assertEquals(1, changes.getAddedCount());
+        assertEquals(1, changes.getUpdatedCount());
+        assertEquals(1, changes.getDeletedCount());
+        assertArrayEquals(new int[] {3}, changes.getDeletedRouteIds());
+        RouteStorage routes = changes.getRoutes();
+        assertArrayEquals(new int[] {2, 4}, Arrays.copyOf(routes.getRouteIds(), routes.size()));
+        assertArrayEquals(new int[] {20, 21, 40, 41}, Arrays.copyOf(routes.getStopIds(), routes.getTotalStopCount()));
+    }
+
+    @Test
+    public void unchangedFileHasNoChanges() {
+        RouteDiff diff = new RouteDiff(createFingerprints());
+        diff.add(3, new int[] {30, 31}, 2);
+        diff.add(1, new int[] {10, 11, 12}, 3);
+        diff.add(2, new int[] {20, 11, 21, 22}, 4);
+
+        assertTrue(diff.getChanges().isEmpty());
+        assertEquals(3, diff.getUnchangedCount());
+    }
+
+    @Test
+    public void stopOrderChangeIsUpdate() {
+        RouteDiff diff = new RouteDiff(createFingerprints());
+        diff.add(1, new int[] {12, 11, 10}, 3);
+
+        assertEquals(1, diff.getChanges().getUpdatedCount());
+    }
+
+    @Test
+    public void duplicateLoadedRouteIsDetected() {
+        RouteDiff diff = new RouteDiff(createFingerprints());
+        diff.add(1, new int[] {10, 11, 12}, 3);
+        diff.add(1, new int[] {10, 11, 12}, 3);
+
+        assertTrue(diff.isDuplicate());
+    }
+
+    @Test
+    public void duplicateAddedRouteIsDetected() {
+        RouteDiff diff = new RouteDiff(createFingerprints());
+        diff.add(5, new int[] {50, 51}, 2);
+        assertFalse(diff.isDuplicate());
+        diff.add(5, new int[] {52, 53}, 2);
+
+        assertTrue(diff.isDuplicate());
+    }
+
+    @Test
+    public void appliedChangesUpdateFingerprints() {
+        IntLongHashMap fingerprints = createFingerprints();
+        RouteDiff diff = new RouteDiff(fingerprints);
+        diff.add(1, new int[] {10, 11, 12}, 3);
+        diff.add(2, new int[] {20, 21}, 2);
+        diff.add(4, new int[] {40, 41}, 2);
+        diff.applyTo(diff.getChanges());
+
+        assertEquals(3, fingerprints.size());
+        assertFalse(fingerprints.containsKey(3));
+        assertEquals(RouteChanges.fingerprint(new int[] {20, 21}, 0, 2), fingerprints.get(2, 0));
+        assertEquals(RouteChanges.fingerprint(new int[] {40, 41}, 0, 2), fingerprints.get(4, 0));
+
+        RouteDiff next = new RouteDiff(fingerprints);
+        next.add(1, new int[] {10, 11, 12}, 3);
+        next.add(2, new int[] {20, 21}, 2);
+        next.add(4, new int[] {40, 41}, 2);
+        assertTrue(next.getChanges().isEmpty());
+    }
+
+    /**
+     * Create fingerprints of bus routes of {@link RouteSnapshotTest#createRoutes()}.
+     *
+     * @return stop fingerprints by route id
+     */
+    private static IntLongHashMap createFingerprints() {
+        RouteStorage routes = RouteSnapshotTest.createRoutes();
+        IntLongHashMap fingerprints = new IntLongHashMap(routes.size());
+        for (int index = 0; index < routes.size(); index++) {
+            fingerprints.put(routes.getRouteId(index), RouteChanges.fingerprint(routes.getStopIds(), routes.getOffset(index), routes.getStopCount(index)));
+        }
+        return fingerprints;
+    }
+}
@@ -0,0 +1,190 @@
+package ru.fedbv.busroute.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of {@link RouteSnapshot} file and stream round-trip and corruption detection.
+ */
+public class RouteSnapshotTest {
+    /**
+     * Temporary directory of snapshot files
+     */
+    private Path dir;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("route-snapshot-test");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void fileRoundTrip() throws IOException {
+        RouteStorage routes = createRoutes();
+        Path path = dir.resolve("routes.snapshot");
+        new RouteSnapshot(42, 1000, 2000, 3, routes).write(path);
+
+        RouteSnapshot snapshot = RouteSnapshot.read(path, 1000, 2000);
+        assertNotNull(snapshot);
+        assertEquals(42, snapshot.getDatasetVersion());
+        assertEquals(1000, snapshot.getSourceSize());
+        assertEquals(2000, snapshot.getSourceTime());
+        assertEquals(3, snapshot.getErrorCount());
+        assertRoutes(routes, snapshot.getRoutes());
+        assertEquals(Files.size(path), snapshot.getSize());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals("temporary file is left", 1, files.count());
+        }
+    }
+
+    @Test
+    public void streamRoundTrip() throws IOException {
+        RouteSnapshot written = new RouteSnapshot(7, 0, createRoutes());
+        byte[] data = write(written);
+        assertEquals(written.getSize(), data.length);
+
+        RouteSnapshot snapshot = RouteSnapshot.read(Channels.newChannel(new ByteArrayInputStream(data)), data.length, "stream");
+        assertEquals(7, snapshot.getDatasetVersion());
+        assertEquals(-1, snapshot.getSourceSize());
+        assertEquals(-1, snapshot.getSourceTime());
+        assertRoutes(createRoutes(), snapshot.getRoutes());
+    }
+
+    @Test
+    public void deletedRoutesAreNotWritten() throws IOException {
+        RouteStorage routes = createRoutes();
+        long[][] deleted = {new long[RouteStorage.DELETED_PAGE_LENGTH]};
+        deleted[0][0] = 1L << 1;
+        RouteStorage updated = new RouteStorage(routes.getRouteIds(), routes.getOffsets(), routes.getStopIds(), routes.size(), deleted);
+        Path path = dir.resolve("routes.snapshot");
+        new RouteSnapshot(1, 0, updated).write(path);
+
+        RouteStorage read = RouteSnapshot.read(path, -1, -1).getRoutes();
+        assertArrayEquals(new int[] {1, 3}, Arrays.copyOf(read.getRouteIds(), read.size()));
+        assertArrayEquals(new int[] {10, 11, 12, 30, 31}, Arrays.copyOf(read.getStopIds(), read.getTotalStopCount()));
+    }
+
+    @Test
+    public void changedSourceFileIsNotRead() throws IOException {
+        Path path = dir.resolve("routes.snapshot");
+        new RouteSnapshot(1, 1000, 2000, 0, createRoutes()).write(path);
+
+        assertNull(RouteSnapshot.read(path, 1001, 2000));
+        assertNull(RouteSnapshot.read(path, 1000, 2001));
+        assertNotNull(RouteSnapshot.read(path, -1, -1));
+    }
+
+    @Test
+    public void corruptedStopIdIsDetected() throws IOException {
+        Path path = dir.resolve("routes.snapshot");
+        new RouteSnapshot(1, 0, createRoutes()).write(path);
+        byte[] data = Files.readAllBytes(path);
+        data[data.length - 12] ^= 1;
+        Files.write(path, data);
+
+        assertThrows(IOException.class, () -> RouteSnapshot.read(path, -1, -1));
+    }
+
+    @Test
+    public void truncatedFileIsDetected() throws IOException {
+        Path path = dir.resolve("routes.snapshot");
+        new RouteSnapshot(1, 0, createRoutes()).write(path);
+        byte[] data = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(data, data.length - 4));
+
+        assertThrows(IOException.class, () -> RouteSnapshot.read(path, -1, -1));
+    }
+
+    @Test
+    public void wrongMagicIsDetected() throws IOException {
+        Path path = dir.resolve("routes.snapshot");
+        new RouteSnapshot(1, 0, createRoutes()).write(path);
+        byte[] data = Files.readAllBytes(path);
+        data[0] = 0;
+        Files.write(path, data);
+
+        assertThrows(IOException.class, () -> RouteSnapshot.read(path, -1, -1));
+    }
+
+    @Test
+    public void wrongStreamSizeIsDetected() throws IOException {
+        byte[] data = write(new RouteSnapshot(1, 0, createRoutes()));
+
+        assertThrows(IOException.class,
+                () -> RouteSnapshot.read(Channels.newChannel(new ByteArrayInputStream(data)), data.length + 4, "stream"));
+    }
+
+    /**
+     * Create storage of three bus routes.
+     *
+     * @return bus routes storage
+     */
+    static RouteStorage createRoutes() {
+        RouteStorageBuilder builder = new RouteStorageBuilder(4);
+        builder.add(1, new int[] {10, 11, 12}, 3);
+        builder.add(2, new int[] {20, 11, 21, 22}, 4);
+        builder.add(3, new int[] {30, 31}, 2);
+        return builder.build();
+    }
+
+    /**
+     * Check that storages have the same bus routes.
+     *
+     * @param expected
+     *        expected bus routes
+     *
+     * @param actual
+     *        actual bus routes
+     */
+    static void assertRoutes(RouteStorage expected, RouteStorage actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int index = 0; index < expected.size(); index++) {
+            assertEquals(expected.getRouteId(index), actual.getRouteId(index));
+            int offset = expected.getOffset(index);
+            int actualOffset = actual.getOffset(index);
+            assertArrayEquals(Arrays.copyOfRange(expected.getStopIds(), offset, offset + expected.getStopCount(index)),
+                    Arrays.copyOfRange(actual.getStopIds(), actualOffset, actualOffset + actual.getStopCount(index)));
+        }
+    }
+
+    /**
+     * Write snapshot into byte array.
+     *
+     * @param snapshot
+     *        snapshot to write
+     *
+     * @return snapshot bytes
+     *
+     * @throws IOException if the snapshot can not be written
+     */
+    private static byte[] write(RouteSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.write(Channels.newChannel(out));
+        return out.toByteArray();
+    }
+}
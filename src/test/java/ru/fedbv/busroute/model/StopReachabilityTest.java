@@ -0,0 +1,135 @@
+package ru.fedbv.busroute.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link StopReachability} direct and one transfer lookups.
+ */
+public class StopReachabilityTest {
+    @Test
+    public void unorderedLookups() {
+        StopReachability reachability = StopReachability.build(RouteSnapshotTest.createRoutes(), 5, false, Long.MAX_VALUE);
+
+        assertEquals(5, reachability.getDatasetVersion());
+        assertEquals(8, reachability.getStopCount());
+        assertTrue(reachability.isDirect(10, 12));
+        assertTrue(reachability.isDirect(12, 10));
+        assertTrue(reachability.isDirect(22, 11));
+        assertFalse(reachability.isDirect(10, 22));
+        assertFalse(reachability.isDirect(10, 30));
+        assertFalse(reachability.isDirect(10, 99));
+        assertArrayEquals(new int[] {11}, reachability.findTransferStopIds(10, 22, 10));
+        assertArrayEquals(new int[] {11}, reachability.findTransferStopIds(22, 10, 10));
+        assertArrayEquals(DataProvider.NO_ROUTES, reachability.findTransferStopIds(10, 30, 10));
+        assertArrayEquals(DataProvider.NO_ROUTES, reachability.findTransferStopIds(10, 99, 10));
+    }
+
+    @Test
+    public void orderedLookups() {
+        StopReachability reachability = StopReachability.build(RouteSnapshotTest.createRoutes(), 5, true, Long.MAX_VALUE);
+
+        assertTrue(reachability.isDirect(10, 12));
+        assertFalse(reachability.isDirect(12, 10));
+        assertTrue(reachability.isDirect(20, 11));
+        assertFalse(reachability.isDirect(11, 20));
+        assertArrayEquals(new int[] {11}, reachability.findTransferStopIds(20, 12, 10));
+        assertArrayEquals(new int[] {11}, reachability.findTransferStopIds(10, 22, 10));
+        assertArrayEquals(DataProvider.NO_ROUTES, reachability.findTransferStopIds(22, 10, 10));
+        assertArrayEquals(DataProvider.NO_ROUTES, reachability.findTransferStopIds(12, 20, 10));
+    }
+
+    @Test
+    public void transferStopsAreLimited() {
+        RouteStorageBuilder builder = new RouteStorageBuilder(4);
+        builder.add(1, new int[] {1, 10, 11, 12}, 4);
+        builder.add(2, new int[] {10, 11, 12, 2}, 4);
+        StopReachability reachability = StopReachability.build(builder.build(), 1, true, Long.MAX_VALUE);
+
+        assertArrayEquals(new int[] {10, 11, 12}, reachability.findTransferStopIds(1, 2, 10));
+        assertArrayEquals(new int[] {10, 11}, reachability.findTransferStopIds(1, 2, 2));
+        assertArrayEquals(DataProvider.NO_ROUTES, reachability.findTransferStopIds(1, 2, 0));
+    }
+
+    @Test
+    public void deletedRoutesAreNotIndexed() {
+        RouteStorage routes = RouteSnapshotTest.createRoutes();
+        long[][] deleted = {new long[RouteStorage.DELETED_PAGE_LENGTH]};
+        deleted[0][0] = 1L << 1;
+        RouteStorage updated = new RouteStorage(routes.getRouteIds(), routes.getOffsets(), routes.getStopIds(), routes.size(), deleted);
+        StopReachability reachability = StopReachability.build(updated, 1, false, Long.MAX_VALUE);
+
+        assertEquals(5, reachability.getStopCount());
+        assertFalse(reachability.isDirect(20, 22));
+        assertTrue(reachability.isDirect(30, 31));
+    }
+
+    @Test
+    public void buildWorkIsLimited() {
+        RouteStorage routes = RouteSnapshotTest.createRoutes();
+
+        assertNull(StopReachability.build(routes, 1, false, 28));
+        assertEquals(8, StopReachability.build(routes, 1, false, 29).getStopCount());
+    }
+
+    @Test
+    public void matchesRouteScan() {
+        Random random = new Random(1);
+        RouteStorageBuilder builder = new RouteStorageBuilder(200);
+        for (int routeId = 1; routeId <= 200; routeId++) {
+            int[] stopIds = new int[2 + random.nextInt(10)];
+            for (int i = 0; i < stopIds.length; i++) {
+                stopIds[i] = random.nextInt(100);
+            }
+            builder.add(routeId, stopIds, stopIds.length);
+        }
+        RouteStorage routes = builder.build();
+
+        for (boolean ordered : new boolean[] {false, true}) {
+            StopReachability reachability = StopReachability.build(routes, 1, ordered, Long.MAX_VALUE);
+            for (int depStopId = 0; depStopId < 100; depStopId++) {
+                for (int arrStopId = 0; arrStopId < 100; arrStopId++) {
+                    if (arrStopId == depStopId) continue;
+                    assertEquals(isDirect(routes, depStopId, arrStopId, ordered), reachability.isDirect(depStopId, arrStopId));
+                }
+            }
+        }
+    }
+
+    /**
+     * Check by scan of all bus routes if arrival stop is directly reachable from departure stop.
+     *
+     * @param routes
+     *        bus routes storage
+     *
+     * @param depStopId
+     *        departure stop id
+     *
+     * @param arrStopId
+     *        arrival stop id
+     *
+     * @param ordered
+     *        {@code true} if arrival stop should come after departure stop in the bus route
+     *
+     * @return {@code true} if some bus route goes from departure stop to arrival stop
+     */
+    private static boolean isDirect(RouteStorage routes, int depStopId, int arrStopId, boolean ordered) {
+        int[] stopIds = routes.getStopIds();
+        for (int index = 0; index < routes.size(); index++) {
+            for (int i = routes.getOffset(index), end = i + routes.getStopCount(index); i < end; i++) {
+                if (stopIds[i] != depStopId) continue;
+                for (int j = ordered ? i + 1 : routes.getOffset(index); j < end; j++) {
+                    if (stopIds[j] == arrStopId) return true;
+                }
+            }
+        }
+        return false;
+    }
+}